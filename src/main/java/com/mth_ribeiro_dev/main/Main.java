@@ -1,10 +1,65 @@
+import benchmark.CargaSimulada;
+import benchmark.SimulacaoCarga;
 import exception.ContaInativaException;
 import exception.ContaNaoEncontradaException;
+import exception.LimiteExcedidoException;
+import exception.RastreioExcecoes;
 import exception.SaldoInsuficienteException;
 import exception.TransferenciaException;
 import exception.ValorInvalidoException;
+import metricas.MetricasBanco;
+import metricas.TipoOperacao;
 import model.Conta;
+import model.Extrato;
+import model.Movimento;
+import model.ResultadoOperacao;
+import model.SituacaoConta;
+import model.TipoMovimento;
+import persistencia.FormatoContas;
+import persistencia.Journal;
+import persistencia.PoliticaSincronizacao;
+import repositorio.RepositorioCompacto;
+import repositorio.RepositorioMapeado;
+import servidor.ServidorBanco;
 import service.BancoService;
+import service.BancoServiceAsync;
+import service.BancoServiceParticionado;
+import service.CacheIdempotencia;
+import service.LimitesMovimentacao;
+import service.ModoLote;
+import service.Operacao;
+import service.PreviaTransferencia;
+import service.RelatorioFechamento;
+import service.ResultadoImportacao;
+import service.VarreduraDormencia;
+
+import java.lang.management.ManagementFactory;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+import javax.management.openmbean.TabularData;
 
 public class Main {
 
@@ -26,6 +81,25 @@ public class Main {
         testarTransferenciaContaInativa(banco);
         testarTransferenciaContaInexistente(banco);
         testarDepositoContaInativa(banco);
+        testarTransferenciasConcorrentes();
+        testarRecusasSemExcecao(banco);
+        testarRecuperacaoPeloJournal();
+        testarSnapshotComEscritasConcorrentes();
+        testarLotes(banco);
+        testarRepositorioCompacto();
+        testarExtrato(banco);
+        testarServidorHttp();
+        testarMotorParticionado();
+        testarIdempotencia();
+        testarMetricas();
+        testarRelatorioFechamento();
+        testarApiAssincrona();
+        testarDormencia();
+        testarLeiturasConsistentes();
+        testarRepositorioMapeado();
+        testarImportacaoExportacao();
+        testarLimitesMovimentacao();
+        testarSimulacaoCarga();
 
         System.out.println("=== FIM DOS TESTES ===");
     }
@@ -268,4 +342,1560 @@ public class Main {
             System.out.println("✗ FALHOU: " + e.getMessage() + "\n");
         }
     }
-}
\ No newline at end of file
+
+    private static void testarTransferenciasConcorrentes() {
+        System.out.println("TESTE 14: Transferências concorrentes preservam o total do banco");
+        try {
+            BancoService banco = new BancoService();
+            int numeroContas = 50;
+            int numeroThreads = 8;
+            int operacoesPorThread = 20_000;
+            for (int i = 0; i < numeroContas; i++) {
+                banco.criarConta("C" + i, "Titular " + i, 1000.00);
+            }
+            double totalAntes = numeroContas * 1000.00;
+
+            CountDownLatch largada = new CountDownLatch(1);
+            CountDownLatch fim = new CountDownLatch(numeroThreads);
+            AtomicInteger recusadas = new AtomicInteger();
+            for (int t = 0; t < numeroThreads; t++) {
+                long semente = t;
+                new Thread(() -> {
+                    Random random = new Random(semente);
+                    try {
+                        largada.await();
+                        for (int i = 0; i < operacoesPorThread; i++) {
+                            String origem = "C" + random.nextInt(numeroContas);
+                            String destino = "C" + random.nextInt(numeroContas);
+                            try {
+                                banco.transferir(origem, destino, 1 + random.nextInt(200));
+                            } catch (TransferenciaException e) {
+                                recusadas.incrementAndGet();
+                            }
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    } finally {
+                        fim.countDown();
+                    }
+                }).start();
+            }
+            largada.countDown();
+            fim.await();
+
+            double totalDepois = 0;
+            for (int i = 0; i < numeroContas; i++) {
+                double saldo = banco.consultarSaldo("C" + i);
+                assert saldo >= 0 : "Saldo negativo na conta C" + i;
+                totalDepois += saldo;
+            }
+
+            assert totalDepois == totalAntes : "Total do banco mudou";
+
+            System.out.println("✓ Threads: " + numeroThreads + " x " + operacoesPorThread + " transferências");
+            System.out.println("✓ Recusadas por saldo: " + recusadas.get());
+            System.out.println("✓ Total antes: R$" + totalAntes);
+            System.out.println("✓ Total depois: R$" + totalDepois);
+            System.out.println("✓ PASSOU\n");
+        } catch (Exception e) {
+            System.out.println("✗ FALHOU: " + e.getMessage() + "\n");
+        }
+    }
+
+    private static void testarRecusasSemExcecao(BancoService banco) {
+        System.out.println("TESTE 15: Recusas pela API de resultado e exceções sem stack trace");
+        try {
+            Conta conta = banco.criarConta("017", "Xavier Pinto", 100.00);
+            banco.criarConta("018", "Yara Nunes", 0.00);
+
+            assert banco.tentarSacar("017", 500.00) == ResultadoOperacao.SALDO_INSUFICIENTE : "Saque deveria ser recusado";
+            assert banco.tentarDepositar("017", -1.00) == ResultadoOperacao.VALOR_INVALIDO : "Depósito deveria ser recusado";
+            assert banco.tentarTransferir("017", "999", 10.00) == ResultadoOperacao.CONTA_NAO_ENCONTRADA : "Destino não existe";
+            assert banco.tentarTransferir("017", "018", 40.00).isSucesso() : "Transferência deveria passar";
+            assert conta.getSaldo() == 60.00 : "Saldo incorreto";
+
+            RastreioExcecoes.desativar();
+            try {
+                banco.transferir("017", "018", 500.00);
+                System.out.println("✗ FALHOU: Deveria ter lançado TransferenciaException\n");
+                return;
+            } catch (TransferenciaException e) {
+                assert e.getStackTrace().length == 0 : "Stack trace deveria estar vazio";
+                assert e.getCause() instanceof SaldoInsuficienteException : "Causa original perdida";
+                System.out.println("✓ Exceção sem stack trace: " + e.getMessage());
+                System.out.println("✓ Causa preservada: " + e.getCause().getMessage());
+            } finally {
+                RastreioExcecoes.ativar();
+            }
+
+            System.out.println("✓ Recusas devolvidas como ResultadoOperacao, sem exceção");
+            System.out.println("✓ PASSOU\n");
+        } catch (Exception e) {
+            System.out.println("✗ FALHOU: " + e.getMessage() + "\n");
+        }
+    }
+
+    private static void testarRecuperacaoPeloJournal() {
+        System.out.println("TESTE 16: Contas recuperadas do journal após reinício");
+        Path arquivo = null;
+        try {
+            arquivo = Files.createTempFile("banco", ".journal");
+            try (Journal journal = Journal.abrir(arquivo, PoliticaSincronizacao.A_CADA_OPERACAO, 0)) {
+                BancoService banco = new BancoService(journal);
+                banco.criarConta("101", "Zélia Prado", 1000.00);
+                banco.criarConta("102", "Otávio Reis", 0.00);
+                banco.depositar("101", 250.50);
+                banco.sacar("101", 50.25);
+                banco.transferir("101", "102", 300.00);
+                banco.inativarConta("102");
+            }
+
+            try (Journal journal = Journal.abrir(arquivo, PoliticaSincronizacao.A_CADA_OPERACAO, 0)) {
+                BancoService recuperado = new BancoService(journal);
+
+                assert recuperado.consultarSaldo("101") == 900.25 : "Saldo 101 incorreto";
+                assert recuperado.consultarSaldo("102") == 300.00 : "Saldo 102 incorreto";
+                assert !recuperado.buscarConta("102").isAtiva() : "Conta 102 deveria estar inativa";
+                assert recuperado.buscarConta("101").getTitular().equals("Zélia Prado") : "Titular incorreto";
+
+                System.out.println("✓ Registros no journal: " + journal.getUltimaSequencia());
+                System.out.println("✓ Saldo 101 recuperado: R$" + recuperado.consultarSaldo("101"));
+                System.out.println("✓ Saldo 102 recuperado: R$" + recuperado.consultarSaldo("102"));
+            }
+
+            // Saques e transferências que dependem de créditos de outras threads: qualquer
+            // prefixo do journal (o que sobra de uma queda) tem de ser recuperável.
+            Files.write(arquivo, new byte[0]);
+            try (Journal journal = Journal.abrir(arquivo, PoliticaSincronizacao.INTERVALO, 1)) {
+                BancoService banco = new BancoService(journal);
+                for (int c = 0; c < 4; c++) {
+                    banco.criarConta("J" + c, "Titular " + c, 0.00);
+                }
+                Thread[] threads = new Thread[4];
+                for (int t = 0; t < threads.length; t++) {
+                    String conta = "J" + t;
+                    String proxima = "J" + (t + 1) % threads.length;
+                    threads[t] = new Thread(() -> {
+                        for (int i = 0; i < 2_000; i++) {
+                            if (i % 4 == 0) {
+                                banco.depositar(conta, 1.00);
+                            }
+                            banco.tentarTransferir(conta, proxima, 1.00);
+                            banco.tentarSacar(conta, 0.50);
+                        }
+                    });
+                    threads[t].start();
+                }
+                for (Thread thread : threads) {
+                    thread.join();
+                }
+            }
+            byte[] completo = Files.readAllBytes(arquivo);
+            Path prefixo = Files.createTempFile("banco", ".prefixo");
+            try {
+                for (int corte = 1; corte <= 40; corte++) {
+                    Files.write(prefixo, Arrays.copyOf(completo, (int) ((long) completo.length * corte / 40)));
+                    try (Journal journal = Journal.abrir(prefixo, PoliticaSincronizacao.A_CADA_OPERACAO, 0)) {
+                        new BancoService(journal);
+                    }
+                }
+            } finally {
+                prefixo.toFile().delete();
+            }
+            System.out.println("✓ 40 prefixos de um journal com 4 threads dependentes recuperados sem saldo negativo");
+
+            Journal fechado = Journal.abrir(arquivo, PoliticaSincronizacao.A_CADA_OPERACAO, 0);
+            BancoService parado;
+            try {
+                parado = new BancoService(fechado);
+            } finally {
+                fechado.close();
+            }
+            double antes = parado.consultarSaldo("J0");
+            try {
+                parado.depositar("J0", 10.00);
+                assert false : "Depósito aceito com o journal fechado";
+            } catch (IllegalStateException e) {
+                assert parado.consultarSaldo("J0") == antes : "Depósito aplicado sem chegar ao journal";
+            }
+            System.out.println("✓ Journal fechado: depósito recusado antes de alterar o saldo");
+            System.out.println("✓ PASSOU\n");
+        } catch (Exception e) {
+            System.out.println("✗ FALHOU: " + e.getMessage() + "\n");
+        } finally {
+            if (arquivo != null) {
+                arquivo.toFile().delete();
+            }
+        }
+    }
+
+    private static void testarSnapshotComEscritasConcorrentes() {
+        System.out.println("TESTE 17: Snapshot durante escritas concorrentes + reprodução da cauda do journal");
+        Path diretorio = null;
+        try {
+            diretorio = Files.createTempDirectory("banco-snapshot");
+            Path arquivoJournal = diretorio.resolve("banco.journal");
+            int numeroContas = 200;
+            double[] saldosEsperados = new double[numeroContas];
+
+            try (Journal journal = Journal.abrir(arquivoJournal, PoliticaSincronizacao.SISTEMA_OPERACIONAL, 5)) {
+                BancoService banco = new BancoService(journal, diretorio);
+                for (int i = 0; i < numeroContas; i++) {
+                    banco.criarConta("S" + i, "Titular " + i, 100.00);
+                }
+                CountDownLatch fim = new CountDownLatch(4);
+                for (int t = 0; t < 4; t++) {
+                    long semente = t;
+                    new Thread(() -> {
+                        Random random = new Random(semente);
+                        for (int i = 0; i < 20_000; i++) {
+                            String origem = "S" + random.nextInt(numeroContas);
+                            String destino = "S" + random.nextInt(numeroContas);
+                            if (random.nextInt(10) == 0) {
+                                banco.depositar(origem, 5.00);
+                            } else {
+                                banco.tentarTransferir(origem, destino, 1 + random.nextInt(50));
+                            }
+                        }
+                        fim.countDown();
+                    }).start();
+                }
+                banco.gerarSnapshot();
+                banco.gerarSnapshot();
+                fim.await();
+                for (int i = 0; i < numeroContas; i++) {
+                    saldosEsperados[i] = banco.consultarSaldo("S" + i);
+                }
+            }
+
+            try (Journal journal = Journal.abrir(arquivoJournal, PoliticaSincronizacao.SISTEMA_OPERACIONAL, 5)) {
+                BancoService recuperado = new BancoService(journal, diretorio);
+                for (int i = 0; i < numeroContas; i++) {
+                    assert recuperado.consultarSaldo("S" + i) == saldosEsperados[i] : "Saldo divergente na conta S" + i;
+                }
+            }
+
+            System.out.println("✓ Snapshots gerados sem parar as escritas");
+            System.out.println("✓ " + numeroContas + " contas recuperadas com os mesmos saldos");
+            System.out.println("✓ PASSOU\n");
+        } catch (Exception e) {
+            System.out.println("✗ FALHOU: " + e.getMessage() + "\n");
+        } finally {
+            if (diretorio != null) {
+                for (java.io.File arquivo : diretorio.toFile().listFiles()) {
+                    arquivo.delete();
+                }
+                diretorio.toFile().delete();
+            }
+        }
+    }
+
+    private static void testarLotes(BancoService banco) {
+        System.out.println("TESTE 18: Lotes tudo-ou-nada e melhor esforço");
+        try {
+            banco.criarConta("201", "Empresa Alfa", 1000.00);
+            banco.criarConta("202", "Bruno Dias", 0.00);
+            banco.criarConta("203", "Carla Freitas", 0.00);
+
+            List<Operacao> folhaGrande = List.of(
+                    Operacao.transferencia("201", "202", 600.00),
+                    Operacao.transferencia("201", "203", 600.00));
+            ResultadoOperacao[] recusado = banco.executarLote(folhaGrande, ModoLote.TUDO_OU_NADA);
+
+            assert recusado[0] == ResultadoOperacao.SALDO_INSUFICIENTE : "Item 0 deveria indicar saldo insuficiente";
+            assert recusado[1] == ResultadoOperacao.SALDO_INSUFICIENTE : "Item 1 deveria indicar saldo insuficiente";
+            assert banco.consultarSaldo("201") == 1000.00 : "Nada deveria ter sido aplicado";
+
+            ResultadoOperacao[] parcial = banco.executarLote(folhaGrande, ModoLote.MELHOR_ESFORCO);
+
+            assert parcial[0].isSucesso() : "Primeiro item deveria passar";
+            assert parcial[1] == ResultadoOperacao.SALDO_INSUFICIENTE : "Segundo item deveria ser recusado";
+            assert banco.consultarSaldo("202") == 600.00 : "Saldo 202 incorreto";
+
+            ResultadoOperacao[] comInvalido = banco.executarLote(List.of(
+                    Operacao.deposito("201", 50.00),
+                    Operacao.deposito("999", 50.00)), ModoLote.TUDO_OU_NADA);
+
+            assert comInvalido[0] == ResultadoOperacao.LOTE_CANCELADO : "Item válido deveria ser cancelado";
+            assert comInvalido[1] == ResultadoOperacao.CONTA_NAO_ENCONTRADA : "Conta inexistente";
+
+            System.out.println("✓ Tudo-ou-nada recusado sem alterar saldos: " + recusado[0]);
+            System.out.println("✓ Melhor esforço aplicou 1 de 2 itens: " + parcial[0] + ", " + parcial[1]);
+            System.out.println("✓ Item inválido cancela o lote: " + comInvalido[0] + ", " + comInvalido[1]);
+
+            // A ordem dos itens conta, não só o efeito líquido.
+            banco.criarConta("204", "Davi Gomes", 0.00);
+            List<Operacao> saqueAntes = List.of(Operacao.saque("204", 100.00), Operacao.deposito("204", 100.00));
+            ResultadoOperacao[] foraDeOrdem = banco.executarLote(saqueAntes, ModoLote.TUDO_OU_NADA);
+            assert foraDeOrdem[0] == ResultadoOperacao.SALDO_INSUFICIENTE : "Saque antes do depósito: " + foraDeOrdem[0];
+            assert foraDeOrdem[1] == ResultadoOperacao.LOTE_CANCELADO : "Depósito deveria ser cancelado";
+            assert banco.consultarSaldo("204") == 0.00 : "Nada deveria ter sido aplicado";
+            ResultadoOperacao[] naOrdem = banco.executarLote(
+                    List.of(Operacao.deposito("204", 100.00), Operacao.saque("204", 100.00)), ModoLote.TUDO_OU_NADA);
+            assert naOrdem[0].isSucesso() && naOrdem[1].isSucesso() : "Depósito antes do saque deveria passar";
+            assert banco.consultarSaldo("204") == 0.00 : "Saldo 204 incorreto";
+            try (BancoServiceParticionado particionado = new BancoServiceParticionado(2)) {
+                particionado.criarConta("204", "Davi Gomes", 0.00);
+                assert particionado.executarLote(saqueAntes, ModoLote.TUDO_OU_NADA)[0]
+                        == ResultadoOperacao.SALDO_INSUFICIENTE : "Motor particionado aceitou o saque antes do depósito";
+                assert particionado.getCentavosEmTransito() == 0 : "Reserva não devolvida";
+            }
+            System.out.println("✓ [sacar 100, depositar 100] numa conta vazia recusado; na ordem inversa, aceito");
+
+            // O último crédito passaria do saldo máximo: nada é aplicado, nem os itens anteriores.
+            double quaseNoMaximo = (Conta.SALDO_MAXIMO_CENTAVOS - 100) / 100.0;
+            List<Operacao> estouro = List.of(
+                    Operacao.saque("205", 10.00),
+                    Operacao.deposito("206", 5.00),
+                    Operacao.transferencia("205", "207", 2.00));
+            BancoService sequencial = new BancoService();
+            try (BancoServiceParticionado particionado = new BancoServiceParticionado(2)) {
+                for (BancoService motor : List.of(sequencial, particionado)) {
+                    motor.criarConta("205", "Elisa Torres", 100.00);
+                    motor.criarConta("206", "Fábio Nunes", 0.00);
+                    motor.criarConta("207", "Fundo Ômega", quaseNoMaximo);
+                    ResultadoOperacao[] recusadoNoMaximo = motor.executarLote(estouro, ModoLote.TUDO_OU_NADA);
+                    assert recusadoNoMaximo[2] == ResultadoOperacao.VALOR_INVALIDO : "Crédito além do máximo: " + recusadoNoMaximo[2];
+                    assert recusadoNoMaximo[0] == ResultadoOperacao.LOTE_CANCELADO
+                            && recusadoNoMaximo[1] == ResultadoOperacao.LOTE_CANCELADO : "Itens anteriores deveriam ser cancelados";
+                    assert motor.consultarSaldo("205") == 100.00 && motor.consultarSaldo("206") == 0.00
+                            && motor.consultarSaldo("207") == quaseNoMaximo : "Lote recusado deixou saldo alterado";
+                }
+                assert particionado.getCentavosEmTransito() == 0 : "Reserva não devolvida";
+            }
+            System.out.println("✓ Lote cujo último crédito passa do saldo máximo recusado sem alterar saldos");
+            System.out.println("✓ PASSOU\n");
+        } catch (Exception e) {
+            System.out.println("✗ FALHOU: " + e.getMessage() + "\n");
+        }
+    }
+
+    private static void testarRepositorioCompacto() {
+        System.out.println("TESTE 19: Repositório compacto com snapshot e recuperação");
+        Path diretorio = null;
+        try {
+            BancoService banco = new BancoService(new RepositorioCompacto());
+            Conta conta = banco.criarConta("001", "Paula Nogueira", 100.00);
+            banco.criarConta("1", "Paula Nogueira", 0.00);
+            banco.depositar("001", 50.00);
+            banco.transferir("001", "1", 30.00);
+
+            assert conta.getSaldo() == 120.00 : "A conta devolvida deveria refletir as operações";
+            assert banco.consultarSaldo("1") == 30.00 : "\"001\" e \"1\" deveriam ser contas diferentes";
+
+            ResultadoOperacao[] lote = banco.executarLote(List.of(
+                    Operacao.saque("001", 70.00),
+                    Operacao.saque("001", 70.00)), ModoLote.TUDO_OU_NADA);
+            assert lote[0] == ResultadoOperacao.SALDO_INSUFICIENTE : "Saques somados excedem o saldo";
+            assert banco.consultarSaldo("001") == 120.00 : "Nada deveria ter sido aplicado";
+
+            banco.inativarConta("1");
+            assert banco.tentarSacar("1", 1.00) == ResultadoOperacao.CONTA_INATIVA : "Conta 1 deveria estar inativa";
+            assert banco.buscarConta("1").getDataInativacao() != null : "Data de inativação perdida";
+
+            boolean recusado = false;
+            try {
+                banco.criarConta("ABC", "Sem Número", 0.00);
+            } catch (IllegalArgumentException e) {
+                recusado = true;
+            }
+            assert recusado : "Número não numérico deveria ser recusado";
+            try {
+                banco.criarConta("001", "Outro Titular", 0.00);
+                throw new AssertionError("Número repetido deveria ser recusado");
+            } catch (IllegalArgumentException e) {
+                assert conta.getSaldo() == 120.00 && conta.getExtrato().getQuantidade() == 2
+                        && banco.buscarConta("001").getTitular().equals("Paula Nogueira") : "Criação repetida alterou a conta existente";
+            }
+            BancoService emMapa = new BancoService();
+            Conta original = emMapa.criarConta("001", "Paula Nogueira", 10.00);
+            try {
+                emMapa.criarConta("001", "Outro Titular", 0.00);
+                throw new AssertionError("Número repetido deveria ser recusado também no mapa");
+            } catch (IllegalArgumentException e) {
+                assert emMapa.buscarConta("001") == original : "Criação repetida substituiu a conta no mapa";
+            }
+
+            diretorio = Files.createTempDirectory("banco-compacto");
+            Path arquivoJournal = diretorio.resolve("banco.journal");
+            int numeroContas = 100;
+            double[] saldosEsperados = new double[numeroContas];
+            try (Journal journal = Journal.abrir(arquivoJournal, PoliticaSincronizacao.SISTEMA_OPERACIONAL, 5)) {
+                BancoService duravel = new BancoService(journal, diretorio, new RepositorioCompacto());
+                for (int i = 0; i < numeroContas; i++) {
+                    duravel.criarConta(String.format("%04d", i), "Titular " + (i % 10), 100.00);
+                }
+                boolean recusadoNoJournal = false;
+                try {
+                    duravel.criarConta("ABC", "Sem Número", 0.00);
+                } catch (IllegalArgumentException e) {
+                    recusadoNoJournal = true;
+                }
+                assert recusadoNoJournal : "Número não numérico deveria ser recusado com journal";
+                Random random = new Random(19);
+                for (int i = 0; i < 5_000; i++) {
+                    if (i == 2_500) {
+                        duravel.gerarSnapshot();
+                    }
+                    duravel.tentarTransferir(String.format("%04d", random.nextInt(numeroContas)),
+                            String.format("%04d", random.nextInt(numeroContas)), 1 + random.nextInt(50));
+                }
+                duravel.inativarConta("0007");
+                for (int i = 0; i < numeroContas; i++) {
+                    saldosEsperados[i] = duravel.consultarSaldo(String.format("%04d", i));
+                }
+            }
+            try (Journal journal = Journal.abrir(arquivoJournal, PoliticaSincronizacao.SISTEMA_OPERACIONAL, 5)) {
+                BancoService recuperado = new BancoService(journal, diretorio, new RepositorioCompacto());
+                for (int i = 0; i < numeroContas; i++) {
+                    String numero = String.format("%04d", i);
+                    assert recuperado.consultarSaldo(numero) == saldosEsperados[i] : "Saldo divergente na conta " + numero;
+                }
+                assert !recuperado.buscarConta("0007").isAtiva() : "Conta 0007 deveria estar inativa";
+                boolean ausente = false;
+                try {
+                    recuperado.buscarConta("ABC");
+                } catch (ContaNaoEncontradaException e) {
+                    ausente = true;
+                }
+                assert ausente : "Criação recusada não deveria ir para o journal";
+            }
+            try (Journal journal = Journal.abrir(arquivoJournal, PoliticaSincronizacao.SISTEMA_OPERACIONAL, 5)) {
+                BancoService soJournal = new BancoService(journal, null, new RepositorioCompacto());
+                assert soJournal.consultarSaldo("0000") == saldosEsperados[0] : "Replay do journal inteiro falhou";
+            }
+
+            System.out.println("✓ Contas vivas sobre vetores primitivos, \"001\" distinta de \"1\"");
+            System.out.println("✓ Número não numérico recusado, sem registro no journal");
+            System.out.println("✓ " + numeroContas + " contas recuperadas de snapshot + journal");
+            System.out.println("✓ PASSOU\n");
+        } catch (Exception e) {
+            System.out.println("✗ FALHOU: " + e.getMessage() + "\n");
+        } finally {
+            if (diretorio != null) {
+                for (java.io.File arquivo : diretorio.toFile().listFiles()) {
+                    arquivo.delete();
+                }
+                diretorio.toFile().delete();
+            }
+        }
+    }
+
+    private static void testarExtrato(BancoService banco) {
+        System.out.println("TESTE 20: Extrato por período durante depósitos concorrentes");
+        try {
+            banco.criarConta("301", "Helena Castro", 500.00);
+            banco.criarConta("302", "Igor Moura", 0.00);
+            banco.depositar("301", 100.00);
+            banco.sacar("301", 40.00);
+            banco.transferir("301", "302", 60.00);
+
+            LocalDate hoje = LocalDate.now();
+            List<Movimento> movimentos = banco.extrato("301", hoje, hoje).collect(Collectors.toList());
+            assert movimentos.size() == 3 : "Deveria haver 3 movimentos, há " + movimentos.size();
+            assert movimentos.get(0).getTipo() == TipoMovimento.DEPOSITO : "Primeiro movimento deveria ser o depósito";
+            assert movimentos.get(2).getTipo() == TipoMovimento.TRANSFERENCIA_ENVIADA : "Último deveria ser a transferência";
+            assert movimentos.get(2).getContraparte().equals("302") : "Contraparte incorreta";
+            assert banco.extrato("302", hoje, hoje).findFirst().get().getTipo() == TipoMovimento.TRANSFERENCIA_RECEBIDA
+                    : "Destino deveria ver a transferência recebida";
+            assert banco.extrato("301", hoje.minusDays(2), hoje.minusDays(1)).count() == 0 : "Período anterior deveria estar vazio";
+
+            int threads = 4;
+            int depositosPorThread = 5_000;
+            AtomicBoolean depositando = new AtomicBoolean(true);
+            AtomicInteger consultas = new AtomicInteger();
+            Thread leitor = new Thread(() -> {
+                while (depositando.get()) {
+                    banco.extrato("302", hoje, hoje).mapToLong(Movimento::getValorCentavos).sum();
+                    consultas.incrementAndGet();
+                }
+            });
+            leitor.start();
+            CountDownLatch fim = new CountDownLatch(threads);
+            for (int t = 0; t < threads; t++) {
+                new Thread(() -> {
+                    for (int i = 0; i < depositosPorThread; i++) {
+                        banco.depositar("302", 1.00);
+                    }
+                    fim.countDown();
+                }).start();
+            }
+            fim.await();
+            depositando.set(false);
+            leitor.join();
+
+            long total = banco.extrato("302", hoje, hoje).count();
+            assert total == 1 + threads * depositosPorThread : "Movimentos perdidos: " + total;
+
+            int retencao = 8192;
+            Extrato completo = new Extrato();
+            Extrato limitado;
+            Extrato.limitarRetencao(retencao);
+            try {
+                limitado = new Extrato();
+            } finally {
+                Extrato.reterTudo();
+            }
+            int registrados = retencao * 2 + 500;
+            for (int i = 0; i < registrados; i++) {
+                completo.registrar(i, TipoMovimento.DEPOSITO, i + 1, null);
+                limitado.registrar(i, TipoMovimento.DEPOSITO, i + 1, null);
+            }
+            assert completo.getDescartados() == 0 && completo.movimentos(0, Long.MAX_VALUE).count() == registrados
+                    : "Sem retenção configurada, nada deveria ser descartado";
+            List<Movimento> mantidos = limitado.movimentos(0, Long.MAX_VALUE).collect(Collectors.toList());
+            assert limitado.getQuantidade() == registrados : "Quantidade deveria contar os descartados";
+            assert mantidos.size() >= retencao && mantidos.size() <= retencao + 1024
+                    : "Retenção fora do limite: " + mantidos.size();
+            assert mantidos.size() + limitado.getDescartados() == registrados : "Descartados não batem";
+            assert mantidos.get(mantidos.size() - 1).getValorCentavos() == registrados : "O mais recente deveria ficar";
+            assert mantidos.get(0).getValorCentavos() == limitado.getDescartados() + 1 : "Os mantidos deveriam ser os mais recentes";
+
+            System.out.println("✓ Extrato de 301: " + movimentos.size() + " movimentos");
+            System.out.println("✓ " + total + " movimentos em 302 com " + consultas.get() + " consultas simultâneas");
+            System.out.println("✓ Sem limite por padrão; com retenção de " + retencao + ": "
+                    + mantidos.size() + " de " + registrados + " movimentos mantidos");
+            System.out.println("✓ PASSOU\n");
+        } catch (Exception e) {
+            System.out.println("✗ FALHOU: " + e.getMessage() + "\n");
+        }
+    }
+
+    private static void testarServidorHttp() {
+        System.out.println("TESTE 21: Servidor HTTP com admissão e tempo limite");
+        try (ServidorBanco servidor = new ServidorBanco(new BancoService(), 0, 100, 5_000)) {
+            servidor.iniciar();
+            String base = "http://127.0.0.1:" + servidor.getPorta();
+            HttpClient cliente = HttpClient.newHttpClient();
+
+            HttpResponse<String> criacao = enviar(cliente, "POST", base + "/contas?numero=401&titular=Joana%20Reis&saldo=100.00");
+            HttpResponse<String> deposito = enviar(cliente, "POST", base + "/depositos?conta=401&valor=50.00");
+            HttpResponse<String> saque = enviar(cliente, "POST", base + "/saques?conta=401&valor=500.00");
+            HttpResponse<String> inexistente = enviar(cliente, "POST", base + "/depositos?conta=999&valor=1.00");
+            HttpResponse<String> saldo = enviar(cliente, "GET", base + "/saldo?conta=401");
+            for (String invalido : new String[]{"NaN", "Infinity", "-Infinity", "1e300", "1e15"}) {
+                HttpResponse<String> recusado = enviar(cliente, "POST", base + "/depositos?conta=401&valor=" + invalido);
+                assert recusado.statusCode() == 400 : "Valor " + invalido + " deveria responder 400, não " + recusado.statusCode();
+            }
+            HttpResponse<String> criacaoInvalida = enviar(cliente, "POST", base + "/contas?numero=402&titular=X&saldo=NaN");
+            assert criacaoInvalida.statusCode() == 400 : "Saldo inicial NaN deveria responder 400";
+
+            assert criacao.statusCode() == 201 : "Criação deveria responder 201";
+            assert deposito.statusCode() == 200 : "Depósito deveria responder 200";
+            assert saque.statusCode() == 409 && saque.body().trim().equals("SALDO_INSUFICIENTE") : "Saque deveria ser recusado";
+            assert inexistente.statusCode() == 404 : "Conta inexistente deveria responder 404";
+            assert saldo.body().trim().equals("150.00") : "Saldo incorreto: " + saldo.body();
+            assert enviar(cliente, "GET", base + "/saldo?conta=401").body().trim().equals("150.00") : "Valor inválido alterou o saldo";
+            assert servidor.getEmAndamento() == 0 : "Nenhuma operação deveria continuar em andamento";
+
+            System.out.println("✓ Threads virtuais: " + servidor.isThreadsVirtuais());
+            System.out.println("✓ Saldo pela API: R$" + saldo.body().trim());
+            System.out.println("✓ Recusa como 409 " + saque.body().trim());
+            System.out.println("✓ NaN, Infinity e valores acima do saldo máximo recusados com 400");
+            System.out.println("✓ PASSOU\n");
+        } catch (Exception e) {
+            System.out.println("✗ FALHOU: " + e.getMessage() + "\n");
+        }
+    }
+
+    private static void testarMotorParticionado() {
+        System.out.println("TESTE 22: Motor particionado preserva o total com transferências entre partições");
+        try (BancoServiceParticionado banco = new BancoServiceParticionado(4)) {
+            int numeroContas = 40;
+            int numeroThreads = 8;
+            int operacoesPorThread = 10_000;
+            for (int i = 0; i < numeroContas; i++) {
+                banco.criarConta("P" + i, "Titular " + i, 1000.00);
+            }
+            double totalAntes = numeroContas * 1000.00;
+
+            try {
+                banco.sacar("P0", 5000.00);
+                throw new AssertionError("Deveria ter lançado SaldoInsuficienteException");
+            } catch (SaldoInsuficienteException e) {
+                assert e.getMessage().contains("P0") : "Mensagem sem a conta";
+            }
+            ResultadoOperacao[] recusado = banco.executarLote(List.of(
+                    Operacao.transferencia("P1", "P2", 600.00),
+                    Operacao.transferencia("P3", "P1", 100.00),
+                    Operacao.saque("P1", 600.00)), ModoLote.TUDO_OU_NADA);
+            assert recusado[2] == ResultadoOperacao.SALDO_INSUFICIENTE : "Saque do lote deveria ser recusado";
+            assert banco.consultarSaldo("P1") == 1000.00 && banco.consultarSaldo("P3") == 1000.00 : "Lote recusado alterou saldos";
+            for (boolean importar : new boolean[]{true, false}) {
+                try {
+                    if (importar) {
+                        banco.importarContas(Path.of("contas.csv"), FormatoContas.CSV);
+                    } else {
+                        banco.exportarContas(Path.of("contas.csv"), FormatoContas.CSV);
+                    }
+                    throw new AssertionError("Importação/exportação deveria exigir o BancoService comum");
+                } catch (UnsupportedOperationException e) {
+                    // esperado: fora das partições não há escritor único nem leitura de um só instante
+                }
+            }
+
+            CountDownLatch largada = new CountDownLatch(1);
+            CountDownLatch fim = new CountDownLatch(numeroThreads);
+            AtomicInteger recusadas = new AtomicInteger();
+            for (int t = 0; t < numeroThreads; t++) {
+                long semente = t;
+                new Thread(() -> {
+                    Random random = new Random(semente);
+                    try {
+                        largada.await();
+                        for (int i = 0; i < operacoesPorThread; i++) {
+                            String origem = "P" + random.nextInt(numeroContas);
+                            String destino = "P" + random.nextInt(numeroContas);
+                            if (banco.tentarTransferir(origem, destino, 1 + random.nextInt(200)) != ResultadoOperacao.SUCESSO) {
+                                recusadas.incrementAndGet();
+                            }
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    } finally {
+                        fim.countDown();
+                    }
+                }).start();
+            }
+            largada.countDown();
+            fim.await();
+
+            double totalDepois = 0;
+            for (int i = 0; i < numeroContas; i++) {
+                double saldo = banco.consultarSaldo("P" + i);
+                assert saldo >= 0 : "Saldo negativo na conta P" + i;
+                totalDepois += saldo;
+            }
+            assert totalDepois == totalAntes : "Total do banco mudou";
+            assert banco.getCentavosEmTransito() == 0 : "Ficou dinheiro em trânsito";
+
+            BancoServiceParticionado fechado = new BancoServiceParticionado(2);
+            fechado.criarConta("F0", "Fechado", 1000.00);
+            fechado.criarConta("F1", "Fechado", 1000.00);
+            CountDownLatch pararam = new CountDownLatch(4);
+            for (int t = 0; t < 4; t++) {
+                String origem = "F" + (t % 2);
+                String destino = "F" + ((t + 1) % 2);
+                Thread cliente = new Thread(() -> {
+                    try {
+                        while (true) {
+                            fechado.depositar(origem, 1.00);
+                            fechado.tentarTransferir(origem, destino, 1.00);
+                        }
+                    } catch (IllegalStateException e) {
+                        pararam.countDown();
+                    }
+                });
+                cliente.setDaemon(true);
+                cliente.start();
+            }
+            Thread.sleep(20);
+            fechado.close();
+            assert pararam.await(10, TimeUnit.SECONDS) : "Operações ficaram presas depois do close()";
+            try {
+                fechado.depositar("F0", 1.00);
+                throw new AssertionError("Depósito depois do close() deveria falhar");
+            } catch (IllegalStateException e) {
+                assert e.getMessage().contains("encerrada") : "Mensagem inesperada: " + e.getMessage();
+            }
+
+            System.out.println("✓ Partições: " + banco.getParticoes());
+            System.out.println("✓ Threads: " + numeroThreads + " x " + operacoesPorThread + " transferências, recusadas: " + recusadas.get());
+            System.out.println("✓ Total antes: R$" + totalAntes + ", depois: R$" + totalDepois);
+            System.out.println("✓ Depois do close(): operações falham com IllegalStateException, nenhuma fica presa");
+            System.out.println("✓ PASSOU\n");
+        } catch (Exception e) {
+            System.out.println("✗ FALHOU: " + e.getMessage() + "\n");
+        }
+    }
+
+    private static void testarIdempotencia() {
+        System.out.println("TESTE 23: Chaves de idempotência devolvem o resultado original");
+        try {
+            BancoService banco = new BancoService();
+            banco.criarConta("501", "Rita Lopes", 100.00);
+            banco.criarConta("502", "Davi Prado", 0.00);
+
+            try {
+                banco.sacar("saque-1", "501", 30.00);
+                throw new AssertionError("Operação com chave sem cache configurado deveria falhar");
+            } catch (IllegalStateException e) {
+                assert banco.consultarSaldo("501") == 100.00 : "Saque sem cache foi aplicado";
+            }
+            banco.usarIdempotencia(CacheIdempotencia.paraTaxa(100, Duration.ofHours(1)));
+
+            banco.sacar("saque-1", "501", 30.00);
+            banco.sacar("saque-1", "501", 30.00);
+            assert banco.consultarSaldo("501") == 70.00 : "Saque repetido foi aplicado duas vezes";
+
+            SaldoInsuficienteException original = null;
+            try {
+                banco.sacar("saque-2", "501", 500.00);
+            } catch (SaldoInsuficienteException e) {
+                original = e;
+            }
+            banco.depositar("501", 1000.00);
+            try {
+                banco.sacar("saque-2", "501", 500.00);
+                throw new AssertionError("A repetição deveria devolver a recusa original");
+            } catch (SaldoInsuficienteException e) {
+                assert original != null && e.getMessage().equals(original.getMessage())
+                        && e.getSaldoCentavos() == 70_00 : "A repetição deveria lançar a recusa original";
+            }
+            assert banco.consultarSaldo("501") == 1070.00 : "Repetição de recusa alterou o saldo";
+
+            for (int tentativa = 0; tentativa < 2; tentativa++) {
+                try {
+                    banco.transferir("pix-9", "502", "501", 10.00);
+                    throw new AssertionError("Transferência sem saldo deveria ser recusada");
+                } catch (TransferenciaException e) {
+                    assert e.getCause() instanceof SaldoInsuficienteException
+                            && ((SaldoInsuficienteException) e.getCause()).getSaldoCentavos() == 0
+                            && ((SaldoInsuficienteException) e.getCause()).getConta().equals("502") : "Motivo da recusa perdido";
+                }
+                banco.depositar("502", 10.00);
+            }
+            banco.sacar("502", 20.00);
+
+            try {
+                banco.depositar("saque-1", "501", 30.00);
+                throw new AssertionError("Chave reutilizada em outra operação deveria ser recusada");
+            } catch (IllegalArgumentException e) {
+                // esperado
+            }
+
+            int numeroThreads = 8;
+            CountDownLatch largada = new CountDownLatch(1);
+            CountDownLatch fim = new CountDownLatch(numeroThreads);
+            for (int t = 0; t < numeroThreads; t++) {
+                new Thread(() -> {
+                    try {
+                        largada.await();
+                        banco.tentarTransferir("pix-7", "501", "502", 25.00);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    } finally {
+                        fim.countDown();
+                    }
+                }).start();
+            }
+            largada.countDown();
+            fim.await();
+            assert banco.consultarSaldo("502") == 25.00 : "Transferência repetida em paralelo aplicada mais de uma vez";
+
+            CacheIdempotencia pequeno = new CacheIdempotencia(64, Duration.ofMillis(200));
+            banco.usarIdempotencia(pequeno);
+            for (int i = 0; i < 200; i++) {
+                banco.tentarDepositar("dep-" + i, "502", 1.00);
+            }
+            banco.tentarDepositar("dep-199", "502", 1.00);
+            assert pequeno.getQuantidade() <= pequeno.getCapacidade() : "Cache passou da capacidade";
+            assert pequeno.getDespejos() >= 200 - pequeno.getCapacidade() : "Entradas antigas deveriam ser descartadas";
+            assert pequeno.getAcertos() == 1 && pequeno.getFaltas() == 200 : "Contadores incorretos";
+            Thread.sleep(300);
+            banco.tentarDepositar("dep-199", "502", 1.00);
+            assert banco.consultarSaldo("502") == 226.00 : "Chave vencida deveria executar de novo";
+            assert pequeno.getExpiradas() >= 1 : "Chave vencida não contada";
+
+            CacheIdempotencia dimensionado = CacheIdempotencia.paraTaxa(100, Duration.ofMinutes(10));
+            assert dimensionado.getCapacidade() >= 60_000 : "Capacidade abaixo de taxa x validade";
+
+            CountDownLatch dentro = new CountDownLatch(1);
+            CountDownLatch liberar = new CountDownLatch(1);
+            BancoService lento = new BancoService() {
+                @Override
+                protected void realizarDeposito(String numeroConta, double valor) {
+                    dentro.countDown();
+                    try {
+                        liberar.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    super.realizarDeposito(numeroConta, valor);
+                }
+            };
+            lento.criarConta("503", "Lia Campos", 0.00);
+            CacheIdempotencia unico = new CacheIdempotencia(1, Duration.ofHours(1));
+            lento.usarIdempotencia(unico);
+            Thread emAndamento = new Thread(() -> lento.depositar("lento-1", "503", 10.00));
+            emAndamento.start();
+            dentro.await();
+            try {
+                lento.depositar("lento-2", "503", 10.00);
+                throw new AssertionError("Cache cheio de chaves em andamento deveria recusar a nova");
+            } catch (RejectedExecutionException e) {
+                // esperado: o servidor HTTP responde 503
+            }
+            liberar.countDown();
+            emAndamento.join();
+            assert unico.getRecusas() == 1 && lento.consultarSaldo("503") == 10.00 : "Recusa por falta de espaço aplicou a operação";
+
+            System.out.println("✓ Saque repetido aplicado uma vez, recusa repetida com a mesma exceção e os mesmos dados");
+            System.out.println("✓ " + numeroThreads + " transferências simultâneas com a mesma chave: 1 aplicada");
+            System.out.println("✓ Cache de " + pequeno.getCapacidade() + " chaves: acertos=" + pequeno.getAcertos()
+                    + " faltas=" + pequeno.getFaltas() + " despejos=" + pequeno.getDespejos()
+                    + " expiradas=" + pequeno.getExpiradas());
+            System.out.println("✓ Cache sem espaço recusa a chave nova com RejectedExecutionException");
+            System.out.println("✓ PASSOU\n");
+        } catch (Exception e) {
+            System.out.println("✗ FALHOU: " + e.getMessage() + "\n");
+        }
+    }
+
+    private static void testarMetricas() {
+        System.out.println("TESTE 24: Métricas contam operações, recusas e latências");
+        try {
+            BancoService banco = new BancoService();
+            assert banco.getMetricas() == null : "Métricas deveriam começar desligadas";
+            MetricasBanco ativadas = banco.ativarMetricas();
+            assert banco.ativarMetricas() == ativadas : "Ativar de novo deveria devolver as mesmas métricas";
+            // Sem amostragem, para conferir a contagem de latências.
+            MetricasBanco metricas = new MetricasBanco(1);
+            banco.usarMetricas(metricas);
+
+            banco.criarConta("601", "Lia Campos", 100.00);
+            banco.criarConta("602", "Ivo Duarte", 0.00);
+            for (int i = 0; i < 1000; i++) {
+                banco.depositar("601", 1.00);
+            }
+            try {
+                banco.sacar("601", 5000.00);
+            } catch (SaldoInsuficienteException e) {
+                // esperado
+            }
+            banco.inativarConta("602");
+            assert banco.tentarSacar("602", 1.00) == ResultadoOperacao.CONTA_INATIVA;
+            try {
+                banco.transferir("601", "999", 10.00);
+            } catch (TransferenciaException e) {
+                // esperado
+            }
+            try {
+                banco.consultarSaldo("999");
+            } catch (ContaNaoEncontradaException e) {
+                // esperado
+            }
+
+            assert metricas.getContagem(TipoOperacao.CRIAR_CONTA, ResultadoOperacao.SUCESSO) == 2;
+            assert metricas.getContagem(TipoOperacao.DEPOSITAR, ResultadoOperacao.SUCESSO) == 1000;
+            assert metricas.getContagem(TipoOperacao.SACAR, ResultadoOperacao.SALDO_INSUFICIENTE) == 1 : "Exceção não contada";
+            assert metricas.getContagem(TipoOperacao.SACAR, ResultadoOperacao.CONTA_INATIVA) == 1 : "Recusa sem exceção não contada";
+            assert metricas.getContagem(TipoOperacao.TRANSFERIR, ResultadoOperacao.CONTA_NAO_ENCONTRADA) == 1
+                    : "Transferência deveria contar pelo motivo encapsulado";
+            assert metricas.getContagem(TipoOperacao.CONSULTAR_SALDO, ResultadoOperacao.CONTA_NAO_ENCONTRADA) == 1;
+            Map<String, Long> excecoes = metricas.getExcecoes();
+            assert excecoes.get("SaldoInsuficienteException") == 1 && excecoes.get("TransferenciaException") == 1
+                    && excecoes.get("ContaNaoEncontradaException") == 1 && excecoes.get("ContaInativaException") == 0
+                    : "Exceções por tipo incorretas: " + excecoes;
+            long[] percentis = metricas.getLatencia(TipoOperacao.DEPOSITAR).percentis(50, 99);
+            assert metricas.getLatencia(TipoOperacao.DEPOSITAR).getTotal() == 1000 : "Latências não registradas";
+            assert percentis[0] > 0 && percentis[0] <= percentis[1]
+                    && percentis[1] <= metricas.getLatencia(TipoOperacao.DEPOSITAR).getMaximo() : "Percentis incoerentes";
+            String texto = metricas.texto();
+            assert texto.contains("banco_operacoes_total{operacao=\"depositar\",resultado=\"sucesso\"} 1000")
+                    : "Texto sem a contagem de depósitos";
+
+            ObjectName nome = metricas.registrarJmx("teste24");
+            try {
+                TabularData operacoes = (TabularData) ManagementFactory.getPlatformMBeanServer().getAttribute(nome, "Operacoes");
+                CompositeData linha = operacoes.get(new Object[]{"depositar.sucesso"});
+                assert linha != null && (Long) linha.get("value") == 1000L : "Atributo JMX incorreto";
+            } finally {
+                MetricasBanco.removerJmx(nome);
+            }
+
+            try (BancoServiceParticionado particionado = new BancoServiceParticionado(2)) {
+                MetricasBanco doMotor = particionado.ativarMetricas();
+                particionado.criarConta("611", "Noa Freire", 10.00);
+                particionado.tentarSacar("611", 50.00);
+                assert doMotor.getContagem(TipoOperacao.SACAR, ResultadoOperacao.SALDO_INSUFICIENTE) == 1
+                        : "Motor particionado deveria ser medido pelos mesmos métodos públicos";
+            }
+
+            System.out.println("✓ depositar: " + metricas.getLatencia(TipoOperacao.DEPOSITAR).getTotal()
+                    + " medidos, p50=" + percentis[0] + " ns p99=" + percentis[1] + " ns");
+            System.out.println("✓ Exceções por tipo: " + excecoes);
+            System.out.println("✓ Atributo JMX Operacoes lido pelo MBeanServer");
+            System.out.println("✓ PASSOU\n");
+        } catch (Exception e) {
+            System.out.println("✗ FALHOU: " + e.getMessage() + "\n");
+        }
+    }
+
+    private static void testarRelatorioFechamento() {
+        System.out.println("TESTE 25: Relatório de fechamento em um instante, com transferências em andamento");
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            BancoService[] bancos = {new BancoService(), new BancoService(new RepositorioCompacto())};
+            int numeroContas = 20_000;
+            for (BancoService banco : bancos) {
+                for (int i = 0; i < numeroContas; i++) {
+                    banco.criarConta(String.valueOf(i), "Titular " + i, 100.00);
+                }
+                banco.depositar("7", 5000.00);
+                banco.depositar("8", 900.00);
+                banco.inativarConta("9");
+                long totalEsperado = numeroContas * 10_000L + 590_000L;
+
+                AtomicBoolean parar = new AtomicBoolean();
+                int numeroThreads = 4;
+                CountDownLatch fim = new CountDownLatch(numeroThreads);
+                for (int t = 0; t < numeroThreads; t++) {
+                    long semente = t;
+                    new Thread(() -> {
+                        Random random = new Random(semente);
+                        while (!parar.get()) {
+                            banco.tentarTransferir(String.valueOf(10 + random.nextInt(numeroContas - 10)),
+                                    String.valueOf(10 + random.nextInt(numeroContas - 10)), 1 + random.nextInt(50));
+                        }
+                        fim.countDown();
+                    }).start();
+                }
+
+                RelatorioFechamento relatorio = null;
+                for (int r = 0; r < 10; r++) {
+                    relatorio = banco.gerarRelatorio(3, pool);
+                    assert relatorio.getSaldoTotalCentavos() == totalEsperado
+                            : "Relatório viu o total no meio de uma transferência: " + relatorio.getSaldoTotalCentavos();
+                }
+                parar.set(true);
+                fim.await();
+
+                assert relatorio.getContasAtivas() == numeroContas - 1 && relatorio.getContasInativas() == 1
+                        : "Contagem de ativas/inativas incorreta";
+                assert relatorio.getMaiores().get(0).getNumero().equals("7")
+                        && relatorio.getMaiores().get(0).getSaldoCentavos() == 510_000L : "Maior saldo incorreto";
+                long[] faixas = relatorio.getFaixasSaldo();
+                long somaFaixas = 0;
+                for (long quantidade : faixas) {
+                    somaFaixas += quantidade;
+                }
+                assert somaFaixas == numeroContas : "Faixas não somam o total de contas";
+                assert faixas[6] >= 1 : "Conta de R$5100,00 deveria estar na faixa de 6 dígitos";
+                System.out.printf("✓ %s: 10 relatórios de %d contas, total R$%.2f em todos, último em %.1f ms%n",
+                        banco == bancos[0] ? "mapa" : "compacto", numeroContas, totalEsperado / 100.0,
+                        relatorio.getDuracaoNanos() / 1e6);
+            }
+            System.out.println("✓ Maiores saldos: " + bancos[1].gerarRelatorio(3).getMaiores());
+            System.out.println("✓ PASSOU\n");
+        } catch (Exception e) {
+            System.out.println("✗ FALHOU: " + e.getMessage() + "\n");
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private static void testarApiAssincrona() {
+        System.out.println("TESTE 26: API assíncrona com ordem por conta, falhas como exceções e transferências entre filas");
+        BancoService banco = new BancoService();
+        BancoServiceAsync async = new BancoServiceAsync(banco, 16, 4);
+        try {
+            int numeroContas = 200;
+            List<CompletableFuture<Conta>> criacoes = new ArrayList<>();
+            for (int i = 0; i < numeroContas; i++) {
+                criacoes.add(async.criarConta("A" + i, "Titular " + i, 100.00));
+            }
+            CompletableFuture.allOf(criacoes.toArray(new CompletableFuture<?>[0])).join();
+
+            // Sem esperar entre os envios: o saque só passa se vier depois do depósito.
+            List<CompletableFuture<Void>> seguidas = new ArrayList<>();
+            for (int i = 0; i < 500; i++) {
+                seguidas.add(async.depositar("A0", 100.00));
+                seguidas.add(async.sacar("A0", 150.00));
+                seguidas.add(async.depositar("A0", 50.00));
+            }
+            CompletableFuture.allOf(seguidas.toArray(new CompletableFuture<?>[0])).join();
+            assert async.consultarSaldo("A0").get() == 100.00 : "Operações da mesma conta fora de ordem";
+            System.out.println("✓ 1500 operações enviadas de uma vez em A0 aplicadas na ordem de envio");
+
+            try {
+                async.sacar("A0", 1_000_000.00).get();
+                System.out.println("✗ FALHOU: Saque sem saldo deveria falhar\n");
+                return;
+            } catch (ExecutionException e) {
+                assert e.getCause() instanceof SaldoInsuficienteException : "Causa inesperada: " + e.getCause();
+                System.out.println("✓ Saque sem saldo falhou com " + e.getCause().getClass().getSimpleName());
+            }
+            // O depósito enviado logo depois costuma ir no mesmo lote: a exceção traz o saldo visto na recusa.
+            CompletableFuture<Void> recusado = async.sacar("A0", 1_000_000.00);
+            async.depositar("A0", 500.00);
+            try {
+                recusado.get();
+                System.out.println("✗ FALHOU: Saque sem saldo deveria falhar\n");
+                return;
+            } catch (ExecutionException e) {
+                long saldoNaRecusa = ((SaldoInsuficienteException) e.getCause()).getSaldoCentavos();
+                assert saldoNaRecusa == 10_000 : "Saldo da recusa lido depois do depósito seguinte: " + saldoNaRecusa;
+                System.out.println("✓ Recusa relata o saldo do momento (R$" + saldoNaRecusa / 100.0 + "), não o de depois");
+            }
+            async.sacar("A0", 500.00).get();
+            try {
+                async.transferir("A1", "NAO_EXISTE", 10.00).get();
+                System.out.println("✗ FALHOU: Transferência para conta inexistente deveria falhar\n");
+                return;
+            } catch (ExecutionException e) {
+                assert e.getCause() instanceof TransferenciaException
+                        && e.getCause().getCause() instanceof ContaNaoEncontradaException : "Causa inesperada: " + e.getCause();
+                System.out.println("✓ Transferência inválida falhou com TransferenciaException <- ContaNaoEncontradaException");
+            }
+            assert async.tentarSacar("A1", 1_000_000.00).get() == ResultadoOperacao.SALDO_INSUFICIENTE
+                    : "tentarSacar deveria completar com o motivo";
+
+            Random random = new Random(26);
+            List<CompletableFuture<ResultadoOperacao>> transferencias = new ArrayList<>();
+            for (int i = 0; i < 20_000; i++) {
+                transferencias.add(async.tentarTransferir("A" + random.nextInt(numeroContas),
+                        "A" + random.nextInt(numeroContas), 1 + random.nextInt(30)));
+            }
+            CompletableFuture.allOf(transferencias.toArray(new CompletableFuture<?>[0])).join();
+            long total = 0;
+            for (int i = 0; i < numeroContas; i++) {
+                total += banco.buscarConta("A" + i).getSaldoCentavos();
+            }
+            assert total == numeroContas * 10_000L : "Total mudou com as transferências: " + total;
+            System.out.println("✓ 20000 transferências entre 16 filas, total preservado: R$" + total / 100.0);
+
+            double saldo = async.depositar("A2", 50.00)
+                    .thenCompose(v -> async.transferir("A2", "A3", 150.00))
+                    .thenCompose(v -> async.consultarSaldo("A2"))
+                    .get();
+            assert saldo == banco.consultarSaldo("A2") : "Encadeamento com thenCompose incorreto";
+            System.out.println("✓ depositar -> transferir -> consultarSaldo encadeados com thenCompose");
+
+            async.close();
+            try {
+                async.depositar("A0", 1.00).get();
+                System.out.println("✗ FALHOU: Envio depois de close deveria falhar\n");
+                return;
+            } catch (ExecutionException e) {
+                assert e.getCause() instanceof IllegalStateException : "Causa inesperada: " + e.getCause();
+            }
+            System.out.println("✓ PASSOU\n");
+        } catch (Exception e) {
+            System.out.println("✗ FALHOU: " + e.getMessage() + "\n");
+        } finally {
+            async.close();
+        }
+    }
+
+    private static void testarDormencia() {
+        System.out.println("TESTE 27: Contas sem movimento pelo prazo são inativadas em lotes");
+        try {
+            BancoService banco = new BancoService();
+            banco.criarConta("D0", "Antes da ativação", 100.00);
+            banco.criarConta("D1", "Com movimento", 100.00);
+            long inicio = System.currentTimeMillis();
+            VarreduraDormencia varredura = new VarreduraDormencia(banco, Duration.ofMillis(600), Duration.ofMillis(10), 3,
+                    System::currentTimeMillis);
+            for (int i = 2; i <= 9; i++) {
+                banco.criarConta("D" + i, "Titular " + i, 100.00);
+            }
+            banco.inativarConta("D9");
+            assert varredura.varrer() == 0 : "Nenhuma conta deveria vencer antes do prazo";
+
+            Thread.sleep(Math.max(0, inicio + 300 - System.currentTimeMillis()));
+            banco.depositar("D1", 10.00);
+            banco.transferir("D2", "D1", 5.00);
+            Thread.sleep(Math.max(0, inicio + 700 - System.currentTimeMillis()));
+            int rodadas = 0;
+            int total = 0;
+            int inativadas;
+            while ((inativadas = varredura.varrer()) > 0) {
+                assert inativadas <= 3 : "Rodada passou do lote: " + inativadas;
+                total += inativadas;
+                rodadas++;
+            }
+            assert total == 7 : "Deveriam ser inativadas D0 e D3..D8, foram " + total;
+            assert banco.buscarConta("D1").isAtiva() && banco.buscarConta("D2").isAtiva()
+                    : "Contas com movimento recente não podem ser inativadas";
+            assert !banco.buscarConta("D0").isAtiva() && !banco.buscarConta("D8").isAtiva() : "Contas paradas continuam ativas";
+            assert varredura.getReagendadas() >= 2 : "D1 e D2 deveriam ter sido reagendadas";
+            System.out.println("✓ 7 contas paradas inativadas em " + rodadas + " rodadas de até 3; D1 e D2 reagendadas");
+
+            Thread.sleep(Math.max(0, inicio + 1000 - System.currentTimeMillis()));
+            while (varredura.varrer() > 0) {
+                // Drena as rodadas restantes.
+            }
+            assert !banco.buscarConta("D1").isAtiva() && !banco.buscarConta("D2").isAtiva()
+                    : "D1 e D2 deveriam vencer um prazo depois do último movimento";
+            assert varredura.getAcompanhadas() == 0 : "Contas inativas deveriam sair da roda";
+            varredura.close();
+            System.out.println("✓ D1 e D2 inativadas um prazo depois do último movimento; roda vazia");
+
+            BancoService outro = new BancoService();
+            try (VarreduraDormencia automatica = outro.ativarDormencia(Duration.ofMillis(200))) {
+                try {
+                    outro.ativarDormencia(Duration.ofMillis(200));
+                    System.out.println("✗ FALHOU: Duas varreduras no mesmo serviço\n");
+                    return;
+                } catch (IllegalStateException e) {
+                    System.out.println("✓ Segunda varredura recusada: " + e.getMessage());
+                }
+                outro.criarConta("E1", "Sozinha", 1.00);
+                long limite = System.currentTimeMillis() + 5000;
+                while (outro.buscarConta("E1").isAtiva() && System.currentTimeMillis() < limite) {
+                    Thread.sleep(20);
+                }
+                assert !outro.buscarConta("E1").isAtiva() : "A thread da varredura não inativou a conta";
+                assert automatica.getInativadas() == 1 : "Contagem de inativadas incorreta";
+                System.out.println("✓ Thread da varredura inativou E1 em segundo plano");
+            }
+            System.out.println("✓ PASSOU\n");
+        } catch (Exception e) {
+            System.out.println("✗ FALHOU: " + e.getMessage() + "\n");
+        }
+    }
+
+    private static void testarLeiturasConsistentes() {
+        System.out.println("TESTE 28: Situação e prévia de transferência consistentes sem travar as escritas");
+        try {
+            BancoService banco = new BancoService();
+            banco.criarConta("P1", "Origem", 100.00);
+            banco.criarConta("P2", "Destino", 50.00);
+            PreviaTransferencia previa = banco.previsualizarTransferencia("P1", "P2", 30.00);
+            assert previa.getResultado() == ResultadoOperacao.SUCESSO : "Prévia deveria ser SUCESSO";
+            assert previa.getSaldoOrigemDepoisCentavos() == 7000 && previa.getSaldoDestinoDepoisCentavos() == 8000
+                    : "Saldos previstos incorretos: " + previa;
+            assert banco.consultarSaldo("P1") == 100.00 : "A prévia não pode alterar o saldo";
+            assert banco.previsualizarTransferencia("P1", "P2", 300.00).getResultado() == ResultadoOperacao.SALDO_INSUFICIENTE
+                    : "Prévia deveria ser SALDO_INSUFICIENTE";
+            banco.inativarConta("P1");
+            LocalDate data = banco.consultarSituacao("P1").getDataInativacao();
+            banco.inativarConta("P1");
+            SituacaoConta inativa = banco.consultarSituacao("P1");
+            assert !inativa.isAtiva() && data.equals(inativa.getDataInativacao()) : "Data de inativação trocada";
+            assert banco.previsualizarTransferencia("P1", "P2", 1.00).getResultado() == ResultadoOperacao.CONTA_INATIVA
+                    : "Prévia deveria ser CONTA_INATIVA";
+            System.out.println("✓ Prévia: " + previa);
+            System.out.println("✓ Situação: " + inativa);
+
+            for (int i = 0; i < 70_000; i++) {
+                banco.tentarDepositar("P1", 0.01);
+            }
+            inativa = banco.consultarSituacao("P1");
+            assert !inativa.isAtiva() && inativa.getSaldoCentavos() == 10_000 + 70_000
+                    : "Versão passou de 65535 e corrompeu a conta: " + inativa;
+            System.out.println("✓ 70000 alterações (versão deu a volta) sem afetar saldo nem situação");
+
+            for (boolean compacto : new boolean[]{false, true}) {
+                BancoService contas = compacto ? new BancoService(new RepositorioCompacto()) : new BancoService();
+                contas.criarConta("100", "Primeira", 0.00);
+                contas.criarConta("200", "Segunda", 0.00);
+                for (int i = 0; i < 200; i++) {
+                    contas.criarConta(String.valueOf(1000 + i), "Titular " + i, 1.00);
+                }
+                AtomicBoolean parar = new AtomicBoolean();
+                // A escrita deposita sempre na 100 e depois na 200: lidas no
+                // mesmo instante, a 100 tem o mesmo saldo da 200 ou um centavo a mais.
+                Thread escrita = new Thread(() -> {
+                    while (!parar.get()) {
+                        contas.depositar("100", 0.01);
+                        contas.depositar("200", 0.01);
+                    }
+                });
+                Thread inativacoes = new Thread(() -> {
+                    for (int i = 0; i < 200; i++) {
+                        contas.inativarConta(String.valueOf(1000 + i));
+                        Thread.yield();
+                    }
+                });
+                escrita.start();
+                inativacoes.start();
+                long leituras = 0;
+                long fim = System.nanoTime() + 300_000_000L;
+                while (System.nanoTime() < fim || inativacoes.isAlive()) {
+                    PreviaTransferencia par = contas.previsualizarTransferencia("100", "200", 0.01);
+                    long diferenca = par.getOrigem().getSaldoCentavos() - par.getDestino().getSaldoCentavos();
+                    assert diferenca == 0 || diferenca == 1 : "Par lido em instantes diferentes: " + par;
+                    SituacaoConta situacao = contas.consultarSituacao(String.valueOf(1000 + (int) (leituras % 200)));
+                    assert situacao.getSaldoCentavos() == 100 : "Saldo incorreto: " + situacao;
+                    assert situacao.isAtiva() || LocalDate.now().equals(situacao.getDataInativacao())
+                            : "Conta inativa com data errada: " + situacao;
+                    leituras++;
+                }
+                parar.set(true);
+                escrita.join();
+                inativacoes.join();
+                for (int i = 0; i < 200; i++) {
+                    assert !contas.consultarSituacao(String.valueOf(1000 + i)).isAtiva() : "Inativação perdida";
+                }
+                System.out.println("✓ " + (compacto ? "compacto" : "mapa") + ": " + leituras
+                        + " leituras de pares e situações consistentes durante as escritas");
+            }
+            System.out.println("✓ PASSOU\n");
+        } catch (Exception e) {
+            System.out.println("✗ FALHOU: " + e.getMessage() + "\n");
+        }
+    }
+
+    private static void testarRepositorioMapeado() {
+        System.out.println("TESTE 29: Repositório mapeado em arquivo sobrevive à reabertura");
+        Path arquivo = null;
+        try {
+            arquivo = Files.createTempFile("banco-mapeado", ".contas");
+            int numeroContas = 1_000;
+            long total;
+            LocalDate dataInativacao;
+            RepositorioMapeado repositorio = RepositorioMapeado.abrir(arquivo, 10_000);
+            try {
+                BancoService banco = new BancoService(repositorio);
+                for (int i = 0; i < numeroContas; i++) {
+                    banco.criarConta(String.valueOf(i), "Titular " + i, 100.00);
+                }
+                banco.criarConta("001", "José Conceição", 10.00);
+                banco.depositar("1", 5.00);
+
+                boolean recusado = false;
+                try {
+                    banco.criarConta("9999", "Nome muito comprido que não cabe no registro de 64 bytes", 0.00);
+                } catch (IllegalArgumentException e) {
+                    recusado = true;
+                }
+                assert recusado : "Titular longo demais deveria ser recusado";
+                Conta um = banco.buscarConta("1");
+                try {
+                    banco.criarConta("1", "Outro Titular", 0.00);
+                    throw new AssertionError("Número repetido deveria ser recusado");
+                } catch (IllegalArgumentException e) {
+                    assert um.getSaldo() == 105.00 && um.getTitular().equals("Titular 1")
+                            && um.getExtrato().getQuantidade() == 1 : "Criação repetida alterou a conta existente";
+                }
+                try {
+                    RepositorioMapeado.abrir(arquivo, 10_000).close();
+                    System.out.println("✗ FALHOU: Arquivo aberto duas vezes\n");
+                    return;
+                } catch (java.io.IOException e) {
+                    System.out.println("✓ Segunda abertura recusada: " + e.getMessage());
+                }
+
+                Thread[] threads = new Thread[4];
+                for (int t = 0; t < threads.length; t++) {
+                    int semente = t;
+                    threads[t] = new Thread(() -> {
+                        Random random = new Random(semente);
+                        for (int i = 0; i < 5_000; i++) {
+                            banco.tentarTransferir(String.valueOf(random.nextInt(numeroContas)),
+                                    String.valueOf(random.nextInt(numeroContas)), 1 + random.nextInt(20));
+                        }
+                    });
+                    threads[t].start();
+                }
+                for (Thread thread : threads) {
+                    thread.join();
+                }
+                banco.inativarConta("7");
+                dataInativacao = banco.buscarConta("7").getDataInativacao();
+                total = banco.gerarRelatorio(0).getSaldoTotalCentavos();
+                assert total == (numeroContas * 100 + 15) * 100L : "Total alterado pelas transferências: " + total;
+                System.out.println("✓ " + repositorio.quantidade() + " contas no arquivo, total preservado em 20000 transferências");
+            } finally {
+                repositorio.close();
+            }
+
+            repositorio = RepositorioMapeado.abrir(arquivo, 1);
+            try {
+                BancoService reaberto = new BancoService(repositorio);
+                assert repositorio.getCapacidade() == 10_000 : "A capacidade deveria ser a da criação";
+                assert repositorio.quantidade() == numeroContas + 1 : "Contas perdidas: " + repositorio.quantidade();
+                assert reaberto.gerarRelatorio(0).getSaldoTotalCentavos() == total : "Total divergente após reabrir";
+                Conta jose = reaberto.buscarConta("001");
+                assert jose.getTitular().equals("José Conceição") && jose.getSaldo() == 10.00 : "Conta 001 divergente";
+                assert !jose.equals(reaberto.buscarConta("1")) : "\"001\" e \"1\" deveriam ser contas diferentes";
+                assert dataInativacao.equals(reaberto.consultarSituacao("7").getDataInativacao()) : "Inativação perdida";
+                assert reaberto.tentarSacar("7", 1.00) == ResultadoOperacao.CONTA_INATIVA : "Conta 7 deveria estar inativa";
+                reaberto.criarConta("5000", "Depois de reabrir", 1.00);
+                reaberto.transferir("5000", "001", 1.00);
+                assert reaberto.consultarSaldo("001") == 11.00 : "Operação após reabrir não aplicada";
+                System.out.println("✓ Reaberto: saldos, titulares e inativação preservados; novas contas continuam no arquivo");
+            } finally {
+                repositorio.close();
+            }
+            System.out.println("✓ PASSOU\n");
+        } catch (Exception e) {
+            System.out.println("✗ FALHOU: " + e.getMessage() + "\n");
+        } finally {
+            if (arquivo != null) {
+                arquivo.toFile().delete();
+            }
+        }
+    }
+
+    private static void testarImportacaoExportacao() {
+        System.out.println("TESTE 30: Importação e exportação de contas em CSV e binário");
+        Path diretorio = null;
+        try {
+            diretorio = Files.createTempDirectory("banco-importacao");
+            Path csv = diretorio.resolve("contas.csv");
+            StringBuilder linhas = new StringBuilder("numero,titular,saldo,inativacao\n");
+            int validas = 10_000;
+            for (int i = 0; i < validas; i++) {
+                linhas.append(i).append(",Titular ").append(i).append(',').append(i % 100).append(".5\n");
+            }
+            linhas.append("negativa,Saldo Negativo,-10.00\n")
+                    .append("texto,Saldo Inválido,dez reais\n")
+                    .append("curta,Faltam Colunas\n")
+                    .append("\"aspas,1\",\"Silva, \"\"Zeca\"\"\",12.34,\n")
+                    .append("inativa,Conta Encerrada,0.07,2024-02-29\n");
+            Files.writeString(csv, linhas);
+
+            Path arquivoJournal = diretorio.resolve("banco.journal");
+            long total;
+            try (Journal journal = Journal.abrir(arquivoJournal, PoliticaSincronizacao.SISTEMA_OPERACIONAL, 5)) {
+                BancoService banco = new BancoService(journal);
+                ResultadoImportacao resultado = banco.importarContas(csv, FormatoContas.CSV);
+                assert resultado.getLidas() == validas + 5 : "Linhas lidas: " + resultado.getLidas();
+                assert resultado.getImportadas() == validas + 2 : "Importadas: " + resultado.getImportadas();
+                assert resultado.getRejeitadas() == 3 : "Rejeitadas: " + resultado.getRejeitadas();
+                List<ResultadoImportacao.Rejeicao> rejeicoes = resultado.getRejeicoes();
+                assert rejeicoes.get(0).getLinha() == validas + 2
+                        && rejeicoes.get(0).getMotivo() instanceof ValorInvalidoException : "Saldo negativo: " + rejeicoes.get(0);
+                assert rejeicoes.get(2).getLinha() == validas + 4 : "Linha da rejeição: " + rejeicoes.get(2);
+                for (ResultadoImportacao.Rejeicao rejeicao : rejeicoes) {
+                    System.out.println("✓ Rejeitada sem interromper: " + rejeicao);
+                }
+                assert banco.buscarConta("aspas,1").getTitular().equals("Silva, \"Zeca\"") : "Campo entre aspas";
+                assert banco.consultarSaldo("aspas,1") == 12.34 : "Saldo entre aspas";
+                SituacaoConta inativa = banco.consultarSituacao("inativa");
+                assert !inativa.isAtiva() && inativa.getDataInativacao().equals(LocalDate.of(2024, 2, 29))
+                        && inativa.getSaldoCentavos() == 7 : "Conta inativa: " + inativa;
+                total = banco.gerarRelatorio(0).getSaldoTotalCentavos();
+                System.out.println("✓ " + resultado);
+
+                for (FormatoContas formato : FormatoContas.values()) {
+                    Path exportado = diretorio.resolve("exportado." + formato.name().toLowerCase());
+                    assert banco.exportarContas(exportado, formato) == validas + 2 : "Contas exportadas em " + formato;
+                    BancoService copia = new BancoService();
+                    ResultadoImportacao reimportado = copia.importarContas(exportado, formato);
+                    assert reimportado.getRejeitadas() == 0 : "Rejeições ao reimportar " + formato + ": " + reimportado.getRejeicoes();
+                    assert copia.gerarRelatorio(0).getSaldoTotalCentavos() == total : "Total divergente em " + formato;
+                    assert copia.buscarConta("aspas,1").getTitular().equals("Silva, \"Zeca\"") : "Titular em " + formato;
+                    assert copia.consultarSituacao("inativa").getDataInativacao().equals(LocalDate.of(2024, 2, 29))
+                            : "Inativação perdida em " + formato;
+                    System.out.println("✓ " + formato + ": " + Files.size(exportado) + " bytes, reimportado igual");
+                }
+            }
+
+            try (Journal journal = Journal.abrir(arquivoJournal, PoliticaSincronizacao.SISTEMA_OPERACIONAL, 5)) {
+                BancoService recuperado = new BancoService(journal);
+                assert recuperado.gerarRelatorio(0).getSaldoTotalCentavos() == total : "Importação fora do journal";
+                assert !recuperado.buscarConta("inativa").isAtiva() : "Inativação fora do journal";
+                System.out.println("✓ Contas importadas recuperadas do journal");
+            }
+            System.out.println("✓ PASSOU\n");
+        } catch (Exception e) {
+            System.out.println("✗ FALHOU: " + e.getMessage() + "\n");
+        } finally {
+            if (diretorio != null) {
+                for (java.io.File arquivo : diretorio.toFile().listFiles()) {
+                    arquivo.delete();
+                }
+                diretorio.toFile().delete();
+            }
+        }
+    }
+
+    private static void testarLimitesMovimentacao() {
+        System.out.println("TESTE 31: Limites de velocidade em saques e transferências");
+        try {
+            AtomicLong relogio = new AtomicLong();
+            BancoService banco = new BancoService();
+            MetricasBanco metricas = banco.ativarMetricas();
+            LimitesMovimentacao limites = new LimitesMovimentacao(
+                    new LimitesMovimentacao.Limite(3, 100.00, Duration.ofMinutes(1)), null, relogio::get);
+            banco.usarLimites(limites);
+            banco.criarConta("L1", "Laura Lima", 1000.00);
+            banco.criarConta("L2", "Luís Lopes", 1000.00);
+            banco.criarConta("L3", "Lia Leal", 5.00);
+
+            banco.sacar("L1", 10.00);
+            banco.sacar("L1", 10.00);
+            banco.transferir("L1", "L2", 10.00);
+            try {
+                banco.sacar("L1", 10.00);
+                System.out.println("✗ FALHOU: Quarto saque na janela aceito\n");
+                return;
+            } catch (LimiteExcedidoException e) {
+                System.out.println("✓ Quarta operação recusada: " + e.getMessage());
+            }
+            try {
+                banco.transferir("L1", "L2", 10.00);
+                System.out.println("✗ FALHOU: Transferência acima do limite aceita\n");
+                return;
+            } catch (TransferenciaException e) {
+                assert e.getCause() instanceof LimiteExcedidoException : "Causa: " + e.getCause();
+            }
+            assert banco.tentarSacar("L1", 1.00) == ResultadoOperacao.LIMITE_EXCEDIDO : "tentarSacar deveria recusar";
+            assert banco.consultarSaldo("L1") == 970.00 : "Saldo alterado por operação recusada";
+            banco.depositar("L1", 1.00);
+            relogio.addAndGet(Duration.ofSeconds(20).toNanos());
+            assert banco.tentarSacar("L1", 1.00) == ResultadoOperacao.SUCESSO : "Um terço da janela repõe uma operação";
+            assert banco.tentarSacar("L1", 1.00) == ResultadoOperacao.LIMITE_EXCEDIDO : "Só uma operação reposta";
+            System.out.println("✓ 3 operações por minuto: a quarta é recusada e uma volta após 20 s");
+
+            banco.sacar("L2", 60.00);
+            assert banco.tentarTransferir("L2", "L1", 50.00) == ResultadoOperacao.LIMITE_EXCEDIDO : "Valor acima do limite";
+            assert banco.tentarTransferir("L2", "L1", 40.00) == ResultadoOperacao.SUCESSO : "Valor dentro do limite";
+            for (int i = 0; i < 5; i++) {
+                assert banco.tentarSacar("L3", 10.00) == ResultadoOperacao.SALDO_INSUFICIENTE : "Recusa por saldo";
+            }
+            assert banco.tentarSacar("L3", 5.00) == ResultadoOperacao.SUCESSO : "Recusas por saldo consumiram o limite";
+            System.out.println("✓ R$100 por minuto: R$60 + R$40 aceitos, R$50 recusado; recusas por saldo não contam");
+
+            relogio.addAndGet(Duration.ofMinutes(1).toNanos());
+            ResultadoOperacao[] lote = banco.executarLote(List.of(
+                    Operacao.saque("L1", 10.00),
+                    Operacao.saque("L1", 10.00),
+                    Operacao.saque("L1", 10.00),
+                    Operacao.saque("L1", 10.00)), ModoLote.TUDO_OU_NADA);
+            assert lote[3] == ResultadoOperacao.LIMITE_EXCEDIDO && lote[0] == ResultadoOperacao.LOTE_CANCELADO
+                    : "Lote: " + java.util.Arrays.toString(lote);
+            lote = banco.executarLote(List.of(
+                    Operacao.saque("L1", 10.00),
+                    Operacao.saque("L1", 10.00),
+                    Operacao.saque("L1", 10.00),
+                    Operacao.saque("L1", 10.00)), ModoLote.MELHOR_ESFORCO);
+            assert lote[2] == ResultadoOperacao.SUCESSO && lote[3] == ResultadoOperacao.LIMITE_EXCEDIDO
+                    : "Lote: " + java.util.Arrays.toString(lote);
+            assert metricas.getContagem(TipoOperacao.SACAR, ResultadoOperacao.LIMITE_EXCEDIDO) == 3 : "Métricas";
+            System.out.println("✓ Lotes: tudo-ou-nada cancelado sem consumir o limite; melhor esforço aplica os 3 primeiros");
+
+            relogio.addAndGet(Duration.ofMinutes(1).toNanos());
+            assert limites.getContasAcompanhadas() == 3 : "Contas acompanhadas: " + limites.getContasAcompanhadas();
+            assert limites.removerOciosos() == 2 && limites.getContasAcompanhadas() == 1 : "L2 e L3 estão paradas há uma janela";
+            relogio.addAndGet(Duration.ofMinutes(1).toNanos());
+            assert limites.removerOciosos() == 1 && limites.getContasAcompanhadas() == 0 : "Baldes ociosos não removidos";
+            assert banco.tentarSacar("L1", 1.00) == ResultadoOperacao.SUCESSO : "Conta removida volta com limite cheio";
+            System.out.println("✓ Baldes removidos depois de uma janela inteira cheios");
+
+            BancoService global = new BancoService();
+            global.usarLimites(new LimitesMovimentacao(new LimitesMovimentacao.Limite(1_000, 100_000.00, Duration.ofMinutes(1)),
+                    new LimitesMovimentacao.Limite(20, 1_000.00, Duration.ofMinutes(1)), relogio::get));
+            for (int i = 0; i < 8; i++) {
+                global.criarConta("G" + i, "Titular " + i, 10_000.00);
+            }
+            assert global.tentarSacar("G0", 900.00) == ResultadoOperacao.SUCESSO : "Saque maior que uma faixa";
+            assert global.tentarSacar("G1", 200.00) == ResultadoOperacao.LIMITE_EXCEDIDO : "Acima do valor global";
+            AtomicInteger aceitos = new AtomicInteger(1);
+            Thread[] threads = new Thread[4];
+            for (int t = 0; t < threads.length; t++) {
+                String conta = "G" + (t + 1);
+                threads[t] = new Thread(() -> {
+                    for (int i = 0; i < 50; i++) {
+                        if (global.tentarSacar(conta, 1.00) == ResultadoOperacao.SUCESSO) {
+                            aceitos.incrementAndGet();
+                        }
+                    }
+                });
+                threads[t].start();
+            }
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            assert aceitos.get() == 20 : "Limite global de 20 operações: " + aceitos.get();
+            System.out.println("✓ Limite global exato entre 4 threads: " + aceitos.get() + " de 202 operações aceitas");
+
+            LimitesMovimentacao muitas = new LimitesMovimentacao(
+                    new LimitesMovimentacao.Limite(5, 1_000.00, Duration.ofHours(1)), null, relogio::get);
+            int numeroContas = 5_000;
+            AtomicInteger tomadas = new AtomicInteger();
+            for (int t = 0; t < threads.length; t++) {
+                int semente = t;
+                threads[t] = new Thread(() -> {
+                    Random random = new Random(semente);
+                    for (int i = 0; i < numeroContas * 3; i++) {
+                        if (muitas.tomar(String.valueOf(random.nextInt(numeroContas)), 100)) {
+                            tomadas.incrementAndGet();
+                        }
+                    }
+                });
+                threads[t].start();
+            }
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            int[] sorteios = new int[numeroContas];
+            for (int t = 0; t < threads.length; t++) {
+                Random random = new Random(t);
+                for (int i = 0; i < numeroContas * 3; i++) {
+                    sorteios[random.nextInt(numeroContas)]++;
+                }
+            }
+            int esperadas = 0;
+            for (int sorteio : sorteios) {
+                esperadas += Math.min(sorteio, 5);
+            }
+            assert tomadas.get() == esperadas : "Aceitas " + tomadas.get() + ", esperadas " + esperadas;
+            System.out.println("✓ " + numeroContas + " contas em 4 threads, com as tabelas crescendo: " + tomadas.get()
+                    + " operações aceitas, nenhuma conta acima de 5");
+            System.out.println("✓ PASSOU\n");
+        } catch (Exception e) {
+            System.out.println("✗ FALHOU: " + e.getMessage() + "\n");
+        }
+    }
+
+    private static void testarSimulacaoCarga() {
+        System.out.println("TESTE 32: Simulação de carga reproduzível e invariantes");
+        Path arquivo = null;
+        try {
+            String mistura = "criar:2,depositar:30,sacar:30,transferir:30,inativar:0.5,consultar:7.5";
+            CargaSimulada carga = CargaSimulada.gerar(7, 1, 20_000, 500, 1000_00, 1.1, mistura);
+            SimulacaoCarga.Resultado mapa = SimulacaoCarga.executar(carga, new BancoService());
+            assert mapa.isConsistente() : "Violações: " + mapa.getViolacoes();
+            assert mapa.getQuantidade(CargaSimulada.Tipo.INATIVAR, ResultadoOperacao.SUCESSO) > 0 : "Sem inativações";
+            assert mapa.getQuantidade(CargaSimulada.Tipo.SACAR, ResultadoOperacao.CONTA_INATIVA) > 0
+                    : "Nenhum saque recusado por conta inativa";
+
+            SimulacaoCarga.Resultado compacto = SimulacaoCarga.executar(carga,
+                    new BancoService(new RepositorioCompacto()));
+            assert compacto.getAssinatura() == mapa.getAssinatura() : "Estado final difere entre repositórios";
+
+            arquivo = Files.createTempFile("roteiro", ".sim");
+            carga.gravar(arquivo);
+            CargaSimulada reproduzida = CargaSimulada.ler(arquivo);
+            assert reproduzida.getOperacoes() == carga.getOperacoes() : "Roteiro lido com outro tamanho";
+            SimulacaoCarga.Resultado reproducao = SimulacaoCarga.executar(reproduzida, new BancoService());
+            assert reproducao.getAssinatura() == mapa.getAssinatura() : "Reprodução com outro estado final";
+            System.out.printf("✓ %,d operações em 1 thread: mesmo estado final no mapa, no compacto e na reprodução"
+                    + " do arquivo (%016x)%n", carga.getOperacoes(), mapa.getAssinatura());
+
+            CargaSimulada concorrente = CargaSimulada.gerar(11, 4, 5_000, 200, 100_00, 1.1, mistura);
+            try (BancoServiceParticionado particionado = new BancoServiceParticionado(2)) {
+                SimulacaoCarga.Resultado resultado = SimulacaoCarga.executar(concorrente, particionado);
+                assert resultado.isConsistente() : "Violações: " + resultado.getViolacoes();
+            }
+            SimulacaoCarga.Resultado comum = SimulacaoCarga.executar(concorrente, new BancoService());
+            assert comum.isConsistente() : "Violações: " + comum.getViolacoes();
+            System.out.println("✓ 4 threads no motor particionado e no comum: dinheiro conservado, nenhum saldo"
+                    + " negativo nem débito em conta inativa");
+
+            BancoService defeituoso = new BancoService() {
+                @Override
+                protected ResultadoOperacao tentarRealizarSaque(String numeroConta, double valor) {
+                    // Aprova sem debitar: o dinheiro sacado não sai da conta.
+                    return ResultadoOperacao.SUCESSO;
+                }
+            };
+            SimulacaoCarga.Resultado defeito = SimulacaoCarga.executar(concorrente, defeituoso);
+            assert defeito.getViolacoes().stream().anyMatch(v -> v.startsWith("Dinheiro não conservado"))
+                    : "Conservação não conferida: " + defeito.getViolacoes();
+            assert defeito.getViolacoes().stream().anyMatch(v -> v.endsWith("depois de inativada"))
+                    : "Débito em conta inativa não detectado: " + defeito.getViolacoes();
+            System.out.println("✓ Serviço que aprova saques sem debitar (nem olhar a inativação) detectado: "
+                    + defeito.getViolacoes().size() + " violações");
+            System.out.println("✓ PASSOU\n");
+        } catch (Exception e) {
+            System.out.println("✗ FALHOU: " + e.getMessage() + "\n");
+        } finally {
+            if (arquivo != null) {
+                arquivo.toFile().delete();
+            }
+        }
+    }
+
+    private static HttpResponse<String> enviar(HttpClient cliente, String metodo, String uri) throws Exception {
+        HttpRequest requisicao = HttpRequest.newBuilder(URI.create(uri))
+                .method(metodo, HttpRequest.BodyPublishers.noBody())
+                .build();
+        return cliente.send(requisicao, HttpResponse.BodyHandlers.ofString());
+    }
+}
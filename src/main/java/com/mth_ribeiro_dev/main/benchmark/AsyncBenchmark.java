@@ -0,0 +1,117 @@
+package benchmark;
+
+import persistencia.Journal;
+import persistencia.PoliticaSincronizacao;
+import service.BancoService;
+import service.BancoServiceAsync;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Vazão da API bloqueante de {@link BancoService} contra a de
+ * {@link BancoServiceAsync}, sem journal e com o journal gravando a cada
+ * operação.
+ * <p>
+ * Na bloqueante, cada thread cliente espera uma operação terminar antes de
+ * enviar a próxima. Na assíncrona, uma única thread envia e mantém até
+ * {@code --janela} operações pendentes; as operações que chegam juntas na
+ * mesma fila viram um lote, que com journal espera uma só gravação.
+ * <p>
+ * Uso: {@code java benchmark.AsyncBenchmark [--threads=8] [--janela=4096]
+ * [--filas=16] [--threadsAsync=4] [--segundos=5] [--contas=10000]
+ * [--transferencias=50]}, com {@code --transferencias} o percentual de
+ * transferências entre as operações (o resto são depósitos)
+ */
+public class AsyncBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int threads = Integer.parseInt(opcao(args, "threads", "8"));
+        int janela = Integer.parseInt(opcao(args, "janela", "4096"));
+        int filas = Integer.parseInt(opcao(args, "filas", "16"));
+        int threadsAsync = Integer.parseInt(opcao(args, "threadsAsync", "4"));
+        int segundos = Integer.parseInt(opcao(args, "segundos", "5"));
+        int contas = Integer.parseInt(opcao(args, "contas", "10000"));
+        int transferencias = Integer.parseInt(opcao(args, "transferencias", "50"));
+
+        System.out.printf("%d núcleos, %d threads bloqueantes, janela=%d, filas=%d, threadsAsync=%d%n",
+                Runtime.getRuntime().availableProcessors(), threads, janela, filas, threadsAsync);
+        System.out.printf("%-16s %-12s %15s%n", "journal", "api", "ops/s");
+        for (boolean comJournal : new boolean[]{false, true}){
+            String nome = comJournal ? "A_CADA_OPERACAO" : "sem journal";
+            Path arquivo = comJournal ? Files.createTempFile("async-bench", ".log") : null;
+            try (Journal journal = comJournal ? Journal.abrir(arquivo, PoliticaSincronizacao.A_CADA_OPERACAO, 0) : null) {
+                BancoService banco = comJournal ? new BancoService(journal) : new BancoService();
+                for (int i = 0; i < contas; i++){
+                    banco.criarConta(String.valueOf(i), "Titular " + i, 1_000_000.00);
+                }
+                System.out.printf("%-16s %-12s %,15d%n", nome, "bloqueante", bloqueante(banco, threads, segundos, contas, transferencias));
+                try (BancoServiceAsync async = new BancoServiceAsync(banco, filas, threadsAsync)) {
+                    System.out.printf("%-16s %-12s %,15d%n", nome, "assíncrona", assincrona(async, janela, segundos, contas, transferencias));
+                }
+            } finally {
+                if (arquivo != null){
+                    Files.deleteIfExists(arquivo);
+                }
+            }
+        }
+    }
+
+    private static long bloqueante(BancoService banco, int threads, int segundos, int contas, int transferencias)
+            throws InterruptedException {
+        LongAdder operacoes = new LongAdder();
+        CountDownLatch fim = new CountDownLatch(threads);
+        long limite = System.nanoTime() + segundos * 1_000_000_000L;
+        for (int t = 0; t < threads; t++){
+            new Thread(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                while (System.nanoTime() < limite){
+                    String origem = String.valueOf(random.nextInt(contas));
+                    if (random.nextInt(100) >= transferencias){
+                        banco.tentarDepositar(origem, 1.00);
+                    } else {
+                        banco.tentarTransferir(origem, String.valueOf(random.nextInt(contas)), 1.00);
+                    }
+                    operacoes.increment();
+                }
+                fim.countDown();
+            }).start();
+        }
+        fim.await();
+        return operacoes.sum() / segundos;
+    }
+
+    private static long assincrona(BancoServiceAsync async, int janela, int segundos, int contas, int transferencias)
+            throws InterruptedException {
+        Semaphore pendentes = new Semaphore(janela);
+        LongAdder operacoes = new LongAdder();
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        long limite = System.nanoTime() + segundos * 1_000_000_000L;
+        while (System.nanoTime() < limite){
+            pendentes.acquire();
+            String origem = String.valueOf(random.nextInt(contas));
+            (random.nextInt(100) >= transferencias
+                    ? async.tentarDepositar(origem, 1.00)
+                    : async.tentarTransferir(origem, String.valueOf(random.nextInt(contas)), 1.00))
+                    .whenComplete((resultado, falha) -> {
+                        operacoes.increment();
+                        pendentes.release();
+                    });
+        }
+        pendentes.acquire(janela);
+        return operacoes.sum() / segundos;
+    }
+
+    private static String opcao(String[] args, String nome, String padrao) {
+        for (String arg : args){
+            if (arg.startsWith("--" + nome + "=")){
+                return arg.substring(nome.length() + 3);
+            }
+        }
+        return padrao;
+    }
+}
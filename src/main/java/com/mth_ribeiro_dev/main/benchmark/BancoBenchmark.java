@@ -0,0 +1,288 @@
+package benchmark;
+
+import exception.ContaNaoEncontradaException;
+import exception.SaldoInsuficienteException;
+import exception.TransferenciaException;
+import repositorio.RepositorioCompacto;
+import repositorio.RepositorioContas;
+import repositorio.RepositorioMapa;
+import service.BancoService;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Random;
+import java.util.TreeSet;
+import java.util.concurrent.CountDownLatch;
+import java.util.function.Supplier;
+
+/**
+ * Benchmark dos caminhos quentes de {@link BancoService}: depositar, sacar,
+ * transferir, consultarSaldo e buscarConta, no caminho de sucesso e no de
+ * recusa.
+ * <p>
+ * Cada cenário roda com 1 thread e com N threads, com contas sorteadas de
+ * forma uniforme e com distribuição de Zipf (poucas contas quentes). Para
+ * cada execução são medidos ops/s, percentis de latência e bytes alocados por
+ * operação (via {@code com.sun.management.ThreadMXBean}).
+ * <p>
+ * Para acompanhar regressões entre versões, grave os resultados com
+ * {@code --salvar=arquivo} e compare uma versão nova com
+ * {@code --base=arquivo}: o processo termina com código 1 se algum cenário
+ * ficar mais lento que a tolerância (padrão 10%). Com {@code --metricas=true}
+ * os serviços medidos têm as métricas ligadas; comparar com uma base gravada
+ * sem elas mostra o custo da medição.
+ * <p>
+ * Uso: {@code java benchmark.BancoBenchmark [--threads=N] [--segundos=S]
+ * [--contas=N] [--zipf=1.1] [--cenario=prefixo] [--repositorio=mapa|compacto] [--metricas=true] [--salvar=arq]
+ * [--base=arq] [--tolerancia=0.10]}
+ */
+public class BancoBenchmark {
+
+    /**
+     * Uma operação medida. {@code conta} e {@code outra} são números de
+     * contas já existentes, sorteados pela distribuição da execução.
+     */
+    interface Acao {
+        void executar(BancoService banco, String conta, String outra) throws Exception;
+    }
+
+    static final class Cenario {
+        final String nome;
+        final double saldoInicial;
+        final Acao acao;
+
+        Cenario(String nome, double saldoInicial, Acao acao) {
+            this.nome = nome;
+            this.saldoInicial = saldoInicial;
+            this.acao = acao;
+        }
+    }
+
+    static final class Resultado {
+        final double opsPorSegundo;
+        final Histograma latencias;
+        final double bytesPorOperacao;
+
+        Resultado(double opsPorSegundo, Histograma latencias, double bytesPorOperacao) {
+            this.opsPorSegundo = opsPorSegundo;
+            this.latencias = latencias;
+            this.bytesPorOperacao = bytesPorOperacao;
+        }
+    }
+
+    /** Acumula o que as threads mediram; acessado sob o próprio monitor. */
+    private static final class Coleta {
+        final Histograma latencias = new Histograma();
+        long operacoes;
+        long bytes;
+    }
+
+    private static final double SALDO_ALTO = 1_000_000_000.00;
+
+    static List<Cenario> cenarios() {
+        List<Cenario> cenarios = new ArrayList<>();
+        cenarios.add(new Cenario("depositar", 0, (banco, conta, outra) -> banco.depositar(conta, 1.00)));
+        cenarios.add(new Cenario("sacar.sucesso", SALDO_ALTO, (banco, conta, outra) -> banco.sacar(conta, 1.00)));
+        cenarios.add(new Cenario("sacar.recusa", 0, (banco, conta, outra) -> {
+            try {
+                banco.sacar(conta, 1.00);
+            } catch (SaldoInsuficienteException e) {
+                // caminho medido
+            }
+        }));
+        cenarios.add(new Cenario("tentarSacar.recusa", 0, (banco, conta, outra) -> banco.tentarSacar(conta, 1.00)));
+        cenarios.add(new Cenario("transferir.sucesso", SALDO_ALTO, (banco, conta, outra) -> banco.transferir(conta, outra, 1.00)));
+        cenarios.add(new Cenario("transferir.recusa", 0, (banco, conta, outra) -> {
+            try {
+                banco.transferir(conta, outra, 1.00);
+            } catch (TransferenciaException e) {
+                // caminho medido
+            }
+        }));
+        cenarios.add(new Cenario("consultarSaldo", 100.00, (banco, conta, outra) -> banco.consultarSaldo(conta)));
+        cenarios.add(new Cenario("buscarConta", 100.00, (banco, conta, outra) -> banco.buscarConta(conta)));
+        cenarios.add(new Cenario("buscarConta.inexistente", 100.00, (banco, conta, outra) -> {
+            try {
+                banco.buscarConta("inexistente");
+            } catch (ContaNaoEncontradaException e) {
+                // caminho medido
+            }
+        }));
+        return cenarios;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> opcoes = lerOpcoes(args);
+        int threads = Integer.parseInt(opcoes.getOrDefault("threads", String.valueOf(Math.max(2, Runtime.getRuntime().availableProcessors()))));
+        int segundos = Integer.parseInt(opcoes.getOrDefault("segundos", "3"));
+        int numeroContas = Integer.parseInt(opcoes.getOrDefault("contas", "10000"));
+        double expoenteZipf = Double.parseDouble(opcoes.getOrDefault("zipf", "1.1"));
+        String filtro = opcoes.getOrDefault("cenario", "");
+        double tolerancia = Double.parseDouble(opcoes.getOrDefault("tolerancia", "0.10"));
+        Supplier<RepositorioContas> repositorio = opcoes.getOrDefault("repositorio", "mapa").equals("compacto")
+                ? RepositorioCompacto::new : RepositorioMapa::new;
+        boolean comMetricas = Boolean.parseBoolean(opcoes.getOrDefault("metricas", "false"));
+        Supplier<BancoService> fabrica = () -> {
+            BancoService banco = new BancoService(repositorio.get());
+            if (comMetricas){
+                banco.ativarMetricas();
+            }
+            return banco;
+        };
+
+        String[] numeros = new String[numeroContas];
+        for (int i = 0; i < numeroContas; i++){
+            numeros[i] = String.valueOf(i);
+        }
+        Zipf uniforme = new Zipf(numeroContas, 0);
+        Zipf concentrada = new Zipf(numeroContas, expoenteZipf);
+
+        System.out.printf("threads=%d segundos=%d contas=%d zipf=%.2f repositorio=%s metricas=%b%n", threads, segundos,
+                numeroContas, expoenteZipf, opcoes.getOrDefault("repositorio", "mapa"), comMetricas);
+        System.out.printf("%-42s %14s %9s %9s %10s %11s%n", "cenário", "ops/s", "p50 ns", "p99 ns", "p99.9 ns", "bytes/op");
+
+        Properties medidos = new Properties();
+        for (Cenario cenario : cenarios()){
+            if (!cenario.nome.startsWith(filtro)){
+                continue;
+            }
+            executarEImprimir(cenario, "1t.uniforme", 1, uniforme, numeros, segundos, fabrica, medidos);
+            executarEImprimir(cenario, threads + "t.uniforme", threads, uniforme, numeros, segundos, fabrica, medidos);
+            executarEImprimir(cenario, threads + "t.zipf", threads, concentrada, numeros, segundos, fabrica, medidos);
+        }
+
+        if (opcoes.containsKey("salvar")){
+            try (Writer saida = Files.newBufferedWriter(Path.of(opcoes.get("salvar")))) {
+                medidos.store(saida, "BancoBenchmark ops/s");
+            }
+        }
+        if (opcoes.containsKey("base") && !compararComBase(Path.of(opcoes.get("base")), medidos, tolerancia)){
+            System.exit(1);
+        }
+    }
+
+    private static void executarEImprimir(Cenario cenario, String variante, int threads, Zipf distribuicao,
+                                          String[] numeros, int segundos, Supplier<BancoService> fabrica,
+                                          Properties medidos) throws Exception {
+        Resultado resultado = executar(cenario, threads, distribuicao, numeros, segundos, fabrica);
+        String chave = cenario.nome + "." + variante;
+        System.out.printf("%-42s %,14.0f %9d %9d %10d %11.1f%n", chave, resultado.opsPorSegundo,
+                resultado.latencias.percentil(50), resultado.latencias.percentil(99),
+                resultado.latencias.percentil(99.9), resultado.bytesPorOperacao);
+        medidos.setProperty(chave, String.valueOf((long) resultado.opsPorSegundo));
+    }
+
+    /**
+     * Roda um cenário em um BancoService novo: um período de aquecimento com
+     * a mesma duração e depois a medição.
+     */
+    static Resultado executar(Cenario cenario, int threads, Zipf distribuicao, String[] numeros, int segundos,
+                              Supplier<BancoService> fabrica) throws Exception {
+        BancoService banco = fabrica.get();
+        for (String numero : numeros){
+            banco.criarConta(numero, "Titular " + numero, cenario.saldoInicial);
+        }
+        rodar(banco, cenario, threads, distribuicao, numeros, segundos, null);
+        Coleta coleta = new Coleta();
+        long inicio = System.nanoTime();
+        rodar(banco, cenario, threads, distribuicao, numeros, segundos, coleta);
+        double duracao = (System.nanoTime() - inicio) / 1e9;
+        return new Resultado(coleta.operacoes / duracao, coleta.latencias,
+                coleta.operacoes == 0 ? 0 : (double) coleta.bytes / coleta.operacoes);
+    }
+
+    private static void rodar(BancoService banco, Cenario cenario, int threads, Zipf distribuicao, String[] numeros,
+                              int segundos, Coleta coleta) throws InterruptedException {
+        com.sun.management.ThreadMXBean mx = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        CountDownLatch largada = new CountDownLatch(1);
+        CountDownLatch fim = new CountDownLatch(threads);
+        List<Throwable> falhas = new ArrayList<>();
+        for (int t = 0; t < threads; t++){
+            long semente = 31L * t + 7;
+            Thread thread = new Thread(() -> {
+                Random random = new Random(semente);
+                Histograma local = new Histograma();
+                long operacoes = 0;
+                try {
+                    largada.await();
+                    long bytesAntes = mx.getThreadAllocatedBytes(Thread.currentThread().getId());
+                    long limite = System.nanoTime() + segundos * 1_000_000_000L;
+                    long agora = System.nanoTime();
+                    while (agora < limite){
+                        String conta = numeros[distribuicao.proximo(random)];
+                        String outra = numeros[distribuicao.proximo(random)];
+                        cenario.acao.executar(banco, conta, outra);
+                        long depois = System.nanoTime();
+                        local.registrar(depois - agora);
+                        agora = depois;
+                        operacoes++;
+                    }
+                    long bytes = mx.getThreadAllocatedBytes(Thread.currentThread().getId()) - bytesAntes;
+                    if (coleta != null){
+                        synchronized (coleta){
+                            coleta.latencias.somar(local);
+                            coleta.operacoes += operacoes;
+                            coleta.bytes += bytes;
+                        }
+                    }
+                } catch (Throwable e) {
+                    synchronized (falhas){
+                        falhas.add(e);
+                    }
+                } finally {
+                    fim.countDown();
+                }
+            }, "bench-" + t);
+            thread.start();
+        }
+        largada.countDown();
+        fim.await();
+        if (!falhas.isEmpty()){
+            throw new IllegalStateException("Cenário " + cenario.nome + " falhou", falhas.get(0));
+        }
+    }
+
+    private static boolean compararComBase(Path arquivo, Properties medidos, double tolerancia) throws IOException {
+        Properties base = new Properties();
+        try (Reader entrada = Files.newBufferedReader(arquivo)) {
+            base.load(entrada);
+        }
+        boolean ok = true;
+        System.out.println();
+        System.out.println("Comparação com " + arquivo + " (tolerância " + Math.round(tolerancia * 100) + "%):");
+        for (String chave : new TreeSet<>(medidos.stringPropertyNames())){
+            String anterior = base.getProperty(chave);
+            if (anterior == null){
+                continue;
+            }
+            double antes = Double.parseDouble(anterior);
+            double agora = Double.parseDouble(medidos.getProperty(chave));
+            double variacao = (agora - antes) / antes;
+            boolean regressao = variacao < -tolerancia;
+            ok &= !regressao;
+            System.out.printf("%-42s %+7.1f%% %s%n", chave, variacao * 100, regressao ? "REGRESSÃO" : "");
+        }
+        return ok;
+    }
+
+    private static Map<String, String> lerOpcoes(String[] args) {
+        Map<String, String> opcoes = new LinkedHashMap<>();
+        for (String arg : args){
+            if (!arg.startsWith("--") || !arg.contains("=")){
+                throw new IllegalArgumentException("Opção inválida: " + arg + " (use --nome=valor)");
+            }
+            int igual = arg.indexOf('=');
+            opcoes.put(arg.substring(2, igual), arg.substring(igual + 1));
+        }
+        return opcoes;
+    }
+}
@@ -0,0 +1,333 @@
+package benchmark;
+
+import model.ResultadoOperacao;
+import persistencia.Journal;
+import persistencia.PoliticaSincronizacao;
+import servidor.ServidorBanco;
+import service.BancoService;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+/**
+ * Gerador de carga para {@link ServidorBanco}: mantém um número fixo de
+ * conexões, cada uma com uma requisição em andamento (depósitos, saques e
+ * transferências entre contas sorteadas), e no fim mostra vazão, latências,
+ * respostas por status e o pico de operações em andamento medido pelo
+ * servidor.
+ * <p>
+ * O servidor roda em outra JVM, iniciada por este programa com o mesmo
+ * classpath, para que cliente e servidor não disputem o limite de arquivos
+ * abertos do processo. O cliente é um laço NIO de uma thread só, para que o
+ * gerador não seja o gargalo.
+ * <p>
+ * {@code --latencia=ms} faz cada operação do servidor esperar esse tempo antes
+ * de executar, simulando um armazenamento remoto lento. Pela lei de Little,
+ * operações em andamento = vazão × tempo de cada uma; sem essa espera as
+ * operações em memória terminam em microssegundos e quase nada fica em
+ * andamento.
+ * <p>
+ * Uso: {@code java benchmark.CargaServidor [--requisicoes=N] [--concorrencia=N]
+ * [--contas=N] [--latencia=ms] [--limite=N] [--prazo=ms] [--journal=true|false]}
+ */
+public class CargaServidor {
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> opcoes = new TreeMap<>();
+        for (String arg : args){
+            int igual = arg.indexOf('=');
+            if (!arg.startsWith("--") || igual < 0){
+                throw new IllegalArgumentException("Opção inválida: " + arg + " (use --nome=valor)");
+            }
+            opcoes.put(arg.substring(2, igual), arg.substring(igual + 1));
+        }
+        int limite = Integer.parseInt(opcoes.getOrDefault("limite", "20000"));
+        long prazo = Long.parseLong(opcoes.getOrDefault("prazo", "30000"));
+        long latencia = Long.parseLong(opcoes.getOrDefault("latencia", "0"));
+        if (opcoes.containsKey("servidor")){
+            servir(Path.of(opcoes.get("servidor")), limite, prazo, latencia);
+            return;
+        }
+        int requisicoes = Integer.parseInt(opcoes.getOrDefault("requisicoes", "100000"));
+        int concorrencia = Integer.parseInt(opcoes.getOrDefault("concorrencia", "10000"));
+        int numeroContas = Integer.parseInt(opcoes.getOrDefault("contas", "1000"));
+        boolean comJournal = Boolean.parseBoolean(opcoes.getOrDefault("journal", "true"));
+
+        Path journal = comJournal ? Files.createTempFile("carga", ".journal") : Path.of("-");
+        List<String> comando = new ArrayList<>(List.of(
+                ProcessHandle.current().info().command().orElse("java"),
+                "-cp", System.getProperty("java.class.path"),
+                CargaServidor.class.getName(), "--servidor=" + journal, "--limite=" + limite, "--prazo=" + prazo,
+                "--latencia=" + latencia));
+        Process processo = new ProcessBuilder(comando).redirectErrorStream(true).start();
+        try{
+            BufferedReader saida = new BufferedReader(new InputStreamReader(processo.getInputStream(), StandardCharsets.UTF_8));
+            String linha = saida.readLine();
+            if (linha == null || !linha.contains("porta ")){
+                throw new IllegalStateException("Servidor não iniciou: " + linha);
+            }
+            System.out.println(linha);
+            InetSocketAddress endereco = new InetSocketAddress("127.0.0.1",
+                    Integer.parseInt(linha.replaceAll(".*porta (\\d+).*", "$1")));
+
+            new Cliente(endereco, Math.min(concorrencia, 256), numeroContas,
+                    i -> "POST /contas?numero=" + i + "&titular=Titular%20" + i + "&saldo=1000.00").executar();
+
+            Random random = new Random(42);
+            Cliente cliente = new Cliente(endereco, concorrencia, requisicoes, i -> {
+                int sorteio = random.nextInt(10);
+                int conta = random.nextInt(numeroContas);
+                if (sorteio < 4){
+                    return "POST /depositos?conta=" + conta + "&valor=10.00";
+                } else if (sorteio < 7){
+                    return "POST /saques?conta=" + conta + "&valor=10.00";
+                }
+                return "POST /transferencias?origem=" + conta + "&destino=" + random.nextInt(numeroContas) + "&valor=5.00";
+            });
+            long inicio = System.nanoTime();
+            cliente.executar();
+            double segundos = (System.nanoTime() - inicio) / 1e9;
+
+            Histograma latencias = cliente.latencias;
+            System.out.printf("%,d requisições em %,d conexões: %,.0f req/s%n", cliente.concluidas, concorrencia,
+                    cliente.concluidas / segundos);
+            System.out.printf("latência p50=%.1f ms p99=%.1f ms p99.9=%.1f ms máx=%.1f ms%n",
+                    latencias.percentil(50) / 1e6, latencias.percentil(99) / 1e6,
+                    latencias.percentil(99.9) / 1e6, latencias.getMaximo() / 1e6);
+            System.out.println("respostas por status: " + cliente.porStatus
+                    + (cliente.falhas > 0 ? ", conexões perdidas: " + cliente.falhas : ""));
+
+            Cliente status = new Cliente(endereco, 1, 1, i -> "GET /status");
+            status.executar();
+            System.out.print(status.ultimoCorpo);
+        } finally {
+            processo.destroy();
+            processo.waitFor();
+            if (comJournal){
+                Files.deleteIfExists(journal);
+            }
+        }
+    }
+
+    /**
+     * Modo servidor, na JVM iniciada por {@link #main(String[])}.
+     */
+    private static void servir(Path arquivoJournal, int limite, long prazo, long latencia) throws IOException {
+        Journal journal = arquivoJournal.toString().equals("-")
+                ? null : Journal.abrir(arquivoJournal, PoliticaSincronizacao.A_CADA_OPERACAO, 0);
+        BancoService banco = journal == null ? new BancoComLatencia(latencia) : new BancoComLatencia(journal, latencia);
+        ServidorBanco servidor = new ServidorBanco(banco, 0, limite, prazo);
+        servidor.iniciar();
+        System.out.println("ServidorBanco na porta " + servidor.getPorta() + " (threads virtuais: "
+                + servidor.isThreadsVirtuais() + ", limite " + limite + ", prazo " + prazo + " ms, latência simulada "
+                + latencia + " ms)");
+    }
+
+    /**
+     * Simula um armazenamento lento: cada operação espera antes de executar.
+     */
+    private static final class BancoComLatencia extends BancoService {
+        private final long latencia;
+
+        private BancoComLatencia(long latencia) {
+            this.latencia = latencia;
+        }
+
+        private BancoComLatencia(Journal journal, long latencia) throws IOException {
+            super(journal);
+            this.latencia = latencia;
+        }
+
+        @Override
+        public ResultadoOperacao tentarDepositar(String numeroConta, double valor) {
+            esperar();
+            return super.tentarDepositar(numeroConta, valor);
+        }
+
+        @Override
+        public ResultadoOperacao tentarSacar(String numeroConta, double valor) {
+            esperar();
+            return super.tentarSacar(numeroConta, valor);
+        }
+
+        @Override
+        public ResultadoOperacao tentarTransferir(String numeroOrigem, String numeroDestino, double valor) {
+            esperar();
+            return super.tentarTransferir(numeroOrigem, numeroDestino, valor);
+        }
+
+        private void esperar() {
+            if (latencia > 0){
+                try{
+                    Thread.sleep(latencia);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+    }
+
+    interface GeradorRequisicao {
+        /** @return método e caminho, por exemplo "POST /saques?conta=1&amp;valor=10" */
+        String linha(int indice);
+    }
+
+    /**
+     * Cliente HTTP/1.1 mínimo com keep-alive: cada conexão envia uma
+     * requisição, espera a resposta e envia a próxima, até completar o total.
+     */
+    private static final class Cliente {
+        /**
+         * Conexões abertas de uma vez antes de atender eventos por um
+         * instante. Abrir todas de uma vez estoura a fila de conexões
+         * pendentes do sistema (somaxconn) e o servidor perde as excedentes.
+         */
+        private static final int LOTE_CONEXOES = 500;
+        private static final long PAUSA_ENTRE_LOTES_MILLIS = 50;
+
+        private final InetSocketAddress endereco;
+        private final int conexoes;
+        private final int total;
+        private final GeradorRequisicao gerador;
+        private final Histograma latencias = new Histograma();
+        private final Map<Integer, Integer> porStatus = new TreeMap<>();
+        private int enviadas;
+        private int concluidas;
+        private int falhas;
+        private String ultimoCorpo;
+
+        private Cliente(InetSocketAddress endereco, int conexoes, int total, GeradorRequisicao gerador) {
+            this.endereco = endereco;
+            this.conexoes = Math.min(conexoes, total);
+            this.total = total;
+            this.gerador = gerador;
+        }
+
+        private static final class Conexao {
+            private final ByteBuffer recepcao = ByteBuffer.allocate(2048);
+            private ByteBuffer envio;
+            private long enviadaEm;
+        }
+
+        private void executar() throws IOException {
+            try (Selector seletor = Selector.open()) {
+                int abertas = 0;
+                int iniciadas = 0;
+                long proximoLote = 0;
+                while (iniciadas < conexoes || abertas > 0){
+                    if (iniciadas < conexoes && System.nanoTime() >= proximoLote){
+                        int lote = Math.min(LOTE_CONEXOES, conexoes - iniciadas);
+                        for (int i = 0; i < lote; i++){
+                            SocketChannel canal = SocketChannel.open();
+                            canal.configureBlocking(false);
+                            canal.connect(endereco);
+                            canal.register(seletor, SelectionKey.OP_CONNECT, new Conexao());
+                        }
+                        iniciadas += lote;
+                        abertas += lote;
+                        proximoLote = System.nanoTime() + PAUSA_ENTRE_LOTES_MILLIS * 1_000_000;
+                    }
+                    if (iniciadas < conexoes){
+                        seletor.select(PAUSA_ENTRE_LOTES_MILLIS);
+                    } else {
+                        seletor.select();
+                    }
+                    Iterator<SelectionKey> prontas = seletor.selectedKeys().iterator();
+                    while (prontas.hasNext()){
+                        SelectionKey chave = prontas.next();
+                        prontas.remove();
+                        if (!processar(chave)){
+                            chave.cancel();
+                            chave.channel().close();
+                            abertas--;
+                        }
+                    }
+                }
+            }
+        }
+
+        /**
+         * @return false quando a conexão deve ser fechada
+         */
+        private boolean processar(SelectionKey chave) {
+            SocketChannel canal = (SocketChannel) chave.channel();
+            Conexao conexao = (Conexao) chave.attachment();
+            try{
+                if (chave.isConnectable()){
+                    canal.finishConnect();
+                    return enviarProxima(chave, conexao);
+                }
+                if (chave.isWritable()){
+                    canal.write(conexao.envio);
+                    if (!conexao.envio.hasRemaining()){
+                        chave.interestOps(SelectionKey.OP_READ);
+                    }
+                    return true;
+                }
+                if (chave.isReadable()){
+                    if (canal.read(conexao.recepcao) < 0){
+                        falhas++;
+                        return false;
+                    }
+                    return !respostaCompleta(conexao) || enviarProxima(chave, conexao);
+                }
+                return true;
+            } catch (IOException e) {
+                falhas++;
+                return false;
+            }
+        }
+
+        private boolean enviarProxima(SelectionKey chave, Conexao conexao) {
+            if (enviadas == total){
+                return false;
+            }
+            String requisicao = gerador.linha(enviadas++) + " HTTP/1.1\r\nHost: " + endereco.getHostString()
+                    + "\r\nContent-Length: 0\r\n\r\n";
+            conexao.envio = ByteBuffer.wrap(requisicao.getBytes(StandardCharsets.US_ASCII));
+            conexao.enviadaEm = System.nanoTime();
+            chave.interestOps(SelectionKey.OP_WRITE);
+            return true;
+        }
+
+        private boolean respostaCompleta(Conexao conexao) {
+            ByteBuffer buffer = conexao.recepcao;
+            String recebido = new String(buffer.array(), 0, buffer.position(), StandardCharsets.ISO_8859_1);
+            int fimCabecalho = recebido.indexOf("\r\n\r\n");
+            if (fimCabecalho < 0){
+                return false;
+            }
+            int tamanho = 0;
+            for (String linha : recebido.substring(0, fimCabecalho).split("\r\n")){
+                if (linha.regionMatches(true, 0, "Content-Length:", 0, 15)){
+                    tamanho = Integer.parseInt(linha.substring(15).trim());
+                }
+            }
+            if (recebido.length() < fimCabecalho + 4 + tamanho){
+                return false;
+            }
+            int status = Integer.parseInt(recebido.substring(9, 12));
+            porStatus.merge(status, 1, Integer::sum);
+            latencias.registrar(System.nanoTime() - conexao.enviadaEm);
+            ultimoCorpo = new String(buffer.array(), fimCabecalho + 4, tamanho, StandardCharsets.UTF_8);
+            concluidas++;
+            buffer.clear();
+            return true;
+        }
+    }
+}
@@ -0,0 +1,306 @@
+package benchmark;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Um roteiro de operações para {@link SimulacaoCarga}: as contas iniciais e,
+ * para cada thread, a sequência exata de operações que ela executa.
+ * <p>
+ * O roteiro é gerado a partir de uma semente (cada thread com o seu
+ * {@link Random}, então mudar o número de threads não muda as operações das
+ * outras) ou lido de um arquivo gravado antes com {@link #gravar(Path)}, e
+ * fica todo em memória em vetores primitivos: durante a execução nada é
+ * sorteado nem alocado para escolher a próxima operação.
+ * <p>
+ * As contas iniciais têm os números {@code 0} a {@code contas - 1} e são
+ * escolhidas com distribuição de Zipf (a conta 0 é a mais procurada). As
+ * contas criadas durante a execução recebem números acima desses, sem
+ * repetição entre threads, e só entram no roteiro na criação.
+ */
+public final class CargaSimulada {
+
+    /** As operações do roteiro, na ordem em que aparecem em {@code --mistura}. */
+    public enum Tipo {
+        CRIAR, DEPOSITAR, SACAR, TRANSFERIR, INATIVAR, CONSULTAR;
+
+        private static final Tipo[] TODOS = values();
+
+        public String getNome() {
+            return switch (this){
+                case CRIAR -> "criar";
+                case DEPOSITAR -> "depositar";
+                case SACAR -> "sacar";
+                case TRANSFERIR -> "transferir";
+                case INATIVAR -> "inativar";
+                case CONSULTAR -> "consultar";
+            };
+        }
+    }
+
+    public static final String MISTURA_PADRAO =
+            "criar:1,depositar:30,sacar:25,transferir:30,inativar:0.05,consultar:13.95";
+    /** Maior valor sorteado para depósitos, saques e transferências. */
+    private static final int VALOR_MAXIMO_CENTAVOS = 500_00;
+    private static final int MAGIA = 0x53494D31;
+
+    private final long semente;
+    private final int contas;
+    private final long saldoInicialCentavos;
+    private final byte[][] tipos;
+    private final int[][] contasOrigem;
+    private final int[][] contasDestino;
+    private final long[][] valores;
+    /** Números de todas as contas, iniciais e criadas, já convertidos. */
+    private final String[] numeros;
+
+    private CargaSimulada(long semente, int contas, long saldoInicialCentavos, byte[][] tipos,
+                          int[][] contasOrigem, int[][] contasDestino, long[][] valores) {
+        this.semente = semente;
+        this.contas = contas;
+        this.saldoInicialCentavos = saldoInicialCentavos;
+        this.tipos = tipos;
+        this.contasOrigem = contasOrigem;
+        this.contasDestino = contasDestino;
+        this.valores = valores;
+        int maiorConta = contas - 1;
+        for (int t = 0; t < tipos.length; t++){
+            for (int i = 0; i < tipos[t].length; i++){
+                maiorConta = Math.max(maiorConta, contasOrigem[t][i]);
+                maiorConta = Math.max(maiorConta, contasDestino[t][i]);
+            }
+        }
+        this.numeros = new String[maiorConta + 1];
+        for (int i = 0; i < numeros.length; i++){
+            numeros[i] = Integer.toString(i);
+        }
+    }
+
+    /**
+     * Gera um roteiro. A mesma chamada gera sempre o mesmo roteiro.
+     *
+     * @param semente Semente dos sorteios; a thread t usa {@code semente + t}
+     * @param threads Threads que executam o roteiro
+     * @param operacoesPorThread Operações de cada thread
+     * @param contas Contas criadas antes da execução
+     * @param saldoInicialCentavos Saldo inicial de todas as contas, inclusive as criadas no roteiro
+     * @param expoenteZipf Concentração das operações nas contas mais procuradas (0 é uniforme)
+     * @param mistura Pesos das operações, como {@link #MISTURA_PADRAO}
+     * @return O roteiro
+     */
+    public static CargaSimulada gerar(long semente, int threads, int operacoesPorThread, int contas,
+                                      long saldoInicialCentavos, double expoenteZipf, String mistura) {
+        if (threads <= 0 || operacoesPorThread < 0 || contas < 2 || saldoInicialCentavos < 0){
+            throw new IllegalArgumentException("Roteiro inválido: " + threads + " threads, " + contas + " contas");
+        }
+        double[] acumulada = pesos(mistura);
+        Zipf zipf = new Zipf(contas, expoenteZipf);
+        byte[][] tipos = new byte[threads][operacoesPorThread];
+        int[][] origens = new int[threads][operacoesPorThread];
+        int[][] destinos = new int[threads][operacoesPorThread];
+        long[][] valores = new long[threads][operacoesPorThread];
+        for (int t = 0; t < threads; t++){
+            Random random = new Random(semente + t);
+            int criadas = 0;
+            for (int i = 0; i < operacoesPorThread; i++){
+                Tipo tipo = sortear(acumulada, random.nextDouble());
+                tipos[t][i] = (byte) tipo.ordinal();
+                switch (tipo){
+                    case CRIAR -> {
+                        origens[t][i] = contas + criadas++ * threads + t;
+                        valores[t][i] = saldoInicialCentavos;
+                    }
+                    case TRANSFERIR -> {
+                        int origem = zipf.proximo(random);
+                        int destino = zipf.proximo(random);
+                        if (destino == origem){
+                            destino = (origem + 1) % contas;
+                        }
+                        origens[t][i] = origem;
+                        destinos[t][i] = destino;
+                        valores[t][i] = 1 + random.nextInt(VALOR_MAXIMO_CENTAVOS);
+                    }
+                    case DEPOSITAR, SACAR -> {
+                        origens[t][i] = zipf.proximo(random);
+                        valores[t][i] = 1 + random.nextInt(VALOR_MAXIMO_CENTAVOS);
+                    }
+                    default -> origens[t][i] = zipf.proximo(random);
+                }
+            }
+        }
+        return new CargaSimulada(semente, contas, saldoInicialCentavos, tipos, origens, destinos, valores);
+    }
+
+    /**
+     * Lê um roteiro gravado por {@link #gravar(Path)}.
+     *
+     * @param arquivo Arquivo do roteiro
+     * @return O roteiro, com as mesmas operações na mesma ordem
+     * @throws IOException se o arquivo não puder ser lido ou não for um roteiro
+     */
+    public static CargaSimulada ler(Path arquivo) throws IOException {
+        try (DataInputStream entrada = new DataInputStream(new BufferedInputStream(Files.newInputStream(arquivo)))) {
+            if (entrada.readInt() != MAGIA){
+                throw new IOException("Não é um roteiro de simulação: " + arquivo);
+            }
+            long semente = entrada.readLong();
+            int contas = entrada.readInt();
+            long saldoInicial = entrada.readLong();
+            int threads = entrada.readInt();
+            byte[][] tipos = new byte[threads][];
+            int[][] origens = new int[threads][];
+            int[][] destinos = new int[threads][];
+            long[][] valores = new long[threads][];
+            for (int t = 0; t < threads; t++){
+                int quantidade = entrada.readInt();
+                tipos[t] = new byte[quantidade];
+                origens[t] = new int[quantidade];
+                destinos[t] = new int[quantidade];
+                valores[t] = new long[quantidade];
+                for (int i = 0; i < quantidade; i++){
+                    tipos[t][i] = entrada.readByte();
+                    if (tipos[t][i] < 0 || tipos[t][i] >= Tipo.TODOS.length){
+                        throw new IOException("Operação desconhecida no roteiro: " + tipos[t][i]);
+                    }
+                    origens[t][i] = entrada.readInt();
+                    destinos[t][i] = entrada.readInt();
+                    valores[t][i] = entrada.readLong();
+                }
+            }
+            return new CargaSimulada(semente, contas, saldoInicial, tipos, origens, destinos, valores);
+        }
+    }
+
+    /**
+     * Grava o roteiro para ser reproduzido depois com {@link #ler(Path)}.
+     *
+     * @param arquivo Arquivo de destino (substituído se existir)
+     * @throws IOException se o arquivo não puder ser escrito
+     */
+    public void gravar(Path arquivo) throws IOException {
+        try (DataOutputStream saida = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(arquivo)))) {
+            saida.writeInt(MAGIA);
+            saida.writeLong(semente);
+            saida.writeInt(contas);
+            saida.writeLong(saldoInicialCentavos);
+            saida.writeInt(tipos.length);
+            for (int t = 0; t < tipos.length; t++){
+                saida.writeInt(tipos[t].length);
+                for (int i = 0; i < tipos[t].length; i++){
+                    saida.writeByte(tipos[t][i]);
+                    saida.writeInt(contasOrigem[t][i]);
+                    saida.writeInt(contasDestino[t][i]);
+                    saida.writeLong(valores[t][i]);
+                }
+            }
+        }
+    }
+
+    public long getSemente() {
+        return semente;
+    }
+
+    public int getContas() {
+        return contas;
+    }
+
+    public long getSaldoInicialCentavos() {
+        return saldoInicialCentavos;
+    }
+
+    public int getThreads() {
+        return tipos.length;
+    }
+
+    /**
+     * @return total de operações de todas as threads
+     */
+    public long getOperacoes() {
+        long total = 0;
+        for (byte[] daThread : tipos){
+            total += daThread.length;
+        }
+        return total;
+    }
+
+    /**
+     * @return quantas posições de conta o roteiro usa (iniciais e criadas)
+     */
+    int getNumeracao() {
+        return numeros.length;
+    }
+
+    String numero(int conta) {
+        return numeros[conta];
+    }
+
+    int quantidade(int thread) {
+        return tipos[thread].length;
+    }
+
+    Tipo tipo(int thread, int i) {
+        return Tipo.TODOS[tipos[thread][i]];
+    }
+
+    int origem(int thread, int i) {
+        return contasOrigem[thread][i];
+    }
+
+    int destino(int thread, int i) {
+        return contasDestino[thread][i];
+    }
+
+    long valor(int thread, int i) {
+        return valores[thread][i];
+    }
+
+    /**
+     * @param mistura Pares {@code operacao:peso} separados por vírgula; as
+     *                operações ausentes têm peso 0
+     * @return os pesos acumulados e normalizados, na ordem de {@link Tipo}
+     */
+    static double[] pesos(String mistura) {
+        double[] pesos = new double[Tipo.TODOS.length];
+        for (String par : mistura.split(",")){
+            String[] partes = par.trim().split(":");
+            if (partes.length != 2){
+                throw new IllegalArgumentException("Mistura inválida: " + par);
+            }
+            Tipo tipo = Arrays.stream(Tipo.TODOS).filter(t -> t.getNome().equals(partes[0].trim())).findFirst()
+                    .orElseThrow(() -> new IllegalArgumentException("Operação desconhecida na mistura: " + partes[0]));
+            double peso = Double.parseDouble(partes[1].trim());
+            if (!(peso >= 0)){
+                throw new IllegalArgumentException("Peso inválido na mistura: " + par);
+            }
+            pesos[tipo.ordinal()] = peso;
+        }
+        double soma = 0;
+        for (int i = 0; i < pesos.length; i++){
+            soma += pesos[i];
+            pesos[i] = soma;
+        }
+        if (soma <= 0){
+            throw new IllegalArgumentException("Mistura sem operações: " + mistura);
+        }
+        for (int i = 0; i < pesos.length; i++){
+            pesos[i] /= soma;
+        }
+        return pesos;
+    }
+
+    private static Tipo sortear(double[] acumulada, double sorteio) {
+        for (int i = 0; i < acumulada.length - 1; i++){
+            if (sorteio < acumulada[i]){
+                return Tipo.TODOS[i];
+            }
+        }
+        return Tipo.TODOS[acumulada.length - 1];
+    }
+}
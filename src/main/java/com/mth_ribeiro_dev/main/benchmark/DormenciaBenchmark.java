@@ -0,0 +1,111 @@
+package benchmark;
+
+import model.Conta;
+import repositorio.RepositorioCompacto;
+import repositorio.RepositorioContas;
+import repositorio.RepositorioMapa;
+import service.BancoService;
+import service.VarreduraDormencia;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Custo de uma varredura de dormência conforme o total de contas, com a
+ * mesma quantidade de contas vencendo a cada vez, contra percorrer todas as
+ * contas procurando as paradas.
+ * <p>
+ * As contas são criadas em grupos de {@code --vencendo}, um grupo por tique
+ * (1/1024 do prazo de 180 dias) de um relógio simulado, então cada tique
+ * depois do prazo vence um grupo. Percorrer todas as contas é o que seria
+ * preciso sem a roda, só para olhar o último movimento de cada uma.
+ * <p>
+ * Uso: {@code java -Xmx4g benchmark.DormenciaBenchmark [--contas=1000000,4000000]
+ * [--vencendo=10000] [--repositorio=compacto|mapa] [--repeticoes=5]}
+ */
+public class DormenciaBenchmark {
+
+    private static final Duration PRAZO = Duration.ofDays(180);
+    /** A resolução padrão da varredura. */
+    private static final long TIQUE = PRAZO.dividedBy(1024).toMillis();
+    private static final int AQUECIMENTO = 3;
+
+    /** Evita que o percurso seja eliminado pelo JIT. */
+    private static volatile long sumidouro;
+
+    public static void main(String[] args) {
+        String[] totais = opcao(args, "contas", "1000000,4000000").split(",");
+        int vencendo = Integer.parseInt(opcao(args, "vencendo", "10000"));
+        boolean compacto = opcao(args, "repositorio", "compacto").equals("compacto");
+        int repeticoes = Integer.parseInt(opcao(args, "repeticoes", "5"));
+
+        System.out.printf("%d núcleos, %s, %,d contas vencendo por varredura%n",
+                Runtime.getRuntime().availableProcessors(), compacto ? "compacto" : "mapa", vencendo);
+        System.out.printf("%-12s %16s %16s %18s%n", "contas", "varredura ms", "inativadas", "percorrer tudo ms");
+        for (String valor : totais){
+            int contas = Integer.parseInt(valor.trim());
+            medir(contas, vencendo, compacto, repeticoes);
+        }
+    }
+
+    private static void medir(int contas, int vencendo, boolean compacto, int repeticoes) {
+        RepositorioContas repositorio = compacto ? new RepositorioCompacto() : new RepositorioMapa();
+        BancoService banco = new BancoService(repositorio);
+        long inicio = System.currentTimeMillis();
+        AtomicLong relogio = new AtomicLong(inicio);
+        try (VarreduraDormencia varredura = new VarreduraDormencia(banco, PRAZO, Duration.ofMillis(TIQUE),
+                Integer.MAX_VALUE, relogio::get)) {
+            for (int i = 0; i < contas; i++){
+                if (i % vencendo == 0){
+                    relogio.set(inicio + (i / vencendo) * TIQUE);
+                    varredura.varrer();
+                }
+                banco.criarConta(String.valueOf(i), "Titular " + (i % 100_000), 10.00);
+            }
+            varredura.varrer();
+
+            long fimDoPrazo = inicio + PRAZO.toMillis();
+            long melhor = Long.MAX_VALUE;
+            long inativadas = 0;
+            for (int r = 0; r < AQUECIMENTO + repeticoes; r++){
+                relogio.set(fimDoPrazo + (r + 1) * TIQUE);
+                long antes = System.nanoTime();
+                inativadas = varredura.varrer();
+                if (r >= AQUECIMENTO){
+                    melhor = Math.min(melhor, System.nanoTime() - antes);
+                }
+            }
+
+            long melhorPercurso = Long.MAX_VALUE;
+            for (int r = 0; r < repeticoes; r++){
+                long antes = System.nanoTime();
+                sumidouro += percorrer(repositorio, relogio.get() - PRAZO.toMillis());
+                melhorPercurso = Math.min(melhorPercurso, System.nanoTime() - antes);
+            }
+            System.out.printf("%,-12d %16.2f %,16d %18.1f%n", contas, melhor / 1e6, inativadas, melhorPercurso / 1e6);
+        }
+    }
+
+    /**
+     * O que uma busca sem a roda teria de fazer: olhar o último movimento de
+     * todas as contas ativas.
+     */
+    private static long percorrer(RepositorioContas repositorio, long limite) {
+        long paradas = 0;
+        for (Conta conta : repositorio){
+            if (conta.isAtiva() && conta.getUltimoMovimento() <= limite){
+                paradas++;
+            }
+        }
+        return paradas;
+    }
+
+    private static String opcao(String[] args, String nome, String padrao) {
+        for (String arg : args){
+            if (arg.startsWith("--" + nome + "=")){
+                return arg.substring(nome.length() + 3);
+            }
+        }
+        return padrao;
+    }
+}
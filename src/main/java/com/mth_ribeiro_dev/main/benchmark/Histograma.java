@@ -0,0 +1,83 @@
+package benchmark;
+
+/**
+ * Histograma de latências em nanossegundos com buckets log-lineares fixos
+ * (no estilo HDR): cada potência de 2 é dividida em 16 sub-buckets, o que dá
+ * erro relativo de até ~6% em qualquer faixa. Não é thread-safe: cada thread
+ * usa o seu e os resultados são somados com {@link #somar(Histograma)}.
+ */
+public final class Histograma {
+
+    private static final int SUB_BUCKETS_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKETS_BITS;
+    private static final int BUCKETS = (64 - SUB_BUCKETS_BITS) * SUB_BUCKETS + SUB_BUCKETS;
+
+    private final long[] contagens = new long[BUCKETS];
+    private long total;
+    private long maximo;
+
+    public void registrar(long nanos) {
+        if (nanos < 0){
+            nanos = 0;
+        }
+        contagens[indice(nanos)]++;
+        total++;
+        if (nanos > maximo){
+            maximo = nanos;
+        }
+    }
+
+    public void somar(Histograma outro) {
+        for (int i = 0; i < BUCKETS; i++){
+            contagens[i] += outro.contagens[i];
+        }
+        total += outro.total;
+        maximo = Math.max(maximo, outro.maximo);
+    }
+
+    public long getTotal() {
+        return total;
+    }
+
+    public long getMaximo() {
+        return maximo;
+    }
+
+    /**
+     * @param percentil Entre 0 e 100
+     * @return O limite superior do bucket que contém o percentil, em nanos
+     */
+    public long percentil(double percentil) {
+        if (total == 0){
+            return 0;
+        }
+        long alvo = Math.max(1, (long) Math.ceil(total * percentil / 100.0));
+        long acumulado = 0;
+        for (int i = 0; i < BUCKETS; i++){
+            acumulado += contagens[i];
+            if (acumulado >= alvo){
+                return Math.min(limiteSuperior(i), maximo);
+            }
+        }
+        return maximo;
+    }
+
+    static int indice(long valor) {
+        if (valor < SUB_BUCKETS){
+            return (int) valor;
+        }
+        int expoente = 63 - Long.numberOfLeadingZeros(valor);
+        int sub = (int) (valor >>> (expoente - SUB_BUCKETS_BITS)) & (SUB_BUCKETS - 1);
+        return (expoente - SUB_BUCKETS_BITS + 1) * SUB_BUCKETS + sub;
+    }
+
+    static long limiteSuperior(int indice) {
+        if (indice < SUB_BUCKETS){
+            return indice;
+        }
+        int expoente = indice / SUB_BUCKETS + SUB_BUCKETS_BITS - 1;
+        long sub = indice % SUB_BUCKETS;
+        long inicio = (1L << expoente) + (sub << (expoente - SUB_BUCKETS_BITS));
+        return inicio + (1L << (expoente - SUB_BUCKETS_BITS)) - 1;
+    }
+}
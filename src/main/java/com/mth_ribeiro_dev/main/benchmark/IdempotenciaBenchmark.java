@@ -0,0 +1,74 @@
+package benchmark;
+
+import service.BancoService;
+import service.CacheIdempotencia;
+
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Custo das chaves de idempotência em {@code tentarDepositar}: sem chave,
+ * com chaves novas (a operação roda e a chave é guardada) e com chaves
+ * repetidas (o resultado vem do cache), com o cache cheio de chaves no
+ * formato UUID.
+ * <p>
+ * Uso: {@code java benchmark.IdempotenciaBenchmark [capacidade] [threads] [operacoesPorThread]}
+ */
+public class IdempotenciaBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int capacidade = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        int threads = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+        int operacoes = args.length > 2 ? Integer.parseInt(args[2]) : capacidade / threads;
+
+        BancoService banco = new BancoService();
+        for (int t = 0; t < threads; t++){
+            banco.criarConta("C" + t, "Titular " + t, 0.00);
+        }
+        CacheIdempotencia cache = new CacheIdempotencia(capacidade, Duration.ofHours(1));
+        banco.usarIdempotencia(cache);
+        String[][] chaves = new String[threads][operacoes];
+        for (int t = 0; t < threads; t++){
+            for (int i = 0; i < operacoes; i++){
+                chaves[t][i] = String.format("%08x-0000-4000-8000-%012x", t, i);
+            }
+        }
+
+        System.out.printf("%-18s %15s%n", "chaves", "ops/s");
+        medir("sem chave", banco, chaves, false);
+        medir("novas", banco, chaves, true);
+        // As mesmas chaves de novo: agora todas estão no cache.
+        medir("repetidas", banco, chaves, true);
+        System.out.printf("cache: %,d de %,d chaves, acertos=%,d faltas=%,d despejos=%,d%n", cache.getQuantidade(),
+                cache.getCapacidade(), cache.getAcertos(), cache.getFaltas(), cache.getDespejos());
+    }
+
+    private static void medir(String nome, BancoService banco, String[][] chaves, boolean comChave)
+            throws InterruptedException {
+        int threads = chaves.length;
+        CountDownLatch largada = new CountDownLatch(1);
+        CountDownLatch fim = new CountDownLatch(threads);
+        for (int t = 0; t < threads; t++){
+            String conta = "C" + t;
+            String[] minhas = chaves[t];
+            new Thread(() -> {
+                try{
+                    largada.await();
+                    for (String chave : minhas){
+                        banco.tentarDepositar(comChave ? chave : null, conta, 1.00);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    fim.countDown();
+                }
+            }).start();
+        }
+        long inicio = System.nanoTime();
+        largada.countDown();
+        fim.await();
+        long duracao = System.nanoTime() - inicio;
+        long total = (long) threads * chaves[0].length;
+        System.out.printf("%-18s %,15d%n", nome, total * 1_000_000_000L / duracao);
+    }
+}
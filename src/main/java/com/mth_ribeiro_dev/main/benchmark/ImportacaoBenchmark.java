@@ -0,0 +1,100 @@
+package benchmark;
+
+import persistencia.ArquivoContas;
+import persistencia.FormatoContas;
+import repositorio.RepositorioCompacto;
+import repositorio.RepositorioContas;
+import repositorio.RepositorioMapa;
+import service.BancoService;
+import service.ResultadoImportacao;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+
+/**
+ * Linhas por segundo de {@link BancoService#importarContas} e
+ * {@link BancoService#exportarContas} em CSV e binário.
+ * <p>
+ * Gera um arquivo com {@code --contas} contas (uma em cada 50 inativa, uma
+ * em cada 1000 com saldo negativo, que é rejeitada), importa num serviço
+ * novo a cada repetição e exporta de volta. A melhor repetição de cada
+ * fase é a mostrada.
+ * <p>
+ * Uso: {@code java -Xmx4g benchmark.ImportacaoBenchmark [--contas=2000000]
+ * [--repositorio=compacto|mapa] [--repeticoes=3] [--diretorio=/tmp]}
+ */
+public class ImportacaoBenchmark {
+
+    public static void main(String[] args) throws IOException {
+        int contas = Integer.parseInt(opcao(args, "contas", "2000000"));
+        boolean compacto = opcao(args, "repositorio", "compacto").equals("compacto");
+        int repeticoes = Integer.parseInt(opcao(args, "repeticoes", "3"));
+        Path diretorio = Files.createTempDirectory(Path.of(opcao(args, "diretorio",
+                System.getProperty("java.io.tmpdir"))), "importacao");
+
+        System.out.printf("%d núcleos, %s, %,d contas%n",
+                Runtime.getRuntime().availableProcessors(), compacto ? "compacto" : "mapa", contas);
+        System.out.printf("%-8s %12s %18s %18s %14s%n", "formato", "MiB", "importar linhas/s",
+                "exportar linhas/s", "rejeitadas");
+        try{
+            for (FormatoContas formato : FormatoContas.values()){
+                Path arquivo = diretorio.resolve("contas." + formato.name().toLowerCase());
+                gerar(arquivo, formato, contas);
+                medir(arquivo, formato, compacto, repeticoes);
+                Files.delete(arquivo);
+            }
+        } finally {
+            try (var restantes = Files.list(diretorio)) {
+                for (Path restante : (Iterable<Path>) restantes::iterator){
+                    Files.delete(restante);
+                }
+            }
+            Files.delete(diretorio);
+        }
+    }
+
+    private static void gerar(Path arquivo, FormatoContas formato, int contas) throws IOException {
+        LocalDate inativacao = LocalDate.of(2024, 1, 31);
+        try (ArquivoContas.Escritor escritor = ArquivoContas.criar(arquivo, formato)) {
+            for (int i = 0; i < contas; i++){
+                long centavos = i % 1000 == 999 ? -100 : (i * 7919L) % 10_000_000;
+                escritor.escrever(String.valueOf(i), "Titular " + (i % 100_000), centavos,
+                        i % 50 == 0 ? inativacao : null);
+            }
+            escritor.concluir();
+        }
+    }
+
+    private static void medir(Path arquivo, FormatoContas formato, boolean compacto, int repeticoes)
+            throws IOException {
+        Path exportado = arquivo.resolveSibling(arquivo.getFileName() + ".exportado");
+        long melhorImportacao = Long.MAX_VALUE;
+        long melhorExportacao = Long.MAX_VALUE;
+        ResultadoImportacao resultado = null;
+        for (int r = 0; r < repeticoes; r++){
+            RepositorioContas repositorio = compacto ? new RepositorioCompacto() : new RepositorioMapa();
+            BancoService banco = new BancoService(repositorio);
+            resultado = banco.importarContas(arquivo, formato);
+            melhorImportacao = Math.min(melhorImportacao, resultado.getDuracaoNanos());
+
+            long antes = System.nanoTime();
+            banco.exportarContas(exportado, formato);
+            melhorExportacao = Math.min(melhorExportacao, System.nanoTime() - antes);
+        }
+        Files.delete(exportado);
+        System.out.printf("%-8s %12.1f %,18.0f %,18.0f %,14d%n", formato, Files.size(arquivo) / 1048576.0,
+                resultado.getLidas() * 1e9 / melhorImportacao, resultado.getImportadas() * 1e9 / melhorExportacao,
+                resultado.getRejeitadas());
+    }
+
+    private static String opcao(String[] args, String nome, String padrao) {
+        for (String arg : args){
+            if (arg.startsWith("--" + nome + "=")){
+                return arg.substring(nome.length() + 3);
+            }
+        }
+        return padrao;
+    }
+}
@@ -0,0 +1,70 @@
+package benchmark;
+
+import persistencia.Journal;
+import persistencia.PoliticaSincronizacao;
+import service.BancoService;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Compara operações por segundo de {@link BancoService} sem journal e com
+ * cada {@link PoliticaSincronizacao}.
+ * <p>
+ * Uso: {@code java benchmark.JournalBenchmark [threads] [segundos] [intervaloMillis]}
+ */
+public class JournalBenchmark {
+
+    private static final int NUMERO_CONTAS = 10_000;
+
+    public static void main(String[] args) throws Exception {
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : Runtime.getRuntime().availableProcessors();
+        int segundos = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+        long intervaloMillis = args.length > 2 ? Long.parseLong(args[2]) : 10;
+
+        System.out.println("threads=" + threads + " segundos=" + segundos + " intervaloMillis=" + intervaloMillis);
+        System.out.printf("%-22s %15s%n", "configuração", "ops/s");
+
+        medir("sem journal", new BancoService(), threads, segundos);
+        for (PoliticaSincronizacao politica : PoliticaSincronizacao.values()){
+            Path arquivo = Files.createTempFile("journal-bench", ".log");
+            try (Journal journal = Journal.abrir(arquivo, politica, intervaloMillis)) {
+                medir(politica.name(), new BancoService(journal), threads, segundos);
+            } finally {
+                Files.deleteIfExists(arquivo);
+            }
+        }
+    }
+
+    private static void medir(String nome, BancoService banco, int threads, int segundos)
+            throws InterruptedException {
+        for (int i = 0; i < NUMERO_CONTAS; i++){
+            banco.criarConta(String.valueOf(i), "Titular " + i, 1_000_000.00);
+        }
+        LongAdder operacoes = new LongAdder();
+        CountDownLatch fim = new CountDownLatch(threads);
+        long limite = System.nanoTime() + segundos * 1_000_000_000L;
+        for (int t = 0; t < threads; t++){
+            new Thread(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                while (System.nanoTime() < limite){
+                    String origem = String.valueOf(random.nextInt(NUMERO_CONTAS));
+                    String destino = String.valueOf(random.nextInt(NUMERO_CONTAS));
+                    if (random.nextBoolean()){
+                        banco.depositar(origem, 1.00);
+                    } else {
+                        banco.tentarTransferir(origem, destino, 1.00);
+                    }
+                    operacoes.increment();
+                }
+                fim.countDown();
+            }).start();
+        }
+        fim.await();
+        System.out.printf("%-22s %,15d%n", nome, operacoes.sum() / segundos);
+    }
+}
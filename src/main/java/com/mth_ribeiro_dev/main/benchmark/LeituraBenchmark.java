@@ -0,0 +1,117 @@
+package benchmark;
+
+import model.SituacaoConta;
+import service.BancoService;
+import service.PreviaTransferencia;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Vazão de uma carga com 95% de leituras e 5% de transferências, com as
+ * leituras consistentes sem trava ({@link BancoService#consultarSituacao} e
+ * {@link BancoService#previsualizarTransferencia}) contra as mesmas leituras
+ * feitas sob um {@link ReentrantReadWriteLock} global, o jeito comum de
+ * garantir que saldo e situação (ou as duas contas de uma prévia) sejam do
+ * mesmo instante. Com a trava, cada leitura escreve na palavra da trava,
+ * compartilhada por todas as threads, e espera as transferências.
+ * <p>
+ * Metade das leituras é uma situação e metade uma prévia de transferência.
+ * <p>
+ * Uso: {@code java benchmark.LeituraBenchmark [--threads=1,2,4,8]
+ * [--segundos=3] [--contas=10000] [--escritas=5]}, com {@code --escritas}
+ * o percentual de transferências
+ */
+public class LeituraBenchmark {
+
+    /** Evita que as leituras sejam eliminadas pelo JIT. */
+    private static volatile long sumidouro;
+
+    public static void main(String[] args) throws InterruptedException {
+        String[] threads = opcao(args, "threads", "1,2,4,8").split(",");
+        int segundos = Integer.parseInt(opcao(args, "segundos", "3"));
+        int contas = Integer.parseInt(opcao(args, "contas", "10000"));
+        int escritas = Integer.parseInt(opcao(args, "escritas", "5"));
+
+        BancoService banco = new BancoService();
+        for (int i = 0; i < contas; i++){
+            banco.criarConta(String.valueOf(i), "Titular " + i, 1_000_000.00);
+        }
+        System.out.printf("%d núcleos, %,d contas, %d%% de transferências%n",
+                Runtime.getRuntime().availableProcessors(), contas, escritas);
+        System.out.printf("%-8s %18s %18s%n", "threads", "sem trava ops/s", "trava global ops/s");
+        for (String valor : threads){
+            int n = Integer.parseInt(valor.trim());
+            medir(banco, n, 1, contas, escritas, null);
+            long otimista = medir(banco, n, segundos, contas, escritas, null);
+            long travado = medir(banco, n, segundos, contas, escritas, new ReentrantReadWriteLock());
+            System.out.printf("%-8d %,18d %,18d%n", n, otimista, travado);
+        }
+    }
+
+    private static long medir(BancoService banco, int threads, int segundos, int contas, int escritas,
+                              ReentrantReadWriteLock trava) throws InterruptedException {
+        LongAdder operacoes = new LongAdder();
+        CountDownLatch fim = new CountDownLatch(threads);
+        long limite = System.nanoTime() + segundos * 1_000_000_000L;
+        for (int t = 0; t < threads; t++){
+            new Thread(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                long feitas = 0;
+                long soma = 0;
+                while ((feitas & 0xFF) != 0 || System.nanoTime() < limite){
+                    String origem = String.valueOf(random.nextInt(contas));
+                    int sorteio = random.nextInt(200);
+                    if (sorteio < 2 * escritas){
+                        String destino = String.valueOf(random.nextInt(contas));
+                        if (trava == null){
+                            banco.tentarTransferir(origem, destino, 1.00);
+                        } else {
+                            trava.writeLock().lock();
+                            try{
+                                banco.tentarTransferir(origem, destino, 1.00);
+                            } finally {
+                                trava.writeLock().unlock();
+                            }
+                        }
+                    } else {
+                        if (trava != null){
+                            trava.readLock().lock();
+                        }
+                        try{
+                            if ((sorteio & 1) == 0){
+                                SituacaoConta situacao = banco.consultarSituacao(origem);
+                                soma += situacao.getSaldoCentavos();
+                            } else {
+                                PreviaTransferencia previa = banco.previsualizarTransferencia(origem,
+                                        String.valueOf(random.nextInt(contas)), 1.00);
+                                soma += previa.getSaldoDestinoDepoisCentavos();
+                            }
+                        } finally {
+                            if (trava != null){
+                                trava.readLock().unlock();
+                            }
+                        }
+                    }
+                    feitas++;
+                }
+                operacoes.add(feitas);
+                sumidouro += soma;
+                fim.countDown();
+            }).start();
+        }
+        fim.await();
+        return operacoes.sum() / segundos;
+    }
+
+    private static String opcao(String[] args, String nome, String padrao) {
+        for (String arg : args){
+            if (arg.startsWith("--" + nome + "=")){
+                return arg.substring(nome.length() + 3);
+            }
+        }
+        return padrao;
+    }
+}
@@ -0,0 +1,96 @@
+package benchmark;
+
+import model.ResultadoOperacao;
+import service.BancoService;
+import service.LimitesMovimentacao;
+
+import java.time.Duration;
+import java.util.SplittableRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Custo dos limites de movimentação em {@code tentarSacar}: sem limites,
+ * só o limite por conta e por conta mais o global, com limites altos o
+ * bastante para nada ser recusado (o caminho comum).
+ * <p>
+ * Cada thread saca R$0,01 de contas aleatórias por {@code --segundos}, em
+ * {@code --repeticoes} rodadas depois de um aquecimento igual; vale a
+ * melhor rodada. A diferença de ns/operação contra a configuração sem
+ * limites é o que a verificação acrescenta.
+ * <p>
+ * Uso: {@code java benchmark.LimitesBenchmark [--contas=100000] [--threads=1,4]
+ * [--segundos=2] [--repeticoes=3]}
+ */
+public class LimitesBenchmark {
+
+    private static final String[] CONFIGURACOES = {"sem limites", "por conta", "por conta + global"};
+
+    public static void main(String[] args) throws InterruptedException {
+        int contas = Integer.parseInt(opcao(args, "contas", "100000"));
+        String[] threads = opcao(args, "threads", "1,4").split(",");
+        long segundos = Long.parseLong(opcao(args, "segundos", "2"));
+        int repeticoes = Integer.parseInt(opcao(args, "repeticoes", "3"));
+
+        System.out.printf("%d núcleos, %,d contas%n", Runtime.getRuntime().availableProcessors(), contas);
+        System.out.printf("%-20s %8s %14s %12s%n", "limites", "threads", "ops/s", "ns/op");
+        for (String valor : threads){
+            int quantidade = Integer.parseInt(valor.trim());
+            for (int c = 0; c < CONFIGURACOES.length; c++){
+                BancoService banco = new BancoService();
+                for (int i = 0; i < contas; i++){
+                    banco.criarConta(String.valueOf(i), "Titular " + i, 1_000_000.00);
+                }
+                if (c > 0){
+                    LimitesMovimentacao.Limite alto = new LimitesMovimentacao.Limite(Integer.MAX_VALUE, 1e12,
+                            Duration.ofSeconds(1));
+                    banco.usarLimites(new LimitesMovimentacao(alto, c == 2 ? alto : null, System::nanoTime));
+                }
+                medir(banco, contas, quantidade, segundos * 1_000_000_000L);
+                double ops = 0;
+                for (int r = 0; r < repeticoes; r++){
+                    ops = Math.max(ops, medir(banco, contas, quantidade, segundos * 1_000_000_000L));
+                }
+                System.out.printf("%-20s %8d %,14.0f %12.1f%n", CONFIGURACOES[c], quantidade, ops,
+                        quantidade * 1e9 / ops);
+            }
+        }
+    }
+
+    private static double medir(BancoService banco, int contas, int threads, long duracaoNanos)
+            throws InterruptedException {
+        String[] numeros = new String[contas];
+        for (int i = 0; i < contas; i++){
+            numeros[i] = String.valueOf(i);
+        }
+        LongAdder operacoes = new LongAdder();
+        Thread[] trabalhadoras = new Thread[threads];
+        long fim = System.nanoTime() + duracaoNanos;
+        for (int t = 0; t < threads; t++){
+            SplittableRandom random = new SplittableRandom(t);
+            trabalhadoras[t] = new Thread(() -> {
+                long feitas = 0;
+                while ((feitas & 1023) != 0 || System.nanoTime() < fim){
+                    if (banco.tentarSacar(numeros[random.nextInt(contas)], 0.01) != ResultadoOperacao.SUCESSO){
+                        throw new IllegalStateException("Saque recusado no benchmark");
+                    }
+                    feitas++;
+                }
+                operacoes.add(feitas);
+            });
+            trabalhadoras[t].start();
+        }
+        for (Thread trabalhadora : trabalhadoras){
+            trabalhadora.join();
+        }
+        return operacoes.sum() * 1e9 / duracaoNanos;
+    }
+
+    private static String opcao(String[] args, String nome, String padrao) {
+        for (String arg : args){
+            if (arg.startsWith("--" + nome + "=")){
+                return arg.substring(nome.length() + 3);
+            }
+        }
+        return padrao;
+    }
+}
@@ -0,0 +1,75 @@
+package benchmark;
+
+import persistencia.Journal;
+import persistencia.PoliticaSincronizacao;
+import service.BancoService;
+import service.ModoLote;
+import service.Operacao;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compara uma folha de pagamento (uma conta pagadora, muitos funcionários)
+ * feita com chamadas individuais a {@code transferir} e com
+ * {@code executarLote}, em memória e com journal A_CADA_OPERACAO.
+ * <p>
+ * Uso: {@code java benchmark.LoteBenchmark [funcionarios] [rodadas]}
+ */
+public class LoteBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int funcionarios = args.length > 0 ? Integer.parseInt(args[0]) : 10_000;
+        int rodadas = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+
+        System.out.printf("%-40s %15s%n", "configuração", "itens/s");
+        medir("em memória, chamadas individuais", new BancoService(), funcionarios, rodadas, null);
+        medir("em memória, lote MELHOR_ESFORCO", new BancoService(), funcionarios, rodadas, ModoLote.MELHOR_ESFORCO);
+        medir("em memória, lote TUDO_OU_NADA", new BancoService(), funcionarios, rodadas, ModoLote.TUDO_OU_NADA);
+
+        Path arquivo = Files.createTempFile("lote-bench", ".journal");
+        try (Journal journal = Journal.abrir(arquivo, PoliticaSincronizacao.A_CADA_OPERACAO, 0)) {
+            medir("journal, chamadas individuais", new BancoService(journal), funcionarios, 1, null);
+        } finally {
+            Files.deleteIfExists(arquivo);
+        }
+        arquivo = Files.createTempFile("lote-bench", ".journal");
+        try (Journal journal = Journal.abrir(arquivo, PoliticaSincronizacao.A_CADA_OPERACAO, 0)) {
+            medir("journal, lote TUDO_OU_NADA", new BancoService(journal), funcionarios, rodadas, ModoLote.TUDO_OU_NADA);
+        } finally {
+            Files.deleteIfExists(arquivo);
+        }
+    }
+
+    private static void medir(String nome, BancoService banco, int funcionarios, int rodadas, ModoLote modo)
+            throws Exception {
+        banco.criarConta("EMPRESA", "Empresa", 1_000_000_000_000.00);
+        List<Operacao> folha = new ArrayList<>(funcionarios);
+        for (int i = 0; i < funcionarios; i++){
+            banco.criarConta("F" + i, "Funcionario " + i, 0.00);
+            folha.add(Operacao.transferencia("EMPRESA", "F" + i, 1500.00 + i % 100));
+        }
+        long fimAquecimento = System.nanoTime() + 2_000_000_000L;
+        do {
+            pagar(banco, folha, modo);
+        } while (System.nanoTime() < fimAquecimento);
+        long inicio = System.nanoTime();
+        for (int rodada = 0; rodada < rodadas; rodada++){
+            pagar(banco, folha, modo);
+        }
+        long duracao = System.nanoTime() - inicio;
+        System.out.printf("%-40s %,15d%n", nome, (long) funcionarios * rodadas * 1_000_000_000L / duracao);
+    }
+
+    private static void pagar(BancoService banco, List<Operacao> folha, ModoLote modo) throws Exception {
+        if (modo != null){
+            banco.executarLote(folha, modo);
+            return;
+        }
+        for (Operacao operacao : folha){
+            banco.transferir(operacao.getNumeroConta(), operacao.getNumeroDestino(), operacao.getValor());
+        }
+    }
+}
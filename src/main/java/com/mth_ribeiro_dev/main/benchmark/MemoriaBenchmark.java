@@ -0,0 +1,165 @@
+package benchmark;
+
+import repositorio.RepositorioCompacto;
+import repositorio.RepositorioContas;
+import repositorio.RepositorioMapa;
+import repositorio.RepositorioMapeado;
+import service.BancoService;
+
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+
+/**
+ * Compara o heap ocupado pelas contas, a pausa de uma coleta completa e a
+ * latência de busca com {@link RepositorioMapa}, {@link RepositorioCompacto}
+ * e {@link RepositorioMapeado} (num arquivo temporário, apagado no fim).
+ * <p>
+ * As contas têm números de 10 dígitos ("0000000042"), titulares sorteados de
+ * 500 nomes e 500 sobrenomes (como em uma base real, muitos se repetem) e 5%
+ * delas são inativadas. As buscas são de contas sorteadas, com o saldo lido
+ * em cada uma; a última coluna conta as coletas que aconteceram durante elas.
+ * Para uma medição limpa rode um repositório por vez, cada um em uma JVM nova.
+ * <p>
+ * Uso: {@code java -Xmx8g benchmark.MemoriaBenchmark [contas] [mapa,compacto,mapeado]}
+ */
+public class MemoriaBenchmark {
+
+    private static final int NOMES = 500;
+    private static final int COLETAS = 3;
+    private static final int BUSCAS = 2_000_000;
+
+    public static void main(String[] args) throws IOException {
+        int numeroContas = args.length > 0 ? Integer.parseInt(args[0]) : 2_000_000;
+        List<String> armazenamentos = Arrays.asList((args.length > 1 ? args[1] : "mapa,compacto,mapeado").split(","));
+
+        String[] nomes = new String[NOMES];
+        String[] sobrenomes = new String[NOMES];
+        for (int i = 0; i < NOMES; i++){
+            nomes[i] = "Nome" + i;
+            sobrenomes[i] = "Sobrenome" + i;
+        }
+
+        System.out.printf("%-10s %12s %14s %10s %16s %12s %12s %10s%n", "repositório", "contas", "heap (MiB)",
+                "bytes/conta", "GC completo (ms)", "busca p50 ns", "busca p99 ns", "GCs busca");
+        if (armazenamentos.contains("mapa")){
+            medir("mapa", new RepositorioMapa(), numeroContas, nomes, sobrenomes);
+        }
+        if (armazenamentos.contains("compacto")){
+            medir("compacto", new RepositorioCompacto(), numeroContas, nomes, sobrenomes);
+        }
+        if (armazenamentos.contains("mapeado")){
+            Path arquivo = Files.createTempFile("memoria-bench", ".contas");
+            try (RepositorioMapeado mapeado = RepositorioMapeado.abrir(arquivo, numeroContas)) {
+                medir("mapeado", mapeado, numeroContas, nomes, sobrenomes);
+            } finally {
+                Files.deleteIfExists(arquivo);
+            }
+        }
+    }
+
+    private static void medir(String nome, RepositorioContas repositorio, int numeroContas,
+                              String[] nomes, String[] sobrenomes) {
+        long antes = heapAposColeta();
+        BancoService banco = new BancoService(repositorio);
+        char[] numero = new char[10];
+        for (int i = 0; i < numeroContas; i++){
+            int resto = i;
+            for (int d = numero.length - 1; d >= 0; d--){
+                numero[d] = (char) ('0' + resto % 10);
+                resto /= 10;
+            }
+            String texto = new String(numero);
+            // Cada conta recebe sua própria instância do nome, como viria de um arquivo ou requisição.
+            String titular = nomes[(int) ((i * 2654435761L) % NOMES)] + " " + sobrenomes[(i / 7) % NOMES];
+            banco.criarConta(texto, titular, 100.00 + i % 1000);
+            if (i % 20 == 0){
+                banco.inativarConta(texto);
+            }
+        }
+        long depois = heapAposColeta();
+        long pausa = tempoDeColeta();
+        long ocupado = depois - antes;
+        long coletasAntes = coletas();
+        long[] latencias = buscar(banco, numeroContas);
+        long coletasBusca = coletas() - coletasAntes;
+        System.out.printf("%-10s %,12d %,14.1f %,10d %,16.1f %,12d %,12d %,10d%n", nome, repositorio.quantidade(),
+                ocupado / (1024.0 * 1024.0), ocupado / numeroContas, pausa / (double) COLETAS,
+                latencias[latencias.length / 2], latencias[latencias.length / 100 * 99], coletasBusca);
+        if (banco.consultarSaldo("0000000000") < 0){
+            throw new AssertionError();
+        }
+    }
+
+    /**
+     * @return a latência de cada busca, em ordem crescente (a primeira metade
+     *         das buscas só aquece e não entra)
+     */
+    private static long[] buscar(BancoService banco, int numeroContas) {
+        SplittableRandom random = new SplittableRandom(42);
+        char[] numero = new char[10];
+        long[] latencias = new long[BUSCAS / 2];
+        long soma = 0;
+        for (int b = 0; b < BUSCAS; b++){
+            int resto = random.nextInt(numeroContas);
+            for (int d = numero.length - 1; d >= 0; d--){
+                numero[d] = (char) ('0' + resto % 10);
+                resto /= 10;
+            }
+            String texto = new String(numero);
+            long inicio = System.nanoTime();
+            soma += banco.buscarConta(texto).getSaldoCentavos();
+            long duracao = System.nanoTime() - inicio;
+            if (b >= BUSCAS / 2){
+                latencias[b - BUSCAS / 2] = duracao;
+            }
+        }
+        if (soma < 0){
+            throw new AssertionError();
+        }
+        Arrays.sort(latencias);
+        return latencias;
+    }
+
+    private static long coletas() {
+        long total = 0;
+        for (GarbageCollectorMXBean coletor : ManagementFactory.getGarbageCollectorMXBeans()){
+            total += Math.max(0, coletor.getCollectionCount());
+        }
+        return total;
+    }
+
+    private static long heapAposColeta() {
+        MemoryMXBean memoria = ManagementFactory.getMemoryMXBean();
+        for (int i = 0; i < COLETAS; i++){
+            System.gc();
+        }
+        return memoria.getHeapMemoryUsage().getUsed();
+    }
+
+    /**
+     * @return tempo total, em ms, de {@link #COLETAS} coletas completas com
+     *         as contas vivas no heap
+     */
+    private static long tempoDeColeta() {
+        long antes = tempoAcumulado();
+        for (int i = 0; i < COLETAS; i++){
+            System.gc();
+        }
+        return tempoAcumulado() - antes;
+    }
+
+    private static long tempoAcumulado() {
+        long total = 0;
+        for (GarbageCollectorMXBean coletor : ManagementFactory.getGarbageCollectorMXBeans()){
+            total += Math.max(0, coletor.getCollectionTime());
+        }
+        return total;
+    }
+}
@@ -0,0 +1,122 @@
+package benchmark;
+
+import model.ResultadoOperacao;
+import service.BancoService;
+import service.BancoServiceParticionado;
+
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Vazão de {@link BancoServiceParticionado} conforme o número de partições,
+ * comparada ao {@link BancoService} comum sob a mesma carga.
+ * <p>
+ * A carga imita lojistas muito procurados: depósitos e transferências com
+ * contas sorteadas por Zipf, então poucas contas recebem a maior parte das
+ * operações. Uma fração das operações são transferências, a maioria entre
+ * partições diferentes. A vazão só cresce com as partições até o número de
+ * núcleos livres: cada partição ocupa uma thread o tempo todo que tem
+ * trabalho.
+ * <p>
+ * Uso: {@code java benchmark.ParticoesBenchmark [--particoes=1,2,4,8] [--threads=16]
+ * [--segundos=5] [--contas=10000] [--zipf=1.1] [--transferencias=0.5]}
+ */
+public class ParticoesBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        String[] particoes = opcao(args, "particoes", "1,2,4,8").split(",");
+        int threads = Integer.parseInt(opcao(args, "threads", "16"));
+        int segundos = Integer.parseInt(opcao(args, "segundos", "5"));
+        int contas = Integer.parseInt(opcao(args, "contas", "10000"));
+        double expoente = Double.parseDouble(opcao(args, "zipf", "1.1"));
+        double transferencias = Double.parseDouble(opcao(args, "transferencias", "0.5"));
+        Zipf zipf = new Zipf(contas, expoente);
+
+        System.out.printf("%d núcleos, %d threads, %d contas, zipf %.2f, %.0f%% transferências%n",
+                Runtime.getRuntime().availableProcessors(), threads, contas, expoente, transferencias * 100);
+        System.out.printf("%-22s %15s%n", "motor", "ops/s");
+        medir("BancoService", new BancoService(), threads, segundos, contas, zipf, transferencias);
+        for (String quantidade : particoes){
+            int n = Integer.parseInt(quantidade.trim());
+            try (BancoServiceParticionado banco = new BancoServiceParticionado(n)) {
+                medir("particionado, " + n, banco, threads, segundos, contas, zipf, transferencias);
+                if (banco.getCentavosEmTransito() != 0){
+                    throw new AssertionError("Dinheiro em trânsito ao final: " + banco.getCentavosEmTransito());
+                }
+            }
+        }
+    }
+
+    private static void medir(String nome, BancoService banco, int threads, int segundos, int contas,
+                              Zipf zipf, double transferencias) throws InterruptedException {
+        String[] numeros = new String[contas];
+        for (int i = 0; i < contas; i++){
+            numeros[i] = String.format("%08d", i);
+            banco.criarConta(numeros[i], "Titular " + i, 1_000_000.00);
+        }
+        long totalAntes = totalCentavos(banco, numeros);
+
+        AtomicBoolean medindo = new AtomicBoolean();
+        AtomicBoolean parar = new AtomicBoolean();
+        LongAdder operacoes = new LongAdder();
+        LongAdder depositado = new LongAdder();
+        CountDownLatch fim = new CountDownLatch(threads);
+        for (int t = 0; t < threads; t++){
+            long semente = t;
+            Thread thread = new Thread(() -> {
+                Random random = new Random(semente);
+                long feitas = 0;
+                long centavos = 0;
+                while (!parar.get()){
+                    String conta = numeros[zipf.proximo(random)];
+                    if (random.nextDouble() < transferencias){
+                        // Quem paga é sorteado uniformemente; quem recebe é o lojista popular.
+                        banco.tentarTransferir(numeros[random.nextInt(numeros.length)], conta, 1.00);
+                    } else if (banco.tentarDepositar(conta, 1.00) == ResultadoOperacao.SUCESSO){
+                        centavos += 100;
+                    }
+                    if (medindo.get()){
+                        feitas++;
+                    }
+                }
+                operacoes.add(feitas);
+                depositado.add(centavos);
+                fim.countDown();
+            });
+            thread.setDaemon(true);
+            thread.start();
+        }
+        Thread.sleep(1_000);
+        medindo.set(true);
+        long inicio = System.nanoTime();
+        Thread.sleep(segundos * 1_000L);
+        medindo.set(false);
+        long duracao = System.nanoTime() - inicio;
+        parar.set(true);
+        fim.await();
+
+        if (totalCentavos(banco, numeros) != totalAntes + depositado.sum()){
+            throw new AssertionError(nome + ": total do banco não confere");
+        }
+        System.out.printf("%-22s %,15d%n", nome, operacoes.sum() * 1_000_000_000L / duracao);
+    }
+
+    private static long totalCentavos(BancoService banco, String[] numeros) {
+        long total = 0;
+        for (String numero : numeros){
+            total += banco.buscarConta(numero).getSaldoCentavos();
+        }
+        return total;
+    }
+
+    private static String opcao(String[] args, String nome, String padrao) {
+        for (String arg : args){
+            if (arg.startsWith("--" + nome + "=")){
+                return arg.substring(nome.length() + 3);
+            }
+        }
+        return padrao;
+    }
+}
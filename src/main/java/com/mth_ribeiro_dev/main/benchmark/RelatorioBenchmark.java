@@ -0,0 +1,96 @@
+package benchmark;
+
+import repositorio.RepositorioCompacto;
+import repositorio.RepositorioMapa;
+import service.BancoService;
+import service.RelatorioFechamento;
+
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Tempo de {@link BancoService#gerarRelatorio(int, ForkJoinPool)} sobre
+ * milhões de contas conforme o paralelismo do pool, com threads depositando
+ * e transferindo durante o relatório.
+ * <p>
+ * Para cada paralelismo são gerados alguns relatórios e mostrado o mais
+ * rápido, junto com a vazão das escritas enquanto os relatórios rodavam. O
+ * ganho com mais threads vai até o número de núcleos.
+ * <p>
+ * Uso: {@code java -Xmx4g benchmark.RelatorioBenchmark [--contas=10000000]
+ * [--paralelismo=1,2,4,8] [--repositorio=compacto|mapa] [--escritores=2] [--repeticoes=3]}
+ */
+public class RelatorioBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int contas = Integer.parseInt(opcao(args, "contas", "10000000"));
+        String[] paralelismos = opcao(args, "paralelismo", "1,2,4,8").split(",");
+        boolean compacto = opcao(args, "repositorio", "compacto").equals("compacto");
+        int escritores = Integer.parseInt(opcao(args, "escritores", "2"));
+        int repeticoes = Integer.parseInt(opcao(args, "repeticoes", "3"));
+
+        BancoService banco = new BancoService(compacto ? new RepositorioCompacto() : new RepositorioMapa());
+        long inicioCarga = System.nanoTime();
+        for (int i = 0; i < contas; i++){
+            banco.criarConta(String.valueOf(i), "Titular " + (i % 100_000), (i % 1000) * 10.00);
+        }
+        System.out.printf("%d núcleos, %,d contas (%s) criadas em %.1f s, %d escritores%n",
+                Runtime.getRuntime().availableProcessors(), contas, compacto ? "compacto" : "mapa",
+                (System.nanoTime() - inicioCarga) / 1e9, escritores);
+
+        AtomicBoolean parar = new AtomicBoolean();
+        LongAdder escritas = new LongAdder();
+        CountDownLatch fim = new CountDownLatch(escritores);
+        for (int t = 0; t < escritores; t++){
+            long semente = t;
+            new Thread(() -> {
+                Random random = new Random(semente);
+                while (!parar.get()){
+                    String conta = String.valueOf(random.nextInt(contas));
+                    if (random.nextBoolean()){
+                        banco.tentarDepositar(conta, 1.00);
+                    } else {
+                        banco.tentarTransferir(conta, String.valueOf(random.nextInt(contas)), 1.00);
+                    }
+                    escritas.increment();
+                }
+                fim.countDown();
+            }).start();
+        }
+
+        System.out.printf("%-12s %12s %16s %16s%n", "paralelismo", "melhor ms", "contas/s", "escritas/s");
+        for (String valor : paralelismos){
+            int paralelismo = Integer.parseInt(valor.trim());
+            ForkJoinPool pool = new ForkJoinPool(paralelismo);
+            try{
+                banco.gerarRelatorio(10, pool);
+                long melhor = Long.MAX_VALUE;
+                long escritasAntes = escritas.sum();
+                long inicio = System.nanoTime();
+                for (int r = 0; r < repeticoes; r++){
+                    RelatorioFechamento relatorio = banco.gerarRelatorio(10, pool);
+                    melhor = Math.min(melhor, relatorio.getDuracaoNanos());
+                }
+                double segundos = (System.nanoTime() - inicio) / 1e9;
+                System.out.printf("%-12d %12.1f %,16.0f %,16.0f%n", paralelismo, melhor / 1e6,
+                        contas / (melhor / 1e9), (escritas.sum() - escritasAntes) / segundos);
+            } finally {
+                pool.shutdown();
+            }
+        }
+        parar.set(true);
+        fim.await();
+    }
+
+    private static String opcao(String[] args, String nome, String padrao) {
+        for (String arg : args){
+            if (arg.startsWith("--" + nome + "=")){
+                return arg.substring(nome.length() + 3);
+            }
+        }
+        return padrao;
+    }
+}
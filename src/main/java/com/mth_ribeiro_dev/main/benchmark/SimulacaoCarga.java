@@ -0,0 +1,429 @@
+package benchmark;
+
+import exception.ContaNaoEncontradaException;
+import model.ResultadoOperacao;
+import model.SituacaoConta;
+import repositorio.RepositorioCompacto;
+import repositorio.RepositorioMapa;
+import repositorio.RepositorioMapeado;
+import service.BancoService;
+import service.BancoServiceParticionado;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Simulação de carga reproduzível: executa um {@link CargaSimulada roteiro}
+ * de criações, depósitos, saques, transferências, inativações e consultas
+ * num serviço, com uma thread por sequência do roteiro, e ao final confere
+ * as invariantes do banco:
+ * <ul>
+ *   <li>conservação do dinheiro: o total das contas é o saldo inicial de
+ *       todas mais os depósitos e menos os saques que tiveram sucesso (as
+ *       transferências não mudam o total);</li>
+ *   <li>nenhum saldo negativo, nem nas consultas durante a execução nem no
+ *       final;</li>
+ *   <li>nenhum débito em conta inativa: um saque ou transferência com
+ *       sucesso que começou depois de a inativação da conta de origem ter
+ *       terminado é uma violação (os que correm junto com a inativação podem
+ *       ter sido aplicados antes dela);</li>
+ *   <li>no motor particionado, nada em trânsito entre partições.</li>
+ * </ul>
+ * Além disso mostra ops/s e os percentis de latência de cada operação.
+ * <p>
+ * Cada thread executa sempre as mesmas operações na mesma ordem, então
+ * implementações diferentes recebem o mesmo tráfego; só a intercalação entre
+ * as threads varia. Com uma thread a execução é determinística e a
+ * assinatura do estado final (saldos e situação de todas as contas) tem de
+ * ser a mesma em qualquer implementação e em qualquer reprodução. As
+ * implementações de {@code --repositorio} rodam em sequência no mesmo
+ * processo; para comparações finas, grave o roteiro com {@code --gravar} e
+ * reproduza-o com {@code --reproduzir} num processo por implementação.
+ * <p>
+ * O processo termina com código 1 se alguma invariante for violada.
+ * <p>
+ * Uso: {@code java -Xmx2g benchmark.SimulacaoCarga [--semente=1] [--threads=4]
+ * [--operacoes=2000000] [--contas=10000] [--zipf=1.1] [--saldo=1000.00]
+ * [--mistura=criar:1,depositar:30,...] [--repositorio=mapa,compacto,mapeado,particionado]
+ * [--particoes=N] [--gravar=arq] [--reproduzir=arq]}
+ */
+public class SimulacaoCarga {
+
+    private static final String TITULAR = "Cliente simulado";
+    private static final int RESULTADOS = ResultadoOperacao.values().length;
+    private static final CargaSimulada.Tipo[] TIPOS = CargaSimulada.Tipo.values();
+    /** Marca das contas ainda não inativadas pelo roteiro. */
+    private static final long NUNCA = Long.MAX_VALUE;
+    /** Violações guardadas durante a execução; as seguintes são descartadas. */
+    private static final int MAXIMO_VIOLACOES = 20;
+
+    public static void main(String[] args) throws Exception {
+        String reproduzir = opcao(args, "reproduzir", "");
+        CargaSimulada carga;
+        if (reproduzir.isEmpty()){
+            int threads = Integer.parseInt(opcao(args, "threads", "4"));
+            long operacoes = Long.parseLong(opcao(args, "operacoes", "2000000"));
+            double saldo = Double.parseDouble(opcao(args, "saldo", "1000.00"));
+            carga = CargaSimulada.gerar(Long.parseLong(opcao(args, "semente", "1")), threads,
+                    (int) ((operacoes + threads - 1) / threads), Integer.parseInt(opcao(args, "contas", "10000")),
+                    Math.round(saldo * 100), Double.parseDouble(opcao(args, "zipf", "1.1")),
+                    opcao(args, "mistura", CargaSimulada.MISTURA_PADRAO));
+        } else {
+            carga = CargaSimulada.ler(Path.of(reproduzir));
+        }
+        String gravar = opcao(args, "gravar", "");
+        if (!gravar.isEmpty()){
+            carga.gravar(Path.of(gravar));
+        }
+        int particoes = Integer.parseInt(opcao(args, "particoes",
+                String.valueOf(Runtime.getRuntime().availableProcessors())));
+
+        System.out.printf("%d núcleos, semente %d, %d threads, %,d operações, %,d contas%s%n",
+                Runtime.getRuntime().availableProcessors(), carga.getSemente(), carga.getThreads(),
+                carga.getOperacoes(), carga.getContas(), reproduzir.isEmpty() ? "" : " (de " + reproduzir + ")");
+        boolean violou = false;
+        for (String nome : opcao(args, "repositorio", "mapa,compacto,particionado").split(",")){
+            Resultado resultado = switch (nome.trim()){
+                case "mapa" -> executar(carga, new BancoService(new RepositorioMapa()));
+                case "compacto" -> executar(carga, new BancoService(new RepositorioCompacto()));
+                case "mapeado" -> executarMapeado(carga);
+                case "particionado" -> {
+                    try (BancoServiceParticionado banco = new BancoServiceParticionado(particoes)) {
+                        yield executar(carga, banco);
+                    }
+                }
+                default -> throw new IllegalArgumentException("Repositório desconhecido: " + nome);
+            };
+            imprimir(nome.trim(), resultado);
+            violou |= !resultado.isConsistente();
+        }
+        if (violou){
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Cria as contas iniciais no serviço, executa o roteiro e confere as
+     * invariantes. O serviço deve estar vazio.
+     *
+     * @param carga Roteiro a executar
+     * @param banco Serviço sob teste
+     * @return Vazão, latências, resultados por operação e violações encontradas
+     * @throws InterruptedException se interrompido esperando as threads
+     */
+    public static Resultado executar(CargaSimulada carga, BancoService banco) throws InterruptedException {
+        for (int c = 0; c < carga.getContas(); c++){
+            banco.criarConta(carga.numero(c), TITULAR, carga.getSaldoInicialCentavos() / 100.0);
+        }
+        Estado estado = new Estado(carga.getNumeracao());
+        Parcial[] parciais = new Parcial[carga.getThreads()];
+        Thread[] threads = new Thread[carga.getThreads()];
+        CountDownLatch largada = new CountDownLatch(1);
+        for (int t = 0; t < threads.length; t++){
+            int thread = t;
+            parciais[t] = new Parcial();
+            threads[t] = new Thread(() -> {
+                try{
+                    largada.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                executarThread(carga, thread, banco, estado, parciais[thread]);
+            }, "simulacao-" + t);
+            threads[t].start();
+        }
+        long inicio = System.nanoTime();
+        largada.countDown();
+        for (Thread thread : threads){
+            thread.join();
+        }
+        long nanos = System.nanoTime() - inicio;
+
+        Parcial total = new Parcial();
+        for (Parcial parcial : parciais){
+            total.somar(parcial);
+        }
+        return verificar(carga, banco, estado, total, nanos);
+    }
+
+    private static void executarThread(CargaSimulada carga, int t, BancoService banco, Estado estado,
+                                       Parcial parcial) {
+        int quantidade = carga.quantidade(t);
+        for (int i = 0; i < quantidade; i++){
+            CargaSimulada.Tipo tipo = carga.tipo(t, i);
+            int origem = carga.origem(t, i);
+            long centavos = carga.valor(t, i);
+            String numero = carga.numero(origem);
+            ResultadoOperacao resultado = ResultadoOperacao.SUCESSO;
+            long inicio = System.nanoTime();
+            try{
+                switch (tipo){
+                    case CRIAR -> {
+                        banco.criarConta(numero, TITULAR, centavos / 100.0);
+                        parcial.criado += centavos;
+                    }
+                    case DEPOSITAR -> {
+                        resultado = banco.tentarDepositar(numero, centavos / 100.0);
+                        if (resultado.isSucesso()){
+                            parcial.depositado += centavos;
+                        }
+                    }
+                    case SACAR -> {
+                        resultado = banco.tentarSacar(numero, centavos / 100.0);
+                        if (resultado.isSucesso()){
+                            parcial.sacado += centavos;
+                            estado.conferirDebito(carga, origem, inicio);
+                        }
+                    }
+                    case TRANSFERIR -> {
+                        resultado = banco.tentarTransferir(numero, carga.numero(carga.destino(t, i)), centavos / 100.0);
+                        if (resultado.isSucesso()){
+                            estado.conferirDebito(carga, origem, inicio);
+                        }
+                    }
+                    case INATIVAR -> {
+                        banco.inativarConta(numero);
+                        estado.inativadaEm.compareAndSet(origem, NUNCA, System.nanoTime());
+                    }
+                    case CONSULTAR -> {
+                        if (banco.consultarSaldo(numero) < 0){
+                            estado.violar("Saldo negativo consultado na conta " + numero);
+                        }
+                    }
+                }
+            } catch (RuntimeException e) {
+                estado.erros.increment();
+                estado.primeiroErro.compareAndSet(null, tipo.getNome() + " " + numero + ": " + e);
+                parcial.erros[tipo.ordinal()]++;
+                continue;
+            }
+            parcial.histogramas[tipo.ordinal()].registrar(System.nanoTime() - inicio);
+            parcial.resultados[tipo.ordinal()][resultado.ordinal()]++;
+        }
+    }
+
+    private static Resultado verificar(CargaSimulada carga, BancoService banco, Estado estado, Parcial total,
+                                       long nanos) {
+        List<String> violacoes = new ArrayList<>(estado.violacoes);
+        if (estado.erros.sum() > 0){
+            violacoes.add(estado.erros.sum() + " operações lançaram exceção; a primeira: " + estado.primeiroErro.get());
+        }
+        long saldoTotal = 0;
+        long assinatura = 0xcbf29ce484222325L;
+        for (int c = 0; c < carga.getNumeracao(); c++){
+            SituacaoConta situacao;
+            try{
+                situacao = banco.consultarSituacao(carga.numero(c));
+            } catch (ContaNaoEncontradaException e) {
+                if (c < carga.getContas()){
+                    violacoes.add("Conta inicial desaparecida: " + c);
+                }
+                // As demais são números reservados a criações que o roteiro não fez.
+                continue;
+            }
+            long saldo = situacao.getSaldoCentavos();
+            if (saldo < 0){
+                violacoes.add("Saldo final negativo na conta " + c + ": " + saldo);
+            }
+            saldoTotal += saldo;
+            assinatura = (assinatura ^ c) * 0x100000001b3L;
+            assinatura = (assinatura ^ saldo) * 0x100000001b3L;
+            assinatura = (assinatura ^ (situacao.isAtiva() ? 1 : 0)) * 0x100000001b3L;
+        }
+        long esperado = carga.getContas() * carga.getSaldoInicialCentavos() + total.criado + total.depositado
+                - total.sacado;
+        if (saldoTotal != esperado){
+            violacoes.add("Dinheiro não conservado: total " + saldoTotal + " centavos, esperado " + esperado);
+        }
+        if (banco instanceof BancoServiceParticionado particionado && particionado.getCentavosEmTransito() != 0){
+            violacoes.add("Centavos em trânsito ao final: " + particionado.getCentavosEmTransito());
+        }
+        return new Resultado(carga.getOperacoes(), nanos, total, violacoes, assinatura);
+    }
+
+    private static Resultado executarMapeado(CargaSimulada carga) throws IOException, InterruptedException {
+        Path arquivo = Files.createTempFile("simulacao", ".contas");
+        Files.delete(arquivo);
+        try (RepositorioMapeado repositorio = RepositorioMapeado.abrir(arquivo, carga.getNumeracao())) {
+            return executar(carga, new BancoService(repositorio));
+        } finally {
+            Files.deleteIfExists(arquivo);
+        }
+    }
+
+    private static void imprimir(String nome, Resultado resultado) {
+        System.out.printf("%n%s: %,.0f ops/s em %,.1f ms, assinatura %016x%n", nome, resultado.getOpsPorSegundo(),
+                resultado.getNanos() / 1e6, resultado.getAssinatura());
+        System.out.printf("  %-11s %12s %10s %10s %10s %10s %10s%n", "operação", "quantidade", "sucesso %",
+                "p50 µs", "p99 µs", "p99.9 µs", "máx µs");
+        for (CargaSimulada.Tipo tipo : TIPOS){
+            Histograma histograma = resultado.getHistograma(tipo);
+            if (histograma.getTotal() == 0){
+                continue;
+            }
+            System.out.printf("  %-11s %,12d %10.1f %10.2f %10.2f %10.2f %10.1f%n", tipo.getNome(),
+                    histograma.getTotal(),
+                    100.0 * resultado.getQuantidade(tipo, ResultadoOperacao.SUCESSO) / histograma.getTotal(),
+                    histograma.percentil(50) / 1e3, histograma.percentil(99) / 1e3,
+                    histograma.percentil(99.9) / 1e3, histograma.getMaximo() / 1e3);
+        }
+        if (resultado.isConsistente()){
+            System.out.println("  invariantes: ok");
+        } else {
+            for (String violacao : resultado.getViolacoes()){
+                System.out.println("  VIOLAÇÃO: " + violacao);
+            }
+        }
+    }
+
+    private static String opcao(String[] args, String nome, String padrao) {
+        for (String arg : args){
+            if (arg.startsWith("--" + nome + "=")){
+                return arg.substring(nome.length() + 3);
+            }
+        }
+        return padrao;
+    }
+
+    /**
+     * O resultado de uma execução do roteiro.
+     */
+    public static final class Resultado {
+
+        private final long operacoes;
+        private final long nanos;
+        private final Parcial total;
+        private final List<String> violacoes;
+        private final long assinatura;
+
+        private Resultado(long operacoes, long nanos, Parcial total, List<String> violacoes, long assinatura) {
+            this.operacoes = operacoes;
+            this.nanos = nanos;
+            this.total = total;
+            this.violacoes = Collections.unmodifiableList(violacoes);
+            this.assinatura = assinatura;
+        }
+
+        public long getNanos() {
+            return nanos;
+        }
+
+        public double getOpsPorSegundo() {
+            return operacoes * 1e9 / Math.max(1, nanos);
+        }
+
+        /**
+         * @return latências da operação (só as que não lançaram exceção)
+         */
+        public Histograma getHistograma(CargaSimulada.Tipo tipo) {
+            return total.histogramas[tipo.ordinal()];
+        }
+
+        /**
+         * @return quantas operações do tipo terminaram com o resultado; as
+         *         criações, inativações e consultas que não lançaram exceção
+         *         contam como SUCESSO
+         */
+        public long getQuantidade(CargaSimulada.Tipo tipo, ResultadoOperacao resultado) {
+            return total.resultados[tipo.ordinal()][resultado.ordinal()];
+        }
+
+        /**
+         * @return quantas operações do tipo lançaram exceção
+         */
+        public long getErros(CargaSimulada.Tipo tipo) {
+            return total.erros[tipo.ordinal()];
+        }
+
+        /**
+         * @return as invariantes violadas, vazia se nenhuma
+         */
+        public List<String> getViolacoes() {
+            return violacoes;
+        }
+
+        public boolean isConsistente() {
+            return violacoes.isEmpty();
+        }
+
+        /**
+         * @return hash dos saldos e da situação de todas as contas ao final
+         */
+        public long getAssinatura() {
+            return assinatura;
+        }
+    }
+
+    /**
+     * O que as threads compartilham durante a execução.
+     */
+    private static final class Estado {
+
+        /** Quando a inativação de cada conta terminou, em {@link System#nanoTime()}. */
+        final AtomicLongArray inativadaEm;
+        final List<String> violacoes = Collections.synchronizedList(new ArrayList<>());
+        final LongAdder erros = new LongAdder();
+        final AtomicReference<String> primeiroErro = new AtomicReference<>();
+
+        Estado(int contas) {
+            inativadaEm = new AtomicLongArray(contas);
+            for (int c = 0; c < contas; c++){
+                inativadaEm.set(c, NUNCA);
+            }
+        }
+
+        void conferirDebito(CargaSimulada carga, int conta, long inicio) {
+            long inativacao = inativadaEm.get(conta);
+            if (inativacao != NUNCA && inicio - inativacao > 0){
+                violar("Débito na conta " + carga.numero(conta) + " depois de inativada");
+            }
+        }
+
+        void violar(String violacao) {
+            if (violacoes.size() < MAXIMO_VIOLACOES){
+                violacoes.add(violacao);
+            }
+        }
+    }
+
+    /**
+     * O que cada thread acumula sozinha, somado ao final.
+     */
+    private static final class Parcial {
+
+        final Histograma[] histogramas = new Histograma[TIPOS.length];
+        final long[][] resultados = new long[TIPOS.length][RESULTADOS];
+        final long[] erros = new long[TIPOS.length];
+        long criado;
+        long depositado;
+        long sacado;
+
+        Parcial() {
+            for (int i = 0; i < histogramas.length; i++){
+                histogramas[i] = new Histograma();
+            }
+        }
+
+        void somar(Parcial outra) {
+            for (int i = 0; i < TIPOS.length; i++){
+                histogramas[i].somar(outra.histogramas[i]);
+                erros[i] += outra.erros[i];
+                for (int r = 0; r < RESULTADOS; r++){
+                    resultados[i][r] += outra.resultados[i][r];
+                }
+            }
+            criado += outra.criado;
+            depositado += outra.depositado;
+            sacado += outra.sacado;
+        }
+    }
+}
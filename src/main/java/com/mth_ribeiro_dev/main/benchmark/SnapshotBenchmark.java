@@ -0,0 +1,81 @@
+package benchmark;
+
+import persistencia.Journal;
+import persistencia.PoliticaSincronizacao;
+import persistencia.Snapshot;
+import service.BancoService;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Mede o tempo de inicialização reproduzindo só o journal e carregando o
+ * snapshot mais recente + cauda do journal, e o custo de gerar o snapshot com
+ * uma thread escrevendo ao mesmo tempo.
+ * <p>
+ * Uso: {@code java -Xmx4g benchmark.SnapshotBenchmark [contas] [operacoesNaCauda]}
+ */
+public class SnapshotBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int numeroContas = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        int operacoesNaCauda = args.length > 1 ? Integer.parseInt(args[1]) : 100_000;
+        Path diretorio = Files.createTempDirectory("snapshot-bench");
+        Path arquivoJournal = diretorio.resolve("banco.journal");
+        try {
+            try (Journal journal = Journal.abrir(arquivoJournal, PoliticaSincronizacao.SISTEMA_OPERACIONAL, 50)) {
+                BancoService banco = new BancoService(journal, diretorio);
+                for (int i = 0; i < numeroContas; i++){
+                    banco.criarConta(String.valueOf(i), "Titular " + i, 100.00);
+                }
+
+                AtomicBoolean parar = new AtomicBoolean();
+                LongAdder escritas = new LongAdder();
+                Thread escritor = new Thread(() -> {
+                    ThreadLocalRandom random = ThreadLocalRandom.current();
+                    while (!parar.get()){
+                        banco.depositar(String.valueOf(random.nextInt(numeroContas)), 1.00);
+                        escritas.increment();
+                    }
+                });
+                escritor.start();
+                long inicio = System.nanoTime();
+                Snapshot snapshot = banco.gerarSnapshot();
+                long duracao = System.nanoTime() - inicio;
+                parar.set(true);
+                escritor.join();
+                System.out.printf("snapshot: %,d contas, %,d bytes, %d ms (%,d escritas concorrentes no período)%n",
+                        snapshot.getQuantidade(), Files.size(snapshot.getArquivo()), duracao / 1_000_000, escritas.sum());
+
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                for (int i = 0; i < operacoesNaCauda; i++){
+                    banco.depositar(String.valueOf(random.nextInt(numeroContas)), 1.00);
+                }
+            }
+            System.out.printf("journal: %,d bytes%n", Files.size(arquivoJournal));
+
+            medirInicializacao("só journal", arquivoJournal, null);
+            medirInicializacao("snapshot + cauda", arquivoJournal, diretorio);
+        } finally {
+            for (File arquivo : diretorio.toFile().listFiles()){
+                arquivo.delete();
+            }
+            diretorio.toFile().delete();
+        }
+    }
+
+    private static void medirInicializacao(String nome, Path arquivoJournal, Path diretorioSnapshots) throws Exception {
+        System.gc();
+        long inicio = System.nanoTime();
+        try (Journal journal = Journal.abrir(arquivoJournal, PoliticaSincronizacao.SISTEMA_OPERACIONAL, 50)) {
+            BancoService banco = new BancoService(journal, diretorioSnapshots);
+            long duracao = System.nanoTime() - inicio;
+            banco.consultarSaldo("0");
+            System.out.printf("inicialização (%s): %d ms%n", nome, duracao / 1_000_000);
+        }
+    }
+}
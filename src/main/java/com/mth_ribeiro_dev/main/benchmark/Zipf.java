@@ -0,0 +1,43 @@
+package benchmark;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Sorteia índices de 0 a n-1 com distribuição de Zipf: o índice 0 é o mais
+ * popular e a popularidade cai com 1/(k+1)^expoente. Expoente 0 equivale à
+ * distribuição uniforme.
+ * <p>
+ * A função de distribuição acumulada é pré-calculada, então cada sorteio é
+ * uma busca binária e não aloca nada. Instâncias são imutáveis e podem ser
+ * compartilhadas entre threads (cada thread usa o seu próprio Random).
+ */
+public final class Zipf {
+
+    private final double[] acumulada;
+
+    public Zipf(int n, double expoente) {
+        if (n <= 0){
+            throw new IllegalArgumentException("n deve ser positivo: "+n);
+        }
+        acumulada = new double[n];
+        double soma = 0;
+        for (int i = 0; i < n; i++){
+            soma += 1.0 / Math.pow(i + 1, expoente);
+            acumulada[i] = soma;
+        }
+        for (int i = 0; i < n; i++){
+            acumulada[i] /= soma;
+        }
+    }
+
+    public int proximo(Random random) {
+        int posicao = Arrays.binarySearch(acumulada, random.nextDouble());
+        int indice = posicao >= 0 ? posicao : -posicao - 1;
+        return Math.min(indice, acumulada.length - 1);
+    }
+
+    public int tamanho() {
+        return acumulada.length;
+    }
+}
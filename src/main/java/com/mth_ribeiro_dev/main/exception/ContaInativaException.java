@@ -5,8 +5,29 @@ import java.time.format.DateTimeFormatter;
 
 public class ContaInativaException extends Exception{
 
+    private static final long serialVersionUID = 1L;
+    private static final DateTimeFormatter FORMATO_DATA = DateTimeFormatter.ofPattern("dd/MM/yyyy");
+
+    private final String conta;
+    private final LocalDate data;
+
     public ContaInativaException(String conta, LocalDate data){
-        super("Conta "+conta+" está inativa desde "+data.format(DateTimeFormatter.ofPattern("dd/MM/yyyy")));
+        super(null, null, false, RastreioExcecoes.isAtivo());
+        this.conta = conta;
+        this.data = data;
+    }
+
+    public String getConta() {
+        return conta;
+    }
+
+    public LocalDate getData() {
+        return data;
+    }
+
+    @Override
+    public String getMessage() {
+        return "Conta "+conta+" está inativa desde "+data.format(FORMATO_DATA);
     }
 
 }
@@ -2,8 +2,22 @@ package exception;
 
 public class ContaNaoEncontradaException extends RuntimeException{
 
+    private static final long serialVersionUID = 1L;
+
+    private final String numero;
+
     public ContaNaoEncontradaException(String numero){
-        super("Conta não encontrada: "+numero);
+        super(null, null, false, RastreioExcecoes.isAtivo());
+        this.numero = numero;
+    }
+
+    public String getNumero() {
+        return numero;
+    }
+
+    @Override
+    public String getMessage() {
+        return "Conta não encontrada: "+numero;
     }
 
 }
@@ -0,0 +1,30 @@
+package exception;
+
+import model.Moeda;
+
+public class LimiteExcedidoException extends RuntimeException{
+
+    private static final long serialVersionUID = 1L;
+
+    private final String conta;
+    private final long valorCentavos;
+
+    public LimiteExcedidoException(String conta, long valorCentavos){
+        super(null, null, false, RastreioExcecoes.isAtivo());
+        this.conta = conta;
+        this.valorCentavos = valorCentavos;
+    }
+
+    public String getConta() {
+        return conta;
+    }
+
+    public long getValorCentavos() {
+        return valorCentavos;
+    }
+
+    @Override
+    public String getMessage() {
+        return "Limite de movimentação excedido na conta "+conta+". Solicitado: R$"+Moeda.formatar(valorCentavos);
+    }
+}
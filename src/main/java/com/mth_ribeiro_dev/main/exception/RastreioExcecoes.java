@@ -0,0 +1,29 @@
+package exception;
+
+/**
+ * Controla se as exceções de domínio capturam stack trace.
+ * <p>
+ * Preencher o stack trace é a parte mais cara de lançar uma exceção. Em
+ * cenários com muitas recusas (fraude, tempestade de retentativas) vale
+ * desligar com {@code -Dbanco.excecoes.semRastreio=true} ou
+ * {@link #desativar()}; a mensagem e a causa continuam disponíveis.
+ */
+public final class RastreioExcecoes {
+
+    private static volatile boolean ativo = !Boolean.getBoolean("banco.excecoes.semRastreio");
+
+    private RastreioExcecoes() {
+    }
+
+    public static boolean isAtivo() {
+        return ativo;
+    }
+
+    public static void ativar() {
+        ativo = true;
+    }
+
+    public static void desativar() {
+        ativo = false;
+    }
+}
@@ -1,10 +1,38 @@
 package exception;
 
+import model.Moeda;
 
 public class SaldoInsuficienteException extends Exception{
 
-    public SaldoInsuficienteException(String conta, String saldo, String valorSolicitado){
-        super("Saldo insuficiente na conta "+conta+". Saldo: R$"+saldo+". Solicitado: "+valorSolicitado);
+    private static final long serialVersionUID = 1L;
+
+    private final String conta;
+    private final long saldoCentavos;
+    private final long valorSolicitadoCentavos;
+
+    public SaldoInsuficienteException(String conta, long saldoCentavos, long valorSolicitadoCentavos){
+        super(null, null, false, RastreioExcecoes.isAtivo());
+        this.conta = conta;
+        this.saldoCentavos = saldoCentavos;
+        this.valorSolicitadoCentavos = valorSolicitadoCentavos;
+    }
+
+    public String getConta() {
+        return conta;
+    }
+
+    public long getSaldoCentavos() {
+        return saldoCentavos;
+    }
+
+    public long getValorSolicitadoCentavos() {
+        return valorSolicitadoCentavos;
+    }
+
+    @Override
+    public String getMessage() {
+        return "Saldo insuficiente na conta "+conta+". Saldo: R$"+Moeda.formatar(saldoCentavos)
+                +". Solicitado: "+Moeda.formatar(valorSolicitadoCentavos);
     }
 
 }
@@ -1,9 +1,37 @@
 package exception;
 
+import model.Moeda;
+
 public class TransferenciaException extends Exception{
 
-    public TransferenciaException(String contaOrigem, String contaDestino, String valor, Exception causaOriginal){
-        super("Falha na transferencia de R$"+valor+" da conta "+contaOrigem+" para "+contaDestino);
+    private static final long serialVersionUID = 1L;
+
+    private final String contaOrigem;
+    private final String contaDestino;
+    private final long valorCentavos;
+
+    public TransferenciaException(String contaOrigem, String contaDestino, long valorCentavos, Exception causaOriginal){
+        super(null, causaOriginal, false, RastreioExcecoes.isAtivo());
+        this.contaOrigem = contaOrigem;
+        this.contaDestino = contaDestino;
+        this.valorCentavos = valorCentavos;
+    }
+
+    public String getContaOrigem() {
+        return contaOrigem;
+    }
+
+    public String getContaDestino() {
+        return contaDestino;
+    }
+
+    public long getValorCentavos() {
+        return valorCentavos;
+    }
+
+    @Override
+    public String getMessage() {
+        return "Falha na transferencia de R$"+Moeda.formatar(valorCentavos)+" da conta "+contaOrigem+" para "+contaDestino;
     }
 
 }
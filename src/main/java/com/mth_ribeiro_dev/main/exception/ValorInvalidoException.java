@@ -1,8 +1,30 @@
 package exception;
 
+import model.Moeda;
+
 public class ValorInvalidoException extends RuntimeException{
 
-    public ValorInvalidoException(String operacao, String valor){
-        super("Valor invalido para "+operacao+": R$"+valor+". O valor deve ser positivo");
+    private static final long serialVersionUID = 1L;
+
+    private final String operacao;
+    private final long valorCentavos;
+
+    public ValorInvalidoException(String operacao, long valorCentavos){
+        super(null, null, false, RastreioExcecoes.isAtivo());
+        this.operacao = operacao;
+        this.valorCentavos = valorCentavos;
+    }
+
+    public String getOperacao() {
+        return operacao;
+    }
+
+    public long getValorCentavos() {
+        return valorCentavos;
+    }
+
+    @Override
+    public String getMessage() {
+        return "Valor invalido para "+operacao+": R$"+Moeda.formatar(valorCentavos)+". O valor deve ser positivo";
     }
 }
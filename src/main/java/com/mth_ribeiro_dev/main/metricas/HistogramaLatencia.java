@@ -0,0 +1,108 @@
+package metricas;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.concurrent.atomic.LongAccumulator;
+
+/**
+ * Histograma de latências em nanossegundos com buckets log-lineares fixos
+ * (no estilo HDR), para várias threads registrarem ao mesmo tempo.
+ * <p>
+ * Cada potência de 2 é dividida em 16 sub-buckets (erro relativo de até
+ * ~6%). As contagens ficam em algumas faixas de vetores, escolhidas pela
+ * thread, e cada registro é um único incremento atômico: não trava nem aloca.
+ * A leitura soma as faixas, então um percentil lido durante registros é uma
+ * aproximação do momento.
+ */
+public final class HistogramaLatencia {
+
+    private static final int SUB_BUCKETS_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKETS_BITS;
+    private static final int BUCKETS = (64 - SUB_BUCKETS_BITS) * SUB_BUCKETS + SUB_BUCKETS;
+    private static final int FAIXAS_MAXIMAS = 16;
+
+    private static final VarHandle CONTAGEM = MethodHandles.arrayElementVarHandle(long[].class);
+
+    private final long[][] faixas;
+    private final int mascara;
+    private final LongAccumulator maximo = new LongAccumulator(Math::max, 0);
+
+    public HistogramaLatencia() {
+        int quantidade = Math.min(FAIXAS_MAXIMAS, Integer.highestOneBit(Runtime.getRuntime().availableProcessors() * 2 - 1) << 1);
+        faixas = new long[quantidade][BUCKETS];
+        mascara = quantidade - 1;
+    }
+
+    public void registrar(long nanos) {
+        if (nanos < 0){
+            nanos = 0;
+        }
+        long[] faixa = faixas[(int) Thread.currentThread().getId() & mascara];
+        CONTAGEM.getAndAdd(faixa, indice(nanos), 1L);
+        maximo.accumulate(nanos);
+    }
+
+    public long getTotal() {
+        long total = 0;
+        for (long[] faixa : faixas){
+            for (int i = 0; i < BUCKETS; i++){
+                total += (long) CONTAGEM.getOpaque(faixa, i);
+            }
+        }
+        return total;
+    }
+
+    public long getMaximo() {
+        return maximo.get();
+    }
+
+    /**
+     * @param percentis Entre 0 e 100, em ordem crescente
+     * @return o limite superior do bucket de cada percentil, em nanos (0 sem registros)
+     */
+    public long[] percentis(double... percentis) {
+        long[] contagens = new long[BUCKETS];
+        long total = 0;
+        for (long[] faixa : faixas){
+            for (int i = 0; i < BUCKETS; i++){
+                long contagem = (long) CONTAGEM.getOpaque(faixa, i);
+                contagens[i] += contagem;
+                total += contagem;
+            }
+        }
+        long[] valores = new long[percentis.length];
+        if (total == 0){
+            return valores;
+        }
+        long maior = maximo.get();
+        long acumulado = 0;
+        int i = 0;
+        for (int p = 0; p < percentis.length; p++){
+            long alvo = Math.max(1, (long) Math.ceil(total * percentis[p] / 100.0));
+            while (i < BUCKETS - 1 && acumulado + contagens[i] < alvo){
+                acumulado += contagens[i++];
+            }
+            valores[p] = Math.min(limiteSuperior(i), maior);
+        }
+        return valores;
+    }
+
+    static int indice(long valor) {
+        if (valor < SUB_BUCKETS){
+            return (int) valor;
+        }
+        int expoente = 63 - Long.numberOfLeadingZeros(valor);
+        int sub = (int) (valor >>> (expoente - SUB_BUCKETS_BITS)) & (SUB_BUCKETS - 1);
+        return (expoente - SUB_BUCKETS_BITS + 1) * SUB_BUCKETS + sub;
+    }
+
+    static long limiteSuperior(int indice) {
+        if (indice < SUB_BUCKETS){
+            return indice;
+        }
+        int expoente = indice / SUB_BUCKETS + SUB_BUCKETS_BITS - 1;
+        long sub = indice % SUB_BUCKETS;
+        long inicio = (1L << expoente) + (sub << (expoente - SUB_BUCKETS_BITS));
+        return inicio + (1L << (expoente - SUB_BUCKETS_BITS)) - 1;
+    }
+}
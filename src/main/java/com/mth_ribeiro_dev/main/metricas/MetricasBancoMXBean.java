@@ -0,0 +1,29 @@
+package metricas;
+
+import java.util.Map;
+
+/**
+ * Interface JMX de {@link MetricasBanco} (aparece no JConsole/VisualVM sob
+ * {@code banco:type=Metricas}). As chaves dos mapas são
+ * {@code operacao.resultado} para contagens e {@code operacao} para
+ * latências.
+ */
+public interface MetricasBancoMXBean {
+
+    Map<String, Long> getOperacoes();
+
+    Map<String, Long> getExcecoes();
+
+    Map<String, Long> getLatenciaP50Nanos();
+
+    Map<String, Long> getLatenciaP99Nanos();
+
+    Map<String, Long> getLatenciaP999Nanos();
+
+    Map<String, Long> getLatenciaMaximaNanos();
+
+    /**
+     * @return as mesmas métricas no formato texto de {@link MetricasBanco#texto()}
+     */
+    String getTexto();
+}
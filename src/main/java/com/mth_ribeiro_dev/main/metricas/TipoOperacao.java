@@ -0,0 +1,35 @@
+package metricas;
+
+/**
+ * Operações de {@code service.BancoService} medidas por {@link MetricasBanco}.
+ * A versão com exceções e a versão {@code tentar*} de uma operação contam
+ * como a mesma operação.
+ */
+public enum TipoOperacao {
+
+    CRIAR_CONTA("criarConta"),
+    BUSCAR_CONTA("buscarConta"),
+    CONSULTAR_SALDO("consultarSaldo"),
+    CONSULTAR_SITUACAO("consultarSituacao"),
+    PREVIA_TRANSFERENCIA("previsualizarTransferencia"),
+    DEPOSITAR("depositar"),
+    SACAR("sacar"),
+    TRANSFERIR("transferir"),
+    INATIVAR_CONTA("inativarConta"),
+    LOTE("executarLote"),
+    IMPORTAR_CONTAS("importarContas"),
+    EXPORTAR_CONTAS("exportarContas");
+
+    private final String rotulo;
+
+    TipoOperacao(String rotulo) {
+        this.rotulo = rotulo;
+    }
+
+    /**
+     * @return o nome do método, usado nos rótulos das métricas
+     */
+    public String getRotulo() {
+        return rotulo;
+    }
+}
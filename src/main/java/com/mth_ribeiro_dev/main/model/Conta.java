@@ -1,28 +1,98 @@
 package model;
 
+import exception.ContaInativaException;
+import exception.SaldoInsuficienteException;
 import exception.ValorInvalidoException;
 
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
 import java.time.LocalDate;
 
 public class Conta {
 
-    private String numero;
-    private String titular;
-    private double saldo;
-    private boolean ativa;
-    private LocalDate dataInativacao;
+    /**
+     * O saldo (em centavos), a versão e o indicador de inativação ficam na
+     * mesma palavra de 64 bits: o bit de sinal marca a conta como inativa, os
+     * 16 bits seguintes contam as alterações (voltando a 0 depois de 65535) e
+     * os 47 bits de baixo guardam o saldo, que nunca é negativo. Assim um
+     * débito verifica "ativa" e "saldo suficiente" e subtrai em um único CAS,
+     * e quem lê a palavra duas vezes sabe se a conta mudou entre as leituras
+     * mesmo que o saldo tenha voltado ao valor anterior, sem que ninguém
+     * precise escrever num contador separado.
+     */
+    private static final long INATIVA = Long.MIN_VALUE;
+    private static final int BITS_SALDO = 47;
+    private static final long MASCARA_SALDO = (1L << BITS_SALDO) - 1;
+    private static final long UMA_VERSAO = 1L << BITS_SALDO;
+    private static final long MASCARA_VERSAO = ~INATIVA & ~MASCARA_SALDO;
+
+    /** Maior saldo de uma conta, em centavos (pouco mais de R$1,4 trilhão). */
+    public static final long SALDO_MAXIMO_CENTAVOS = MASCARA_SALDO;
+
+    private static final VarHandle ESTADO;
+    private static final VarHandle DATA_INATIVACAO;
+    private static final VarHandle IMAGEM;
+    private static final VarHandle EXTRATO;
+
+    static {
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.lookup();
+            ESTADO = lookup.findVarHandle(Conta.class, "estado", long.class);
+            DATA_INATIVACAO = lookup.findVarHandle(Conta.class, "dataInativacao", LocalDate.class);
+            IMAGEM = lookup.findVarHandle(Conta.class, "imagem", ImagemConta.class);
+            EXTRATO = lookup.findVarHandle(Conta.class, "extrato", Extrato.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private final String numero;
+    private final String titular;
+    private volatile long estado;
+    private volatile LocalDate dataInativacao;
+    private volatile ImagemConta imagem;
+    private volatile Extrato extrato;
 
     public Conta(String numero, String titular, double saldoInicial) {
-        if (saldoInicial < 0){
-            throw new ValorInvalidoException("Deposito", String.valueOf(Math.round(saldoInicial*100.0)/100));
+        this(numero, titular, Moeda.paraCentavos(saldoInicial));
+    }
+
+    public Conta(String numero, String titular, long saldoInicialCentavos) {
+        if (saldoInicialCentavos < 0){
+            throw new ValorInvalidoException("Deposito", saldoInicialCentavos);
+        }
+        if (saldoInicialCentavos > MASCARA_SALDO){
+            throw new ArithmeticException("Saldo excede o limite na conta "+numero);
         }
         this.numero = numero;
         this.titular = titular;
-        this.saldo = saldoInicial;
-        this.ativa = true;
+        this.estado = saldoInicialCentavos;
         this.dataInativacao = null;
     }
 
+    /**
+     * Construtor para subclasses que guardam o estado fora do objeto (visões
+     * sobre um armazenamento compacto). Elas sobrescrevem os métodos de
+     * acesso ao estado no fim desta classe.
+     */
+    protected Conta(String numero, String titular) {
+        this.numero = numero;
+        this.titular = titular;
+    }
+
+    /**
+     * Recria uma conta com um estado já conhecido (recuperação a partir do
+     * journal), sem as validações de abertura.
+     */
+    public static Conta restaurar(String numero, String titular, long saldoCentavos, LocalDate dataInativacao) {
+        Conta conta = new Conta(numero, titular, saldoCentavos);
+        if (dataInativacao != null){
+            conta.dataInativacao = dataInativacao;
+            conta.estado |= INATIVA;
+        }
+        return conta;
+    }
+
     public String getNumero() {
         return numero;
     }
@@ -32,28 +102,282 @@ public class Conta {
     }
 
     public double getSaldo() {
-        return saldo;
+        return Moeda.paraReais(getSaldoCentavos());
+    }
+
+    public long getSaldoCentavos() {
+        return lerEstado() & MASCARA_SALDO;
     }
 
     public boolean isAtiva() {
-        return ativa;
+        return lerEstado() >= 0;
     }
 
+    /**
+     * @return a data em que a conta foi inativada, ou null se estiver ativa
+     */
     public LocalDate getDataInativacao() {
-        return dataInativacao;
+        return lerEstado() < 0 ? lerDataInativacao() : null;
     }
 
+    /**
+     * Saldo, situação e data de inativação de um mesmo instante, para exibir
+     * juntos. Não trava nem escreve em nada compartilhado: lê a palavra de
+     * estado uma vez e, se a conta estiver inativa, a data, que é gravada
+     * antes do indicador e nunca muda depois.
+     */
+    public SituacaoConta getSituacao() {
+        return situacao(lerEstado());
+    }
+
+    /**
+     * Lê duas contas num mesmo instante (por exemplo, para a prévia de uma
+     * transferência), sem travar quem altera. Lê a palavra da primeira, a da
+     * segunda, de novo a da primeira e de novo a da segunda; se nenhuma mudou
+     * (mesma versão), as leituras valeram juntas. Senão, tenta de novo. Uma
+     * transferência entre as duas em andamento pode aparecer só com o débito
+     * feito: é o estado das contas naquele instante.
+     * <p>
+     * A versão tem 16 bits e volta ao mesmo valor a cada 65.536 alterações,
+     * então uma conta que mude exatamente um múltiplo disso entre duas
+     * leituras e termine com o mesmo saldo e situação parece intacta. Basta
+     * uma das duas conferências valer para o par ser de um mesmo instante
+     * (a primeira intacta vale no instante da leitura da segunda; a segunda
+     * intacta, no da releitura da primeira). Um par misturado exige as duas
+     * contas dando a volta assim ao mesmo tempo, cada uma com dezenas de
+     * milhares de CAS enquanto o leitor fica parado entre duas leituras.
+     *
+     * @return as situações da primeira e da segunda conta, nessa ordem
+     */
+    public static SituacaoConta[] situacoesJuntas(Conta primeira, Conta segunda) {
+        if (primeira.equals(segunda)){
+            SituacaoConta situacao = primeira.getSituacao();
+            return new SituacaoConta[]{situacao, situacao};
+        }
+        while (true){
+            long antes = primeira.lerEstado();
+            long estadoSegunda = segunda.lerEstado();
+            if (primeira.lerEstado() == antes && segunda.lerEstado() == estadoSegunda){
+                return new SituacaoConta[]{primeira.situacao(antes), segunda.situacao(estadoSegunda)};
+            }
+            Thread.onSpinWait();
+        }
+    }
+
+    private SituacaoConta situacao(long estado) {
+        return new SituacaoConta(numero, estado & MASCARA_SALDO, estado < 0 ? lerDataInativacao() : null);
+    }
 
-    public void creditar(double valor) {
-        this.saldo += valor;
+    /**
+     * Soma o valor ao saldo em um laço de compare-and-set, sem trava.
+     * Contas inativas continuam aceitando crédito.
+     *
+     * @param centavos Valor a creditar, em centavos (deve ser > 0)
+     */
+    public void creditar(long centavos) {
+        long atual;
+        long saldo;
+        do {
+            atual = lerEstado();
+            saldo = atual & MASCARA_SALDO;
+            if (saldo > MASCARA_SALDO - centavos){
+                throw new ArithmeticException("Saldo excede o limite na conta "+numero);
+            }
+        } while (!trocarEstado(atual, alterado(atual, saldo + centavos)));
     }
 
-    public void debitar(double valor) {
-        this.saldo -= valor;
+    /**
+     * Verifica e subtrai o valor em um laço de compare-and-set, sem trava.
+     *
+     * @param centavos Valor a debitar, em centavos (deve ser > 0)
+     * @throws ContaInativaException se a conta estiver inativa
+     * @throws SaldoInsuficienteException se o saldo for menor que o valor
+     */
+    public void debitar(long centavos) throws ContaInativaException, SaldoInsuficienteException {
+        long observado = debitarSePossivel(centavos);
+        if (observado < 0){
+            throw new ContaInativaException(numero, lerDataInativacao());
+        }
+        if (observado < centavos){
+            throw new SaldoInsuficienteException(numero, observado, centavos);
+        }
+    }
+
+    /**
+     * Igual a {@link #debitar(long)}, mas devolve o motivo da recusa em vez
+     * de lançar exceção.
+     *
+     * @param centavos Valor a debitar, em centavos (deve ser > 0)
+     * @return SUCESSO, CONTA_INATIVA ou SALDO_INSUFICIENTE
+     */
+    public ResultadoOperacao tentarDebitar(long centavos) {
+        long observado = debitarSePossivel(centavos);
+        if (observado < 0){
+            return ResultadoOperacao.CONTA_INATIVA;
+        }
+        return observado < centavos ? ResultadoOperacao.SALDO_INSUFICIENTE : ResultadoOperacao.SUCESSO;
+    }
+
+    /**
+     * Igual a {@link #tentarDebitar(long)}, mas devolve o que o débito viu,
+     * para quem precisa relatar a recusa com o saldo do momento.
+     *
+     * @param centavos Valor a debitar, em centavos (deve ser > 0)
+     * @return o saldo observado no momento da decisão, ou um valor negativo
+     *         se a conta estava inativa; o débito aconteceu se e somente se
+     *         o valor for >= centavos
+     */
+    public long debitarSePossivel(long centavos) {
+        long atual;
+        long saldo;
+        do {
+            atual = lerEstado();
+            if (atual < 0){
+                return atual;
+            }
+            saldo = atual & MASCARA_SALDO;
+            if (saldo < centavos){
+                return saldo;
+            }
+        } while (!trocarEstado(atual, alterado(atual, saldo - centavos)));
+        return saldo;
     }
 
+    /**
+     * Inativa a conta. A data é a da primeira inativação: gravada antes do
+     * indicador e nunca trocada, para que quem vê a conta inativa veja sempre
+     * a mesma data.
+     */
     public void inativar() {
-        this.ativa = false;
-        this.dataInativacao = LocalDate.now();
+        trocarDataInativacao(null, LocalDate.now());
+        long atual;
+        do {
+            atual = lerEstado();
+            if (atual < 0){
+                return;
+            }
+        } while (!trocarEstado(atual, alterado(atual, atual & MASCARA_SALDO) | INATIVA));
+    }
+
+    /**
+     * A palavra com o novo saldo e a versão seguinte, mantendo o indicador de
+     * inativação.
+     */
+    private static long alterado(long estado, long saldo) {
+        return (estado & INATIVA) | ((estado + UMA_VERSAO) & MASCARA_VERSAO) | saldo;
+    }
+
+    /**
+     * O extrato é criado no primeiro movimento, para que contas paradas não
+     * paguem por ele.
+     *
+     * @return o extrato da conta
+     */
+    public Extrato getExtrato() {
+        Extrato atual = lerExtrato();
+        if (atual == null){
+            Extrato novo = new Extrato();
+            atual = trocarExtrato(null, novo) ? novo : lerExtrato();
+        }
+        return atual;
+    }
+
+    /**
+     * O instante do último depósito, saque ou transferência, tirado do
+     * extrato; não custa nada a mais para as operações.
+     *
+     * @return ms desde 1970, ou 0 se a conta nunca teve movimento
+     */
+    public long getUltimoMovimento() {
+        Extrato atual = lerExtrato();
+        return atual == null ? 0 : atual.getUltimoInstante();
+    }
+
+    /**
+     * Garante que o estado desta conta no início da época esteja preservado.
+     * Deve ser chamado antes de qualquer alteração feita durante a época e
+     * pelo próprio snapshot antes de ler a imagem.
+     * <p>
+     * Só o primeiro CAS da época vence. Quem vence leu o estado antes de
+     * qualquer alteração da época, porque toda alteração espera esta chamada
+     * retornar, e ela só retorna depois que alguma imagem da época existe.
+     *
+     * @param epoca Época atual do snapshot
+     */
+    public void preservarImagem(long epoca) {
+        ImagemConta atual = getImagem();
+        if (atual != null && atual.getEpoca() >= epoca){
+            return;
+        }
+        long estado = lerEstado();
+        ImagemConta nova = new ImagemConta(epoca, true, estado & MASCARA_SALDO, estado < 0 ? lerDataInativacao() : null);
+        trocarImagem(atual, nova);
+    }
+
+    /**
+     * Marca a conta como criada durante a época, para que o snapshot dessa
+     * época não a inclua (a criação será reproduzida a partir do journal).
+     */
+    public void marcarCriadaNaEpoca(long epoca) {
+        trocarImagem(getImagem(), new ImagemConta(epoca, false, 0, null));
+    }
+
+    public ImagemConta getImagem() {
+        return imagem;
+    }
+
+    /**
+     * Solta a imagem depois que o snapshot da época a gravou, para que ela
+     * não fique ocupando memória até o próximo snapshot. Se uma alteração
+     * ainda na mesma época encontrar a conta sem imagem, cria outra, que
+     * ninguém mais lê.
+     */
+    public void descartarImagem(ImagemConta gravada) {
+        trocarImagem(gravada, null);
+    }
+
+    // Acesso ao estado. Uma subclasse que guarde o estado em outro lugar
+    // sobrescreve estes métodos; os algoritmos acima ficam os mesmos.
+
+    /**
+     * @return a palavra de estado (saldo e indicador de inativação) da conta,
+     *         no formato que {@link #lerEstado()} deve devolver
+     */
+    protected static long estadoDe(Conta conta) {
+        return conta.lerEstado();
+    }
+
+    protected long lerEstado() {
+        return estado;
+    }
+
+    /**
+     * CAS fraco: pode falhar sem motivo e deve ser chamado em laço.
+     */
+    protected boolean trocarEstado(long esperado, long novo) {
+        return ESTADO.weakCompareAndSet(this, esperado, novo);
+    }
+
+    protected LocalDate lerDataInativacao() {
+        return dataInativacao;
+    }
+
+    /**
+     * Troca a data de inativação se ela ainda for a esperada.
+     */
+    protected boolean trocarDataInativacao(LocalDate esperada, LocalDate nova) {
+        return DATA_INATIVACAO.compareAndSet(this, esperada, nova);
+    }
+
+    protected boolean trocarImagem(ImagemConta esperada, ImagemConta nova) {
+        return IMAGEM.compareAndSet(this, esperada, nova);
+    }
+
+    protected Extrato lerExtrato() {
+        return extrato;
+    }
+
+    protected boolean trocarExtrato(Extrato esperado, Extrato novo) {
+        return EXTRATO.compareAndSet(this, esperado, novo);
     }
 }
\ No newline at end of file
@@ -0,0 +1,288 @@
+package model;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Histórico imutável dos movimentos de uma conta, só de inclusão.
+ * <p>
+ * Os movimentos ficam em blocos encadeados que começam pequenos e dobram até
+ * {@value #CAPACIDADE_MAXIMA} posições, em vez de um objeto por movimento.
+ * Cada movimento ocupa dois {@code long} vizinhos no mesmo vetor (instante e
+ * tipo, valor), para que registrar toque uma só linha de cache; o vetor com o
+ * número da contraparte só é criado nos blocos que têm transferências.
+ * <p>
+ * Quem registra serializa com os outros registros da mesma conta por um
+ * instante e publica a nova quantidade por último. A exclusão é um indicador
+ * com CAS e espera ativa, não um monitor: o trecho não bloqueia e é curto, e
+ * uma thread virtual esperando por ele não prende a thread portadora.
+ * Quem lê nunca trava: lê a quantidade publicada e percorre só esse
+ * prefixo, então uma consulta longa não atrasa depósitos e saques.
+ * Os instantes nunca diminuem dentro de um extrato, o que permite pular
+ * blocos inteiros fora do período consultado.
+ * <p>
+ * Retenção: por padrão o extrato guarda todos os movimentos. Com
+ * {@link #limitarRetencao(long)} ou
+ * {@code -Dbanco.extrato.movimentosMantidos=N}, os extratos criados depois
+ * mantêm só os N movimentos mais recentes (até um bloco a mais): ao abrir um
+ * bloco novo, os blocos mais antigos que passarem do limite são soltos
+ * inteiros, e o histórico de uma conta muito movimentada não cresce sem fim
+ * no heap. Consultas a períodos mais antigos devolvem só o que restou;
+ * {@link #getDescartados()} diz quantos movimentos saíram. O histórico
+ * completo, se preciso, é o journal.
+ */
+public final class Extrato {
+
+    private static final int CAPACIDADE_INICIAL = 4;
+    private static final int CAPACIDADE_MAXIMA = 1024;
+    /** Retenção sem limite, o padrão. */
+    public static final long SEM_LIMITE = Long.MAX_VALUE;
+    private static final TipoMovimento[] TIPOS = TipoMovimento.values();
+    private static final int TENTATIVAS_ANTES_DE_CEDER = 64;
+
+    private static volatile long movimentosMantidos =
+            Long.getLong("banco.extrato.movimentosMantidos", SEM_LIMITE);
+
+    private static final VarHandle GRAVANDO;
+
+    static {
+        try {
+            GRAVANDO = MethodHandles.lookup().findVarHandle(Extrato.class, "gravando", int.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private static final class Bloco {
+        /** Em [2i] o instante deslocado 2 bits com o tipo embaixo; em [2i+1] o valor. */
+        private final long[] dados;
+        private String[] contrapartes;
+        private volatile Bloco proximo;
+        /** Quantos movimentos do extrato vêm antes do primeiro deste bloco. */
+        private final long posicao;
+
+        private Bloco(int capacidade, long posicao) {
+            this.dados = new long[capacidade * 2];
+            this.posicao = posicao;
+        }
+
+        private int capacidade() {
+            return dados.length >> 1;
+        }
+
+        private long instante(int i) {
+            return dados[2 * i] >> 2;
+        }
+    }
+
+    /** A retenção em vigor quando o extrato foi criado. */
+    private final long mantidos = movimentosMantidos;
+    /** O bloco mais antigo mantido; só quem registra troca. */
+    private volatile Bloco primeiro = new Bloco(CAPACIDADE_INICIAL, 0);
+    private Bloco ultimo = primeiro;
+    private int usadosNoUltimo;
+    private long ultimoInstante;
+    private volatile long quantidade;
+    private volatile int gravando;
+
+    /**
+     * Passa a manter só os movimentos mais recentes nos extratos criados
+     * daqui em diante; os já existentes seguem com a retenção que tinham.
+     *
+     * @param movimentos Quantos movimentos manter por conta (positivo)
+     */
+    public static void limitarRetencao(long movimentos) {
+        if (movimentos <= 0){
+            throw new IllegalArgumentException("Retenção deve ser positiva: " + movimentos);
+        }
+        movimentosMantidos = movimentos;
+    }
+
+    /**
+     * Volta ao padrão: os extratos criados daqui em diante guardam todos os
+     * movimentos.
+     */
+    public static void reterTudo() {
+        movimentosMantidos = SEM_LIMITE;
+    }
+
+    /**
+     * @return a retenção dos extratos criados agora, ou {@link #SEM_LIMITE}
+     */
+    public static long getMovimentosMantidos() {
+        return movimentosMantidos;
+    }
+
+    /**
+     * Acrescenta um movimento com o instante atual.
+     *
+     * @param tipo Tipo do movimento
+     * @param centavos Valor, em centavos (positivo)
+     * @param contraparte Número da outra conta de uma transferência, ou null
+     */
+    public void registrar(TipoMovimento tipo, long centavos, String contraparte) {
+        registrar(System.currentTimeMillis(), tipo, centavos, contraparte);
+    }
+
+    /**
+     * Acrescenta um movimento. Um instante anterior ao último registrado é
+     * ajustado para o último, para manter a ordem.
+     */
+    public void registrar(long instanteMillis, TipoMovimento tipo, long centavos, String contraparte) {
+        int tentativas = 0;
+        while (!GRAVANDO.weakCompareAndSetAcquire(this, 0, 1)){
+            if (++tentativas % TENTATIVAS_ANTES_DE_CEDER == 0){
+                Thread.yield();
+            } else {
+                Thread.onSpinWait();
+            }
+        }
+        try{
+            acrescentar(instanteMillis, tipo, centavos, contraparte);
+        } finally {
+            GRAVANDO.setRelease(this, 0);
+        }
+    }
+
+    private void acrescentar(long instanteMillis, TipoMovimento tipo, long centavos, String contraparte) {
+        Bloco bloco = ultimo;
+        int i = usadosNoUltimo;
+        if (i == bloco.capacidade()){
+            Bloco novo = new Bloco(Math.min(bloco.capacidade() * 2, CAPACIDADE_MAXIMA), quantidade);
+            bloco.proximo = novo;
+            ultimo = bloco = novo;
+            i = 0;
+            if (mantidos != SEM_LIMITE){
+                descartarAntigos();
+            }
+        }
+        ultimoInstante = Math.max(ultimoInstante, instanteMillis);
+        bloco.dados[2 * i] = ultimoInstante << 2 | tipo.ordinal();
+        bloco.dados[2 * i + 1] = centavos;
+        if (contraparte != null){
+            if (bloco.contrapartes == null){
+                bloco.contrapartes = new String[bloco.capacidade()];
+            }
+            bloco.contrapartes[i] = contraparte;
+        }
+        usadosNoUltimo = i + 1;
+        quantidade = quantidade + 1;
+    }
+
+    /**
+     * Solta os blocos mais antigos enquanto os seguintes ainda guardarem a
+     * retenção do extrato. Os blocos soltos estão cheios e
+     * publicados, então quem lê {@link #primeiro} e depois a quantidade
+     * nunca vê uma quantidade anterior ao bloco lido.
+     */
+    private void descartarAntigos() {
+        Bloco inicio = primeiro;
+        while (quantidade - inicio.proximo.posicao >= mantidos){
+            inicio = inicio.proximo;
+        }
+        if (inicio != primeiro){
+            primeiro = inicio;
+        }
+    }
+
+    /**
+     * @return movimentos registrados desde a criação, inclusive os descartados
+     */
+    public long getQuantidade() {
+        return quantidade;
+    }
+
+    /**
+     * @return movimentos mais antigos que já saíram do extrato pela retenção
+     *         (sempre 0 sem limite); um período que começa antes do primeiro
+     *         mantido volta incompleto
+     */
+    public long getDescartados() {
+        return primeiro.posicao;
+    }
+
+    /**
+     * @return o instante do último movimento, em ms desde 1970, ou 0 se
+     *         ainda não houver movimento
+     */
+    public long getUltimoInstante() {
+        // A quantidade é publicada depois do instante: lida antes, garante
+        // ao menos o instante do movimento que ela conta.
+        return quantidade == 0 ? 0 : ultimoInstante;
+    }
+
+    /**
+     * Percorre sob demanda os movimentos mantidos com instante no intervalo,
+     * em ordem. Só os movimentos já registrados quando a consulta começa
+     * aparecem, e um {@link Movimento} só é criado quando é consumido.
+     *
+     * @param desdeMillis Início do intervalo (inclusivo), em ms desde 1970
+     * @param ateMillis Fim do intervalo (exclusivo), em ms desde 1970
+     */
+    public Stream<Movimento> movimentos(long desdeMillis, long ateMillis) {
+        Bloco inicio = primeiro;
+        Iterator<Movimento> iterador = new Cursor(inicio, quantidade - inicio.posicao, desdeMillis, ateMillis);
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterador,
+                Spliterator.ORDERED | Spliterator.NONNULL | Spliterator.IMMUTABLE), false);
+    }
+
+    private final class Cursor implements Iterator<Movimento> {
+        private final long ateMillis;
+        private long restantes;
+        private Bloco bloco;
+        private int i;
+
+        private Cursor(Bloco inicio, long publicados, long desdeMillis, long ateMillis) {
+            this.ateMillis = ateMillis;
+            this.restantes = publicados;
+            this.bloco = inicio;
+            // Um bloco com sucessor está cheio e todos os seus instantes são <=
+            // ao primeiro do sucessor.
+            Bloco proximo;
+            while ((proximo = bloco.proximo) != null && restantes > bloco.capacidade()
+                    && proximo.instante(0) < desdeMillis){
+                restantes -= bloco.capacidade();
+                bloco = proximo;
+            }
+            while (restantes > 0 && instanteAtual() < desdeMillis){
+                avancar();
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return restantes > 0 && instanteAtual() < ateMillis;
+        }
+
+        @Override
+        public Movimento next() {
+            if (!hasNext()){
+                throw new NoSuchElementException();
+            }
+            long instanteETipo = bloco.dados[2 * i];
+            String[] contrapartes = bloco.contrapartes;
+            Movimento movimento = new Movimento(instanteETipo >> 2, TIPOS[(int) (instanteETipo & 3)],
+                    bloco.dados[2 * i + 1], contrapartes == null ? null : contrapartes[i]);
+            avancar();
+            return movimento;
+        }
+
+        private long instanteAtual() {
+            return bloco.instante(i);
+        }
+
+        private void avancar() {
+            restantes--;
+            if (++i == bloco.capacidade() && restantes > 0){
+                bloco = bloco.proximo;
+                i = 0;
+            }
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package model;
+
+import java.time.LocalDate;
+
+/**
+ * Estado de uma {@link Conta} no início de uma época de snapshot, preservado
+ * antes da primeira alteração feita na época (copy-on-write).
+ */
+public final class ImagemConta {
+
+    private final long epoca;
+    private final boolean existia;
+    private final long saldoCentavos;
+    private final LocalDate dataInativacao;
+
+    ImagemConta(long epoca, boolean existia, long saldoCentavos, LocalDate dataInativacao) {
+        this.epoca = epoca;
+        this.existia = existia;
+        this.saldoCentavos = saldoCentavos;
+        this.dataInativacao = dataInativacao;
+    }
+
+    public long getEpoca() {
+        return epoca;
+    }
+
+    /**
+     * @return false se a conta foi criada depois do início da época
+     */
+    public boolean isExistia() {
+        return existia;
+    }
+
+    public long getSaldoCentavos() {
+        return saldoCentavos;
+    }
+
+    public LocalDate getDataInativacao() {
+        return dataInativacao;
+    }
+}
@@ -0,0 +1,41 @@
+package model;
+
+/**
+ * Conversões entre reais (double, usado na API pública) e centavos (long,
+ * usado internamente para guardar saldos sem erro de ponto flutuante).
+ */
+public final class Moeda {
+
+    private Moeda() {
+    }
+
+    public static long paraCentavos(double reais) {
+        return Math.round(reais * 100.0);
+    }
+
+    public static double paraReais(long centavos) {
+        return centavos / 100.0;
+    }
+
+    /**
+     * Formata um valor em centavos como "1234.56", sem passar por double.
+     */
+    public static String formatar(long centavos) {
+        StringBuilder sb = new StringBuilder(24);
+        formatar(centavos, sb);
+        return sb.toString();
+    }
+
+    public static void formatar(long centavos, StringBuilder destino) {
+        if (centavos < 0){
+            destino.append('-');
+        }
+        long absoluto = Math.abs(centavos);
+        long resto = absoluto % 100;
+        destino.append(absoluto / 100).append('.');
+        if (resto < 10){
+            destino.append('0');
+        }
+        destino.append(resto);
+    }
+}
@@ -0,0 +1,58 @@
+package model;
+
+import java.time.Instant;
+
+/**
+ * Uma linha do extrato. Criada só quando o extrato é lido; o
+ * {@link Extrato} guarda os campos em vetores primitivos.
+ */
+public final class Movimento {
+
+    private final long instanteMillis;
+    private final TipoMovimento tipo;
+    private final long valorCentavos;
+    private final String contraparte;
+
+    Movimento(long instanteMillis, TipoMovimento tipo, long valorCentavos, String contraparte) {
+        this.instanteMillis = instanteMillis;
+        this.tipo = tipo;
+        this.valorCentavos = valorCentavos;
+        this.contraparte = contraparte;
+    }
+
+    public Instant getInstante() {
+        return Instant.ofEpochMilli(instanteMillis);
+    }
+
+    public long getInstanteMillis() {
+        return instanteMillis;
+    }
+
+    public TipoMovimento getTipo() {
+        return tipo;
+    }
+
+    public double getValor() {
+        return Moeda.paraReais(valorCentavos);
+    }
+
+    /**
+     * @return o valor em centavos, sempre positivo; o sentido vem do tipo
+     */
+    public long getValorCentavos() {
+        return valorCentavos;
+    }
+
+    /**
+     * @return a outra conta de uma transferência, ou null
+     */
+    public String getContraparte() {
+        return contraparte;
+    }
+
+    @Override
+    public String toString() {
+        return getInstante() + " " + tipo + " " + (tipo.isCredito() ? "+" : "-") + Moeda.formatar(valorCentavos)
+                + (contraparte == null ? "" : " " + contraparte);
+    }
+}
@@ -0,0 +1,23 @@
+package model;
+
+/**
+ * Resultado de uma operação na API sem exceções de {@code service.BancoService}
+ * (métodos {@code tentar*}). As constantes são pré-alocadas, então uma recusa
+ * não cria nenhum objeto.
+ */
+public enum ResultadoOperacao {
+
+    SUCESSO,
+    VALOR_INVALIDO,
+    CONTA_NAO_ENCONTRADA,
+    CONTA_INATIVA,
+    SALDO_INSUFICIENTE,
+    /** Saque ou transferência acima dos limites de movimentação da conta ou do banco. */
+    LIMITE_EXCEDIDO,
+    /** Item válido de um lote tudo-ou-nada que não foi aplicado porque outro item falhou. */
+    LOTE_CANCELADO;
+
+    public boolean isSucesso() {
+        return this == SUCESSO;
+    }
+}
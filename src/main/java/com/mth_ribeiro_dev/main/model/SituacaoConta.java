@@ -0,0 +1,48 @@
+package model;
+
+import java.time.LocalDate;
+
+/**
+ * Saldo, situação e data de inativação de uma {@link Conta} lidos num mesmo
+ * instante (veja {@link Conta#getSituacao()}).
+ */
+public final class SituacaoConta {
+
+    private final String numero;
+    private final long saldoCentavos;
+    private final LocalDate dataInativacao;
+
+    SituacaoConta(String numero, long saldoCentavos, LocalDate dataInativacao) {
+        this.numero = numero;
+        this.saldoCentavos = saldoCentavos;
+        this.dataInativacao = dataInativacao;
+    }
+
+    public String getNumero() {
+        return numero;
+    }
+
+    public long getSaldoCentavos() {
+        return saldoCentavos;
+    }
+
+    public double getSaldo() {
+        return Moeda.paraReais(saldoCentavos);
+    }
+
+    public boolean isAtiva() {
+        return dataInativacao == null;
+    }
+
+    /**
+     * @return a data em que a conta foi inativada, ou null se estava ativa
+     */
+    public LocalDate getDataInativacao() {
+        return dataInativacao;
+    }
+
+    @Override
+    public String toString() {
+        return numero + ": R$" + Moeda.formatar(saldoCentavos) + (isAtiva() ? "" : " (inativa desde " + dataInativacao + ")");
+    }
+}
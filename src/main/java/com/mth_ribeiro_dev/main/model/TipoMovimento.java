@@ -0,0 +1,15 @@
+package model;
+
+public enum TipoMovimento {
+    DEPOSITO,
+    SAQUE,
+    TRANSFERENCIA_ENVIADA,
+    TRANSFERENCIA_RECEBIDA;
+
+    /**
+     * @return true se o movimento aumenta o saldo
+     */
+    public boolean isCredito() {
+        return this == DEPOSITO || this == TRANSFERENCIA_RECEBIDA;
+    }
+}
@@ -0,0 +1,526 @@
+package persistencia;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.DateTimeException;
+import java.time.LocalDate;
+
+/**
+ * Leitura e escrita de arquivos de contas ({@link FormatoContas}) para
+ * importação e exportação em massa.
+ * <p>
+ * A leitura é em fluxo: o arquivo é lido pelo canal em blocos de 4 MiB e os
+ * campos são interpretados direto nos bytes do bloco. Saldo e data viram
+ * números sem passar por String; só o número e o titular, que a conta
+ * guarda, viram String. Uma linha ou registro inválido é entregue como
+ * rejeitado e a leitura continua.
+ */
+public final class ArquivoContas {
+
+    private static final int MAGIA = 0x43544153;
+    private static final int VERSAO = 1;
+    private static final int TAMANHO_BUFFER = 1 << 22;
+    private static final int SEM_DATA = Integer.MIN_VALUE;
+    private static final int TAMANHO_MAXIMO_REGISTRO = 2 + 0xFFFF + 2 + 0xFFFF + 8 + 4;
+    private static final int CAMPOS_CSV = 4;
+    private static final int MAXIMO_DIGITOS_REAIS = 16;
+    private static final long INVALIDO = Long.MIN_VALUE;
+    private static final byte[] CABECALHO_CSV = "numero,titular,saldo,inativacao\n".getBytes(StandardCharsets.US_ASCII);
+    /** Uma primeira linha que começa com "numero," é o cabeçalho. */
+    private static final int PREFIXO_CABECALHO = "numero,".length();
+
+    private ArquivoContas() {
+    }
+
+    /**
+     * Lê o arquivo inteiro, entregando cada conta ao leitor.
+     *
+     * @return Quantas linhas (CSV, sem contar cabeçalho e linhas vazias) ou
+     *         registros (binário) foram lidos, inclusive os rejeitados
+     * @throws IOException se o arquivo não puder ser lido ou não estiver no formato
+     */
+    public static long ler(Path arquivo, FormatoContas formato, LeitorContas leitor) throws IOException {
+        try (FileChannel canal = FileChannel.open(arquivo, StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocate(TAMANHO_BUFFER);
+            return formato == FormatoContas.CSV ? lerCsv(canal, buffer, leitor) : lerBinario(arquivo, canal, buffer, leitor);
+        }
+    }
+
+    public static Escritor criar(Path destino, FormatoContas formato) throws IOException {
+        return new Escritor(destino, formato);
+    }
+
+    private static long lerCsv(FileChannel canal, ByteBuffer buffer, LeitorContas leitor) throws IOException {
+        byte[] dados = buffer.array();
+        int[] campos = new int[2 * CAMPOS_CSV];
+        long linha = 0;
+        long lidas = 0;
+        // Resto de uma linha maior que o buffer, já rejeitada.
+        boolean descartando = false;
+        boolean fim = false;
+        while (!fim){
+            fim = encher(canal, buffer);
+            int limite = buffer.position();
+            int inicio = 0;
+            for (int i = 0; i < limite; i++){
+                if (dados[i] == '\n'){
+                    if (descartando){
+                        descartando = false;
+                    } else if (lerLinhaCsv(dados, inicio, i, ++linha, campos, leitor)){
+                        lidas++;
+                    }
+                    inicio = i + 1;
+                }
+            }
+            if (fim){
+                if (inicio < limite && !descartando && lerLinhaCsv(dados, inicio, limite, ++linha, campos, leitor)){
+                    lidas++;
+                }
+            } else if (inicio == 0 && limite == dados.length){
+                if (!descartando){
+                    leitor.rejeitada(++linha, new IllegalArgumentException("Linha com mais de " + TAMANHO_BUFFER + " bytes"));
+                    lidas++;
+                }
+                descartando = true;
+                buffer.clear();
+            } else {
+                System.arraycopy(dados, inicio, dados, 0, limite - inicio);
+                buffer.position(limite - inicio);
+            }
+        }
+        return lidas;
+    }
+
+    /**
+     * Interpreta a linha entre {@code inicio} e {@code fim} (sem o '\n').
+     * Campos entre aspas são desescapados no próprio buffer.
+     *
+     * @return false se a linha for vazia ou o cabeçalho
+     */
+    private static boolean lerLinhaCsv(byte[] dados, int inicio, int fim, long linha, int[] campos, LeitorContas leitor) {
+        if (fim > inicio && dados[fim - 1] == '\r'){
+            fim--;
+        }
+        if (fim == inicio || (linha == 1 && comecaCom(dados, inicio, fim, CABECALHO_CSV, PREFIXO_CABECALHO))){
+            return false;
+        }
+        int quantidade = 0;
+        int i = inicio;
+        while (true){
+            if (quantidade == CAMPOS_CSV){
+                leitor.rejeitada(linha, new IllegalArgumentException("Mais de " + CAMPOS_CSV + " campos"));
+                return true;
+            }
+            int comeco = i;
+            int termino;
+            if (i < fim && dados[i] == '"'){
+                int escrita = i;
+                boolean fechado = false;
+                for (i++; i < fim; i++){
+                    if (dados[i] == '"'){
+                        if (i + 1 < fim && dados[i + 1] == '"'){
+                            i++;
+                        } else {
+                            fechado = true;
+                            i++;
+                            break;
+                        }
+                    }
+                    dados[escrita++] = dados[i];
+                }
+                if (!fechado || (i < fim && dados[i] != ',')){
+                    leitor.rejeitada(linha, new IllegalArgumentException("Aspas sem fechamento no campo " + (quantidade + 1)));
+                    return true;
+                }
+                termino = escrita;
+            } else {
+                while (i < fim && dados[i] != ','){
+                    i++;
+                }
+                termino = i;
+            }
+            campos[2 * quantidade] = comeco;
+            campos[2 * quantidade + 1] = termino;
+            quantidade++;
+            if (i >= fim){
+                break;
+            }
+            i++;
+        }
+        if (quantidade < 3){
+            leitor.rejeitada(linha, new IllegalArgumentException("Esperados 3 ou 4 campos, encontrados " + quantidade));
+            return true;
+        }
+        if (campos[1] == campos[0]){
+            leitor.rejeitada(linha, new IllegalArgumentException("Número da conta vazio"));
+            return true;
+        }
+        long centavos = centavos(dados, campos[4], campos[5]);
+        if (centavos == INVALIDO){
+            leitor.rejeitada(linha, new IllegalArgumentException("Saldo inválido: " + texto(dados, campos[4], campos[5])));
+            return true;
+        }
+        LocalDate data = null;
+        if (quantidade == 4 && campos[7] > campos[6]){
+            data = data(dados, campos[6], campos[7]);
+            if (data == null){
+                leitor.rejeitada(linha, new IllegalArgumentException("Data de inativação inválida: "
+                        + texto(dados, campos[6], campos[7])));
+                return true;
+            }
+        }
+        leitor.conta(linha, texto(dados, campos[0], campos[1]), texto(dados, campos[2], campos[3]), centavos, data);
+        return true;
+    }
+
+    private static long lerBinario(Path arquivo, FileChannel canal, ByteBuffer buffer, LeitorContas leitor)
+            throws IOException {
+        byte[] dados = buffer.array();
+        boolean fim = encher(canal, buffer);
+        buffer.flip();
+        if (buffer.remaining() < 8 || buffer.getInt() != MAGIA || buffer.getInt() != VERSAO){
+            throw new IOException("Arquivo não é um arquivo de contas binário: " + arquivo);
+        }
+        long registro = 0;
+        while (true){
+            if (!fim && buffer.remaining() < TAMANHO_MAXIMO_REGISTRO){
+                buffer.compact();
+                fim = encher(canal, buffer);
+                buffer.flip();
+            }
+            if (!buffer.hasRemaining()){
+                return registro;
+            }
+            registro++;
+            int posicao = buffer.position();
+            int disponivel = buffer.remaining();
+            int tamanhoNumero = disponivel < 2 ? -1 : buffer.getShort(posicao) & 0xFFFF;
+            int tamanhoTitular = tamanhoNumero < 0 || disponivel < 4 + tamanhoNumero
+                    ? -1 : buffer.getShort(posicao + 2 + tamanhoNumero) & 0xFFFF;
+            if (tamanhoTitular < 0 || disponivel < 4 + tamanhoNumero + tamanhoTitular + 12){
+                leitor.rejeitada(registro, new IllegalArgumentException("Registro truncado no fim do arquivo"));
+                return registro;
+            }
+            int inicioTitular = posicao + 4 + tamanhoNumero;
+            buffer.position(inicioTitular + tamanhoTitular);
+            long centavos = buffer.getLong();
+            int dia = buffer.getInt();
+            if (tamanhoNumero == 0){
+                leitor.rejeitada(registro, new IllegalArgumentException("Número da conta vazio"));
+                continue;
+            }
+            LocalDate data;
+            try{
+                data = dia == SEM_DATA ? null : LocalDate.ofEpochDay(dia);
+            } catch (DateTimeException e) {
+                leitor.rejeitada(registro, e);
+                continue;
+            }
+            leitor.conta(registro, texto(dados, posicao + 2, posicao + 2 + tamanhoNumero),
+                    texto(dados, inicioTitular, inicioTitular + tamanhoTitular), centavos, data);
+        }
+    }
+
+    /**
+     * Lê do canal até encher o buffer ou o arquivo acabar.
+     *
+     * @return true se o arquivo acabou
+     */
+    private static boolean encher(FileChannel canal, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()){
+            if (canal.read(buffer) < 0){
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Reais com até duas casas ("1234.5", "-10", "0.07") em centavos, sem
+     * passar por double.
+     *
+     * @return o valor, ou {@link #INVALIDO}
+     */
+    private static long centavos(byte[] dados, int i, int fim) {
+        boolean negativo = false;
+        if (i < fim && (dados[i] == '-' || dados[i] == '+')){
+            negativo = dados[i] == '-';
+            i++;
+        }
+        long reais = 0;
+        int digitos = 0;
+        for (; i < fim && dados[i] >= '0' && dados[i] <= '9'; i++){
+            if (++digitos > MAXIMO_DIGITOS_REAIS){
+                return INVALIDO;
+            }
+            reais = reais * 10 + (dados[i] - '0');
+        }
+        long fracao = 0;
+        int casas = 0;
+        if (i < fim && dados[i] == '.'){
+            for (i++; i < fim && dados[i] >= '0' && dados[i] <= '9'; i++){
+                if (++casas > 2){
+                    return INVALIDO;
+                }
+                fracao = fracao * 10 + (dados[i] - '0');
+            }
+        }
+        if (i != fim || digitos + casas == 0){
+            return INVALIDO;
+        }
+        long valor = reais * 100 + (casas == 1 ? fracao * 10 : fracao);
+        return negativo ? -valor : valor;
+    }
+
+    /**
+     * @return a data "aaaa-mm-dd", ou null se não for uma data válida
+     */
+    private static LocalDate data(byte[] dados, int inicio, int fim) {
+        if (fim - inicio != 10 || dados[inicio + 4] != '-' || dados[inicio + 7] != '-'){
+            return null;
+        }
+        int ano = digitos(dados, inicio, 4);
+        int mes = digitos(dados, inicio + 5, 2);
+        int dia = digitos(dados, inicio + 8, 2);
+        if (ano < 0 || mes < 0 || dia < 0){
+            return null;
+        }
+        try{
+            return LocalDate.of(ano, mes, dia);
+        } catch (DateTimeException e) {
+            return null;
+        }
+    }
+
+    private static int digitos(byte[] dados, int inicio, int quantidade) {
+        int valor = 0;
+        for (int i = inicio; i < inicio + quantidade; i++){
+            if (dados[i] < '0' || dados[i] > '9'){
+                return -1;
+            }
+            valor = valor * 10 + (dados[i] - '0');
+        }
+        return valor;
+    }
+
+    private static boolean comecaCom(byte[] dados, int inicio, int fim, byte[] prefixo, int tamanho) {
+        if (fim - inicio < tamanho){
+            return false;
+        }
+        for (int i = 0; i < tamanho; i++){
+            if (dados[inicio + i] != prefixo[i]){
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static String texto(byte[] dados, int inicio, int fim) {
+        return new String(dados, inicio, fim - inicio, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Escreve um arquivo de contas sequencialmente, em blocos de 4 MiB. Nada
+     * aparece em {@code destino} até {@link #concluir()}; fechar sem concluir
+     * descarta o arquivo.
+     */
+    public static final class Escritor implements AutoCloseable {
+
+        private final Path destino;
+        private final Path temporario;
+        private final FormatoContas formato;
+        private final FileChannel canal;
+        private final ByteBuffer buffer = ByteBuffer.allocate(TAMANHO_BUFFER);
+        private final byte[] algarismos = new byte[20];
+        private long quantidade;
+        private boolean concluido;
+
+        private Escritor(Path destino, FormatoContas formato) throws IOException {
+            this.destino = destino;
+            this.temporario = destino.resolveSibling(destino.getFileName() + ".tmp");
+            this.formato = formato;
+            this.canal = FileChannel.open(temporario, StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+            if (formato == FormatoContas.CSV){
+                buffer.put(CABECALHO_CSV);
+            } else {
+                buffer.putInt(MAGIA).putInt(VERSAO);
+            }
+        }
+
+        /**
+         * @param dataInativacao Data de inativação, ou null se a conta estiver ativa
+         * @throws IllegalArgumentException se o número ou o titular não couberem
+         *                                  no formato (quebra de linha em CSV,
+         *                                  mais de 65535 bytes no binário)
+         */
+        public void escrever(String numero, String titular, long saldoCentavos, LocalDate dataInativacao) {
+            long maximo = 6L * (numero.length() + titular.length()) + 64;
+            if (maximo > TAMANHO_BUFFER){
+                throw new IllegalArgumentException("Texto longo demais para o arquivo na conta " + numero);
+            }
+            try{
+                if (buffer.remaining() < maximo){
+                    descarregar();
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            if (formato == FormatoContas.CSV){
+                campoCsv(numero);
+                buffer.put((byte) ',');
+                campoCsv(titular);
+                buffer.put((byte) ',');
+                centavos(saldoCentavos);
+                buffer.put((byte) ',');
+                if (dataInativacao != null){
+                    data(dataInativacao);
+                }
+                buffer.put((byte) '\n');
+            } else {
+                campoBinario(numero);
+                campoBinario(titular);
+                buffer.putLong(saldoCentavos)
+                        .putInt(dataInativacao == null ? SEM_DATA : Math.toIntExact(dataInativacao.toEpochDay()));
+            }
+            quantidade++;
+        }
+
+        /**
+         * Grava o que falta, sincroniza com o disco e publica o arquivo.
+         *
+         * @return Quantas contas foram escritas
+         */
+        public long concluir() throws IOException {
+            descarregar();
+            canal.force(true);
+            canal.close();
+            Files.move(temporario, destino, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            concluido = true;
+            return quantidade;
+        }
+
+        /**
+         * Texto ASCII sem vírgula nem aspas vai direto para o buffer; o resto
+         * é codificado e, se preciso, posto entre aspas.
+         */
+        private void campoCsv(String texto) {
+            boolean ascii = true;
+            boolean aspas = false;
+            for (int i = 0; i < texto.length(); i++){
+                char c = texto.charAt(i);
+                if (c == '\n' || c == '\r'){
+                    throw new IllegalArgumentException("Quebra de linha não é aceita em CSV: " + texto);
+                }
+                ascii &= c < 0x80;
+                aspas |= c == ',' || c == '"';
+            }
+            if (ascii && !aspas){
+                for (int i = 0; i < texto.length(); i++){
+                    buffer.put((byte) texto.charAt(i));
+                }
+                return;
+            }
+            byte[] bytes = texto.getBytes(StandardCharsets.UTF_8);
+            if (!aspas){
+                buffer.put(bytes);
+                return;
+            }
+            buffer.put((byte) '"');
+            for (byte b : bytes){
+                if (b == '"'){
+                    buffer.put(b);
+                }
+                buffer.put(b);
+            }
+            buffer.put((byte) '"');
+        }
+
+        private void campoBinario(String texto) {
+            boolean ascii = true;
+            for (int i = 0; i < texto.length() && ascii; i++){
+                ascii = texto.charAt(i) < 0x80;
+            }
+            if (ascii){
+                if (texto.length() > 0xFFFF){
+                    throw new IllegalArgumentException("Texto longo demais para o arquivo binário: " + texto.length());
+                }
+                buffer.putShort((short) texto.length());
+                for (int i = 0; i < texto.length(); i++){
+                    buffer.put((byte) texto.charAt(i));
+                }
+                return;
+            }
+            byte[] bytes = texto.getBytes(StandardCharsets.UTF_8);
+            if (bytes.length > 0xFFFF){
+                throw new IllegalArgumentException("Texto longo demais para o arquivo binário: " + bytes.length);
+            }
+            buffer.putShort((short) bytes.length).put(bytes);
+        }
+
+        /**
+         * Escreve "1234.56" sem passar por String.
+         */
+        private void centavos(long valor) {
+            if (valor < 0){
+                buffer.put((byte) '-');
+                valor = -valor;
+            }
+            inteiro(valor / 100, 1);
+            buffer.put((byte) '.');
+            inteiro(valor % 100, 2);
+        }
+
+        private void data(LocalDate data) {
+            if (data.getYear() < 0 || data.getYear() > 9999){
+                buffer.put(data.toString().getBytes(StandardCharsets.US_ASCII));
+                return;
+            }
+            inteiro(data.getYear(), 4);
+            buffer.put((byte) '-');
+            inteiro(data.getMonthValue(), 2);
+            buffer.put((byte) '-');
+            inteiro(data.getDayOfMonth(), 2);
+        }
+
+        /**
+         * Escreve o número com pelo menos {@code minimo} algarismos.
+         */
+        private void inteiro(long valor, int minimo) {
+            int quantos = 0;
+            do {
+                algarismos[quantos++] = (byte) ('0' + valor % 10);
+                valor /= 10;
+            } while (valor > 0);
+            while (quantos < minimo){
+                algarismos[quantos++] = '0';
+            }
+            while (quantos > 0){
+                buffer.put(algarismos[--quantos]);
+            }
+        }
+
+        private void descarregar() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()){
+                canal.write(buffer);
+            }
+            buffer.clear();
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (!concluido){
+                canal.close();
+                Files.deleteIfExists(temporario);
+            }
+        }
+    }
+}
@@ -0,0 +1,25 @@
+package persistencia;
+
+/**
+ * Formatos de arquivo de contas lidos e escritos por {@link ArquivoContas}.
+ */
+public enum FormatoContas {
+
+    /**
+     * Texto em UTF-8, uma conta por linha: {@code numero,titular,saldo,inativacao},
+     * com o saldo em reais com ponto ("1234.56") e a data de inativação no
+     * formato ISO ("2024-03-15"), vazia para contas ativas. A quarta coluna é
+     * opcional e a primeira linha pode ser o cabeçalho. Campos com vírgula ou
+     * aspas vão entre aspas, com aspas internas dobradas; quebras de linha
+     * dentro de um campo não são aceitas.
+     */
+    CSV,
+
+    /**
+     * Binário compacto: {@code [int magia][int versao]} seguido de um
+     * registro por conta,
+     * {@code [short][numero UTF-8][short][titular UTF-8][long saldoCentavos][int diaInativacao]},
+     * com o dia em dias desde 1970, ou {@code Integer.MIN_VALUE} para contas ativas.
+     */
+    BINARIO
+}
@@ -0,0 +1,480 @@
+package persistencia;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+
+/**
+ * Journal binário somente-anexação (write-ahead log) das operações que
+ * alteram contas.
+ * <p>
+ * Quem registra uma operação só copia os bytes para o lote em memória; uma
+ * thread dedicada grava o lote no arquivo e chama {@code FileChannel.force}.
+ * Enquanto um force acontece, novas operações se acumulam no próximo lote, de
+ * modo que um único force torna durável um grupo inteiro de operações
+ * (commit em grupo). Ver {@link PoliticaSincronizacao}.
+ * <p>
+ * Formato de cada registro:
+ * {@code [int tamanho][int crc32][byte tipo][long sequencia][long valor][texto a][texto b]},
+ * onde cada texto é {@code [short tamanho][bytes UTF-8]}. Um registro
+ * incompleto ou com CRC inválido no fim do arquivo (queda no meio de uma
+ * gravação) é descartado ao abrir.
+ */
+public final class Journal implements AutoCloseable {
+
+    private static final byte CONTA_CRIADA = 1;
+    private static final byte DEPOSITO = 2;
+    private static final byte SAQUE = 3;
+    private static final byte TRANSFERENCIA = 4;
+    private static final byte INATIVACAO = 5;
+
+    private static final int CABECALHO = 8;
+    private static final int TAMANHO_FIXO_PAYLOAD = 1 + 8 + 8 + 2 + 2;
+    private static final int TAMANHO_MAXIMO_TEXTO = 0xFFFF;
+    private static final int TAMANHO_INICIAL_LOTE = 64 * 1024;
+    private static final byte[] VAZIO = new byte[0];
+
+    private final Path arquivo;
+    private final FileChannel canal;
+    private final PoliticaSincronizacao politica;
+    private final long intervaloNanos;
+    private final long fimRecuperado;
+    private final Thread sincronizador;
+
+    private final ReentrantLock trava = new ReentrantLock();
+    private final Condition temDados = trava.newCondition();
+    private final Condition loteGravado = trava.newCondition();
+    private final CRC32 crc = new CRC32();
+
+    private ByteBuffer atual = ByteBuffer.allocate(TAMANHO_INICIAL_LOTE);
+    private ByteBuffer reserva = ByteBuffer.allocate(TAMANHO_INICIAL_LOTE);
+    private long ultimaSequencia;
+    private long posicaoFinal;
+    private long sequenciaDuravel;
+    /** Escritos sob {@link #trava}; voláteis para {@link #verificarDisponivel()}. */
+    private volatile IOException falha;
+    private volatile boolean fechando;
+
+    private Journal(Path arquivo, FileChannel canal, PoliticaSincronizacao politica, long intervaloMillis,
+                    long fimRecuperado, long ultimaSequencia) {
+        this.arquivo = arquivo;
+        this.canal = canal;
+        this.politica = politica;
+        this.intervaloNanos = TimeUnit.MILLISECONDS.toNanos(intervaloMillis);
+        this.fimRecuperado = fimRecuperado;
+        this.ultimaSequencia = ultimaSequencia;
+        this.posicaoFinal = fimRecuperado;
+        this.sequenciaDuravel = ultimaSequencia;
+        this.sincronizador = new Thread(this::executarSincronizacao, "journal-" + arquivo.getFileName());
+        this.sincronizador.setDaemon(true);
+        this.sincronizador.start();
+    }
+
+    /**
+     * Abre (ou cria) um journal. Registros válidos já existentes são mantidos
+     * e podem ser lidos com {@link #reproduzir(LeitorJournal)}; uma cauda
+     * corrompida é truncada.
+     *
+     * @param arquivo Caminho do arquivo
+     * @param politica Política de sincronização com o disco
+     * @param intervaloMillis Intervalo entre gravações para INTERVALO e
+     *                        SISTEMA_OPERACIONAL (ignorado em A_CADA_OPERACAO)
+     * @return O journal aberto, pronto para receber registros
+     * @throws IOException se o arquivo não puder ser aberto ou lido
+     */
+    public static Journal abrir(Path arquivo, PoliticaSincronizacao politica, long intervaloMillis) throws IOException {
+        if (politica != PoliticaSincronizacao.A_CADA_OPERACAO && intervaloMillis <= 0){
+            throw new IllegalArgumentException("intervaloMillis deve ser positivo: "+intervaloMillis);
+        }
+        FileChannel canal = FileChannel.open(arquivo, StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try{
+            long[] varredura = ler(arquivo, 0, Long.MAX_VALUE, null);
+            canal.truncate(varredura[0]);
+            canal.position(varredura[0]);
+            return new Journal(arquivo, canal, politica, intervaloMillis, varredura[0], varredura[1]);
+        } catch (IOException | RuntimeException e) {
+            canal.close();
+            throw e;
+        }
+    }
+
+    public Path getArquivo() {
+        return arquivo;
+    }
+
+    public PoliticaSincronizacao getPolitica() {
+        return politica;
+    }
+
+    /**
+     * @return A sequência do último registro aceito (durável ou não)
+     */
+    public long getUltimaSequencia() {
+        trava.lock();
+        try{
+            return ultimaSequencia;
+        } finally {
+            trava.unlock();
+        }
+    }
+
+    /**
+     * @return A posição (em bytes) onde o próximo registro será gravado
+     */
+    public long getPosicaoFinal() {
+        trava.lock();
+        try{
+            return posicaoFinal;
+        } finally {
+            trava.unlock();
+        }
+    }
+
+    /**
+     * Entrega ao leitor, em ordem, os registros que existiam no arquivo quando
+     * o journal foi aberto.
+     *
+     * @param leitor Quem recebe os registros
+     * @throws IOException se o arquivo não puder ser lido
+     */
+    public void reproduzir(LeitorJournal leitor) throws IOException {
+        reproduzir(0, leitor);
+    }
+
+    /**
+     * Como {@link #reproduzir(LeitorJournal)}, mas começando em uma posição
+     * obtida de {@link #getPosicaoFinal()} (por exemplo, a guardada em um
+     * snapshot), sem ler o que vem antes.
+     *
+     * @param posicao Posição em bytes do primeiro registro a entregar
+     * @param leitor Quem recebe os registros
+     * @throws IOException se o arquivo não puder ser lido
+     */
+    public void reproduzir(long posicao, LeitorJournal leitor) throws IOException {
+        if (posicao > fimRecuperado){
+            throw new IllegalStateException("Journal "+arquivo+" tem "+fimRecuperado
+                    +" bytes válidos, menos que a posição pedida ("+posicao+")");
+        }
+        ler(arquivo, posicao, fimRecuperado, leitor);
+    }
+
+    /**
+     * Espera até que todos os registros até a sequência tenham sido gravados
+     * no arquivo (e sincronizados, exceto em SISTEMA_OPERACIONAL).
+     *
+     * @param sequencia Sequência obtida de {@link #getUltimaSequencia()}
+     */
+    public void aguardarGravacao(long sequencia) {
+        trava.lock();
+        try{
+            temDados.signal();
+            while (sequenciaDuravel < sequencia){
+                if (falha != null){
+                    throw new UncheckedIOException("Journal indisponível: "+arquivo, falha);
+                }
+                loteGravado.awaitUninterruptibly();
+            }
+        } finally {
+            trava.unlock();
+        }
+    }
+
+    /**
+     * Anexam um registro sem esperar pelo disco, para gravar vários
+     * registros e esperar uma única vez com {@link #confirmar(long)}.
+     *
+     * @return A sequência do registro
+     */
+    public long anexarCriacao(String numero, String titular, long saldoCentavos) {
+        return anexar(CONTA_CRIADA, numero, titular, saldoCentavos);
+    }
+
+    public long anexarDeposito(String numero, long centavos) {
+        return anexar(DEPOSITO, numero, null, centavos);
+    }
+
+    public long anexarSaque(String numero, long centavos) {
+        return anexar(SAQUE, numero, null, centavos);
+    }
+
+    public long anexarTransferencia(String numeroOrigem, String numeroDestino, long centavos) {
+        return anexar(TRANSFERENCIA, numeroOrigem, numeroDestino, centavos);
+    }
+
+    public long anexarInativacao(String numero, LocalDate data) {
+        return anexar(INATIVACAO, numero, null, data.toEpochDay());
+    }
+
+    /**
+     * Espera pela gravação da sequência se a política exigir
+     * (A_CADA_OPERACAO); nas demais retorna imediatamente.
+     *
+     * @param sequencia Última sequência anexada por quem chama
+     */
+    public void confirmar(long sequencia) {
+        if (politica == PoliticaSincronizacao.A_CADA_OPERACAO){
+            aguardarGravacao(sequencia);
+        }
+    }
+
+    private long anexar(byte tipo, String a, String b, long valor) {
+        byte[] bytesA = codificar(a);
+        byte[] bytesB = b == null ? VAZIO : codificar(b);
+        int tamanhoPayload = TAMANHO_FIXO_PAYLOAD + bytesA.length + bytesB.length;
+        long sequencia;
+        trava.lock();
+        try{
+            verificarDisponivel();
+            garantirEspaco(CABECALHO + tamanhoPayload);
+            sequencia = ++ultimaSequencia;
+            posicaoFinal += CABECALHO + tamanhoPayload;
+            int inicio = atual.position();
+            atual.putInt(tamanhoPayload).putInt(0)
+                    .put(tipo).putLong(sequencia).putLong(valor)
+                    .putShort((short) bytesA.length).put(bytesA)
+                    .putShort((short) bytesB.length).put(bytesB);
+            crc.reset();
+            crc.update(atual.array(), inicio + CABECALHO, tamanhoPayload);
+            atual.putInt(inicio + 4, (int) crc.getValue());
+        } finally {
+            trava.unlock();
+        }
+        return sequencia;
+    }
+
+    /**
+     * Confere, sem esperar pela trava, se o journal ainda aceita registros.
+     * Uma falha de gravação é definitiva: daí em diante nenhum registro é
+     * aceito, e quem aplica alterações em memória antes de anexá-las deve
+     * parar de aplicá-las.
+     *
+     * @throws UncheckedIOException se uma gravação anterior falhou
+     * @throws IllegalStateException se o journal foi fechado
+     */
+    public void verificarDisponivel() {
+        if (falha != null){
+            throw new UncheckedIOException("Journal indisponível: "+arquivo, falha);
+        }
+        if (fechando){
+            throw new IllegalStateException("Journal fechado: "+arquivo);
+        }
+    }
+
+    private void garantirEspaco(int bytes) {
+        if (atual.remaining() < bytes){
+            ByteBuffer maior = ByteBuffer.allocate(Math.max(atual.capacity() * 2, atual.position() + bytes));
+            atual.flip();
+            maior.put(atual);
+            atual = maior;
+        }
+    }
+
+    private void executarSincronizacao() {
+        while (true){
+            ByteBuffer lote;
+            long sequenciaLote;
+            trava.lock();
+            try{
+                if (politica == PoliticaSincronizacao.A_CADA_OPERACAO){
+                    while (atual.position() == 0 && !fechando){
+                        temDados.awaitUninterruptibly();
+                    }
+                } else {
+                    long restante = intervaloNanos;
+                    while (restante > 0 && !fechando){
+                        try{
+                            restante = temDados.awaitNanos(restante);
+                        } catch (InterruptedException e) {
+                            restante = 0;
+                        }
+                    }
+                }
+                if (atual.position() == 0){
+                    if (fechando){
+                        return;
+                    }
+                    continue;
+                }
+                lote = atual;
+                atual = reserva;
+                sequenciaLote = ultimaSequencia;
+            } finally {
+                trava.unlock();
+            }
+
+            try{
+                lote.flip();
+                while (lote.hasRemaining()){
+                    canal.write(lote);
+                }
+                if (politica != PoliticaSincronizacao.SISTEMA_OPERACIONAL){
+                    canal.force(false);
+                }
+            } catch (IOException e) {
+                trava.lock();
+                try{
+                    falha = e;
+                    loteGravado.signalAll();
+                } finally {
+                    trava.unlock();
+                }
+                return;
+            }
+            lote.clear();
+
+            trava.lock();
+            try{
+                reserva = lote;
+                sequenciaDuravel = sequenciaLote;
+                loteGravado.signalAll();
+            } finally {
+                trava.unlock();
+            }
+        }
+    }
+
+    /**
+     * Grava o que estiver pendente, sincroniza com o disco e fecha o arquivo.
+     */
+    @Override
+    public void close() throws IOException {
+        trava.lock();
+        try{
+            if (fechando){
+                return;
+            }
+            fechando = true;
+            temDados.signalAll();
+        } finally {
+            trava.unlock();
+        }
+        try{
+            sincronizador.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        try{
+            if (falha != null){
+                throw falha;
+            }
+            canal.force(true);
+        } finally {
+            canal.close();
+        }
+    }
+
+    /**
+     * Confere se o texto cabe num registro, para quem precisa rejeitar a
+     * operação antes de aplicá-la (a anexação faria a mesma verificação tarde
+     * demais).
+     *
+     * @throws IllegalArgumentException se o texto passar do tamanho máximo
+     */
+    public static void verificarTexto(String texto) {
+        if (texto != null){
+            codificar(texto);
+        }
+    }
+
+    private static byte[] codificar(String texto) {
+        byte[] bytes = texto.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > TAMANHO_MAXIMO_TEXTO){
+            throw new IllegalArgumentException("Texto longo demais para o journal: "+bytes.length+" bytes");
+        }
+        return bytes;
+    }
+
+    /**
+     * Lê registros válidos de inicio até o limite, parando no primeiro
+     * incompleto ou corrompido.
+     *
+     * @return {fim do último registro válido, última sequência lida}
+     */
+    private static long[] ler(Path arquivo, long inicio, long limite, LeitorJournal leitor) throws IOException {
+        long posicao = inicio;
+        long ultimaSequencia = 0;
+        CRC32 verificador = new CRC32();
+        byte[] payload = new byte[256];
+        try (FileChannel leitura = FileChannel.open(arquivo, StandardOpenOption.READ).position(inicio);
+             InputStream entrada = Channels.newInputStream(leitura);
+             DataInputStream dados = new DataInputStream(new BufferedInputStream(entrada, 1 << 16))) {
+            while (posicao < limite){
+                int tamanho;
+                int crcEsperado;
+                try{
+                    tamanho = dados.readInt();
+                    crcEsperado = dados.readInt();
+                    if (tamanho < TAMANHO_FIXO_PAYLOAD || tamanho > TAMANHO_FIXO_PAYLOAD + 2 * TAMANHO_MAXIMO_TEXTO){
+                        break;
+                    }
+                    if (payload.length < tamanho){
+                        payload = new byte[Math.max(tamanho, payload.length * 2)];
+                    }
+                    dados.readFully(payload, 0, tamanho);
+                } catch (EOFException e) {
+                    break;
+                }
+                verificador.reset();
+                verificador.update(payload, 0, tamanho);
+                if ((int) verificador.getValue() != crcEsperado){
+                    break;
+                }
+                ByteBuffer registro = ByteBuffer.wrap(payload, 0, tamanho);
+                byte tipo = registro.get();
+                ultimaSequencia = registro.getLong();
+                if (leitor != null){
+                    entregar(tipo, ultimaSequencia, registro, leitor);
+                }
+                posicao += CABECALHO + tamanho;
+            }
+        }
+        return new long[]{posicao, ultimaSequencia};
+    }
+
+    private static void entregar(byte tipo, long sequencia, ByteBuffer registro, LeitorJournal leitor) {
+        long valor = registro.getLong();
+        String a = lerTexto(registro);
+        String b = lerTexto(registro);
+        switch (tipo){
+            case CONTA_CRIADA:
+                leitor.contaCriada(sequencia, a, b, valor);
+                break;
+            case DEPOSITO:
+                leitor.deposito(sequencia, a, valor);
+                break;
+            case SAQUE:
+                leitor.saque(sequencia, a, valor);
+                break;
+            case TRANSFERENCIA:
+                leitor.transferencia(sequencia, a, b, valor);
+                break;
+            case INATIVACAO:
+                leitor.inativacao(sequencia, a, LocalDate.ofEpochDay(valor));
+                break;
+            default:
+                throw new IllegalStateException("Tipo de registro desconhecido no journal: "+tipo);
+        }
+    }
+
+    private static String lerTexto(ByteBuffer registro) {
+        int tamanho = registro.getShort() & 0xFFFF;
+        String texto = new String(registro.array(), registro.arrayOffset() + registro.position(), tamanho, StandardCharsets.UTF_8);
+        registro.position(registro.position() + tamanho);
+        return texto;
+    }
+}
@@ -0,0 +1,23 @@
+package persistencia;
+
+import java.time.LocalDate;
+
+/**
+ * Recebe as contas de um arquivo lido por {@link ArquivoContas}, na ordem do
+ * arquivo e numa única thread.
+ */
+public interface LeitorContas {
+
+    /**
+     * @param linha Linha (CSV) ou registro (binário) da conta, a partir de 1
+     * @param saldoCentavos Saldo como está no arquivo, ainda não validado
+     * @param dataInativacao Data de inativação, ou null se a conta estiver ativa
+     */
+    void conta(long linha, String numero, String titular, long saldoCentavos, LocalDate dataInativacao);
+
+    /**
+     * Uma linha ou registro que não pôde ser lido; a leitura continua na
+     * seguinte.
+     */
+    void rejeitada(long linha, RuntimeException motivo);
+}
@@ -0,0 +1,20 @@
+package persistencia;
+
+import java.time.LocalDate;
+
+/**
+ * Recebe os registros de um {@link Journal} durante a reprodução, na ordem
+ * em que foram gravados.
+ */
+public interface LeitorJournal {
+
+    void contaCriada(long sequencia, String numero, String titular, long saldoCentavos);
+
+    void deposito(long sequencia, String numero, long centavos);
+
+    void saque(long sequencia, String numero, long centavos);
+
+    void transferencia(long sequencia, String numeroOrigem, String numeroDestino, long centavos);
+
+    void inativacao(long sequencia, String numero, LocalDate data);
+}
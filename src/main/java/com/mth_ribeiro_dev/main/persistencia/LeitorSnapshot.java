@@ -0,0 +1,14 @@
+package persistencia;
+
+import java.time.LocalDate;
+
+/**
+ * Recebe as contas de um {@link Snapshot} durante a carga.
+ */
+public interface LeitorSnapshot {
+
+    /**
+     * @param dataInativacao Data de inativação, ou null se a conta estiver ativa
+     */
+    void conta(String numero, String titular, long saldoCentavos, LocalDate dataInativacao);
+}
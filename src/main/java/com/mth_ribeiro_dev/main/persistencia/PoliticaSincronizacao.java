@@ -0,0 +1,27 @@
+package persistencia;
+
+/**
+ * Quando o {@link Journal} chama {@code FileChannel.force} e quanto tempo quem
+ * registra uma operação espera por isso.
+ */
+public enum PoliticaSincronizacao {
+
+    /**
+     * Commit em grupo: quem chama só retorna depois que o lote que contém a
+     * sua operação foi gravado e sincronizado com o disco. Um único force
+     * cobre todas as operações que chegaram enquanto o anterior acontecia.
+     */
+    A_CADA_OPERACAO,
+
+    /**
+     * O lote pendente é gravado e sincronizado a cada intervalo configurado.
+     * Quem chama não espera; uma queda pode perder até um intervalo.
+     */
+    INTERVALO,
+
+    /**
+     * O lote é gravado a cada intervalo, mas nunca sincronizado: o sistema
+     * operacional decide quando os dados vão para o disco.
+     */
+    SISTEMA_OPERACIONAL
+}
@@ -0,0 +1,244 @@
+package persistencia;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Snapshot binário compacto de todas as contas, associado à posição do
+ * {@link Journal} em que foi tirado. Na inicialização basta carregar o
+ * snapshot mais recente e reproduzir o journal a partir dessa posição.
+ * <p>
+ * Formato: cabeçalho {@code [int magia][int versao][long sequencia][long posicaoJournal][long quantidade]}
+ * seguido de um registro por conta:
+ * {@code [short][numero UTF-8][short][titular UTF-8][long saldoCentavos][long diaInativacao]},
+ * onde o dia de inativação é {@code Long.MIN_VALUE} para contas ativas.
+ * O arquivo é escrito com outro nome e renomeado no fim, então um snapshot
+ * incompleto nunca é visto como válido.
+ */
+public final class Snapshot {
+
+    private static final int MAGIA = 0x534E4150;
+    private static final int VERSAO = 1;
+    private static final int TAMANHO_CABECALHO = 4 + 4 + 8 + 8 + 8;
+    private static final int TAMANHO_MAXIMO_REGISTRO = 2 + 0xFFFF + 2 + 0xFFFF + 8 + 8;
+    private static final long ATIVA = Long.MIN_VALUE;
+    private static final long TAMANHO_JANELA = 1L << 30;
+    private static final String PREFIXO = "snapshot-";
+    private static final String EXTENSAO = ".bin";
+
+    private final Path arquivo;
+    private final long sequencia;
+    private final long posicaoJournal;
+    private final long quantidade;
+
+    private Snapshot(Path arquivo, long sequencia, long posicaoJournal, long quantidade) {
+        this.arquivo = arquivo;
+        this.sequencia = sequencia;
+        this.posicaoJournal = posicaoJournal;
+        this.quantidade = quantidade;
+    }
+
+    public Path getArquivo() {
+        return arquivo;
+    }
+
+    /**
+     * @return A última sequência do journal incluída no snapshot
+     */
+    public long getSequencia() {
+        return sequencia;
+    }
+
+    /**
+     * @return Posição do journal onde começam os registros posteriores ao snapshot
+     */
+    public long getPosicaoJournal() {
+        return posicaoJournal;
+    }
+
+    public long getQuantidade() {
+        return quantidade;
+    }
+
+    /**
+     * Nome do arquivo de snapshot para uma sequência; a ordem alfabética dos
+     * nomes é a ordem das sequências.
+     */
+    public static Path caminho(Path diretorio, long sequencia) {
+        return diretorio.resolve(String.format("%s%020d%s", PREFIXO, sequencia, EXTENSAO));
+    }
+
+    /**
+     * @return Os snapshots do diretório, do mais antigo para o mais recente
+     */
+    public static List<Path> listar(Path diretorio) throws IOException {
+        List<Path> arquivos = new ArrayList<>();
+        if (!Files.isDirectory(diretorio)){
+            return arquivos;
+        }
+        try (DirectoryStream<Path> itens = Files.newDirectoryStream(diretorio, PREFIXO + "*" + EXTENSAO)) {
+            for (Path item : itens){
+                arquivos.add(item);
+            }
+        }
+        Collections.sort(arquivos);
+        return arquivos;
+    }
+
+    /**
+     * @return O snapshot mais recente do diretório, ou null se não houver
+     */
+    public static Path maisRecente(Path diretorio) throws IOException {
+        List<Path> arquivos = listar(diretorio);
+        return arquivos.isEmpty() ? null : arquivos.get(arquivos.size() - 1);
+    }
+
+    public static Escritor criar(Path destino, long sequencia, long posicaoJournal) throws IOException {
+        return new Escritor(destino, sequencia, posicaoJournal);
+    }
+
+    /**
+     * Carrega um snapshot mapeando o arquivo em memória, em janelas de até
+     * 1 GiB, e entrega cada conta ao leitor.
+     *
+     * @param arquivo Arquivo de snapshot
+     * @param leitor Quem recebe as contas (pode ser null para ler só o cabeçalho)
+     * @return Os dados do cabeçalho
+     * @throws IOException se o arquivo não puder ser lido ou não for um snapshot
+     */
+    public static Snapshot ler(Path arquivo, LeitorSnapshot leitor) throws IOException {
+        try (FileChannel canal = FileChannel.open(arquivo, StandardOpenOption.READ)) {
+            long tamanho = canal.size();
+            if (tamanho < TAMANHO_CABECALHO){
+                throw new IOException("Snapshot truncado: "+arquivo);
+            }
+            long inicioJanela = 0;
+            MappedByteBuffer janela = mapear(canal, inicioJanela, tamanho);
+            if (janela.getInt() != MAGIA || janela.getInt() != VERSAO){
+                throw new IOException("Arquivo não é um snapshot válido: "+arquivo);
+            }
+            Snapshot snapshot = new Snapshot(arquivo, janela.getLong(), janela.getLong(), janela.getLong());
+            if (leitor == null){
+                return snapshot;
+            }
+            byte[] texto = new byte[256];
+            for (long i = 0; i < snapshot.quantidade; i++){
+                if (janela.remaining() < TAMANHO_MAXIMO_REGISTRO && inicioJanela + janela.limit() < tamanho){
+                    inicioJanela += janela.position();
+                    janela = mapear(canal, inicioJanela, tamanho);
+                }
+                int tamanhoNumero = janela.getShort() & 0xFFFF;
+                texto = garantir(texto, tamanhoNumero);
+                janela.get(texto, 0, tamanhoNumero);
+                String numero = new String(texto, 0, tamanhoNumero, StandardCharsets.UTF_8);
+                int tamanhoTitular = janela.getShort() & 0xFFFF;
+                texto = garantir(texto, tamanhoTitular);
+                janela.get(texto, 0, tamanhoTitular);
+                String titular = new String(texto, 0, tamanhoTitular, StandardCharsets.UTF_8);
+                long saldoCentavos = janela.getLong();
+                long dia = janela.getLong();
+                leitor.conta(numero, titular, saldoCentavos, dia == ATIVA ? null : LocalDate.ofEpochDay(dia));
+            }
+            return snapshot;
+        }
+    }
+
+    private static MappedByteBuffer mapear(FileChannel canal, long inicio, long tamanho) throws IOException {
+        return canal.map(FileChannel.MapMode.READ_ONLY, inicio, Math.min(tamanho - inicio, TAMANHO_JANELA));
+    }
+
+    private static byte[] garantir(byte[] buffer, int tamanho) {
+        return buffer.length >= tamanho ? buffer : new byte[Math.max(tamanho, buffer.length * 2)];
+    }
+
+    /**
+     * Escreve um snapshot sequencialmente. Nada aparece em {@code destino}
+     * até {@link #concluir()}; fechar sem concluir descarta o arquivo.
+     */
+    public static final class Escritor implements AutoCloseable {
+
+        private final Path destino;
+        private final Path temporario;
+        private final FileChannel canal;
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 20);
+        private final long sequencia;
+        private final long posicaoJournal;
+        private long quantidade;
+        private boolean concluido;
+
+        private Escritor(Path destino, long sequencia, long posicaoJournal) throws IOException {
+            this.destino = destino;
+            this.temporario = destino.resolveSibling(destino.getFileName() + ".tmp");
+            this.sequencia = sequencia;
+            this.posicaoJournal = posicaoJournal;
+            this.canal = FileChannel.open(temporario, StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+            buffer.putInt(MAGIA).putInt(VERSAO).putLong(sequencia).putLong(posicaoJournal).putLong(0);
+        }
+
+        public void escrever(String numero, String titular, long saldoCentavos, LocalDate dataInativacao) {
+            byte[] bytesNumero = numero.getBytes(StandardCharsets.UTF_8);
+            byte[] bytesTitular = titular.getBytes(StandardCharsets.UTF_8);
+            if (bytesNumero.length > 0xFFFF || bytesTitular.length > 0xFFFF){
+                throw new IllegalArgumentException("Texto longo demais para o snapshot na conta "+numero);
+            }
+            try{
+                if (buffer.remaining() < 2 + bytesNumero.length + 2 + bytesTitular.length + 16){
+                    descarregar();
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            buffer.putShort((short) bytesNumero.length).put(bytesNumero)
+                    .putShort((short) bytesTitular.length).put(bytesTitular)
+                    .putLong(saldoCentavos)
+                    .putLong(dataInativacao == null ? ATIVA : dataInativacao.toEpochDay());
+            quantidade++;
+        }
+
+        /**
+         * Grava o que falta, sincroniza com o disco e publica o arquivo.
+         *
+         * @return O snapshot publicado
+         */
+        public Snapshot concluir() throws IOException {
+            descarregar();
+            ByteBuffer contador = ByteBuffer.allocate(8).putLong(0, quantidade);
+            canal.write(contador, TAMANHO_CABECALHO - 8);
+            canal.force(true);
+            canal.close();
+            Files.move(temporario, destino, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            concluido = true;
+            return new Snapshot(destino, sequencia, posicaoJournal, quantidade);
+        }
+
+        private void descarregar() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()){
+                canal.write(buffer);
+            }
+            buffer.clear();
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (!concluido){
+                canal.close();
+                Files.deleteIfExists(temporario);
+            }
+        }
+    }
+}
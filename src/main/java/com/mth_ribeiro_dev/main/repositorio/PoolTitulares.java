@@ -0,0 +1,43 @@
+package repositorio;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Nomes de titulares sem repetição: cada nome distinto é guardado uma vez e
+ * as contas guardam só o seu identificador.
+ * <p>
+ * {@link #identificar(String)} é chamado sob a trava de inclusão do
+ * repositório; {@link #nome(int)} pode ser chamado a qualquer momento com um
+ * identificador já publicado.
+ */
+final class PoolTitulares {
+
+    private final Map<String, Integer> identificadores = new HashMap<>();
+    private volatile String[] nomes = new String[64];
+    private int quantidade;
+
+    int identificar(String nome) {
+        Integer identificador = identificadores.get(nome);
+        if (identificador != null){
+            return identificador;
+        }
+        String[] atuais = nomes;
+        if (quantidade == atuais.length){
+            atuais = Arrays.copyOf(atuais, atuais.length * 2);
+        }
+        atuais[quantidade] = nome;
+        nomes = atuais;
+        identificadores.put(nome, quantidade);
+        return quantidade++;
+    }
+
+    String nome(int identificador) {
+        return nomes[identificador];
+    }
+
+    int quantidade() {
+        return quantidade;
+    }
+}
@@ -0,0 +1,418 @@
+package repositorio;
+
+import model.Conta;
+import model.Extrato;
+import model.ImagemConta;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+/**
+ * Repositório para dezenas de milhões de contas com números numéricos
+ * ("001", "4512339").
+ * <p>
+ * Em vez de um objeto por conta, o estado fica em vetores primitivos
+ * paralelos, divididos em blocos de tamanho fixo que nunca são copiados (um
+ * CAS em andamento nunca perde a posição):
+ * <ul>
+ *   <li>a palavra de estado de {@link Conta} (saldo e indicador de inativação), em um {@code long};</li>
+ *   <li>o dia da inativação, em dias desde 1970, em um {@code int};</li>
+ *   <li>o identificador do titular em {@link PoolTitulares}, em um {@code int};</li>
+ *   <li>o {@link Extrato}, criado só no primeiro movimento.</li>
+ * </ul>
+ * O número vira uma chave {@code long} (valor e quantidade de dígitos, para
+ * que "001" e "1" continuem diferentes) em uma tabela de endereçamento aberto.
+ * Buscas não usam trava; inclusões são serializadas e publicam a chave por
+ * último. As contas devolvidas são visões de poucos bytes sobre a posição da
+ * conta, criadas a cada busca.
+ * <p>
+ * Aceita números de 1 a 17 dígitos decimais; outros números são recusados.
+ */
+public class RepositorioCompacto implements RepositorioContas {
+
+    private static final int BITS_BLOCO = 16;
+    private static final int TAMANHO_BLOCO = 1 << BITS_BLOCO;
+    private static final int MAXIMO_DIGITOS = 17;
+    private static final int SEM_DATA = Integer.MIN_VALUE;
+    private static final int CAPACIDADE_MAXIMA_INDICE = 1 << 30;
+
+    private static final VarHandle LONGS = MethodHandles.arrayElementVarHandle(long[].class);
+    private static final VarHandle INTS = MethodHandles.arrayElementVarHandle(int[].class);
+    private static final VarHandle IMAGENS = MethodHandles.arrayElementVarHandle(ImagemConta[].class);
+    private static final VarHandle EXTRATOS = MethodHandles.arrayElementVarHandle(Extrato[].class);
+
+    private static final class Bloco {
+        private final long[] chaves = new long[TAMANHO_BLOCO];
+        private final long[] estados = new long[TAMANHO_BLOCO];
+        private final int[] diasInativacao = new int[TAMANHO_BLOCO];
+        private final int[] titulares = new int[TAMANHO_BLOCO];
+        private final ImagemConta[] imagens = new ImagemConta[TAMANHO_BLOCO];
+        private final Extrato[] extratos = new Extrato[TAMANHO_BLOCO];
+    }
+
+    /**
+     * Chave → posição, com sondagem linear. Chave 0 marca entrada vazia.
+     * Nunca remove; ao encher, é recriado com o dobro da capacidade e
+     * publicado no lugar do anterior.
+     */
+    private static final class Indice {
+        private final long[] chaves;
+        private final int[] posicoes;
+        private final int mascara;
+        private final int limite;
+
+        private Indice(int capacidade) {
+            this.chaves = new long[capacidade];
+            this.posicoes = new int[capacidade];
+            this.mascara = capacidade - 1;
+            this.limite = capacidade == CAPACIDADE_MAXIMA_INDICE ? capacidade - 1 : capacidade / 4 * 3;
+        }
+
+        private int localizar(long chave) {
+            for (int i = espalhar(chave) & mascara; ; i = (i + 1) & mascara){
+                long atual = (long) LONGS.getAcquire(chaves, i);
+                if (atual == chave){
+                    return posicoes[i];
+                }
+                if (atual == 0){
+                    return -1;
+                }
+            }
+        }
+
+        private void inserir(long chave, int posicao) {
+            int i = espalhar(chave) & mascara;
+            while (chaves[i] != 0){
+                i = (i + 1) & mascara;
+            }
+            posicoes[i] = posicao;
+            LONGS.setRelease(chaves, i, chave);
+        }
+
+        private Indice comCapacidade(int capacidade) {
+            Indice novo = new Indice(capacidade);
+            for (int i = 0; i < chaves.length; i++){
+                if (chaves[i] != 0){
+                    novo.inserir(chaves[i], posicoes[i]);
+                }
+            }
+            return novo;
+        }
+
+    }
+
+    private final ReentrantLock travaInclusao = new ReentrantLock();
+    private final PoolTitulares titulares = new PoolTitulares();
+    private volatile Indice indice = new Indice(1024);
+    private volatile Bloco[] blocos = new Bloco[0];
+    private volatile int quantidade;
+
+    @Override
+    public Conta buscar(String numero) {
+        long chave = chave(numero);
+        if (chave == 0){
+            return null;
+        }
+        int posicao = indice.localizar(chave);
+        if (posicao < 0){
+            return null;
+        }
+        return visao(numero, posicao);
+    }
+
+    /**
+     * Copia o estado da conta para os vetores. A conta informada não é
+     * guardada; use a conta devolvida.
+     *
+     * @throws IllegalArgumentException se o número não tiver de 1 a 17 dígitos
+     *                                  decimais ou já houver conta com ele
+     */
+    @Override
+    public Conta guardar(Conta conta) {
+        long chave = chave(conta.getNumero());
+        if (chave == 0){
+            throw new IllegalArgumentException("Número de conta não suportado pelo repositório compacto: "
+                    + conta.getNumero());
+        }
+        travaInclusao.lock();
+        try{
+            Indice atual = indice;
+            int posicao = atual.localizar(chave);
+            if (posicao >= 0){
+                throw new IllegalArgumentException("Já existe uma conta com o número " + conta.getNumero());
+            }
+            posicao = quantidade;
+            if (posicao == Integer.MAX_VALUE){
+                throw new IllegalStateException("Repositório compacto cheio");
+            }
+            garantirBloco(posicao);
+            escrever(posicao, chave, conta);
+            if (posicao + 1 > atual.limite){
+                atual = atual.comCapacidade(atual.chaves.length * 2);
+                atual.inserir(chave, posicao);
+                indice = atual;
+            } else {
+                atual.inserir(chave, posicao);
+            }
+            quantidade = posicao + 1;
+            return visao(conta.getNumero(), posicao);
+        } finally {
+            travaInclusao.unlock();
+        }
+    }
+
+    @Override
+    public int quantidade() {
+        return quantidade;
+    }
+
+    @Override
+    public void reservar(long quantidade) {
+        travaInclusao.lock();
+        try{
+            Indice atual = indice;
+            int capacidade = atual.chaves.length;
+            while (capacidade < CAPACIDADE_MAXIMA_INDICE && capacidade / 4 * 3 < quantidade){
+                capacidade *= 2;
+            }
+            if (capacidade > atual.chaves.length){
+                indice = atual.comCapacidade(capacidade);
+            }
+        } finally {
+            travaInclusao.unlock();
+        }
+    }
+
+    /**
+     * @return quantos titulares distintos estão guardados
+     */
+    public int quantidadeTitulares() {
+        return titulares.quantidade();
+    }
+
+    /**
+     * Percorre as contas na ordem de inclusão. Contas incluídas depois do
+     * início do percurso não aparecem.
+     */
+    @Override
+    public Iterator<Conta> iterator() {
+        return Spliterators.iterator(spliterator());
+    }
+
+    /**
+     * Como o {@link #iterator()}, mas divisível por faixas de posições (em
+     * limites de bloco) para percursos em paralelo.
+     */
+    @Override
+    public Spliterator<Conta> spliterator() {
+        int total = quantidade;
+        return new Percurso(blocos, 0, total);
+    }
+
+    private final class Percurso implements Spliterator<Conta> {
+        private static final int MENOR_DIVISAO = 4096;
+
+        private final Bloco[] blocos;
+        private final int fim;
+        private int posicao;
+
+        private Percurso(Bloco[] blocos, int inicio, int fim) {
+            this.blocos = blocos;
+            this.posicao = inicio;
+            this.fim = fim;
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super Conta> acao) {
+            if (posicao >= fim){
+                return false;
+            }
+            Bloco bloco = blocos[posicao >>> BITS_BLOCO];
+            int i = posicao & (TAMANHO_BLOCO - 1);
+            posicao++;
+            acao.accept(new ContaCompacta(numero(bloco.chaves[i]),
+                    titulares.nome((int) INTS.getVolatile(bloco.titulares, i)), bloco, i));
+            return true;
+        }
+
+        @Override
+        public Spliterator<Conta> trySplit() {
+            if (fim - posicao < MENOR_DIVISAO * 2){
+                return null;
+            }
+            int meio = (posicao + fim) >>> 1;
+            if (meio - posicao >= TAMANHO_BLOCO){
+                meio &= ~(TAMANHO_BLOCO - 1);
+            }
+            Percurso primeira = new Percurso(blocos, posicao, meio);
+            posicao = meio;
+            return primeira;
+        }
+
+        @Override
+        public long estimateSize() {
+            return fim - posicao;
+        }
+
+        @Override
+        public int characteristics() {
+            return ORDERED | SIZED | SUBSIZED | NONNULL;
+        }
+    }
+
+    private Conta visao(String numero, int posicao) {
+        Bloco bloco = blocos[posicao >>> BITS_BLOCO];
+        int i = posicao & (TAMANHO_BLOCO - 1);
+        return new ContaCompacta(numero, titulares.nome((int) INTS.getVolatile(bloco.titulares, i)), bloco, i);
+    }
+
+    private void garantirBloco(int posicao) {
+        int indiceBloco = posicao >>> BITS_BLOCO;
+        Bloco[] atuais = blocos;
+        if (indiceBloco < atuais.length && atuais[indiceBloco] != null){
+            return;
+        }
+        Bloco[] novos = indiceBloco < atuais.length ? atuais : Arrays.copyOf(atuais, Math.max(4, atuais.length * 2));
+        novos[indiceBloco] = new Bloco();
+        blocos = novos;
+    }
+
+    private void escrever(int posicao, long chave, Conta conta) {
+        Bloco bloco = blocos[posicao >>> BITS_BLOCO];
+        int i = posicao & (TAMANHO_BLOCO - 1);
+        LocalDate data = conta.getDataInativacao();
+        bloco.chaves[i] = chave;
+        INTS.setVolatile(bloco.titulares, i, titulares.identificar(conta.getTitular()));
+        INTS.setVolatile(bloco.diasInativacao, i, data == null ? SEM_DATA : Math.toIntExact(data.toEpochDay()));
+        IMAGENS.setVolatile(bloco.imagens, i, conta.getImagem());
+        EXTRATOS.setVolatile(bloco.extratos, i, null);
+        LONGS.setVolatile(bloco.estados, i, ContaCompacta.estadoDaConta(conta));
+    }
+
+    /**
+     * @return a chave do número (quantidade de dígitos nos bits 57 a 61 e o
+     *         valor nos bits abaixo), ou 0 se o número não for suportado
+     */
+    static long chave(String numero) {
+        if (numero == null){
+            return 0;
+        }
+        int digitos = numero.length();
+        if (digitos == 0 || digitos > MAXIMO_DIGITOS){
+            return 0;
+        }
+        long valor = 0;
+        for (int i = 0; i < digitos; i++){
+            int digito = numero.charAt(i) - '0';
+            if (digito < 0 || digito > 9){
+                return 0;
+            }
+            valor = valor * 10 + digito;
+        }
+        return ((long) digitos << 57) | valor;
+    }
+
+    /**
+     * Espalha os bits da chave para a posição na tabela de endereçamento aberto.
+     */
+    static int espalhar(long chave) {
+        chave ^= chave >>> 33;
+        chave *= 0xff51afd7ed558ccdL;
+        chave ^= chave >>> 33;
+        return (int) chave;
+    }
+
+    static String numero(long chave) {
+        int digitos = (int) (chave >>> 57);
+        char[] texto = new char[digitos];
+        long valor = chave & ((1L << 57) - 1);
+        for (int i = digitos - 1; i >= 0; i--){
+            texto[i] = (char) ('0' + valor % 10);
+            valor /= 10;
+        }
+        return new String(texto);
+    }
+
+    /**
+     * Visão sobre uma posição dos vetores. Duas visões da mesma posição são
+     * iguais por {@link #equals(Object)}.
+     */
+    private static final class ContaCompacta extends Conta {
+
+        private final Bloco bloco;
+        private final int i;
+
+        private ContaCompacta(String numero, String titular, Bloco bloco, int i) {
+            super(numero, titular);
+            this.bloco = bloco;
+            this.i = i;
+        }
+
+        static long estadoDaConta(Conta conta) {
+            return Conta.estadoDe(conta);
+        }
+
+        @Override
+        protected long lerEstado() {
+            return (long) LONGS.getVolatile(bloco.estados, i);
+        }
+
+        @Override
+        protected boolean trocarEstado(long esperado, long novo) {
+            return LONGS.weakCompareAndSet(bloco.estados, i, esperado, novo);
+        }
+
+        @Override
+        protected LocalDate lerDataInativacao() {
+            int dia = (int) INTS.getVolatile(bloco.diasInativacao, i);
+            return dia == SEM_DATA ? null : LocalDate.ofEpochDay(dia);
+        }
+
+        @Override
+        protected boolean trocarDataInativacao(LocalDate esperada, LocalDate nova) {
+            return INTS.compareAndSet(bloco.diasInativacao, i, dia(esperada), dia(nova));
+        }
+
+        private static int dia(LocalDate data) {
+            return data == null ? SEM_DATA : Math.toIntExact(data.toEpochDay());
+        }
+
+        @Override
+        public ImagemConta getImagem() {
+            return (ImagemConta) IMAGENS.getVolatile(bloco.imagens, i);
+        }
+
+        @Override
+        protected boolean trocarImagem(ImagemConta esperada, ImagemConta nova) {
+            return IMAGENS.compareAndSet(bloco.imagens, i, esperada, nova);
+        }
+
+        @Override
+        protected Extrato lerExtrato() {
+            return (Extrato) EXTRATOS.getVolatile(bloco.extratos, i);
+        }
+
+        @Override
+        protected boolean trocarExtrato(Extrato esperado, Extrato novo) {
+            return EXTRATOS.compareAndSet(bloco.extratos, i, esperado, novo);
+        }
+
+        @Override
+        public boolean equals(Object outro) {
+            return outro instanceof ContaCompacta
+                    && ((ContaCompacta) outro).bloco == bloco && ((ContaCompacta) outro).i == i;
+        }
+
+        @Override
+        public int hashCode() {
+            return System.identityHashCode(bloco) * 31 + i;
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package repositorio;
+
+import model.Conta;
+
+/**
+ * Onde o {@link service.BancoService} guarda as contas.
+ * <p>
+ * As implementações aceitam buscas concorrentes com inclusões. As contas
+ * devolvidas são sempre "vivas": alterações feitas nelas valem para o
+ * repositório, mesmo que a implementação devolva uma visão nova a cada busca
+ * (por isso contas não devem ser comparadas com {@code ==}).
+ * <p>
+ * Relatórios percorrem o repositório em paralelo pelo
+ * {@link #spliterator()}; as implementações o sobrescrevem para dividir as
+ * contas em partes equilibradas, em vez da divisão genérica de
+ * {@link Iterable}.
+ */
+public interface RepositorioContas extends Iterable<Conta> {
+
+    /**
+     * @param numero Número da conta
+     * @return A conta, ou null se não existir
+     */
+    Conta buscar(String numero);
+
+    /**
+     * Guarda uma conta nova. Um número já guardado é recusado, e a conta
+     * existente (e toda referência já devolvida a ela) fica como estava.
+     *
+     * @param conta Conta com o estado inicial
+     * @return A conta viva no repositório (a própria ou uma visão sobre ela)
+     * @throws IllegalArgumentException se o repositório não aceitar o número
+     *                                  ou já houver conta com ele
+     */
+    Conta guardar(Conta conta);
+
+    int quantidade();
+
+    /**
+     * Prepara espaço para a quantidade total de contas informada, evitando
+     * crescimentos sucessivos em cargas grandes (recuperação de snapshot).
+     */
+    void reservar(long quantidade);
+}
@@ -0,0 +1,60 @@
+package repositorio;
+
+import model.Conta;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Spliterator;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Repositório padrão: um {@link ConcurrentHashMap} do número para a conta.
+ * Aceita qualquer número, mas cada conta custa a chave, o nó do mapa e o
+ * objeto {@link Conta}.
+ */
+public class RepositorioMapa implements RepositorioContas {
+
+    private volatile Map<String, Conta> contas = new ConcurrentHashMap<>();
+
+    @Override
+    public Conta buscar(String numero) {
+        return contas.get(numero);
+    }
+
+    @Override
+    public Conta guardar(Conta conta) {
+        if (contas.putIfAbsent(conta.getNumero(), conta) != null){
+            throw new IllegalArgumentException("Já existe uma conta com o número " + conta.getNumero());
+        }
+        return conta;
+    }
+
+    @Override
+    public int quantidade() {
+        return contas.size();
+    }
+
+    /**
+     * Só tem efeito com o repositório vazio, que é quando o mapa pode ser
+     * trocado por um já dimensionado.
+     */
+    @Override
+    public void reservar(long quantidade) {
+        if (contas.isEmpty()){
+            contas = new ConcurrentHashMap<>((int) Math.min(quantidade + quantidade / 3 + 16, 1 << 30));
+        }
+    }
+
+    @Override
+    public Iterator<Conta> iterator() {
+        return contas.values().iterator();
+    }
+
+    /**
+     * Divide a tabela do mapa entre as threads, sem copiar as contas.
+     */
+    @Override
+    public Spliterator<Conta> spliterator() {
+        return contas.values().spliterator();
+    }
+}
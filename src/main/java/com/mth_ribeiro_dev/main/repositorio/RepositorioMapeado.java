@@ -0,0 +1,526 @@
+package repositorio;
+
+import model.Conta;
+import model.Extrato;
+import model.ImagemConta;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.Iterator;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+/**
+ * Repositório para centenas de milhões de contas fora do heap, num arquivo
+ * mapeado em memória.
+ * <p>
+ * Cada conta é um registro de 64 bytes (uma linha de cache) no arquivo:
+ * <ul>
+ *   <li>a chave do número, como no {@link RepositorioCompacto}, em um {@code long};</li>
+ *   <li>a palavra de estado de {@link Conta} (saldo, versão e indicador de inativação), em um {@code long};</li>
+ *   <li>o dia da inativação, em dias desde 1970, em um {@code int};</li>
+ *   <li>o titular em UTF-8, com no máximo {@value #MAXIMO_TITULAR} bytes.</li>
+ * </ul>
+ * Depois dos registros fica o índice, uma tabela de endereçamento aberto de
+ * chave para posição, também no arquivo. Saldo e data são alterados por CAS
+ * direto no mapeamento, então quem usa as contas não percebe diferença. O
+ * heap guarda só as imagens de snapshot em andamento e os extratos das
+ * contas com movimento desde a abertura, e as visões devolvidas pelas buscas.
+ * <p>
+ * A capacidade é fixada na criação do arquivo, que é esparso: o sistema só
+ * reserva disco para as páginas escritas. As páginas alteradas ficam com o
+ * sistema operacional, então o conteúdo sobrevive ao fim do processo (mesmo
+ * sem {@link #close()}) e é reaberto com as contas; para sobreviver a uma
+ * queda da máquina use {@link #forcar()} ou o journal. Só um processo pode
+ * abrir o arquivo por vez, e o extrato começa vazio a cada abertura.
+ * <p>
+ * Aceita números de 1 a 17 dígitos decimais; outros números são recusados.
+ */
+public final class RepositorioMapeado implements RepositorioContas, AutoCloseable {
+
+    private static final long MAGICO = 0x434F4E5441534D4DL;
+    private static final int VERSAO = 1;
+    private static final int CABECALHO = 4096;
+    private static final int CAMPO_VERSAO = 8;
+    private static final int CAMPO_CAPACIDADE = 16;
+    private static final int CAMPO_CAPACIDADE_INDICE = 24;
+    private static final int CAMPO_QUANTIDADE = 32;
+
+    private static final int REGISTRO = 64;
+    private static final int CAMPO_ESTADO = 8;
+    private static final int CAMPO_DIA = 16;
+    private static final int CAMPO_TAMANHO_TITULAR = 20;
+    private static final int CAMPO_TITULAR = 22;
+    static final int MAXIMO_TITULAR = REGISTRO - CAMPO_TITULAR;
+
+    private static final int ENTRADA = 16;
+    /** Registros e entradas do índice por mapeamento (1 GiB cada). */
+    private static final int BITS_PARTE_REGISTROS = 24;
+    private static final int BITS_PARTE_INDICE = 26;
+    private static final int SEM_DATA = Integer.MIN_VALUE;
+    private static final int CAPACIDADE_MINIMA_INDICE = 1024;
+    /** Com o índice de 2<sup>30</sup> entradas 3/4 cheio. */
+    public static final int CAPACIDADE_MAXIMA = 3 << 28;
+
+    private static final VarHandle LONGS = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+    private static final VarHandle INTS = MethodHandles.byteBufferViewVarHandle(int[].class, ByteOrder.LITTLE_ENDIAN);
+
+    private final Path arquivo;
+    private final FileChannel canal;
+    private final FileLock travaArquivo;
+    private final MappedByteBuffer cabecalho;
+    private final MappedByteBuffer[] registros;
+    private final MappedByteBuffer[] indice;
+    private final int capacidade;
+    private final int mascaraIndice;
+
+    private final ReentrantLock travaInclusao = new ReentrantLock();
+    private final ConcurrentHashMap<Integer, ImagemConta> imagens = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Integer, Extrato> extratos = new ConcurrentHashMap<>();
+    private volatile int quantidade;
+
+    private RepositorioMapeado(Path arquivo, FileChannel canal, FileLock travaArquivo, MappedByteBuffer cabecalho,
+                               int capacidade, int capacidadeIndice) throws IOException {
+        this.arquivo = arquivo;
+        this.canal = canal;
+        this.travaArquivo = travaArquivo;
+        this.cabecalho = cabecalho;
+        this.capacidade = capacidade;
+        this.mascaraIndice = capacidadeIndice - 1;
+        long inicioIndice = inicioIndice(capacidade);
+        this.registros = mapear(canal, CABECALHO, capacidade, BITS_PARTE_REGISTROS, REGISTRO);
+        this.indice = mapear(canal, inicioIndice, capacidadeIndice, BITS_PARTE_INDICE, ENTRADA);
+    }
+
+    /**
+     * Abre o repositório do arquivo, ou cria um vazio se o arquivo não
+     * existir ou estiver vazio. Um arquivo existente mantém a capacidade com
+     * que foi criado.
+     *
+     * @param arquivo Arquivo do repositório
+     * @param capacidade Máximo de contas de um arquivo novo (até {@value #CAPACIDADE_MAXIMA})
+     * @return O repositório, com as contas gravadas no arquivo
+     * @throws IOException se o arquivo não puder ser mapeado, não for um
+     *                     repositório mapeado ou já estiver aberto
+     */
+    public static RepositorioMapeado abrir(Path arquivo, int capacidade) throws IOException {
+        if (capacidade <= 0 || capacidade > CAPACIDADE_MAXIMA){
+            throw new IllegalArgumentException("Capacidade deve estar entre 1 e " + CAPACIDADE_MAXIMA);
+        }
+        FileChannel canal = FileChannel.open(arquivo, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        try{
+            FileLock trava;
+            try{
+                trava = canal.tryLock();
+            } catch (OverlappingFileLockException e) {
+                trava = null;
+            }
+            if (trava == null){
+                throw new IOException("Repositório mapeado já está aberto: " + arquivo);
+            }
+            boolean novo = canal.size() == 0;
+            MappedByteBuffer cabecalho = canal.map(FileChannel.MapMode.READ_WRITE, 0, CABECALHO);
+            if (novo){
+                int capacidadeIndice = CAPACIDADE_MINIMA_INDICE;
+                while (capacidadeIndice / 4 * 3 < capacidade){
+                    capacidadeIndice *= 2;
+                }
+                LONGS.set(cabecalho, CAMPO_CAPACIDADE, (long) capacidade);
+                LONGS.set(cabecalho, CAMPO_CAPACIDADE_INDICE, (long) capacidadeIndice);
+                INTS.set(cabecalho, CAMPO_VERSAO, VERSAO);
+                LONGS.setVolatile(cabecalho, 0, MAGICO);
+                cabecalho.force();
+            } else if ((long) LONGS.getVolatile(cabecalho, 0) != MAGICO
+                    || (int) INTS.get(cabecalho, CAMPO_VERSAO) != VERSAO){
+                throw new IOException("Arquivo não é um repositório mapeado: " + arquivo);
+            }
+            RepositorioMapeado repositorio = new RepositorioMapeado(arquivo, canal, trava, cabecalho,
+                    Math.toIntExact((long) LONGS.get(cabecalho, CAMPO_CAPACIDADE)),
+                    Math.toIntExact((long) LONGS.get(cabecalho, CAMPO_CAPACIDADE_INDICE)));
+            repositorio.recuperarUltima();
+            return repositorio;
+        } catch (IOException | RuntimeException e) {
+            canal.close();
+            throw e;
+        }
+    }
+
+    @Override
+    public Conta buscar(String numero) {
+        long chave = RepositorioCompacto.chave(numero);
+        if (chave == 0){
+            return null;
+        }
+        int posicao = localizar(chave);
+        if (posicao < 0){
+            return null;
+        }
+        return visao(numero, posicao);
+    }
+
+    /**
+     * Copia o estado da conta para o arquivo. A conta informada não é
+     * guardada; use a conta devolvida.
+     *
+     * @throws IllegalArgumentException se o número não tiver de 1 a 17 dígitos
+     *                                  decimais, já houver conta com ele ou o
+     *                                  titular passar de
+     *                                  {@value #MAXIMO_TITULAR} bytes em UTF-8
+     * @throws IllegalStateException se o repositório estiver cheio
+     */
+    @Override
+    public Conta guardar(Conta conta) {
+        long chave = RepositorioCompacto.chave(conta.getNumero());
+        if (chave == 0){
+            throw new IllegalArgumentException("Número de conta não suportado pelo repositório mapeado: "
+                    + conta.getNumero());
+        }
+        byte[] titular = conta.getTitular().getBytes(StandardCharsets.UTF_8);
+        if (titular.length > MAXIMO_TITULAR){
+            throw new IllegalArgumentException("Titular com mais de " + MAXIMO_TITULAR
+                    + " bytes não suportado pelo repositório mapeado: " + conta.getTitular());
+        }
+        travaInclusao.lock();
+        try{
+            int posicao = localizar(chave);
+            if (posicao >= 0){
+                throw new IllegalArgumentException("Já existe uma conta com o número " + conta.getNumero());
+            }
+            posicao = quantidade;
+            if (posicao == capacidade){
+                throw new IllegalStateException("Repositório mapeado cheio: capacidade de " + capacidade + " contas");
+            }
+            escrever(posicao, chave, titular, conta);
+            publicarQuantidade(posicao + 1);
+            inserir(chave, posicao);
+            return visao(conta.getNumero(), posicao);
+        } finally {
+            travaInclusao.unlock();
+        }
+    }
+
+    @Override
+    public int quantidade() {
+        return quantidade;
+    }
+
+    /**
+     * A capacidade é fixada na criação do arquivo; só confere se cabe.
+     *
+     * @throws IllegalStateException se a quantidade passar da capacidade
+     */
+    @Override
+    public void reservar(long quantidade) {
+        if (quantidade > capacidade){
+            throw new IllegalStateException("Repositório mapeado cheio: capacidade de " + capacidade + " contas");
+        }
+    }
+
+    public int getCapacidade() {
+        return capacidade;
+    }
+
+    public Path getArquivo() {
+        return arquivo;
+    }
+
+    /**
+     * Grava no disco as páginas alteradas, para que sobrevivam a uma queda
+     * da máquina.
+     */
+    public void forcar() {
+        for (MappedByteBuffer parte : registros){
+            parte.force();
+        }
+        for (MappedByteBuffer parte : indice){
+            parte.force();
+        }
+        cabecalho.force();
+    }
+
+    /**
+     * Grava as páginas alteradas e libera o arquivo para outra abertura. O
+     * repositório e as contas buscadas nele não devem ser usados depois.
+     */
+    @Override
+    public void close() throws IOException {
+        forcar();
+        try{
+            travaArquivo.release();
+        } finally {
+            canal.close();
+        }
+    }
+
+    /**
+     * Percorre as contas na ordem de inclusão. Contas incluídas depois do
+     * início do percurso não aparecem.
+     */
+    @Override
+    public Iterator<Conta> iterator() {
+        return Spliterators.iterator(spliterator());
+    }
+
+    /**
+     * Como o {@link #iterator()}, mas divisível por faixas de posições (em
+     * limites de mapeamento) para percursos em paralelo.
+     */
+    @Override
+    public Spliterator<Conta> spliterator() {
+        return new Percurso(0, quantidade);
+    }
+
+    private final class Percurso implements Spliterator<Conta> {
+        private static final int MENOR_DIVISAO = 4096;
+
+        private final int fim;
+        private int posicao;
+
+        private Percurso(int inicio, int fim) {
+            this.posicao = inicio;
+            this.fim = fim;
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super Conta> acao) {
+            if (posicao >= fim){
+                return false;
+            }
+            MappedByteBuffer parte = registros[posicao >>> BITS_PARTE_REGISTROS];
+            int base = deslocamento(posicao);
+            acao.accept(visao(RepositorioCompacto.numero((long) LONGS.get(parte, base)), posicao));
+            posicao++;
+            return true;
+        }
+
+        @Override
+        public Spliterator<Conta> trySplit() {
+            if (fim - posicao < MENOR_DIVISAO * 2){
+                return null;
+            }
+            int meio = (posicao + fim) >>> 1;
+            if (meio - posicao >= 1 << BITS_PARTE_REGISTROS){
+                meio &= ~((1 << BITS_PARTE_REGISTROS) - 1);
+            }
+            Percurso primeira = new Percurso(posicao, meio);
+            posicao = meio;
+            return primeira;
+        }
+
+        @Override
+        public long estimateSize() {
+            return fim - posicao;
+        }
+
+        @Override
+        public int characteristics() {
+            return ORDERED | SIZED | SUBSIZED | NONNULL;
+        }
+    }
+
+    private Conta visao(String numero, int posicao) {
+        MappedByteBuffer parte = registros[posicao >>> BITS_PARTE_REGISTROS];
+        int base = deslocamento(posicao);
+        byte[] titular = new byte[parte.getShort(base + CAMPO_TAMANHO_TITULAR)];
+        parte.get(base + CAMPO_TITULAR, titular);
+        return new ContaMapeada(numero, new String(titular, StandardCharsets.UTF_8), this, parte, base, posicao);
+    }
+
+    /**
+     * Grava a conta no registro. A chave vai por último, para que um
+     * percurso nunca veja um registro pela metade.
+     */
+    private void escrever(int posicao, long chave, byte[] titular, Conta conta) {
+        MappedByteBuffer parte = registros[posicao >>> BITS_PARTE_REGISTROS];
+        int base = deslocamento(posicao);
+        LocalDate data = conta.getDataInativacao();
+        parte.putShort(base + CAMPO_TAMANHO_TITULAR, (short) titular.length);
+        parte.put(base + CAMPO_TITULAR, titular);
+        INTS.setVolatile(parte, base + CAMPO_DIA, data == null ? SEM_DATA : Math.toIntExact(data.toEpochDay()));
+        LONGS.setVolatile(parte, base + CAMPO_ESTADO, ContaMapeada.estadoDaConta(conta));
+        ImagemConta imagem = conta.getImagem();
+        if (imagem == null){
+            imagens.remove(posicao);
+        } else {
+            imagens.put(posicao, imagem);
+        }
+        extratos.remove(posicao);
+        LONGS.setRelease(parte, base, chave);
+    }
+
+    private void publicarQuantidade(int nova) {
+        LONGS.setRelease(cabecalho, CAMPO_QUANTIDADE, (long) nova);
+        quantidade = nova;
+    }
+
+    /**
+     * Chave → posição, com sondagem linear. Chave 0 marca entrada vazia.
+     */
+    private int localizar(long chave) {
+        for (int i = RepositorioCompacto.espalhar(chave) & mascaraIndice; ; i = (i + 1) & mascaraIndice){
+            MappedByteBuffer parte = indice[i >>> BITS_PARTE_INDICE];
+            int base = (i & ((1 << BITS_PARTE_INDICE) - 1)) * ENTRADA;
+            long atual = (long) LONGS.getAcquire(parte, base);
+            if (atual == chave){
+                return (int) (long) LONGS.get(parte, base + 8);
+            }
+            if (atual == 0){
+                return -1;
+            }
+        }
+    }
+
+    private void inserir(long chave, int posicao) {
+        for (int i = RepositorioCompacto.espalhar(chave) & mascaraIndice; ; i = (i + 1) & mascaraIndice){
+            MappedByteBuffer parte = indice[i >>> BITS_PARTE_INDICE];
+            int base = (i & ((1 << BITS_PARTE_INDICE) - 1)) * ENTRADA;
+            if ((long) LONGS.get(parte, base) == 0){
+                LONGS.set(parte, base + 8, (long) posicao);
+                LONGS.setRelease(parte, base, chave);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Se o processo terminou entre contar a última conta e incluí-la no
+     * índice, inclui agora.
+     */
+    private void recuperarUltima() {
+        int total = Math.toIntExact((long) LONGS.getAcquire(cabecalho, CAMPO_QUANTIDADE));
+        quantidade = total;
+        if (total > 0){
+            int ultima = total - 1;
+            long chave = (long) LONGS.get(registros[ultima >>> BITS_PARTE_REGISTROS], deslocamento(ultima));
+            if (localizar(chave) < 0){
+                inserir(chave, ultima);
+            }
+        }
+    }
+
+    private static int deslocamento(int posicao) {
+        return (posicao & ((1 << BITS_PARTE_REGISTROS) - 1)) * REGISTRO;
+    }
+
+    private static long inicioIndice(int capacidade) {
+        long fimRegistros = CABECALHO + (long) capacidade * REGISTRO;
+        return (fimRegistros + CABECALHO - 1) / CABECALHO * CABECALHO;
+    }
+
+    private static MappedByteBuffer[] mapear(FileChannel canal, long inicio, int itens, int bitsParte, int tamanhoItem)
+            throws IOException {
+        int porParte = 1 << bitsParte;
+        MappedByteBuffer[] partes = new MappedByteBuffer[(int) (((long) itens + porParte - 1) / porParte)];
+        for (int p = 0; p < partes.length; p++){
+            long itensNaParte = Math.min(porParte, itens - (long) p * porParte);
+            partes[p] = canal.map(FileChannel.MapMode.READ_WRITE, inicio + (long) p * porParte * tamanhoItem,
+                    itensNaParte * tamanhoItem);
+        }
+        return partes;
+    }
+
+    /**
+     * Visão sobre um registro do arquivo. Duas visões do mesmo registro são
+     * iguais por {@link #equals(Object)}.
+     */
+    private static final class ContaMapeada extends Conta {
+
+        private final RepositorioMapeado repositorio;
+        private final MappedByteBuffer parte;
+        private final int base;
+        private final int posicao;
+
+        private ContaMapeada(String numero, String titular, RepositorioMapeado repositorio, MappedByteBuffer parte,
+                             int base, int posicao) {
+            super(numero, titular);
+            this.repositorio = repositorio;
+            this.parte = parte;
+            this.base = base;
+            this.posicao = posicao;
+        }
+
+        static long estadoDaConta(Conta conta) {
+            return Conta.estadoDe(conta);
+        }
+
+        @Override
+        protected long lerEstado() {
+            return (long) LONGS.getVolatile(parte, base + CAMPO_ESTADO);
+        }
+
+        @Override
+        protected boolean trocarEstado(long esperado, long novo) {
+            return LONGS.weakCompareAndSet(parte, base + CAMPO_ESTADO, esperado, novo);
+        }
+
+        @Override
+        protected LocalDate lerDataInativacao() {
+            int dia = (int) INTS.getVolatile(parte, base + CAMPO_DIA);
+            return dia == SEM_DATA ? null : LocalDate.ofEpochDay(dia);
+        }
+
+        @Override
+        protected boolean trocarDataInativacao(LocalDate esperada, LocalDate nova) {
+            return INTS.compareAndSet(parte, base + CAMPO_DIA, dia(esperada), dia(nova));
+        }
+
+        private static int dia(LocalDate data) {
+            return data == null ? SEM_DATA : Math.toIntExact(data.toEpochDay());
+        }
+
+        @Override
+        public ImagemConta getImagem() {
+            return repositorio.imagens.get(posicao);
+        }
+
+        @Override
+        protected boolean trocarImagem(ImagemConta esperada, ImagemConta nova) {
+            return trocar(repositorio.imagens, esperada, nova);
+        }
+
+        @Override
+        protected Extrato lerExtrato() {
+            return repositorio.extratos.get(posicao);
+        }
+
+        @Override
+        protected boolean trocarExtrato(Extrato esperado, Extrato novo) {
+            return trocar(repositorio.extratos, esperado, novo);
+        }
+
+        /**
+         * Compare-and-set sobre o mapa (a igualdade dos valores é a identidade).
+         */
+        private <V> boolean trocar(ConcurrentHashMap<Integer, V> mapa, V esperado, V novo) {
+            if (esperado == null){
+                return novo == null ? !mapa.containsKey(posicao) : mapa.putIfAbsent(posicao, novo) == null;
+            }
+            return novo == null ? mapa.remove(posicao, esperado) : mapa.replace(posicao, esperado, novo);
+        }
+
+        @Override
+        public boolean equals(Object outro) {
+            return outro instanceof ContaMapeada
+                    && ((ContaMapeada) outro).repositorio == repositorio && ((ContaMapeada) outro).posicao == posicao;
+        }
+
+        @Override
+        public int hashCode() {
+            return System.identityHashCode(repositorio) * 31 + posicao;
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package service;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+
+/**
+ * Fila circular limitada, sem trava, de muitos produtores para um único
+ * consumidor: a entrada de comandos de uma {@link Particao}.
+ * <p>
+ * Cada posição tem um número de sequência que diz de quem é a vez: igual à
+ * posição absoluta, ela está livre para o produtor que reservou essa posição
+ * com CAS na cauda; igual à posição + 1, o comando já foi publicado e o
+ * consumidor pode retirá-lo. O vetor é alocado uma vez e nunca cresce; com
+ * ele cheio, {@link #oferecer} devolve false e quem produz decide se espera
+ * ou guarda o comando para depois.
+ */
+final class AnelComandos {
+
+    private static final VarHandle SEQUENCIA = MethodHandles.arrayElementVarHandle(long[].class);
+    private static final VarHandle CAUDA;
+
+    static {
+        try {
+            CAUDA = MethodHandles.lookup().findVarHandle(AnelComandos.class, "cauda", long.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private final Comando[] comandos;
+    private final long[] sequencias;
+    private final int mascara;
+
+    private volatile long cauda;
+    /** Só o consumidor lê e escreve. */
+    private long cabeca;
+
+    /**
+     * @param capacidade Número de posições (arredondado para potência de 2)
+     */
+    AnelComandos(int capacidade) {
+        int tamanho = Integer.highestOneBit(Math.max(2, capacidade - 1)) << 1;
+        comandos = new Comando[tamanho];
+        sequencias = new long[tamanho];
+        mascara = tamanho - 1;
+        for (int i = 0; i < tamanho; i++){
+            sequencias[i] = i;
+        }
+    }
+
+    /**
+     * Publica o comando, se houver posição livre. Pode ser chamado por
+     * qualquer thread.
+     *
+     * @return false se a fila estiver cheia
+     */
+    boolean oferecer(Comando comando) {
+        while (true){
+            long posicao = cauda;
+            int i = (int) posicao & mascara;
+            long sequencia = (long) SEQUENCIA.getAcquire(sequencias, i);
+            if (sequencia == posicao){
+                if (CAUDA.weakCompareAndSet(this, posicao, posicao + 1)){
+                    comandos[i] = comando;
+                    // Volátil, não só release: quem publica lê em seguida se o
+                    // consumidor está dormindo, e o consumidor faz o inverso.
+                    SEQUENCIA.setVolatile(sequencias, i, posicao + 1);
+                    return true;
+                }
+            } else if (sequencia < posicao){
+                return false;
+            } else {
+                Thread.onSpinWait();
+            }
+        }
+    }
+
+    /**
+     * Retira o próximo comando publicado. Só o consumidor chama.
+     *
+     * @return o comando, ou null se não houver nenhum publicado
+     */
+    Comando retirar() {
+        int i = (int) cabeca & mascara;
+        if ((long) SEQUENCIA.getAcquire(sequencias, i) != cabeca + 1){
+            return null;
+        }
+        Comando comando = comandos[i];
+        comandos[i] = null;
+        SEQUENCIA.setRelease(sequencias, i, cabeca + comandos.length);
+        cabeca++;
+        return comando;
+    }
+
+    /**
+     * Verificação do consumidor antes de dormir, com a mesma ordem total que
+     * a publicação em {@link #oferecer}.
+     */
+    boolean vazio() {
+        return (long) SEQUENCIA.getVolatile(sequencias, (int) cabeca & mascara) != cabeca + 1;
+    }
+
+    int capacidade() {
+        return comandos.length;
+    }
+}
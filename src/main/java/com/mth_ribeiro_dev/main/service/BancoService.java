@@ -2,17 +2,172 @@ package service;
 
 import exception.ContaInativaException;
 import exception.ContaNaoEncontradaException;
+import exception.LimiteExcedidoException;
 import exception.SaldoInsuficienteException;
 import exception.TransferenciaException;
 import exception.ValorInvalidoException;
+import metricas.MetricasBanco;
+import metricas.TipoOperacao;
 import model.Conta;
+import model.ImagemConta;
+import model.Moeda;
+import model.Movimento;
+import model.ResultadoOperacao;
+import model.SituacaoConta;
+import model.TipoMovimento;
+import persistencia.ArquivoContas;
+import persistencia.FormatoContas;
+import persistencia.Journal;
+import persistencia.Snapshot;
+import repositorio.RepositorioContas;
+import repositorio.RepositorioMapa;
 
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 public class BancoService {
 
-    private Map<String, Conta> contas = new HashMap<>();
+    private static final int SNAPSHOTS_MANTIDOS = 2;
+    /** Potência de 2, para o índice sair de uma máscara. */
+    private static final int NUMERO_TRAVAS_ORDEM = 1024;
+    /** Carga do desfecho de {@link ContaInativaException} sem data de inativação. */
+    private static final long SEM_DATA = CacheIdempotencia.CARGA_MINIMA;
+
+    private final RepositorioContas contas;
+    private final Journal journal;
+    private final Path diretorioSnapshots;
+
+    /**
+     * Cada alteração (aplicar na conta e, com journal, registrar no journal)
+     * acontece dentro da barreira. Snapshots e relatórios só a fecham por um
+     * instante, para trocar de época (e anotar a posição do journal); depois
+     * disso as alterações seguem normalmente e, enquanto a varredura não
+     * termina, preservam a imagem de cada conta antes de mudá-la.
+     */
+    private final BarreiraEscrita barreira = new BarreiraEscrita();
+    private final ReentrantLock travaVarredura = new ReentrantLock();
+
+    /**
+     * Com journal, cada alteração é aplicada e anexada segurando as travas
+     * das contas que toca, tomadas em ordem de índice. Assim os registros de
+     * cada conta ficam na ordem em que foram aplicados, e qualquer prefixo do
+     * journal (o que sobra de uma queda) é o estado de uma execução serial
+     * das mesmas operações. Alterações em contas de travas diferentes não se
+     * esperam: entre elas, quem ordena é a trava do próprio journal. A espera
+     * pelo disco fica fora das travas, então o commit em grupo continua
+     * juntando as operações. Sem journal, null.
+     */
+    private final ReentrantLock[] travasOrdem;
+    private long epocaSnapshot;
+    private volatile boolean varrendo;
+
+    /** Definido por {@link #usarIdempotencia}; sem ele, operações com chave falham. */
+    private final AtomicReference<CacheIdempotencia> idempotencia = new AtomicReference<>();
+
+    /**
+     * Contagens e latências por operação; enquanto desligadas, cada operação
+     * paga só a leitura desta referência.
+     */
+    private final AtomicReference<MetricasBanco> metricas = new AtomicReference<>(MetricasBanco.DESATIVADAS);
+
+    /** Limites de velocidade de saques e transferências, se configurados. */
+    private final AtomicReference<LimitesMovimentacao> limites = new AtomicReference<>();
+
+    /** Recebe cada conta criada enquanto a varredura de dormência estiver ativa. */
+    private final AtomicReference<VarreduraDormencia> dormencia = new AtomicReference<>();
+
+    /**
+     * Cria um serviço apenas em memória.
+     */
+    public BancoService() {
+        this(new RepositorioMapa());
+    }
+
+    /**
+     * Cria um serviço sem journal sobre o repositório informado (por
+     * exemplo {@link repositorio.RepositorioCompacto} para dezenas de milhões
+     * de contas, ou {@link repositorio.RepositorioMapeado} para mais contas do
+     * que cabem no heap).
+     *
+     * @param contas Repositório vazio ou, se for persistente, com as contas
+     *               da execução anterior
+     */
+    public BancoService(RepositorioContas contas) {
+        this.contas = contas;
+        this.journal = null;
+        this.diretorioSnapshots = null;
+        this.travasOrdem = null;
+    }
+
+    /**
+     * Cria um serviço durável: as contas são recuperadas do journal e toda
+     * operação bem-sucedida é registrada nele antes de retornar (conforme a
+     * política de sincronização do journal).
+     *
+     * @param journal Journal já aberto
+     * @throws IOException se o journal não puder ser lido
+     */
+    public BancoService(Journal journal) throws IOException {
+        this(journal, null);
+    }
+
+    /**
+     * Cria um serviço durável com snapshots. Na inicialização o snapshot mais
+     * recente do diretório é carregado e só a parte do journal posterior a
+     * ele é reproduzida.
+     *
+     * @param journal Journal já aberto
+     * @param diretorioSnapshots Diretório dos snapshots (null para não usar)
+     * @throws IOException se o journal ou o snapshot não puderem ser lidos
+     */
+    public BancoService(Journal journal, Path diretorioSnapshots) throws IOException {
+        this(journal, diretorioSnapshots, new RepositorioMapa());
+    }
+
+    /**
+     * Cria um serviço durável com snapshots sobre o repositório informado.
+     *
+     * @param journal Journal já aberto
+     * @param diretorioSnapshots Diretório dos snapshots (null para não usar)
+     * @param contas Repositório vazio, que recebe as contas recuperadas
+     * @throws IOException se o journal ou o snapshot não puderem ser lidos
+     */
+    public BancoService(Journal journal, Path diretorioSnapshots, RepositorioContas contas) throws IOException {
+        Path ultimo = diretorioSnapshots == null ? null : Snapshot.maisRecente(diretorioSnapshots);
+        Snapshot cabecalho = ultimo == null ? null : Snapshot.ler(ultimo, null);
+        // O journal é lido antes do snapshot: cada conta é guardada uma vez só,
+        // já com o estado final.
+        RecuperacaoContas recuperacao = new RecuperacaoContas(cabecalho == null ? 0 : cabecalho.getSequencia());
+        journal.reproduzir(cabecalho == null ? 0 : cabecalho.getPosicaoJournal(), recuperacao);
+        if (cabecalho != null){
+            contas.reservar(cabecalho.getQuantidade());
+            Snapshot.ler(ultimo, (numero, titular, saldoCentavos, dataInativacao) ->
+                    contas.guardar(recuperacao.restaurar(numero, titular, saldoCentavos, dataInativacao)));
+        }
+        recuperacao.carregarEm(contas);
+        this.contas = contas;
+        this.journal = journal;
+        this.diretorioSnapshots = diretorioSnapshots;
+        this.travasOrdem = new ReentrantLock[NUMERO_TRAVAS_ORDEM];
+        for (int i = 0; i < travasOrdem.length; i++){
+            travasOrdem[i] = new ReentrantLock();
+        }
+    }
 
     /**
      * Cria uma nova conta bancária.
@@ -24,11 +179,58 @@ public class BancoService {
      * @throws ValorInvalidoException se saldoInicial for negativo
      */
     public Conta criarConta(String numero, String titular, double saldoInicial) {
-        if (saldoInicial < 0){
-            throw new ValorInvalidoException("criar conta", String.valueOf(Math.round(saldoInicial*100.0)/100.0));
+        MetricasBanco medidor = metricas.get();
+        long inicio = medidor.iniciar();
+        Conta conta;
+        try{
+            conta = realizarCriacao(numero, titular, saldoInicial);
+        } catch (RuntimeException e) {
+            medidor.registrarFalha(TipoOperacao.CRIAR_CONTA, inicio, e);
+            throw e;
+        }
+        medidor.registrar(TipoOperacao.CRIAR_CONTA, inicio, ResultadoOperacao.SUCESSO);
+        VarreduraDormencia varredura = dormencia.get();
+        if (varredura != null){
+            varredura.acompanhar(conta);
+        }
+        return conta;
+    }
+
+    /**
+     * Implementação de {@link #criarConta(String, String, double)}. Os
+     * métodos públicos só medem (veja {@link #ativarMetricas()}) e delegam
+     * para estes {@code realizar*}, que as subclasses sobrescrevem para mudar
+     * como a operação é executada.
+     */
+    protected Conta realizarCriacao(String numero, String titular, double saldoInicial) {
+        long centavos = Moeda.paraCentavos(saldoInicial);
+        if (centavos < 0){
+            throw new ValorInvalidoException("criar conta", centavos);
+        }
+        Conta conta = new Conta(numero, titular, centavos);
+        long sequencia = 0;
+        int ordem = -1;
+        int escrita = entrarEscrita();
+        try{
+            ordem = entrarOrdem(numero, numero);
+            if (varrendo){
+                conta.marcarCriadaNaEpoca(epocaSnapshot);
+            }
+            if (journal != null){
+                Journal.verificarTexto(numero);
+                Journal.verificarTexto(titular);
+            }
+            // O repositório valida antes do journal: a recuperação nunca
+            // encontra uma criação que o repositório recusou.
+            conta = contas.guardar(conta);
+            if (journal != null){
+                sequencia = journal.anexarCriacao(numero, titular, centavos);
+            }
+        } finally {
+            sairOrdem(ordem);
+            sairEscrita(escrita);
         }
-        Conta conta = new Conta(numero, titular, saldoInicial);
-        contas.put(numero, conta);
+        confirmar(sequencia);
         return conta;
     }
 
@@ -40,13 +242,26 @@ public class BancoService {
      * @throws ContaNaoEncontradaException se a conta não existir
      */
     public Conta buscarConta(String numero) {
-        Conta conta = contas.get(numero);
+        MetricasBanco medidor = metricas.get();
+        long inicio = medidor.iniciar();
+        Conta conta = contas.buscar(numero);
         if (conta == null){
-            throw new ContaNaoEncontradaException(numero);
+            ContaNaoEncontradaException falha = new ContaNaoEncontradaException(numero);
+            medidor.registrarFalha(TipoOperacao.BUSCAR_CONTA, inicio, falha);
+            throw falha;
         }
+        medidor.registrar(TipoOperacao.BUSCAR_CONTA, inicio, ResultadoOperacao.SUCESSO);
         return conta;
     }
 
+    /**
+     * A conta ou {@code null}, sem passar pelas métricas (para montar a
+     * exceção de uma recusa já contada).
+     */
+    Conta localizar(String numero) {
+        return contas.buscar(numero);
+    }
+
     /**
      * Realiza depósito em uma conta.
      *
@@ -56,18 +271,48 @@ public class BancoService {
      * @throws ValorInvalidoException se o valor for <= 0
      */
     public void depositar(String numeroConta, double valor) {
-        if (valor <= 0){
-            throw new ValorInvalidoException("depositar", String.valueOf(Math.round(valor*100.0)/100.0));
+        MetricasBanco medidor = metricas.get();
+        long inicio = medidor.iniciar();
+        try{
+            realizarDeposito(numeroConta, valor);
+        } catch (RuntimeException e) {
+            medidor.registrarFalha(TipoOperacao.DEPOSITAR, inicio, e);
+            throw e;
         }
-        Conta conta = contas.get(numeroConta);
+        medidor.registrar(TipoOperacao.DEPOSITAR, inicio, ResultadoOperacao.SUCESSO);
+    }
+
+    /**
+     * Implementação de {@link #depositar(String, double)}.
+     */
+    protected void realizarDeposito(String numeroConta, double valor) {
+        long centavos = centavosPositivos("depositar", valor);
+        Conta conta = contas.buscar(numeroConta);
         if (conta == null){
             throw new ContaNaoEncontradaException(numeroConta);
         }
-        conta.creditar(valor);
+        long sequencia = 0;
+        int ordem = -1;
+        int escrita = entrarEscrita();
+        try{
+            ordem = entrarOrdem(numeroConta, numeroConta);
+            preservar(conta);
+            conta.creditar(centavos);
+            conta.getExtrato().registrar(TipoMovimento.DEPOSITO, centavos, null);
+            if (journal != null){
+                sequencia = journal.anexarDeposito(numeroConta, centavos);
+            }
+        } finally {
+            sairOrdem(ordem);
+            sairEscrita(escrita);
+        }
+        confirmar(sequencia);
     }
 
     /**
      * Realiza saque de uma conta.
+     * A verificação de conta ativa e de saldo e o débito acontecem em um
+     * único compare-and-set em {@link Conta#debitar(long)}, sem trava.
      *
      * @param numeroConta Número da conta
      * @param valor Valor a sacar (deve ser > 0)
@@ -75,29 +320,60 @@ public class BancoService {
      * @throws ValorInvalidoException se o valor for <= 0
      * @throws ContaInativaException se a conta estiver inativa
      * @throws SaldoInsuficienteException se não houver saldo suficiente
+     * @throws LimiteExcedidoException se o saque exceder os limites de
+     *                                 movimentação ({@link #usarLimites})
      */
     public void sacar(String numeroConta, double valor)
             throws ContaInativaException, SaldoInsuficienteException {
-        if (valor <= 0){
-            throw new ValorInvalidoException("sacar", String.valueOf(Math.round(valor*100.0)/100.0));
+        MetricasBanco medidor = metricas.get();
+        long inicio = medidor.iniciar();
+        try{
+            realizarSaque(numeroConta, valor);
+        } catch (ContaInativaException | SaldoInsuficienteException | RuntimeException e) {
+            medidor.registrarFalha(TipoOperacao.SACAR, inicio, e);
+            throw e;
         }
-        Conta conta = contas.get(numeroConta);
+        medidor.registrar(TipoOperacao.SACAR, inicio, ResultadoOperacao.SUCESSO);
+    }
+
+    /**
+     * Implementação de {@link #sacar(String, double)}.
+     */
+    protected void realizarSaque(String numeroConta, double valor)
+            throws ContaInativaException, SaldoInsuficienteException {
+        long centavos = centavosPositivos("sacar", valor);
+        Conta conta = contas.buscar(numeroConta);
         if (conta == null){
             throw new ContaNaoEncontradaException(numeroConta);
         }
-        if (!conta.isAtiva()){
-            throw new ContaInativaException(numeroConta, conta.getDataInativacao());
-        }
-        if (conta.getSaldo() < valor){
-            throw new SaldoInsuficienteException(numeroConta,
-                    String.valueOf(Math.round(conta.getSaldo()*100.0)/100.0),
-                    String.valueOf(Math.round(valor*100.0)/100.0));
+        LimitesMovimentacao limite = tomarLimite(numeroConta, centavos);
+        long sequencia = 0;
+        int ordem = -1;
+        int escrita = entrarEscrita();
+        try{
+            ordem = entrarOrdem(numeroConta, numeroConta, limite, centavos);
+            preservar(conta);
+            try{
+                conta.debitar(centavos);
+            } catch (ContaInativaException | SaldoInsuficienteException e) {
+                devolverLimite(limite, numeroConta, centavos);
+                throw e;
+            }
+            conta.getExtrato().registrar(TipoMovimento.SAQUE, centavos, null);
+            if (journal != null){
+                sequencia = journal.anexarSaque(numeroConta, centavos);
+            }
+        } finally {
+            sairOrdem(ordem);
+            sairEscrita(escrita);
         }
-        conta.debitar(valor);
+        confirmar(sequencia);
     }
 
     /**
      * Realiza transferência entre contas.
+     * O débito na origem é atômico (verifica estado e saldo no mesmo CAS);
+     * se o crédito no destino falhar, o valor é devolvido à origem.
      *
      * @param numeroOrigem Número da conta origem
      * @param numeroDestino Número da conta destino
@@ -106,28 +382,63 @@ public class BancoService {
      */
     public void transferir(String numeroOrigem, String numeroDestino, double valor)
             throws TransferenciaException {
+        MetricasBanco medidor = metricas.get();
+        long inicio = medidor.iniciar();
         try{
-            if (valor <= 0){
-                throw new ValorInvalidoException("transferir", String.valueOf(Math.round(valor*100.0)/100.0));
-            }
-            Conta contaOrigem = contas.get(numeroOrigem);
-            Conta contaDestino = contas.get(numeroDestino);
+            realizarTransferencia(numeroOrigem, numeroDestino, valor);
+        } catch (TransferenciaException | RuntimeException e) {
+            medidor.registrarFalha(TipoOperacao.TRANSFERIR, inicio, e);
+            throw e;
+        }
+        medidor.registrar(TipoOperacao.TRANSFERIR, inicio, ResultadoOperacao.SUCESSO);
+    }
+
+    /**
+     * Implementação de {@link #transferir(String, String, double)}.
+     */
+    protected void realizarTransferencia(String numeroOrigem, String numeroDestino, double valor)
+            throws TransferenciaException {
+        int escrita = -1;
+        int ordem = -1;
+        long sequencia = 0;
+        try{
+            long centavos = centavosPositivos("transferir", valor);
+            Conta contaOrigem = contas.buscar(numeroOrigem);
+            Conta contaDestino = contas.buscar(numeroDestino);
             if (contaOrigem == null){
                 throw new ContaNaoEncontradaException(numeroOrigem);
             }else if(contaDestino == null){
                 throw new ContaNaoEncontradaException(numeroDestino);
             }
-            if (!contaOrigem.isAtiva()){
-                throw new ContaInativaException(numeroOrigem, contaOrigem.getDataInativacao());
+            LimitesMovimentacao limite = tomarLimite(numeroOrigem, centavos);
+            escrita = entrarEscrita();
+            ordem = entrarOrdem(numeroOrigem, numeroDestino, limite, centavos);
+            preservar(contaOrigem);
+            preservar(contaDestino);
+            try{
+                contaOrigem.debitar(centavos);
+            } catch (ContaInativaException | SaldoInsuficienteException e) {
+                devolverLimite(limite, numeroOrigem, centavos);
+                throw e;
             }
-            if (contaOrigem.getSaldo() < valor){
-                throw new SaldoInsuficienteException(numeroOrigem, String.valueOf(Math.round(contaOrigem.getSaldo()*100.0)/100.0), String.valueOf(Math.round(valor*100.0)/100.0));
+            try{
+                contaDestino.creditar(centavos);
+            } catch (RuntimeException e) {
+                contaOrigem.creditar(centavos);
+                devolverLimite(limite, numeroOrigem, centavos);
+                throw e;
+            }
+            lancarTransferencia(contaOrigem, contaDestino, centavos);
+            if (journal != null){
+                sequencia = journal.anexarTransferencia(numeroOrigem, numeroDestino, centavos);
             }
-            contaOrigem.debitar(valor);
-            contaDestino.creditar(valor);
         } catch (Exception e) {
-            throw new TransferenciaException(numeroOrigem, numeroDestino, String.valueOf(Math.round(valor*100.0)/100.0), e);
+            throw new TransferenciaException(numeroOrigem, numeroDestino, Moeda.paraCentavos(valor), e);
+        } finally {
+            sairOrdem(ordem);
+            sairEscrita(escrita);
         }
+        confirmar(sequencia);
     }
 
     /**
@@ -137,11 +448,40 @@ public class BancoService {
      * @throws ContaNaoEncontradaException se a conta não existir
      */
     public void inativarConta(String numeroConta) {
-        Conta conta = contas.get(numeroConta);
+        MetricasBanco medidor = metricas.get();
+        long inicio = medidor.iniciar();
+        try{
+            realizarInativacao(numeroConta);
+        } catch (RuntimeException e) {
+            medidor.registrarFalha(TipoOperacao.INATIVAR_CONTA, inicio, e);
+            throw e;
+        }
+        medidor.registrar(TipoOperacao.INATIVAR_CONTA, inicio, ResultadoOperacao.SUCESSO);
+    }
+
+    /**
+     * Implementação de {@link #inativarConta(String)}.
+     */
+    protected void realizarInativacao(String numeroConta) {
+        Conta conta = contas.buscar(numeroConta);
         if (conta == null){
             throw new ContaNaoEncontradaException(numeroConta);
         }
-        conta.inativar();
+        long sequencia = 0;
+        int ordem = -1;
+        int escrita = entrarEscrita();
+        try{
+            ordem = entrarOrdem(numeroConta, numeroConta);
+            preservar(conta);
+            conta.inativar();
+            if (journal != null){
+                sequencia = journal.anexarInativacao(numeroConta, conta.getDataInativacao());
+            }
+        } finally {
+            sairOrdem(ordem);
+            sairEscrita(escrita);
+        }
+        confirmar(sequencia);
     }
 
     /**
@@ -152,10 +492,1561 @@ public class BancoService {
      * @throws ContaNaoEncontradaException se a conta não existir
      */
     public double consultarSaldo(String numeroConta) {
-        Conta conta = contas.get(numeroConta);
+        MetricasBanco medidor = metricas.get();
+        long inicio = medidor.iniciar();
+        Conta conta = contas.buscar(numeroConta);
+        if (conta == null){
+            ContaNaoEncontradaException falha = new ContaNaoEncontradaException(numeroConta);
+            medidor.registrarFalha(TipoOperacao.CONSULTAR_SALDO, inicio, falha);
+            throw falha;
+        }
+        double saldo = conta.getSaldo();
+        medidor.registrar(TipoOperacao.CONSULTAR_SALDO, inicio, ResultadoOperacao.SUCESSO);
+        return saldo;
+    }
+
+    /**
+     * Saldo, situação e data de inativação da conta num mesmo instante. Não
+     * trava nem espera as alterações simultâneas, e elas também não esperam
+     * por esta leitura.
+     *
+     * @param numeroConta Número da conta
+     * @return A situação atual
+     * @throws ContaNaoEncontradaException se a conta não existir
+     */
+    public SituacaoConta consultarSituacao(String numeroConta) {
+        MetricasBanco medidor = metricas.get();
+        long inicio = medidor.iniciar();
+        Conta conta = contas.buscar(numeroConta);
+        if (conta == null){
+            ContaNaoEncontradaException falha = new ContaNaoEncontradaException(numeroConta);
+            medidor.registrarFalha(TipoOperacao.CONSULTAR_SITUACAO, inicio, falha);
+            throw falha;
+        }
+        SituacaoConta situacao = conta.getSituacao();
+        medidor.registrar(TipoOperacao.CONSULTAR_SITUACAO, inicio, ResultadoOperacao.SUCESSO);
+        return situacao;
+    }
+
+    /**
+     * O que {@link #tentarTransferir(String, String, double)} faria agora,
+     * sem transferir: as duas contas lidas num mesmo instante (veja
+     * {@link Conta#situacoesJuntas(Conta, Conta)}), o resultado previsto e os
+     * saldos depois. Como {@link #consultarSituacao(String)}, não trava nada.
+     *
+     * @param numeroOrigem Conta de origem
+     * @param numeroDestino Conta de destino
+     * @param valor Valor da transferência
+     * @return A prévia
+     * @throws ValorInvalidoException se o valor não for positivo
+     * @throws ContaNaoEncontradaException se alguma das contas não existir
+     */
+    public PreviaTransferencia previsualizarTransferencia(String numeroOrigem, String numeroDestino, double valor) {
+        MetricasBanco medidor = metricas.get();
+        long inicio = medidor.iniciar();
+        PreviaTransferencia previa;
+        try{
+            long centavos = centavosPositivos("transferir", valor);
+            Conta contaOrigem = contas.buscar(numeroOrigem);
+            if (contaOrigem == null){
+                throw new ContaNaoEncontradaException(numeroOrigem);
+            }
+            Conta contaDestino = contas.buscar(numeroDestino);
+            if (contaDestino == null){
+                throw new ContaNaoEncontradaException(numeroDestino);
+            }
+            SituacaoConta[] situacoes = Conta.situacoesJuntas(contaOrigem, contaDestino);
+            ResultadoOperacao resultado = !situacoes[0].isAtiva() ? ResultadoOperacao.CONTA_INATIVA
+                    : situacoes[0].getSaldoCentavos() < centavos ? ResultadoOperacao.SALDO_INSUFICIENTE
+                    : ResultadoOperacao.SUCESSO;
+            previa = new PreviaTransferencia(situacoes[0], situacoes[1], centavos, resultado);
+        } catch (RuntimeException e) {
+            medidor.registrarFalha(TipoOperacao.PREVIA_TRANSFERENCIA, inicio, e);
+            throw e;
+        }
+        medidor.registrar(TipoOperacao.PREVIA_TRANSFERENCIA, inicio, ResultadoOperacao.SUCESSO);
+        return previa;
+    }
+
+    /**
+     * Extrato da conta entre duas datas (inclusive), no fuso do sistema.
+     * <p>
+     * Os movimentos são lidos sob demanda, sem montar o histórico inteiro, e
+     * a leitura não trava depósitos e saques simultâneos na conta. O extrato
+     * fica só em memória: contas recuperadas do journal ou de um snapshot
+     * começam com o extrato vazio. Com retenção configurada
+     * ({@link model.Extrato#limitarRetencao(long)}), os movimentos mais
+     * antigos que ela já descartou não aparecem
+     * ({@link model.Extrato#getDescartados()}).
+     *
+     * @param numeroConta Número da conta
+     * @param inicio Primeiro dia do extrato
+     * @param fim Último dia do extrato
+     * @return Os movimentos do período, em ordem
+     * @throws ContaNaoEncontradaException se a conta não existir
+     */
+    public Stream<Movimento> extrato(String numeroConta, LocalDate inicio, LocalDate fim) {
+        Conta conta = contas.buscar(numeroConta);
         if (conta == null){
             throw new ContaNaoEncontradaException(numeroConta);
         }
-        return conta.getSaldo();
+        ZoneId fuso = ZoneId.systemDefault();
+        return conta.getExtrato().movimentos(inicio.atStartOfDay(fuso).toInstant().toEpochMilli(),
+                fim.plusDays(1).atStartOfDay(fuso).toInstant().toEpochMilli());
+    }
+
+    /**
+     * Versão sem exceções de {@link #depositar(String, double)}.
+     * Recusas não alocam nada, o que importa quando a maior parte do tráfego
+     * é de operações recusadas.
+     *
+     * @param numeroConta Número da conta
+     * @param valor Valor a depositar
+     * @return SUCESSO, VALOR_INVALIDO ou CONTA_NAO_ENCONTRADA
+     */
+    public ResultadoOperacao tentarDepositar(String numeroConta, double valor) {
+        MetricasBanco medidor = metricas.get();
+        long inicio = medidor.iniciar();
+        ResultadoOperacao resultado;
+        try{
+            resultado = tentarRealizarDeposito(numeroConta, valor);
+        } catch (RuntimeException e) {
+            medidor.registrarFalha(TipoOperacao.DEPOSITAR, inicio, e);
+            throw e;
+        }
+        medidor.registrar(TipoOperacao.DEPOSITAR, inicio, resultado);
+        return resultado;
+    }
+
+    /**
+     * Implementação de {@link #tentarDepositar(String, double)}.
+     */
+    protected ResultadoOperacao tentarRealizarDeposito(String numeroConta, double valor) {
+        long centavos = Moeda.paraCentavos(valor);
+        if (centavos <= 0){
+            return ResultadoOperacao.VALOR_INVALIDO;
+        }
+        Conta conta = contas.buscar(numeroConta);
+        if (conta == null){
+            return ResultadoOperacao.CONTA_NAO_ENCONTRADA;
+        }
+        long sequencia = 0;
+        int ordem = -1;
+        int escrita = entrarEscrita();
+        try{
+            ordem = entrarOrdem(numeroConta, numeroConta);
+            preservar(conta);
+            conta.creditar(centavos);
+            conta.getExtrato().registrar(TipoMovimento.DEPOSITO, centavos, null);
+            if (journal != null){
+                sequencia = journal.anexarDeposito(numeroConta, centavos);
+            }
+        } finally {
+            sairOrdem(ordem);
+            sairEscrita(escrita);
+        }
+        confirmar(sequencia);
+        return ResultadoOperacao.SUCESSO;
+    }
+
+    /**
+     * Versão sem exceções de {@link #sacar(String, double)}.
+     *
+     * @param numeroConta Número da conta
+     * @param valor Valor a sacar
+     * @return SUCESSO ou o motivo da recusa
+     */
+    public ResultadoOperacao tentarSacar(String numeroConta, double valor) {
+        MetricasBanco medidor = metricas.get();
+        long inicio = medidor.iniciar();
+        ResultadoOperacao resultado;
+        try{
+            resultado = tentarRealizarSaque(numeroConta, valor);
+        } catch (RuntimeException e) {
+            medidor.registrarFalha(TipoOperacao.SACAR, inicio, e);
+            throw e;
+        }
+        medidor.registrar(TipoOperacao.SACAR, inicio, resultado);
+        return resultado;
+    }
+
+    /**
+     * Implementação de {@link #tentarSacar(String, double)}.
+     */
+    protected ResultadoOperacao tentarRealizarSaque(String numeroConta, double valor) {
+        long centavos = Moeda.paraCentavos(valor);
+        if (centavos <= 0){
+            return ResultadoOperacao.VALOR_INVALIDO;
+        }
+        Conta conta = contas.buscar(numeroConta);
+        if (conta == null){
+            return ResultadoOperacao.CONTA_NAO_ENCONTRADA;
+        }
+        LimitesMovimentacao limite = limites.get();
+        if (limite != null && !limite.tomar(numeroConta, centavos)){
+            return ResultadoOperacao.LIMITE_EXCEDIDO;
+        }
+        ResultadoOperacao resultado;
+        long sequencia = 0;
+        int ordem = -1;
+        int escrita = entrarEscrita();
+        try{
+            ordem = entrarOrdem(numeroConta, numeroConta, limite, centavos);
+            preservar(conta);
+            resultado = conta.tentarDebitar(centavos);
+            if (resultado.isSucesso()){
+                conta.getExtrato().registrar(TipoMovimento.SAQUE, centavos, null);
+                if (journal != null){
+                    sequencia = journal.anexarSaque(numeroConta, centavos);
+                }
+            } else {
+                devolverLimite(limite, numeroConta, centavos);
+            }
+        } finally {
+            sairOrdem(ordem);
+            sairEscrita(escrita);
+        }
+        confirmar(sequencia);
+        return resultado;
+    }
+
+    /**
+     * Versão sem exceções de {@link #transferir(String, String, double)}.
+     * Devolve diretamente o motivo da recusa, sem o encapsular.
+     *
+     * @param numeroOrigem Número da conta origem
+     * @param numeroDestino Número da conta destino
+     * @param valor Valor a transferir
+     * @return SUCESSO ou o motivo da recusa
+     */
+    public ResultadoOperacao tentarTransferir(String numeroOrigem, String numeroDestino, double valor) {
+        MetricasBanco medidor = metricas.get();
+        long inicio = medidor.iniciar();
+        ResultadoOperacao resultado;
+        try{
+            resultado = tentarRealizarTransferencia(numeroOrigem, numeroDestino, valor);
+        } catch (RuntimeException e) {
+            medidor.registrarFalha(TipoOperacao.TRANSFERIR, inicio, e);
+            throw e;
+        }
+        medidor.registrar(TipoOperacao.TRANSFERIR, inicio, resultado);
+        return resultado;
+    }
+
+    /**
+     * Implementação de {@link #tentarTransferir(String, String, double)}.
+     */
+    protected ResultadoOperacao tentarRealizarTransferencia(String numeroOrigem, String numeroDestino, double valor) {
+        long centavos = Moeda.paraCentavos(valor);
+        if (centavos <= 0){
+            return ResultadoOperacao.VALOR_INVALIDO;
+        }
+        Conta contaOrigem = contas.buscar(numeroOrigem);
+        Conta contaDestino = contas.buscar(numeroDestino);
+        if (contaOrigem == null || contaDestino == null){
+            return ResultadoOperacao.CONTA_NAO_ENCONTRADA;
+        }
+        LimitesMovimentacao limite = limites.get();
+        if (limite != null && !limite.tomar(numeroOrigem, centavos)){
+            return ResultadoOperacao.LIMITE_EXCEDIDO;
+        }
+        ResultadoOperacao resultado;
+        long sequencia = 0;
+        int ordem = -1;
+        int escrita = entrarEscrita();
+        try{
+            ordem = entrarOrdem(numeroOrigem, numeroDestino, limite, centavos);
+            preservar(contaOrigem);
+            preservar(contaDestino);
+            resultado = contaOrigem.tentarDebitar(centavos);
+            if (resultado.isSucesso()){
+                try{
+                    contaDestino.creditar(centavos);
+                } catch (RuntimeException e) {
+                    contaOrigem.creditar(centavos);
+                    devolverLimite(limite, numeroOrigem, centavos);
+                    throw e;
+                }
+                lancarTransferencia(contaOrigem, contaDestino, centavos);
+                if (journal != null){
+                    sequencia = journal.anexarTransferencia(numeroOrigem, numeroDestino, centavos);
+                }
+            } else {
+                devolverLimite(limite, numeroOrigem, centavos);
+            }
+        } finally {
+            sairOrdem(ordem);
+            sairEscrita(escrita);
+        }
+        confirmar(sequencia);
+        return resultado;
+    }
+
+    /**
+     * Igual a {@link #criarConta(String, String, double)}, identificado por
+     * uma chave de idempotência (veja {@link #depositar(String, String, double)}).
+     * Uma criação repetida devolve a conta criada na primeira vez, em vez de
+     * substituí-la por uma nova com o saldo inicial.
+     */
+    public Conta criarConta(String chaveIdempotencia, String numero, String titular, double saldoInicial) {
+        if (chaveIdempotencia == null){
+            return criarConta(numero, titular, saldoInicial);
+        }
+        Conta[] criada = new Conta[1];
+        long desfecho = idempotente(chaveIdempotencia, "criarConta", numero, titular, saldoInicial, () -> {
+            criada[0] = criarConta(numero, titular, saldoInicial);
+            return ResultadoOperacao.SUCESSO;
+        });
+        relancar(falhaDe(desfecho, "criar conta", numero, null, saldoInicial));
+        return criada[0] != null ? criada[0] : buscarConta(numero);
+    }
+
+    /**
+     * Igual a {@link #depositar(String, double)}, identificado por uma chave
+     * de idempotência escolhida pelo cliente. Repetido com a mesma chave
+     * enquanto ela estiver no cache ({@link #getIdempotencia()}), devolve o
+     * resultado da primeira execução, inclusive uma exceção do mesmo tipo e
+     * com os mesmos dados, sem tocar na conta de novo. Exceções que não são
+     * recusas da operação (journal indisponível, por exemplo) não são
+     * guardadas, e a repetição executa de novo. Uma repetição que chega
+     * enquanto a primeira ainda roda espera por ela. As chaves ficam só em
+     * memória.
+     *
+     * @param chaveIdempotencia Chave da requisição, ou null para não deduplicar
+     * @param numeroConta Número da conta
+     * @param valor Valor a depositar (deve ser > 0)
+     * @throws ContaNaoEncontradaException se a conta não existir
+     * @throws ValorInvalidoException se o valor for <= 0
+     * @throws IllegalArgumentException se a chave já foi usada em outra operação
+     * @throws java.util.concurrent.RejectedExecutionException se o cache não
+     *         tiver espaço para a chave agora (veja {@link CacheIdempotencia})
+     * @throws IllegalStateException se nenhum cache foi configurado com
+     *         {@link #usarIdempotencia(CacheIdempotencia)}
+     */
+    public void depositar(String chaveIdempotencia, String numeroConta, double valor) {
+        if (chaveIdempotencia == null){
+            depositar(numeroConta, valor);
+            return;
+        }
+        long desfecho = idempotente(chaveIdempotencia, "depositar", numeroConta, null, valor, () -> {
+            depositar(numeroConta, valor);
+            return ResultadoOperacao.SUCESSO;
+        });
+        relancar(falhaDe(desfecho, "depositar", numeroConta, null, valor));
+    }
+
+    /**
+     * Igual a {@link #sacar(String, double)}, identificado por uma chave de
+     * idempotência (veja {@link #depositar(String, String, double)}).
+     */
+    public void sacar(String chaveIdempotencia, String numeroConta, double valor)
+            throws ContaInativaException, SaldoInsuficienteException {
+        if (chaveIdempotencia == null){
+            sacar(numeroConta, valor);
+            return;
+        }
+        long desfecho = idempotente(chaveIdempotencia, "sacar", numeroConta, null, valor, () -> {
+            sacar(numeroConta, valor);
+            return ResultadoOperacao.SUCESSO;
+        });
+        Exception falha = falhaDe(desfecho, "sacar", numeroConta, null, valor);
+        if (falha instanceof ContaInativaException){
+            throw (ContaInativaException) falha;
+        }
+        if (falha instanceof SaldoInsuficienteException){
+            throw (SaldoInsuficienteException) falha;
+        }
+        relancar(falha);
+    }
+
+    /**
+     * Igual a {@link #transferir(String, String, double)}, identificado por
+     * uma chave de idempotência (veja {@link #depositar(String, String, double)}).
+     */
+    public void transferir(String chaveIdempotencia, String numeroOrigem, String numeroDestino, double valor)
+            throws TransferenciaException {
+        if (chaveIdempotencia == null){
+            transferir(numeroOrigem, numeroDestino, valor);
+            return;
+        }
+        long desfecho;
+        try{
+            desfecho = idempotente(chaveIdempotencia, "transferir", numeroOrigem, numeroDestino, valor, () -> {
+                transferir(numeroOrigem, numeroDestino, valor);
+                return ResultadoOperacao.SUCESSO;
+            });
+        } catch (TransferenciaNaoGuardada e) {
+            throw e.transferencia;
+        }
+        Exception falha = falhaDe(desfecho, "transferir", numeroOrigem, numeroDestino, valor);
+        if (falha != null){
+            throw new TransferenciaException(numeroOrigem, numeroDestino, Moeda.paraCentavos(valor), falha);
+        }
+    }
+
+    /**
+     * Igual a {@link #tentarDepositar(String, double)}, identificado por uma
+     * chave de idempotência (veja {@link #depositar(String, String, double)}).
+     */
+    public ResultadoOperacao tentarDepositar(String chaveIdempotencia, String numeroConta, double valor) {
+        if (chaveIdempotencia == null){
+            return tentarDepositar(numeroConta, valor);
+        }
+        long desfecho = idempotente(chaveIdempotencia, "tentarDepositar", numeroConta, null, valor,
+                () -> tentarDepositar(numeroConta, valor));
+        relancar(falhaDe(desfecho, "depositar", numeroConta, null, valor));
+        return CacheIdempotencia.resultado(desfecho);
+    }
+
+    /**
+     * Igual a {@link #tentarSacar(String, double)}, identificado por uma
+     * chave de idempotência (veja {@link #depositar(String, String, double)}).
+     */
+    public ResultadoOperacao tentarSacar(String chaveIdempotencia, String numeroConta, double valor) {
+        if (chaveIdempotencia == null){
+            return tentarSacar(numeroConta, valor);
+        }
+        long desfecho = idempotente(chaveIdempotencia, "tentarSacar", numeroConta, null, valor,
+                () -> tentarSacar(numeroConta, valor));
+        relancar(falhaDe(desfecho, "sacar", numeroConta, null, valor));
+        return CacheIdempotencia.resultado(desfecho);
+    }
+
+    /**
+     * Igual a {@link #tentarTransferir(String, String, double)}, identificado
+     * por uma chave de idempotência (veja {@link #depositar(String, String, double)}).
+     */
+    public ResultadoOperacao tentarTransferir(String chaveIdempotencia, String numeroOrigem, String numeroDestino,
+                                              double valor) {
+        if (chaveIdempotencia == null){
+            return tentarTransferir(numeroOrigem, numeroDestino, valor);
+        }
+        long desfecho = idempotente(chaveIdempotencia, "tentarTransferir", numeroOrigem, numeroDestino, valor,
+                () -> tentarTransferir(numeroOrigem, numeroDestino, valor));
+        relancar(falhaDe(desfecho, "transferir", numeroOrigem, numeroDestino, valor));
+        return CacheIdempotencia.resultado(desfecho);
+    }
+
+    /**
+     * Define o cache de chaves de idempotência, dimensionado para a carga
+     * (veja {@link CacheIdempotencia#paraTaxa}). Operações com chave exigem
+     * um cache; trocá-lo esquece as chaves guardadas no anterior.
+     */
+    public void usarIdempotencia(CacheIdempotencia cache) {
+        idempotencia.set(cache);
+    }
+
+    /**
+     * @return o cache de chaves de idempotência, ou null se nenhum foi
+     *         configurado
+     */
+    public CacheIdempotencia getIdempotencia() {
+        return idempotencia.get();
+    }
+
+    /**
+     * Passa a aplicar limites de velocidade (controle de fraude) aos saques
+     * e transferências, pela conta de origem: acima deles {@code sacar} e
+     * {@code transferir} lançam {@link LimiteExcedidoException} (dentro da
+     * {@link TransferenciaException}), e os {@code tentar*} e os lotes
+     * devolvem {@link ResultadoOperacao#LIMITE_EXCEDIDO}. O limite é tomado
+     * depois das validações e devolvido se o débito for recusado, então só
+     * contam as operações que aconteceram. Sem limites, cada saque ou
+     * transferência paga só a leitura desta referência.
+     *
+     * @param limites Os limites, ou null para deixar de limitar
+     */
+    public void usarLimites(LimitesMovimentacao limites) {
+        this.limites.set(limites);
+    }
+
+    /**
+     * @return os limites de movimentação, ou null se não houver
+     */
+    public LimitesMovimentacao getLimites() {
+        return limites.get();
+    }
+
+    /**
+     * Liga a medição das operações públicas: quantas terminaram com sucesso
+     * ou com cada motivo de recusa, as exceções lançadas por tipo e
+     * histogramas de latência (de uma amostra das operações, veja
+     * {@link MetricasBanco}). A medição não trava nem aloca; chamar de novo
+     * devolve as mesmas métricas.
+     *
+     * @return As métricas deste serviço
+     */
+    public MetricasBanco ativarMetricas() {
+        metricas.compareAndSet(MetricasBanco.DESATIVADAS, new MetricasBanco());
+        return metricas.get();
+    }
+
+    /**
+     * Troca as métricas deste serviço (por exemplo, por uma com outra
+     * amostragem de latência); null as desliga.
+     */
+    public void usarMetricas(MetricasBanco metricas) {
+        this.metricas.set(metricas == null ? MetricasBanco.DESATIVADAS : metricas);
+    }
+
+    /**
+     * @return as métricas deste serviço, ou null se não foram ativadas
+     */
+    public MetricasBanco getMetricas() {
+        MetricasBanco atuais = metricas.get();
+        return atuais == MetricasBanco.DESATIVADAS ? null : atuais;
+    }
+
+    /**
+     * Inativa automaticamente as contas que ficarem sem movimento pelo prazo
+     * informado, numa thread em segundo plano (veja {@link VarreduraDormencia}).
+     * Fechar a varredura desliga a inativação automática.
+     *
+     * @param prazo Tempo sem depósito, saque ou transferência até a inativação
+     * @return a varredura, já iniciada
+     * @throws IllegalStateException se já houver uma varredura ativa
+     */
+    public VarreduraDormencia ativarDormencia(Duration prazo) {
+        return new VarreduraDormencia(this, prazo).iniciar();
+    }
+
+    void registrarDormencia(VarreduraDormencia varredura) {
+        if (!dormencia.compareAndSet(null, varredura)){
+            throw new IllegalStateException("Já há uma varredura de dormência ativa");
+        }
+    }
+
+    void removerDormencia(VarreduraDormencia varredura) {
+        dormencia.compareAndSet(varredura, null);
+    }
+
+    RepositorioContas repositorio() {
+        return contas;
+    }
+
+    private long idempotente(String chave, String operacao, String conta, String outra, double valor,
+                             Callable<ResultadoOperacao> execucao) {
+        CacheIdempotencia cache = idempotencia.get();
+        if (cache == null){
+            throw new IllegalStateException("Nenhum cache de idempotência configurado: chame usarIdempotencia,"
+                    + " por exemplo com CacheIdempotencia.paraTaxa(chavesPorSegundo, validade)");
+        }
+        return cache.executar(chave, CacheIdempotencia.assinatura(operacao, conta, outra, valor),
+                () -> desfechoDe(execucao, conta));
+    }
+
+    /**
+     * Executa a operação e codifica o desfecho para o cache: o resultado
+     * devolvido ou, se ela lançou uma recusa, o motivo com o dado que
+     * {@link #falhaDe} não consegue refazer a partir dos parâmetros (saldo
+     * observado, data de inativação). As demais exceções passam sem
+     * codificar, e o cache não guarda nada.
+     */
+    private static long desfechoDe(Callable<ResultadoOperacao> execucao, String conta) {
+        Exception falha;
+        try{
+            return CacheIdempotencia.desfecho(execucao.call(), false, false, 0);
+        } catch (Exception e) {
+            falha = e;
+        }
+        Throwable motivo = falha instanceof TransferenciaException ? falha.getCause() : falha;
+        if (motivo instanceof ContaNaoEncontradaException){
+            boolean naOutra = !((ContaNaoEncontradaException) motivo).getNumero().equals(conta);
+            return CacheIdempotencia.desfecho(ResultadoOperacao.CONTA_NAO_ENCONTRADA, true, naOutra, 0);
+        }
+        if (motivo instanceof ValorInvalidoException){
+            return CacheIdempotencia.desfecho(ResultadoOperacao.VALOR_INVALIDO, true, false, 0);
+        }
+        if (motivo instanceof ContaInativaException){
+            ContaInativaException inativa = (ContaInativaException) motivo;
+            long data = inativa.getData() == null ? SEM_DATA : inativa.getData().toEpochDay();
+            return CacheIdempotencia.desfecho(ResultadoOperacao.CONTA_INATIVA, true, !inativa.getConta().equals(conta), data);
+        }
+        if (motivo instanceof SaldoInsuficienteException){
+            long saldo = ((SaldoInsuficienteException) motivo).getSaldoCentavos();
+            return CacheIdempotencia.desfecho(ResultadoOperacao.SALDO_INSUFICIENTE, true, false, saldo);
+        }
+        if (motivo instanceof LimiteExcedidoException){
+            return CacheIdempotencia.desfecho(ResultadoOperacao.LIMITE_EXCEDIDO, true, false, 0);
+        }
+        if (falha instanceof TransferenciaException){
+            throw new TransferenciaNaoGuardada((TransferenciaException) falha);
+        }
+        if (falha instanceof RuntimeException){
+            throw (RuntimeException) falha;
+        }
+        throw new IllegalStateException("Exceção inesperada", falha);
+    }
+
+    /**
+     * Refaz a exceção de um desfecho lançado, com os dados da execução
+     * original.
+     *
+     * @param rotulo Operação, como aparece em {@link ValorInvalidoException}
+     * @param conta Conta principal da operação
+     * @param outra Conta de destino, ou null
+     * @return a exceção, ou null se a operação não lançou
+     */
+    static Exception falhaDe(long desfecho, String rotulo, String conta, String outra, double valor) {
+        if (!CacheIdempotencia.lancado(desfecho)){
+            return null;
+        }
+        String numero = CacheIdempotencia.naOutraConta(desfecho) ? outra : conta;
+        long carga = CacheIdempotencia.carga(desfecho);
+        switch (CacheIdempotencia.resultado(desfecho)){
+            case CONTA_NAO_ENCONTRADA:
+                return new ContaNaoEncontradaException(numero);
+            case VALOR_INVALIDO:
+                return new ValorInvalidoException(rotulo, Moeda.paraCentavos(valor));
+            case CONTA_INATIVA:
+                return new ContaInativaException(numero, carga == SEM_DATA ? null : LocalDate.ofEpochDay(carga));
+            case SALDO_INSUFICIENTE:
+                return new SaldoInsuficienteException(numero, carga, Moeda.paraCentavos(valor));
+            case LIMITE_EXCEDIDO:
+                return new LimiteExcedidoException(numero, Moeda.paraCentavos(valor));
+            default:
+                throw new IllegalStateException("Desfecho inválido no cache de idempotência: " + desfecho);
+        }
+    }
+
+    /**
+     * Relança a exceção refeita de um desfecho. Exceções verificadas são
+     * tratadas por quem chama.
+     */
+    private static void relancar(Exception falha) {
+        if (falha instanceof RuntimeException){
+            throw (RuntimeException) falha;
+        }
+        if (falha != null){
+            throw new IllegalStateException("Exceção inesperada", falha);
+        }
+    }
+
+    /**
+     * Executa um lote de depósitos, saques e transferências (folha de
+     * pagamento, liquidação) sem lançar exceções.
+     * <p>
+     * Uma primeira passada valida valores e localiza as contas de todos os
+     * itens. Em TUDO_OU_NADA os itens são agrupados por conta: cada conta com
+     * débito tem reservado, num único CAS, o maior déficit acumulado pelos
+     * itens na ordem, e depois recebe um crédito com a reserva mais o efeito
+     * líquido. Com journal, o lote inteiro espera uma única confirmação em
+     * vez de uma por item.
+     *
+     * @param operacoes Itens do lote
+     * @param modo TUDO_OU_NADA ou MELHOR_ESFORCO
+     * @return Um resultado por item, na mesma ordem da lista
+     */
+    public ResultadoOperacao[] executarLote(List<Operacao> operacoes, ModoLote modo) {
+        return executarLote(operacoes, modo, null);
+    }
+
+    /**
+     * Igual a {@link #executarLote(List, ModoLote)}; em MELHOR_ESFORCO guarda
+     * também o desfecho de cada item recusado (veja {@link #desfechoDaRecusa}),
+     * com o saldo ou a data vistos na recusa, para que {@link #falhaDe} refaça
+     * a exceção da versão síncrona sem consultar a conta de novo.
+     *
+     * @param desfechos Um por item, preenchido só nos recusados; ou null
+     */
+    ResultadoOperacao[] executarLote(List<Operacao> operacoes, ModoLote modo, long[] desfechos) {
+        MetricasBanco medidor = metricas.get();
+        long inicio = medidor.iniciar();
+        ResultadoOperacao[] resultados;
+        try{
+            resultados = realizarLote(operacoes, modo, desfechos);
+        } catch (RuntimeException e) {
+            medidor.registrarFalha(TipoOperacao.LOTE, inicio, e);
+            throw e;
+        }
+        medidor.registrar(TipoOperacao.LOTE, inicio, resumoLote(resultados));
+        return resultados;
+    }
+
+    /**
+     * Implementação de {@link #executarLote(List, ModoLote, long[])}.
+     */
+    protected ResultadoOperacao[] realizarLote(List<Operacao> operacoes, ModoLote modo, long[] desfechos) {
+        int tamanho = operacoes.size();
+        ResultadoOperacao[] resultados = new ResultadoOperacao[tamanho];
+        long[] centavos = new long[tamanho];
+        Conta[] contasPrincipais = new Conta[tamanho];
+        Conta[] contasDestino = new Conta[tamanho];
+        boolean todosValidos = true;
+        for (int i = 0; i < tamanho; i++){
+            Operacao operacao = operacoes.get(i);
+            centavos[i] = Moeda.paraCentavos(operacao.getValor());
+            contasPrincipais[i] = contas.buscar(operacao.getNumeroConta());
+            if (operacao.getTipo() == Operacao.Tipo.TRANSFERENCIA){
+                contasDestino[i] = contas.buscar(operacao.getNumeroDestino());
+            }
+            if (centavos[i] <= 0){
+                resultados[i] = ResultadoOperacao.VALOR_INVALIDO;
+            } else if (contasPrincipais[i] == null
+                    || (operacao.getTipo() == Operacao.Tipo.TRANSFERENCIA && contasDestino[i] == null)){
+                resultados[i] = ResultadoOperacao.CONTA_NAO_ENCONTRADA;
+            }
+            todosValidos &= resultados[i] == null;
+        }
+        if (modo == ModoLote.TUDO_OU_NADA && !todosValidos){
+            cancelarRestantes(resultados);
+            return resultados;
+        }
+        LimitesMovimentacao limite = limites.get();
+        if (modo == ModoLote.TUDO_OU_NADA && limite != null && !tomarLimitesDoLote(limite, operacoes, centavos, resultados)){
+            cancelarRestantes(resultados);
+            return resultados;
+        }
+
+        long sequencia = 0;
+        int[] ordem = null;
+        int escrita = entrarEscrita();
+        try{
+            try{
+                ordem = entrarOrdem(numerosDoLote(operacoes));
+            } catch (RuntimeException e) {
+                if (modo == ModoLote.TUDO_OU_NADA && limite != null){
+                    devolverLimitesDoLote(limite, operacoes, centavos, operacoes.size());
+                }
+                throw e;
+            }
+            if (modo == ModoLote.TUDO_OU_NADA){
+                aplicarTudoOuNada(operacoes, centavos, contasPrincipais, contasDestino, resultados);
+                if (limite != null && resultados.length > 0 && !resultados[0].isSucesso()){
+                    devolverLimitesDoLote(limite, operacoes, centavos, operacoes.size());
+                }
+            } else {
+                aplicarMelhorEsforco(operacoes, centavos, contasPrincipais, contasDestino, resultados, desfechos);
+            }
+            if (journal != null){
+                sequencia = anexarLote(operacoes, centavos, resultados);
+            }
+        } finally {
+            sairOrdem(ordem);
+            sairEscrita(escrita);
+        }
+        confirmar(sequencia);
+        return resultados;
+    }
+
+    /**
+     * Aplica os itens na ordem, cada um com seu próprio CAS. Sem travas por
+     * conta não há o que amortizar agrupando créditos; o ganho do lote vem da
+     * validação em uma passada, da barreira adquirida uma vez e de uma única
+     * confirmação no journal.
+     */
+    private void aplicarMelhorEsforco(List<Operacao> operacoes, long[] centavos, Conta[] contasPrincipais,
+                                      Conta[] contasDestino, ResultadoOperacao[] resultados, long[] desfechos) {
+        LimitesMovimentacao limite = limites.get();
+        for (int i = 0; i < resultados.length; i++){
+            if (resultados[i] != null){
+                if (desfechos != null){
+                    boolean naOutra = resultados[i] == ResultadoOperacao.CONTA_NAO_ENCONTRADA && contasPrincipais[i] != null;
+                    desfechos[i] = desfechoDaRecusa(resultados[i], naOutra, null, 0);
+                }
+                continue;
+            }
+            Conta conta = contasPrincipais[i];
+            Operacao.Tipo tipo = operacoes.get(i).getTipo();
+            if (tipo != Operacao.Tipo.DEPOSITO && limite != null && !limite.tomar(conta.getNumero(), centavos[i])){
+                resultados[i] = ResultadoOperacao.LIMITE_EXCEDIDO;
+                if (desfechos != null){
+                    desfechos[i] = desfechoDaRecusa(resultados[i], false, null, 0);
+                }
+                continue;
+            }
+            preservar(conta);
+            switch (tipo){
+                case DEPOSITO:
+                    conta.creditar(centavos[i]);
+                    conta.getExtrato().registrar(TipoMovimento.DEPOSITO, centavos[i], null);
+                    resultados[i] = ResultadoOperacao.SUCESSO;
+                    break;
+                case SAQUE:
+                    resultados[i] = debitarNoLote(conta, centavos[i], desfechos, i);
+                    if (resultados[i].isSucesso()){
+                        conta.getExtrato().registrar(TipoMovimento.SAQUE, centavos[i], null);
+                    } else {
+                        devolverLimite(limite, conta.getNumero(), centavos[i]);
+                    }
+                    break;
+                case TRANSFERENCIA:
+                    preservar(contasDestino[i]);
+                    resultados[i] = debitarNoLote(conta, centavos[i], desfechos, i);
+                    if (resultados[i].isSucesso()){
+                        contasDestino[i].creditar(centavos[i]);
+                        lancarTransferencia(conta, contasDestino[i], centavos[i]);
+                    } else {
+                        devolverLimite(limite, conta.getNumero(), centavos[i]);
+                    }
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Debita um item de lote em MELHOR_ESFORCO e, se houver onde, guarda o
+     * desfecho da recusa com o saldo ou a data vistos pelo próprio débito.
+     */
+    private static ResultadoOperacao debitarNoLote(Conta conta, long centavos, long[] desfechos, int item) {
+        long observado = conta.debitarSePossivel(centavos);
+        if (observado >= centavos){
+            return ResultadoOperacao.SUCESSO;
+        }
+        ResultadoOperacao resultado = observado < 0 ? ResultadoOperacao.CONTA_INATIVA : ResultadoOperacao.SALDO_INSUFICIENTE;
+        if (desfechos != null){
+            desfechos[item] = desfechoDaRecusa(resultado, false, conta, observado);
+        }
+        return resultado;
+    }
+
+    /**
+     * Codifica a recusa de um item de lote como o desfecho lançado de
+     * {@link #desfechoDe}: com a data de inativação da conta em CONTA_INATIVA
+     * (gravada antes do indicador e nunca trocada) e com o saldo observado em
+     * SALDO_INSUFICIENTE.
+     *
+     * @param conta Conta que recusou, usada só em CONTA_INATIVA
+     * @param saldo Saldo observado na recusa, usado só em SALDO_INSUFICIENTE
+     */
+    static long desfechoDaRecusa(ResultadoOperacao resultado, boolean naOutraConta, Conta conta, long saldo) {
+        long carga = 0;
+        if (resultado == ResultadoOperacao.CONTA_INATIVA){
+            LocalDate data = conta.getDataInativacao();
+            carga = data == null ? SEM_DATA : data.toEpochDay();
+        } else if (resultado == ResultadoOperacao.SALDO_INSUFICIENTE){
+            carga = saldo;
+        }
+        return CacheIdempotencia.desfecho(resultado, true, naOutraConta, carga);
+    }
+
+    /**
+     * Soma, na ordem dos itens, o efeito do lote em cada conta, o maior
+     * déficit e o maior excedente acumulados por ela. Um excedente que levaria
+     * o saldo além do máximo recusa o lote antes de qualquer reserva. Depois
+     * reserva o déficit em cada conta com débito (desfazendo as reservas já
+     * feitas se alguma falhar), assim o saldo cobre cada item aplicado na
+     * ordem, não só o efeito líquido; só então credita em cada conta a
+     * reserva mais o efeito líquido.
+     */
+    private void aplicarTudoOuNada(List<Operacao> operacoes, long[] centavos, Conta[] contasPrincipais,
+                                   Conta[] contasDestino, ResultadoOperacao[] resultados) {
+        Map<Conta, long[]> efeitos = new HashMap<>(resultados.length * 2);
+        for (int i = 0; i < resultados.length; i++){
+            switch (operacoes.get(i).getTipo()){
+                case DEPOSITO:
+                    creditoNoLote(efeitoDe(efeitos, contasPrincipais[i]), centavos[i]);
+                    break;
+                case SAQUE:
+                    debitoNoLote(efeitoDe(efeitos, contasPrincipais[i]), centavos[i]);
+                    break;
+                case TRANSFERENCIA:
+                    debitoNoLote(efeitoDe(efeitos, contasPrincipais[i]), centavos[i]);
+                    creditoNoLote(efeitoDe(efeitos, contasDestino[i]), centavos[i]);
+                    break;
+            }
+        }
+
+        for (Map.Entry<Conta, long[]> entrada : efeitos.entrySet()){
+            if (excedeNoLote(entrada.getKey(), entrada.getValue())){
+                recusarCreditos(entrada.getKey(), operacoes, contasPrincipais, contasDestino, resultados);
+                cancelarRestantes(resultados);
+                return;
+            }
+        }
+
+        Map<Conta, long[]> reservadas = new HashMap<>();
+        for (Map.Entry<Conta, long[]> entrada : efeitos.entrySet()){
+            Conta conta = entrada.getKey();
+            long[] efeito = entrada.getValue();
+            if (efeito[2] == 0){
+                continue;
+            }
+            preservar(conta);
+            ResultadoOperacao resultado;
+            if (efeito[1] > 0){
+                resultado = conta.tentarDebitar(efeito[1]);
+            } else {
+                resultado = conta.isAtiva() ? ResultadoOperacao.SUCESSO : ResultadoOperacao.CONTA_INATIVA;
+            }
+            if (!resultado.isSucesso()){
+                for (Map.Entry<Conta, long[]> desfazer : reservadas.entrySet()){
+                    desfazer.getKey().creditar(desfazer.getValue()[1]);
+                }
+                for (int i = 0; i < resultados.length; i++){
+                    if (contasPrincipais[i].equals(conta) && operacoes.get(i).getTipo() != Operacao.Tipo.DEPOSITO){
+                        resultados[i] = resultado;
+                    }
+                }
+                cancelarRestantes(resultados);
+                return;
+            }
+            if (efeito[1] > 0){
+                reservadas.put(conta, efeito);
+            }
+        }
+        for (Map.Entry<Conta, long[]> entrada : efeitos.entrySet()){
+            long credito = entrada.getValue()[1] + entrada.getValue()[0];
+            if (credito > 0){
+                preservar(entrada.getKey());
+                entrada.getKey().creditar(credito);
+            }
+        }
+        Arrays.fill(resultados, ResultadoOperacao.SUCESSO);
+        // O extrato mostra cada item do lote, não o efeito líquido aplicado.
+        for (int i = 0; i < resultados.length; i++){
+            switch (operacoes.get(i).getTipo()){
+                case DEPOSITO:
+                    contasPrincipais[i].getExtrato().registrar(TipoMovimento.DEPOSITO, centavos[i], null);
+                    break;
+                case SAQUE:
+                    contasPrincipais[i].getExtrato().registrar(TipoMovimento.SAQUE, centavos[i], null);
+                    break;
+                case TRANSFERENCIA:
+                    lancarTransferencia(contasPrincipais[i], contasDestino[i], centavos[i]);
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Lança a transferência no extrato das duas contas.
+     */
+    private static void lancarTransferencia(Conta origem, Conta destino, long centavos) {
+        origem.getExtrato().registrar(TipoMovimento.TRANSFERENCIA_ENVIADA, centavos, destino.getNumero());
+        destino.getExtrato().registrar(TipoMovimento.TRANSFERENCIA_RECEBIDA, centavos, origem.getNumero());
+    }
+
+    /**
+     * Toma os limites de todos os saques e transferências de um lote
+     * tudo-ou-nada antes de aplicá-lo. Se um item exceder, devolve os
+     * anteriores e marca o item.
+     *
+     * @return false se algum item excedeu os limites
+     */
+    private static boolean tomarLimitesDoLote(LimitesMovimentacao limite, List<Operacao> operacoes, long[] centavos,
+                                              ResultadoOperacao[] resultados) {
+        for (int i = 0; i < resultados.length; i++){
+            Operacao operacao = operacoes.get(i);
+            if (operacao.getTipo() != Operacao.Tipo.DEPOSITO && !limite.tomar(operacao.getNumeroConta(), centavos[i])){
+                devolverLimitesDoLote(limite, operacoes, centavos, i);
+                resultados[i] = ResultadoOperacao.LIMITE_EXCEDIDO;
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void devolverLimitesDoLote(LimitesMovimentacao limite, List<Operacao> operacoes, long[] centavos,
+                                              int ate) {
+        for (int i = 0; i < ate; i++){
+            Operacao operacao = operacoes.get(i);
+            if (operacao.getTipo() != Operacao.Tipo.DEPOSITO){
+                limite.devolver(operacao.getNumeroConta(), centavos[i]);
+            }
+        }
+    }
+
+    /**
+     * O efeito de um lote tudo-ou-nada numa conta, somado na ordem dos itens:
+     * {créditos menos débitos, maior déficit acumulado, 1 se há débito, maior
+     * excedente acumulado}. Os itens podem ser aplicados um a um, na ordem,
+     * se e só se o saldo cobre o maior déficit acumulado, o saldo mais o
+     * maior excedente não passa de {@link Conta#SALDO_MAXIMO_CENTAVOS} e,
+     * havendo débito, a conta está ativa.
+     */
+    static long[] efeitoDe(Map<Conta, long[]> efeitos, Conta conta) {
+        return efeitos.computeIfAbsent(conta, c -> new long[4]);
+    }
+
+    static void creditoNoLote(long[] efeito, long centavos) {
+        efeito[0] += centavos;
+        efeito[3] = Math.max(efeito[3], efeito[0]);
+    }
+
+    static void debitoNoLote(long[] efeito, long centavos) {
+        efeito[0] -= centavos;
+        efeito[1] = Math.max(efeito[1], -efeito[0]);
+        efeito[2] = 1;
+    }
+
+    /**
+     * @return true se os créditos do lote, aplicados na ordem, levariam o
+     *         saldo atual da conta além de {@link Conta#SALDO_MAXIMO_CENTAVOS}
+     */
+    static boolean excedeNoLote(Conta conta, long[] efeito) {
+        return efeito[3] > Conta.SALDO_MAXIMO_CENTAVOS - conta.getSaldoCentavos();
+    }
+
+    /**
+     * Marca como VALOR_INVALIDO os itens do lote que creditam a conta.
+     */
+    static void recusarCreditos(Conta conta, List<Operacao> operacoes, Conta[] contasPrincipais,
+                                Conta[] contasDestino, ResultadoOperacao[] resultados) {
+        for (int i = 0; i < resultados.length; i++){
+            Operacao.Tipo tipo = operacoes.get(i).getTipo();
+            if ((tipo == Operacao.Tipo.DEPOSITO && contasPrincipais[i].equals(conta))
+                    || (tipo == Operacao.Tipo.TRANSFERENCIA && contasDestino[i].equals(conta))){
+                resultados[i] = ResultadoOperacao.VALOR_INVALIDO;
+            }
+        }
+    }
+
+    /**
+     * Resultado de um lote para as métricas: o primeiro motivo de recusa, ou
+     * SUCESSO.
+     */
+    private static ResultadoOperacao resumoLote(ResultadoOperacao[] resultados) {
+        for (ResultadoOperacao resultado : resultados){
+            if (!resultado.isSucesso() && resultado != ResultadoOperacao.LOTE_CANCELADO){
+                return resultado;
+            }
+        }
+        return ResultadoOperacao.SUCESSO;
+    }
+
+    /**
+     * Marca como LOTE_CANCELADO os itens do lote ainda sem resultado.
+     */
+    static void cancelarRestantes(ResultadoOperacao[] resultados) {
+        for (int i = 0; i < resultados.length; i++){
+            if (resultados[i] == null){
+                resultados[i] = ResultadoOperacao.LOTE_CANCELADO;
+            }
+        }
+    }
+
+    /**
+     * @return a sequência do último registro anexado, ou 0 se nenhum item teve sucesso
+     */
+    private long anexarLote(List<Operacao> operacoes, long[] centavos, ResultadoOperacao[] resultados) {
+        long ultimaSequencia = 0;
+        for (int i = 0; i < resultados.length; i++){
+            if (!resultados[i].isSucesso()){
+                continue;
+            }
+            Operacao operacao = operacoes.get(i);
+            switch (operacao.getTipo()){
+                case DEPOSITO:
+                    ultimaSequencia = journal.anexarDeposito(operacao.getNumeroConta(), centavos[i]);
+                    break;
+                case SAQUE:
+                    ultimaSequencia = journal.anexarSaque(operacao.getNumeroConta(), centavos[i]);
+                    break;
+                case TRANSFERENCIA:
+                    ultimaSequencia = journal.anexarTransferencia(operacao.getNumeroConta(),
+                            operacao.getNumeroDestino(), centavos[i]);
+                    break;
+            }
+        }
+        return ultimaSequencia;
+    }
+
+    /**
+     * Tira um snapshot de todas as contas sem parar as operações.
+     * <p>
+     * As escritas só esperam o instante em que a época é trocada e a posição
+     * do journal é anotada. A partir daí cada conta guarda sua imagem antes da
+     * primeira alteração da nova época (copy-on-write) e o snapshot grava essa
+     * imagem, então o arquivo corresponde exatamente ao estado na posição
+     * anotada. Os snapshots mais antigos são apagados.
+     *
+     * @return O snapshot gravado
+     * @throws IOException se o snapshot não puder ser gravado
+     * @throws IllegalStateException se o serviço não tiver journal e diretório de snapshots
+     */
+    public Snapshot gerarSnapshot() throws IOException {
+        if (journal == null || diretorioSnapshots == null){
+            throw new IllegalStateException("Snapshots exigem journal e diretório de snapshots");
+        }
+        travaVarredura.lock();
+        try{
+            long epoca;
+            long sequencia;
+            long posicao;
+            barreira.fechar();
+            try{
+                epoca = ++epocaSnapshot;
+                varrendo = true;
+                sequencia = journal.getUltimaSequencia();
+                posicao = journal.getPosicaoFinal();
+            } finally {
+                barreira.abrir();
+            }
+
+            Files.createDirectories(diretorioSnapshots);
+            Snapshot snapshot;
+            try (Snapshot.Escritor escritor = Snapshot.criar(Snapshot.caminho(diretorioSnapshots, sequencia), sequencia, posicao)) {
+                for (Conta conta : contas){
+                    conta.preservarImagem(epoca);
+                    ImagemConta imagem = conta.getImagem();
+                    if (imagem.isExistia()){
+                        escritor.escrever(conta.getNumero(), conta.getTitular(),
+                                imagem.getSaldoCentavos(), imagem.getDataInativacao());
+                    }
+                    conta.descartarImagem(imagem);
+                }
+                journal.aguardarGravacao(sequencia);
+                snapshot = escritor.concluir();
+            }
+
+            List<Path> existentes = Snapshot.listar(diretorioSnapshots);
+            for (int i = 0; i < existentes.size() - SNAPSHOTS_MANTIDOS; i++){
+                Files.deleteIfExists(existentes.get(i));
+            }
+            return snapshot;
+        } finally {
+            varrendo = false;
+            travaVarredura.unlock();
+        }
+    }
+
+    /**
+     * Relatório de fechamento com todas as contas, percorridas em paralelo no
+     * pool comum do fork-join.
+     *
+     * @param maiores Quantas contas de maior saldo listar
+     * @return Os totais no instante em que o relatório começou
+     */
+    public RelatorioFechamento gerarRelatorio(int maiores) {
+        return gerarRelatorio(maiores, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Relatório de fechamento (saldo total, contas ativas e inativas, faixas
+     * de saldo e maiores saldos) com os valores de um único instante, sem
+     * parar as operações e sem copiar as contas.
+     * <p>
+     * Usa as mesmas épocas do snapshot: a barreira fecha só para trocar de
+     * época, e enquanto o relatório percorre as contas quem alterar uma conta
+     * preserva antes o estado dela. O percurso usa o {@code spliterator()} do
+     * repositório, dividido entre as threads do pool; para uma conta que não
+     * mudou, só lê o estado, sem alocar.
+     *
+     * @param maiores Quantas contas de maior saldo listar
+     * @param pool Pool onde o percurso roda (o paralelismo do pool é o do relatório)
+     * @return Os totais no instante em que o relatório começou
+     */
+    public RelatorioFechamento gerarRelatorio(int maiores, ForkJoinPool pool) {
+        if (maiores < 0){
+            throw new IllegalArgumentException("Quantidade de maiores saldos negativa: " + maiores);
+        }
+        travaVarredura.lock();
+        try{
+            long epoca;
+            Instant instante;
+            barreira.fechar();
+            try{
+                epoca = ++epocaSnapshot;
+                varrendo = true;
+                instante = Instant.now();
+            } finally {
+                barreira.abrir();
+            }
+            long inicio = System.nanoTime();
+            RelatorioFechamento.Acumulador total = pool.submit(() -> StreamSupport.stream(contas.spliterator(), true)
+                    .collect(() -> new RelatorioFechamento.Acumulador(maiores),
+                            (acumulador, conta) -> acumularNaEpoca(acumulador, conta, epoca),
+                            RelatorioFechamento.Acumulador::juntar)).join();
+            return total.concluir(instante, System.nanoTime() - inicio);
+        } finally {
+            varrendo = false;
+            travaVarredura.unlock();
+        }
+    }
+
+    /**
+     * Soma a conta com o estado que ela tinha no início da época. Se a imagem
+     * não mudou entre antes e depois da leitura do estado, nenhuma alteração
+     * da época aconteceu antes da leitura (toda alteração preserva a imagem
+     * primeiro) e o estado lido é o do início da época.
+     */
+    private static void acumularNaEpoca(RelatorioFechamento.Acumulador acumulador, Conta conta, long epoca) {
+        ImagemConta imagem = conta.getImagem();
+        if (imagem == null || imagem.getEpoca() < epoca){
+            long saldo = conta.getSaldoCentavos();
+            boolean ativa = conta.isAtiva();
+            ImagemConta depois = conta.getImagem();
+            if (depois == imagem){
+                acumulador.adicionar(conta.getNumero(), conta.getTitular(), saldo, ativa);
+                return;
+            }
+            imagem = depois;
+        }
+        if (imagem.isExistia()){
+            acumulador.adicionar(conta.getNumero(), conta.getTitular(), imagem.getSaldoCentavos(),
+                    imagem.getDataInativacao() == null);
+        }
+        conta.descartarImagem(imagem);
+    }
+
+    /**
+     * Importa contas de um arquivo, criando os lotes em paralelo no pool
+     * comum do fork-join.
+     *
+     * @see #importarContas(Path, FormatoContas, ForkJoinPool)
+     */
+    public ResultadoImportacao importarContas(Path arquivo, FormatoContas formato) throws IOException {
+        return importarContas(arquivo, formato, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Cria as contas de um arquivo CSV ou binário (veja {@link FormatoContas}).
+     * <p>
+     * O arquivo é lido em blocos e as contas são criadas em lotes de 4096
+     * pelo pool, enquanto a leitura continua. Cada conta passa pela mesma
+     * validação de {@link #criarConta(String, String, double)}; uma linha
+     * inválida (saldo negativo, campo mal formado) é contada e guardada em
+     * {@link ResultadoImportacao#getRejeicoes()} e a importação segue. Contas
+     * com data de inativação entram inativas. Cada lote anexa suas criações
+     * ao journal e espera o disco uma única vez.
+     * <p>
+     * Um número que já existe é substituído, como em {@code criarConta}; se
+     * o próprio arquivo repetir um número, fica uma das linhas, sem ordem
+     * garantida entre lotes diferentes.
+     *
+     * @param arquivo Arquivo a importar
+     * @param formato Formato do arquivo
+     * @param pool Pool onde os lotes são criados
+     * @return Contagens e linhas rejeitadas
+     * @throws IOException se o arquivo não puder ser lido ou não estiver no formato
+     */
+    public ResultadoImportacao importarContas(Path arquivo, FormatoContas formato, ForkJoinPool pool)
+            throws IOException {
+        MetricasBanco medidor = metricas.get();
+        long inicio = medidor.iniciar();
+        ResultadoImportacao resultado;
+        try{
+            resultado = new ImportacaoContas(this, pool).importar(arquivo, formato);
+        } catch (IOException | RuntimeException e) {
+            medidor.registrarFalha(TipoOperacao.IMPORTAR_CONTAS, inicio, e);
+            throw e;
+        }
+        medidor.registrar(TipoOperacao.IMPORTAR_CONTAS, inicio, ResultadoOperacao.SUCESSO);
+        return resultado;
+    }
+
+    /**
+     * Grava todas as contas num arquivo que {@link #importarContas} lê de
+     * volta. Como {@link #gerarRelatorio(int)}, o arquivo tem o estado de um
+     * único instante e as operações continuam durante a gravação. O arquivo
+     * só aparece no destino quando estiver completo.
+     *
+     * @param destino Arquivo a gravar (substituído se existir)
+     * @param formato Formato do arquivo
+     * @return Quantas contas foram gravadas
+     * @throws IOException se o arquivo não puder ser gravado
+     */
+    public long exportarContas(Path destino, FormatoContas formato) throws IOException {
+        MetricasBanco medidor = metricas.get();
+        long inicio = medidor.iniciar();
+        long exportadas;
+        try{
+            exportadas = realizarExportacao(destino, formato);
+        } catch (IOException | RuntimeException e) {
+            medidor.registrarFalha(TipoOperacao.EXPORTAR_CONTAS, inicio, e);
+            throw e;
+        }
+        medidor.registrar(TipoOperacao.EXPORTAR_CONTAS, inicio, ResultadoOperacao.SUCESSO);
+        return exportadas;
+    }
+
+    private long realizarExportacao(Path destino, FormatoContas formato) throws IOException {
+        travaVarredura.lock();
+        try{
+            long epoca;
+            barreira.fechar();
+            try{
+                epoca = ++epocaSnapshot;
+                varrendo = true;
+            } finally {
+                barreira.abrir();
+            }
+            try (ArquivoContas.Escritor escritor = ArquivoContas.criar(destino, formato)) {
+                for (Conta conta : contas){
+                    exportarNaEpoca(escritor, conta, epoca);
+                }
+                return escritor.concluir();
+            }
+        } finally {
+            varrendo = false;
+            travaVarredura.unlock();
+        }
+    }
+
+    /**
+     * Grava a conta com o estado do início da época, como
+     * {@link #acumularNaEpoca}.
+     */
+    private static void exportarNaEpoca(ArquivoContas.Escritor escritor, Conta conta, long epoca) {
+        ImagemConta imagem = conta.getImagem();
+        if (imagem == null || imagem.getEpoca() < epoca){
+            SituacaoConta situacao = conta.getSituacao();
+            ImagemConta depois = conta.getImagem();
+            if (depois == imagem){
+                escritor.escrever(conta.getNumero(), conta.getTitular(), situacao.getSaldoCentavos(),
+                        situacao.getDataInativacao());
+                return;
+            }
+            imagem = depois;
+        }
+        if (imagem.isExistia()){
+            escritor.escrever(conta.getNumero(), conta.getTitular(), imagem.getSaldoCentavos(),
+                    imagem.getDataInativacao());
+        }
+        conta.descartarImagem(imagem);
+    }
+
+    /**
+     * Cria as contas de um lote da importação, dentro de uma única entrada
+     * na barreira. As rejeitadas vão para o acumulador.
+     *
+     * @return Quantas contas foram criadas
+     */
+    int criarContasImportadas(ImportacaoContas.Lote lote, ResultadoImportacao.Acumulador acumulador) {
+        VarreduraDormencia varredura = dormencia.get();
+        Conta[] criadas = varredura != null ? new Conta[lote.tamanho] : null;
+        int quantidade = 0;
+        long ultimaSequencia = 0;
+        int[] ordem = null;
+        int escrita = entrarEscrita();
+        try{
+            ordem = entrarOrdem(Arrays.copyOf(lote.numeros, lote.tamanho));
+            for (int i = 0; i < lote.tamanho; i++){
+                String numero = lote.numeros[i];
+                long centavos = lote.centavos[i];
+                LocalDate data = lote.datas[i];
+                Conta conta;
+                try{
+                    if (centavos < 0){
+                        throw new ValorInvalidoException("criar conta", centavos);
+                    }
+                    conta = Conta.restaurar(numero, lote.titulares[i], centavos, data);
+                    if (journal != null){
+                        Journal.verificarTexto(numero);
+                        Journal.verificarTexto(lote.titulares[i]);
+                    }
+                    if (varrendo){
+                        conta.marcarCriadaNaEpoca(epocaSnapshot);
+                    }
+                    conta = contas.guardar(conta);
+                } catch (RuntimeException e) {
+                    acumulador.rejeitar(lote.linhas[i], e);
+                    continue;
+                }
+                if (journal != null){
+                    ultimaSequencia = journal.anexarCriacao(numero, lote.titulares[i], centavos);
+                    if (data != null){
+                        ultimaSequencia = journal.anexarInativacao(numero, data);
+                    }
+                }
+                if (criadas != null && data == null){
+                    criadas[quantidade] = conta;
+                }
+                quantidade++;
+            }
+        } finally {
+            sairOrdem(ordem);
+            sairEscrita(escrita);
+        }
+        confirmar(ultimaSequencia);
+        if (criadas != null){
+            for (int i = 0; i < quantidade; i++){
+                if (criadas[i] != null){
+                    varredura.acompanhar(criadas[i]);
+                }
+            }
+        }
+        return quantidade;
+    }
+
+    private int entrarEscrita() {
+        return barreira.entrar();
+    }
+
+    private void sairEscrita(int escrita) {
+        if (escrita >= 0){
+            barreira.sair(escrita);
+        }
+    }
+
+    /**
+     * Com journal, toma as travas de ordem das duas contas (podem ser a
+     * mesma) e confere que o journal ainda aceita registros, antes de
+     * qualquer alteração. Uma falha de gravação para o serviço: daí em
+     * diante toda alteração é recusada aqui, sem ser aplicada. As que já
+     * estavam aplicadas e não chegaram ao disco receberam a exceção da
+     * falha, não uma confirmação, e somem no reinício, que volta ao que o
+     * journal guardou.
+     *
+     * @return As travas tomadas, para {@link #sairOrdem(int)}; -1 sem journal
+     */
+    private int entrarOrdem(String numero, String outro) {
+        if (journal == null){
+            return -1;
+        }
+        int a = indiceTravaOrdem(numero);
+        int b = indiceTravaOrdem(outro);
+        int primeira = Math.min(a, b);
+        int segunda = Math.max(a, b);
+        travasOrdem[primeira].lock();
+        if (segunda != primeira){
+            travasOrdem[segunda].lock();
+        }
+        int ordem = primeira << 16 | segunda;
+        try{
+            journal.verificarDisponivel();
+        } catch (RuntimeException e) {
+            sairOrdem(ordem);
+            throw e;
+        }
+        return ordem;
+    }
+
+    /**
+     * Como {@link #entrarOrdem(String, String)}, devolvendo o limite já
+     * tomado da primeira conta se o journal recusar.
+     */
+    private int entrarOrdem(String numero, String outro, LimitesMovimentacao limite, long centavos) {
+        try{
+            return entrarOrdem(numero, outro);
+        } catch (RuntimeException e) {
+            devolverLimite(limite, numero, centavos);
+            throw e;
+        }
+    }
+
+    /**
+     * Como {@link #entrarOrdem(String, String)} para todas as contas de um
+     * lote ou de uma importação (números null são ignorados).
+     *
+     * @return Os índices tomados, em ordem, para {@link #sairOrdem(int[])};
+     *         null sem journal
+     */
+    private int[] entrarOrdem(String[] numeros) {
+        if (journal == null){
+            return null;
+        }
+        boolean[] marcadas = new boolean[travasOrdem.length];
+        int quantidade = 0;
+        for (String numero : numeros){
+            if (numero != null){
+                int indice = indiceTravaOrdem(numero);
+                if (!marcadas[indice]){
+                    marcadas[indice] = true;
+                    quantidade++;
+                }
+            }
+        }
+        int[] ordem = new int[quantidade];
+        for (int i = 0, j = 0; j < quantidade; i++){
+            if (marcadas[i]){
+                travasOrdem[i].lock();
+                ordem[j++] = i;
+            }
+        }
+        try{
+            journal.verificarDisponivel();
+        } catch (RuntimeException e) {
+            sairOrdem(ordem);
+            throw e;
+        }
+        return ordem;
+    }
+
+    private void sairOrdem(int ordem) {
+        if (ordem >= 0){
+            int primeira = ordem >>> 16;
+            int segunda = ordem & 0xFFFF;
+            if (segunda != primeira){
+                travasOrdem[segunda].unlock();
+            }
+            travasOrdem[primeira].unlock();
+        }
+    }
+
+    private void sairOrdem(int[] ordem) {
+        if (ordem != null){
+            for (int i = ordem.length - 1; i >= 0; i--){
+                travasOrdem[ordem[i]].unlock();
+            }
+        }
+    }
+
+    private int indiceTravaOrdem(String numero) {
+        int h = numero.hashCode();
+        return (h ^ (h >>> 16)) & (NUMERO_TRAVAS_ORDEM - 1);
+    }
+
+    private static String[] numerosDoLote(List<Operacao> operacoes) {
+        String[] numeros = new String[operacoes.size() * 2];
+        for (int i = 0; i < operacoes.size(); i++){
+            numeros[2 * i] = operacoes.get(i).getNumeroConta();
+            numeros[2 * i + 1] = operacoes.get(i).getNumeroDestino();
+        }
+        return numeros;
+    }
+
+    /**
+     * Espera o disco pelo registro anexado, conforme a política do journal,
+     * já fora da barreira e das {@link #travasOrdem}.
+     */
+    private void confirmar(long sequencia) {
+        if (sequencia > 0){
+            journal.confirmar(sequencia);
+        }
+    }
+
+    private void preservar(Conta conta) {
+        if (varrendo){
+            conta.preservarImagem(epocaSnapshot);
+        }
+    }
+
+    /**
+     * Toma os limites de movimentação da conta de origem, se houver.
+     *
+     * @return Os limites, para devolver se a operação não acontecer, ou null
+     * @throws LimiteExcedidoException se a operação exceder algum limite
+     */
+    private LimitesMovimentacao tomarLimite(String numeroConta, long centavos) {
+        LimitesMovimentacao atual = limites.get();
+        if (atual != null && !atual.tomar(numeroConta, centavos)){
+            throw new LimiteExcedidoException(numeroConta, centavos);
+        }
+        return atual;
+    }
+
+    private static void devolverLimite(LimitesMovimentacao limite, String numeroConta, long centavos) {
+        if (limite != null){
+            limite.devolver(numeroConta, centavos);
+        }
+    }
+
+    /**
+     * @throws ValorInvalidoException se o valor não passar de zero em centavos
+     */
+    static long centavosPositivos(String operacao, double valor) {
+        long centavos = Moeda.paraCentavos(valor);
+        if (centavos <= 0){
+            throw new ValorInvalidoException(operacao, centavos);
+        }
+        return centavos;
+    }
+
+    /**
+     * Leva pelo cache de idempotência, que só deixa passar exceções não
+     * verificadas, uma transferência que falhou por um motivo que não se
+     * guarda; o cache descarta a chave e {@code transferir} relança a original.
+     */
+    private static final class TransferenciaNaoGuardada extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        private final TransferenciaException transferencia;
+
+        private TransferenciaNaoGuardada(TransferenciaException transferencia) {
+            super(null, transferencia, false, false);
+            this.transferencia = transferencia;
+        }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,485 @@
+package service;
+
+import exception.ContaInativaException;
+import exception.SaldoInsuficienteException;
+import exception.TransferenciaException;
+import model.Conta;
+import model.Moeda;
+import model.ResultadoOperacao;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Versão assíncrona de um {@link BancoService}: cada método enfileira a
+ * operação e devolve um {@link CompletableFuture}, que falha com as mesmas
+ * exceções da versão síncrona ({@link SaldoInsuficienteException},
+ * {@link TransferenciaException}, ...). Quem chama pode encadear operações
+ * dependentes ({@code thenCompose}) ou enviar várias antes de esperar.
+ * <p>
+ * Cada conta pertence a uma fila, escolhida pelo hash do número. Uma fila
+ * executa as operações na ordem de envio e filas diferentes rodam em paralelo
+ * no pool de threads, então operações sobre a mesma conta nunca trocam de
+ * ordem. Uma transferência entre contas de filas diferentes entra nas duas
+ * (com as filas travadas sempre na mesma ordem, para que entre em todas na
+ * mesma posição relativa) e só executa quando chega à frente das duas.
+ * <p>
+ * Depósitos, saques e transferências seguidos na mesma fila viram um único
+ * {@link BancoService#executarLote} em MELHOR_ESFORCO: aplicados na ordem,
+ * com a barreira adquirida uma vez e, com journal, uma única espera pela
+ * gravação para o grupo todo. Nas métricas do serviço esses grupos aparecem
+ * como lotes.
+ */
+public class BancoServiceAsync implements AutoCloseable {
+
+    /**
+     * Poucas filas para o padrão: uma transferência entre filas diferentes
+     * interrompe o lote das duas, então mais filas só compensam com mais núcleos.
+     */
+    private static final int FILAS_MINIMAS = 16;
+    private static final int MAXIMO_POR_LOTE = 256;
+    /** Pedidos executados antes de a fila devolver a thread ao pool. */
+    private static final int PEDIDOS_POR_VEZ = 1024;
+
+    private enum Tipo {
+        OPERACAO,
+        TAREFA,
+        JUNCAO
+    }
+
+    /**
+     * Uma operação enviada. OPERACAO vai para o lote da fila; TAREFA roda
+     * sozinha; JUNCAO é uma transferência presente em duas filas, que entra no
+     * lote da última das duas a chegar até ela.
+     */
+    private static final class Pedido {
+        final Tipo tipo;
+        final CompletableFuture<Object> futuro = new CompletableFuture<>();
+        Operacao operacao;
+        boolean tentar;
+        Callable<?> tarefa;
+        /** Filas da junção que ainda não chegaram até ela. */
+        AtomicInteger faltam;
+        Fila primeira;
+        Fila segunda;
+
+        Pedido(Tipo tipo) {
+            this.tipo = tipo;
+        }
+    }
+
+    private final BancoService banco;
+    private final Fila[] filas;
+    private final ExecutorService executor;
+    private final LongAdder emAndamento = new LongAdder();
+    private volatile boolean fechado;
+
+    /**
+     * @param banco Serviço que executa as operações
+     */
+    public BancoServiceAsync(BancoService banco) {
+        this(banco, Math.max(FILAS_MINIMAS, threadsPadrao() * 2), threadsPadrao());
+    }
+
+    /**
+     * @param banco Serviço que executa as operações
+     * @param filas Número de filas (contas na mesma fila também ficam em ordem entre si)
+     * @param threads Threads do pool; com journal, quantos grupos podem esperar a gravação ao mesmo tempo
+     */
+    public BancoServiceAsync(BancoService banco, int filas, int threads) {
+        if (filas <= 0 || threads <= 0){
+            throw new IllegalArgumentException("Filas e threads devem ser positivas");
+        }
+        this.banco = banco;
+        this.filas = new Fila[filas];
+        for (int i = 0; i < filas; i++){
+            this.filas[i] = new Fila(i);
+        }
+        AtomicInteger contador = new AtomicInteger();
+        this.executor = Executors.newFixedThreadPool(threads, tarefa -> {
+            Thread thread = new Thread(tarefa, "banco-async-" + contador.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    private static int threadsPadrao() {
+        return Math.max(4, Runtime.getRuntime().availableProcessors() * 2);
+    }
+
+    public CompletableFuture<Conta> criarConta(String numero, String titular, double saldoInicial) {
+        return tarefa(numero, () -> banco.criarConta(numero, titular, saldoInicial));
+    }
+
+    public CompletableFuture<Void> depositar(String numeroConta, double valor) {
+        return operacao(Operacao.deposito(numeroConta, valor), false);
+    }
+
+    /**
+     * Falha com {@link ContaInativaException} ou {@link SaldoInsuficienteException}
+     * nas recusas, como {@link BancoService#sacar}.
+     */
+    public CompletableFuture<Void> sacar(String numeroConta, double valor) {
+        return operacao(Operacao.saque(numeroConta, valor), false);
+    }
+
+    /**
+     * Falha com {@link TransferenciaException} encapsulando o motivo, como
+     * {@link BancoService#transferir}.
+     */
+    public CompletableFuture<Void> transferir(String numeroOrigem, String numeroDestino, double valor) {
+        return operacao(Operacao.transferencia(numeroOrigem, numeroDestino, valor), false);
+    }
+
+    public CompletableFuture<Void> inativarConta(String numeroConta) {
+        return tarefa(numeroConta, () -> {
+            banco.inativarConta(numeroConta);
+            return null;
+        });
+    }
+
+    /**
+     * O saldo depois de todas as operações enviadas antes para a conta.
+     */
+    public CompletableFuture<Double> consultarSaldo(String numeroConta) {
+        return tarefa(numeroConta, () -> banco.consultarSaldo(numeroConta));
+    }
+
+    /**
+     * Como {@link #depositar}, mas completa com o motivo da recusa em vez de falhar.
+     */
+    public CompletableFuture<ResultadoOperacao> tentarDepositar(String numeroConta, double valor) {
+        return operacao(Operacao.deposito(numeroConta, valor), true);
+    }
+
+    public CompletableFuture<ResultadoOperacao> tentarSacar(String numeroConta, double valor) {
+        return operacao(Operacao.saque(numeroConta, valor), true);
+    }
+
+    public CompletableFuture<ResultadoOperacao> tentarTransferir(String numeroOrigem, String numeroDestino, double valor) {
+        return operacao(Operacao.transferencia(numeroOrigem, numeroDestino, valor), true);
+    }
+
+    public BancoService getBanco() {
+        return banco;
+    }
+
+    /**
+     * @return operações enviadas e ainda não concluídas
+     */
+    public long getEmAndamento() {
+        return emAndamento.sum();
+    }
+
+    /**
+     * Recusa novos envios, espera as operações já enviadas terminarem e
+     * encerra as threads.
+     */
+    @Override
+    public void close() {
+        fechado = true;
+        while (emAndamento.sum() > 0){
+            LockSupport.parkNanos(1_000_000);
+        }
+        // Uma fila pode ainda estar se devolvendo ao pool depois de completar o último futuro.
+        for (Fila fila : filas){
+            while (fila.agendadaAgora()){
+                LockSupport.parkNanos(1_000_000);
+            }
+        }
+        executor.shutdown();
+        try{
+            executor.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private <T> CompletableFuture<T> tarefa(String numero, Callable<T> tarefa) {
+        Pedido pedido = new Pedido(Tipo.TAREFA);
+        pedido.tarefa = tarefa;
+        enviar(pedido, fila(numero));
+        return converter(pedido);
+    }
+
+    private <T> CompletableFuture<T> operacao(Operacao operacao, boolean tentar) {
+        Fila primeira = fila(operacao.getNumeroConta());
+        Fila segunda = operacao.getTipo() == Operacao.Tipo.TRANSFERENCIA ? fila(operacao.getNumeroDestino()) : primeira;
+        Pedido pedido = new Pedido(primeira == segunda ? Tipo.OPERACAO : Tipo.JUNCAO);
+        pedido.operacao = operacao;
+        pedido.tentar = tentar;
+        if (primeira == segunda){
+            enviar(pedido, primeira);
+        } else {
+            enviarJuncao(pedido, primeira, segunda);
+        }
+        return converter(pedido);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> CompletableFuture<T> converter(Pedido pedido) {
+        return (CompletableFuture<T>) (CompletableFuture<?>) pedido.futuro;
+    }
+
+    private Fila fila(String numero) {
+        return filas[BancoServiceParticionado.indice(numero, filas.length)];
+    }
+
+    private void enviar(Pedido pedido, Fila fila) {
+        if (!aceitar(pedido)){
+            return;
+        }
+        fila.trava.lock();
+        boolean agendar;
+        try{
+            fila.pedidos.addLast(pedido);
+            agendar = !fila.agendada;
+            fila.agendada = true;
+        } finally {
+            fila.trava.unlock();
+        }
+        if (agendar){
+            executor.execute(fila);
+        }
+    }
+
+    /**
+     * Entra nas duas filas com as duas travadas, sempre na ordem dos índices:
+     * duas junções com filas em comum ficam na mesma ordem em todas elas, e
+     * nenhuma fila espera por outra que espera por ela.
+     */
+    private void enviarJuncao(Pedido pedido, Fila origem, Fila destino) {
+        if (!aceitar(pedido)){
+            return;
+        }
+        pedido.faltam = new AtomicInteger(2);
+        pedido.primeira = origem.indice < destino.indice ? origem : destino;
+        pedido.segunda = origem.indice < destino.indice ? destino : origem;
+        boolean agendarPrimeira;
+        boolean agendarSegunda;
+        pedido.primeira.trava.lock();
+        try{
+            pedido.segunda.trava.lock();
+            try{
+                pedido.primeira.pedidos.addLast(pedido);
+                pedido.segunda.pedidos.addLast(pedido);
+                agendarPrimeira = !pedido.primeira.agendada;
+                agendarSegunda = !pedido.segunda.agendada;
+                pedido.primeira.agendada = true;
+                pedido.segunda.agendada = true;
+            } finally {
+                pedido.segunda.trava.unlock();
+            }
+        } finally {
+            pedido.primeira.trava.unlock();
+        }
+        if (agendarPrimeira){
+            executor.execute(pedido.primeira);
+        }
+        if (agendarSegunda){
+            executor.execute(pedido.segunda);
+        }
+    }
+
+    /**
+     * Conta o pedido como em andamento antes de olhar {@link #fechado}: ou
+     * {@link #close()} já vê o pedido na contagem, ou o pedido já vê o fechamento.
+     */
+    private boolean aceitar(Pedido pedido) {
+        emAndamento.increment();
+        if (fechado){
+            emAndamento.decrement();
+            pedido.futuro.completeExceptionally(new IllegalStateException("Serviço assíncrono fechado"));
+            return false;
+        }
+        return true;
+    }
+
+    private void concluir(Pedido pedido, Object valor) {
+        emAndamento.decrement();
+        pedido.futuro.complete(valor);
+    }
+
+    private void falhar(Pedido pedido, Throwable falha) {
+        emAndamento.decrement();
+        pedido.futuro.completeExceptionally(falha);
+    }
+
+    /**
+     * Fila de pedidos de um grupo de contas. Roda no pool como uma tarefa que
+     * só é agendada quando tem pedidos e não está rodando nem esperando uma
+     * junção ({@link #agendada}).
+     */
+    private final class Fila implements Runnable {
+        private final int indice;
+        private final ReentrantLock trava = new ReentrantLock();
+        private final ArrayDeque<Pedido> pedidos = new ArrayDeque<>();
+        private final List<Pedido> lote = new ArrayList<>(MAXIMO_POR_LOTE);
+        private final List<Operacao> operacoes = new ArrayList<>(MAXIMO_POR_LOTE);
+        /** Protegido por {@link #trava}. */
+        private boolean agendada;
+
+        private Fila(int indice) {
+            this.indice = indice;
+        }
+
+        private boolean agendadaAgora() {
+            trava.lock();
+            try{
+                return agendada;
+            } finally {
+                trava.unlock();
+            }
+        }
+
+        @Override
+        public void run() {
+            int feitos = 0;
+            while (feitos < PEDIDOS_POR_VEZ){
+                Pedido tarefa = null;
+                trava.lock();
+                try{
+                    Pedido pedido = pedidos.peekFirst();
+                    if (pedido == null){
+                        agendada = false;
+                        return;
+                    }
+                    if (pedido.tipo == Tipo.TAREFA){
+                        tarefa = pedidos.pollFirst();
+                    }
+                    while (tarefa == null && pedido != null && pedido.tipo != Tipo.TAREFA && lote.size() < MAXIMO_POR_LOTE){
+                        if (pedido.tipo == Tipo.JUNCAO){
+                            if (pedido.faltam.get() > 1 && !lote.isEmpty()){
+                                // Talvez a primeira a chegar: executa antes o que já juntou.
+                                break;
+                            }
+                            if (pedido.faltam.decrementAndGet() > 0){
+                                // Primeira a chegar: fica parada (e agendada) até
+                                // a outra fila executar a transferência e a liberar.
+                                return;
+                            }
+                        }
+                        lote.add(pedidos.pollFirst());
+                        pedido = pedidos.peekFirst();
+                    }
+                } finally {
+                    trava.unlock();
+                }
+                if (tarefa != null){
+                    feitos++;
+                    executarTarefa(tarefa);
+                } else if (!lote.isEmpty()){
+                    feitos += lote.size();
+                    executarLote();
+                }
+            }
+            executor.execute(this);
+        }
+
+        /**
+         * Executa o lote em um {@link BancoService#executarLote}, libera as
+         * filas paradas nas junções do lote e completa os futuros.
+         */
+        private void executarLote() {
+            for (Pedido pedido : lote){
+                operacoes.add(pedido.operacao);
+            }
+            ResultadoOperacao[] resultados = null;
+            long[] desfechos = new long[operacoes.size()];
+            RuntimeException falha = null;
+            try{
+                resultados = banco.executarLote(operacoes, ModoLote.MELHOR_ESFORCO, desfechos);
+            } catch (RuntimeException e) {
+                falha = e;
+            }
+            for (Pedido pedido : lote){
+                if (pedido.tipo == Tipo.JUNCAO){
+                    liberar(pedido.primeira == this ? pedido.segunda : pedido.primeira, pedido);
+                }
+            }
+            for (int i = 0; i < lote.size(); i++){
+                if (falha == null){
+                    responder(lote.get(i), resultados[i], desfechos[i]);
+                } else {
+                    falhar(lote.get(i), falha);
+                }
+            }
+            lote.clear();
+            operacoes.clear();
+        }
+
+        private void executarTarefa(Pedido pedido) {
+            try{
+                concluir(pedido, pedido.tarefa.call());
+            } catch (Exception e) {
+                falhar(pedido, e);
+            }
+        }
+
+        /**
+         * Tira a junção já executada da frente da outra fila, parada nela, e
+         * devolve essa fila ao pool.
+         */
+        private void liberar(Fila outra, Pedido pedido) {
+            outra.trava.lock();
+            try{
+                if (outra.pedidos.pollFirst() != pedido){
+                    throw new IllegalStateException("Junção fora da frente da fila " + outra.indice);
+                }
+            } finally {
+                outra.trava.unlock();
+            }
+            executor.execute(outra);
+        }
+    }
+
+    private void responder(Pedido pedido, ResultadoOperacao resultado, long desfecho) {
+        if (pedido.tentar || resultado.isSucesso()){
+            concluir(pedido, pedido.tentar ? resultado : null);
+        } else {
+            falhar(pedido, excecao(pedido.operacao, desfecho));
+        }
+    }
+
+    /**
+     * A exceção que a versão síncrona lançaria para a recusa, refeita do
+     * desfecho que o lote guardou: a conta que recusou e o saldo ou a data
+     * vistos no momento da recusa, não os de uma leitura posterior.
+     */
+    private static Exception excecao(Operacao operacao, long desfecho) {
+        String numero = operacao.getNumeroConta();
+        Exception motivo;
+        try{
+            motivo = BancoService.falhaDe(desfecho, nome(operacao.getTipo()), numero, operacao.getNumeroDestino(),
+                    operacao.getValor());
+        } catch (IllegalStateException e) {
+            motivo = e;
+        }
+        if (operacao.getTipo() == Operacao.Tipo.TRANSFERENCIA){
+            return new TransferenciaException(numero, operacao.getNumeroDestino(),
+                    Moeda.paraCentavos(operacao.getValor()), motivo);
+        }
+        return motivo;
+    }
+
+    private static String nome(Operacao.Tipo tipo) {
+        switch (tipo){
+            case DEPOSITO:
+                return "depositar";
+            case SAQUE:
+                return "sacar";
+            default:
+                return "transferir";
+        }
+    }
+}
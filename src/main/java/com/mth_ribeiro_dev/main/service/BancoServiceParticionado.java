@@ -0,0 +1,599 @@
+package service;
+
+import exception.ContaInativaException;
+import exception.ContaNaoEncontradaException;
+import exception.SaldoInsuficienteException;
+import exception.TransferenciaException;
+import exception.ValorInvalidoException;
+import model.Conta;
+import model.Moeda;
+import model.ResultadoOperacao;
+import model.TipoMovimento;
+import persistencia.FormatoContas;
+import repositorio.RepositorioContas;
+import repositorio.RepositorioMapa;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * {@link BancoService} em que cada conta pertence a uma partição com uma
+ * única thread, no estilo LMAX: as contas são divididas pelo hash do número,
+ * cada partição recebe comandos por uma fila circular sem trava e é a única
+ * que altera as suas contas. Uma conta muito disputada deixa de ser disputada:
+ * as operações sobre ela entram em fila na partição e são aplicadas em ordem,
+ * sem CAS repetidos nem threads esperando umas pelas outras.
+ * <p>
+ * A API é a mesma; as chamadas esperam a partição responder. Consultas
+ * ({@link #consultarSaldo}, {@link #buscarConta}, {@link #extrato}) leem
+ * direto a conta, sem passar pela fila.
+ * <p>
+ * Uma transferência entre partições é feita em duas fases: a partição da
+ * origem debita e envia o crédito para a partição do destino, que credita
+ * (ou, se não conseguir, manda estornar na origem). O valor nunca some nem
+ * aparece duas vezes: entre as fases ele está em
+ * {@link #getCentavosEmTransito()}. A chamada só retorna depois do crédito.
+ * Lotes tudo-ou-nada seguem a mesma ideia: primeiro cada partição envolvida
+ * reserva os débitos das suas contas, e só com todas de acordo os créditos
+ * são feitos; se alguma recusar, as demais devolvem o que debitaram.
+ * <p>
+ * Só em memória: journal, snapshots, relatórios de fechamento e
+ * importação/exportação de contas continuam exigindo o {@link BancoService}
+ * comum.
+ */
+public class BancoServiceParticionado extends BancoService implements AutoCloseable {
+
+    private static final int CAPACIDADE_ANEL = 1024;
+    private static final ThreadLocal<Comando> COMANDO = ThreadLocal.withInitial(Comando::new);
+
+    private final Particao[] particoes;
+    private final RepositorioContas visao;
+    private final LongAdder emTransito;
+
+    /**
+     * @param particoes Número de partições (uma thread cada)
+     */
+    public BancoServiceParticionado(int particoes) {
+        this(particoes, RepositorioMapa::new);
+    }
+
+    /**
+     * @param particoes Número de partições (uma thread cada)
+     * @param repositorios Cria o repositório vazio de cada partição
+     */
+    public BancoServiceParticionado(int particoes, Supplier<RepositorioContas> repositorios) {
+        this(criarParticoes(particoes, repositorios, new LongAdder()));
+    }
+
+    private BancoServiceParticionado(Particao[] particoes) {
+        this(particoes, new Visao(particoes));
+    }
+
+    private BancoServiceParticionado(Particao[] particoes, Visao visao) {
+        super(visao);
+        this.particoes = particoes;
+        this.visao = visao;
+        this.emTransito = particoes[0].emTransito;
+        for (Particao particao : particoes){
+            particao.iniciar(particoes);
+        }
+    }
+
+    private static Particao[] criarParticoes(int quantidade, Supplier<RepositorioContas> repositorios,
+                                             LongAdder emTransito) {
+        if (quantidade <= 0){
+            throw new IllegalArgumentException("Número de partições deve ser positivo: " + quantidade);
+        }
+        Particao[] particoes = new Particao[quantidade];
+        for (int i = 0; i < quantidade; i++){
+            particoes[i] = new Particao(i, repositorios.get(), CAPACIDADE_ANEL, emTransito);
+        }
+        return particoes;
+    }
+
+    /**
+     * Partição dona da conta.
+     */
+    static int indice(String numero, int particoes) {
+        int hash = numero.hashCode();
+        return Math.floorMod(hash ^ (hash >>> 16), particoes);
+    }
+
+    public int getParticoes() {
+        return particoes.length;
+    }
+
+    /**
+     * @return centavos já debitados e ainda não creditados: transferências a
+     *         caminho da partição do destino e débitos reservados por lotes
+     *         tudo-ou-nada que ainda não terminaram
+     */
+    public long getCentavosEmTransito() {
+        return emTransito.sum();
+    }
+
+    @Override
+    protected Conta realizarCriacao(String numero, String titular, double saldoInicial) {
+        long centavos = Moeda.paraCentavos(saldoInicial);
+        if (centavos < 0){
+            throw new ValorInvalidoException("criar conta", centavos);
+        }
+        Comando comando = COMANDO.get().preparar(Comando.Etapa.CRIAR, numero, null, titular, centavos);
+        executar(numero, comando);
+        return comando.conta;
+    }
+
+    @Override
+    protected void realizarDeposito(String numeroConta, double valor) {
+        long centavos = centavosPositivos("depositar", valor);
+        if (executar(numeroConta, COMANDO.get().preparar(Comando.Etapa.DEPOSITO, numeroConta, null, null, centavos))
+                == ResultadoOperacao.CONTA_NAO_ENCONTRADA){
+            throw new ContaNaoEncontradaException(numeroConta);
+        }
+    }
+
+    @Override
+    protected void realizarSaque(String numeroConta, double valor)
+            throws ContaInativaException, SaldoInsuficienteException {
+        long centavos = centavosPositivos("sacar", valor);
+        Comando comando = COMANDO.get().preparar(Comando.Etapa.SAQUE, numeroConta, null, null, centavos);
+        lancarRecusa(numeroConta, executar(numeroConta, comando), comando, centavos);
+    }
+
+    @Override
+    protected void realizarTransferencia(String numeroOrigem, String numeroDestino, double valor)
+            throws TransferenciaException {
+        try{
+            long centavos = centavosPositivos("transferir", valor);
+            Comando comando = COMANDO.get().preparar(Comando.Etapa.DEBITO, numeroOrigem, numeroDestino, null, centavos);
+            ResultadoOperacao resultado = executar(numeroOrigem, comando);
+            if (resultado == ResultadoOperacao.CONTA_NAO_ENCONTRADA){
+                throw new ContaNaoEncontradaException(visao.buscar(numeroOrigem) == null ? numeroOrigem : numeroDestino);
+            }
+            lancarRecusa(numeroOrigem, resultado, comando, centavos);
+        } catch (Exception e) {
+            throw new TransferenciaException(numeroOrigem, numeroDestino, Moeda.paraCentavos(valor), e);
+        }
+    }
+
+    @Override
+    protected void realizarInativacao(String numeroConta) {
+        if (executar(numeroConta, COMANDO.get().preparar(Comando.Etapa.INATIVAR, numeroConta, null, null, 0))
+                == ResultadoOperacao.CONTA_NAO_ENCONTRADA){
+            throw new ContaNaoEncontradaException(numeroConta);
+        }
+    }
+
+    @Override
+    protected ResultadoOperacao tentarRealizarDeposito(String numeroConta, double valor) {
+        long centavos = Moeda.paraCentavos(valor);
+        if (centavos <= 0){
+            return ResultadoOperacao.VALOR_INVALIDO;
+        }
+        return executar(numeroConta, COMANDO.get().preparar(Comando.Etapa.DEPOSITO, numeroConta, null, null, centavos));
+    }
+
+    @Override
+    protected ResultadoOperacao tentarRealizarSaque(String numeroConta, double valor) {
+        long centavos = Moeda.paraCentavos(valor);
+        if (centavos <= 0){
+            return ResultadoOperacao.VALOR_INVALIDO;
+        }
+        return executar(numeroConta, COMANDO.get().preparar(Comando.Etapa.SAQUE, numeroConta, null, null, centavos));
+    }
+
+    @Override
+    protected ResultadoOperacao tentarRealizarTransferencia(String numeroOrigem, String numeroDestino, double valor) {
+        long centavos = Moeda.paraCentavos(valor);
+        if (centavos <= 0){
+            return ResultadoOperacao.VALOR_INVALIDO;
+        }
+        return executar(numeroOrigem,
+                COMANDO.get().preparar(Comando.Etapa.DEBITO, numeroOrigem, numeroDestino, null, centavos));
+    }
+
+    /**
+     * Não suportado: as partições alteram as contas sem passar pela barreira
+     * de épocas do {@link BancoService}, então não há como ler todas no mesmo
+     * instante.
+     */
+    @Override
+    public RelatorioFechamento gerarRelatorio(int maiores, ForkJoinPool pool) {
+        throw new UnsupportedOperationException("Relatórios exigem o BancoService comum");
+    }
+
+    /**
+     * Não suportado: as contas importadas seriam criadas fora das partições,
+     * quebrando a regra de que só a thread da partição altera as suas contas.
+     */
+    @Override
+    public ResultadoImportacao importarContas(Path arquivo, FormatoContas formato, ForkJoinPool pool) {
+        throw new UnsupportedOperationException("Importação de contas exige o BancoService comum");
+    }
+
+    /**
+     * Não suportado: pelo mesmo motivo de {@link #gerarRelatorio}, o arquivo
+     * não seria uma fotografia de um único instante.
+     */
+    @Override
+    public long exportarContas(Path destino, FormatoContas formato) {
+        throw new UnsupportedOperationException("Exportação de contas exige o BancoService comum");
+    }
+
+    /**
+     * Não suportado: as partições executam saques e transferências sem
+     * passar pelos métodos do {@link BancoService} que tomam os limites.
+     */
+    @Override
+    public void usarLimites(LimitesMovimentacao limites) {
+        throw new UnsupportedOperationException("Limites de movimentação exigem o BancoService comum");
+    }
+
+    /**
+     * Em MELHOR_ESFORCO os itens são executados um a um, na ordem, como
+     * chamadas a {@code tentar*}; a recusa leva o saldo que a partição viu ao
+     * recusar, guardado no comando. Em TUDO_OU_NADA o efeito líquido de cada
+     * conta é calculado como no {@link BancoService} e aplicado em duas fases
+     * pelas partições das contas.
+     */
+    @Override
+    protected ResultadoOperacao[] realizarLote(List<Operacao> operacoes, ModoLote modo, long[] desfechos) {
+        if (modo == ModoLote.MELHOR_ESFORCO){
+            ResultadoOperacao[] resultados = new ResultadoOperacao[operacoes.size()];
+            for (int i = 0; i < resultados.length; i++){
+                Operacao operacao = operacoes.get(i);
+                switch (operacao.getTipo()){
+                    case DEPOSITO:
+                        resultados[i] = tentarRealizarDeposito(operacao.getNumeroConta(), operacao.getValor());
+                        break;
+                    case SAQUE:
+                        resultados[i] = tentarRealizarSaque(operacao.getNumeroConta(), operacao.getValor());
+                        break;
+                    case TRANSFERENCIA:
+                        resultados[i] = tentarRealizarTransferencia(operacao.getNumeroConta(), operacao.getNumeroDestino(),
+                                operacao.getValor());
+                        break;
+                }
+                if (desfechos != null && !resultados[i].isSucesso()){
+                    desfechos[i] = recusaDoComando(operacao, resultados[i], COMANDO.get());
+                }
+            }
+            return resultados;
+        }
+        return executarTudoOuNada(operacoes);
+    }
+
+    private ResultadoOperacao[] executarTudoOuNada(List<Operacao> operacoes) {
+        int tamanho = operacoes.size();
+        ResultadoOperacao[] resultados = new ResultadoOperacao[tamanho];
+        long[] centavos = new long[tamanho];
+        Conta[] contasPrincipais = new Conta[tamanho];
+        Conta[] contasDestino = new Conta[tamanho];
+        boolean todosValidos = true;
+        for (int i = 0; i < tamanho; i++){
+            Operacao operacao = operacoes.get(i);
+            centavos[i] = Moeda.paraCentavos(operacao.getValor());
+            contasPrincipais[i] = visao.buscar(operacao.getNumeroConta());
+            if (operacao.getTipo() == Operacao.Tipo.TRANSFERENCIA){
+                contasDestino[i] = visao.buscar(operacao.getNumeroDestino());
+            }
+            if (centavos[i] <= 0){
+                resultados[i] = ResultadoOperacao.VALOR_INVALIDO;
+            } else if (contasPrincipais[i] == null
+                    || (operacao.getTipo() == Operacao.Tipo.TRANSFERENCIA && contasDestino[i] == null)){
+                resultados[i] = ResultadoOperacao.CONTA_NAO_ENCONTRADA;
+            }
+            todosValidos &= resultados[i] == null;
+        }
+        if (!todosValidos){
+            cancelarRestantes(resultados);
+            return resultados;
+        }
+
+        Reserva[] reservas = new Reserva[particoes.length];
+        for (int i = 0; i < tamanho; i++){
+            Operacao.Tipo tipo = operacoes.get(i).getTipo();
+            long[] principal = reservaDe(reservas, contasPrincipais[i], i).efeitoDe(contasPrincipais[i]);
+            if (tipo == Operacao.Tipo.DEPOSITO){
+                creditoNoLote(principal, centavos[i]);
+            } else {
+                debitoNoLote(principal, centavos[i]);
+            }
+            if (tipo == Operacao.Tipo.TRANSFERENCIA){
+                creditoNoLote(reservaDe(reservas, contasDestino[i], i).efeitoDe(contasDestino[i]), centavos[i]);
+            }
+        }
+
+        // Primeira fase: cada partição confere os créditos e reserva o maior déficit das suas contas com débito.
+        List<Comando> pendentes = new ArrayList<>();
+        for (int p = 0; p < reservas.length; p++){
+            Reserva reserva = reservas[p];
+            if (reserva != null){
+                pendentes.add(enviar(p, new Comando().preparar(reserva::debitar)));
+            }
+        }
+        aguardarTodos(pendentes);
+        boolean aceito = true;
+        for (Reserva reserva : reservas){
+            if (reserva != null && reserva.recusada != null && reserva.motivo == ResultadoOperacao.VALOR_INVALIDO){
+                aceito = false;
+                BancoService.recusarCreditos(reserva.recusada, operacoes, contasPrincipais, contasDestino, resultados);
+            } else if (reserva != null && reserva.recusada != null){
+                aceito = false;
+                for (int i = 0; i < tamanho; i++){
+                    if (contasPrincipais[i].equals(reserva.recusada) && operacoes.get(i).getTipo() != Operacao.Tipo.DEPOSITO){
+                        resultados[i] = reserva.motivo;
+                    }
+                }
+            }
+        }
+
+        // Segunda fase: confirma (créditos e extrato) ou desfaz os débitos.
+        pendentes.clear();
+        for (int p = 0; p < reservas.length; p++){
+            Reserva reserva = reservas[p];
+            if (reserva != null){
+                Runnable fase = aceito
+                        ? () -> reserva.confirmar(operacoes, centavos, contasPrincipais, contasDestino)
+                        : reserva::desfazer;
+                pendentes.add(enviar(p, new Comando().preparar(fase)));
+            }
+        }
+        aguardarTodos(pendentes);
+        if (aceito){
+            Arrays.fill(resultados, ResultadoOperacao.SUCESSO);
+        } else {
+            cancelarRestantes(resultados);
+        }
+        return resultados;
+    }
+
+    private Reserva reservaDe(Reserva[] reservas, Conta conta, int item) {
+        int p = indice(conta.getNumero(), particoes.length);
+        if (reservas[p] == null){
+            reservas[p] = new Reserva(p, particoes.length, emTransito);
+        }
+        List<Integer> itens = reservas[p].itens;
+        if (itens.isEmpty() || itens.get(itens.size() - 1) != item){
+            itens.add(item);
+        }
+        return reservas[p];
+    }
+
+    /**
+     * A parte de um lote tudo-ou-nada que cabe a uma partição. Os métodos
+     * rodam na thread da partição.
+     */
+    private static final class Reserva {
+        private final int particao;
+        private final int totalParticoes;
+        private final LongAdder emTransito;
+        private final Map<Conta, long[]> efeitos = new HashMap<>();
+        private final List<Integer> itens = new ArrayList<>();
+        private final List<Map.Entry<Conta, long[]>> debitadas = new ArrayList<>();
+        private Conta recusada;
+        private ResultadoOperacao motivo;
+
+        private Reserva(int particao, int totalParticoes, LongAdder emTransito) {
+            this.particao = particao;
+            this.totalParticoes = totalParticoes;
+            this.emTransito = emTransito;
+        }
+
+        /**
+         * @return o efeito do lote na conta (veja {@link BancoService#efeitoDe})
+         */
+        private long[] efeitoDe(Conta conta) {
+            return BancoService.efeitoDe(efeitos, conta);
+        }
+
+        private void debitar() {
+            for (Map.Entry<Conta, long[]> entrada : efeitos.entrySet()){
+                if (BancoService.excedeNoLote(entrada.getKey(), entrada.getValue())){
+                    recusada = entrada.getKey();
+                    motivo = ResultadoOperacao.VALOR_INVALIDO;
+                    return;
+                }
+            }
+            for (Map.Entry<Conta, long[]> entrada : efeitos.entrySet()){
+                long exigido = entrada.getValue()[1];
+                if (entrada.getValue()[2] == 0){
+                    continue;
+                }
+                Conta conta = entrada.getKey();
+                ResultadoOperacao resultado;
+                if (exigido > 0){
+                    resultado = conta.tentarDebitar(exigido);
+                } else {
+                    resultado = conta.isAtiva() ? ResultadoOperacao.SUCESSO : ResultadoOperacao.CONTA_INATIVA;
+                }
+                if (!resultado.isSucesso()){
+                    recusada = conta;
+                    motivo = resultado;
+                    desfazer();
+                    return;
+                }
+                if (exigido > 0){
+                    debitadas.add(entrada);
+                    emTransito.add(exigido);
+                }
+            }
+        }
+
+        private void desfazer() {
+            for (Map.Entry<Conta, long[]> entrada : debitadas){
+                entrada.getKey().creditar(entrada.getValue()[1]);
+                emTransito.add(-entrada.getValue()[1]);
+            }
+            debitadas.clear();
+        }
+
+        private void confirmar(List<Operacao> operacoes, long[] centavos, Conta[] contasPrincipais, Conta[] contasDestino) {
+            for (Map.Entry<Conta, long[]> entrada : efeitos.entrySet()){
+                long credito = entrada.getValue()[1] + entrada.getValue()[0];
+                if (credito > 0){
+                    entrada.getKey().creditar(credito);
+                }
+            }
+            for (Map.Entry<Conta, long[]> entrada : debitadas){
+                emTransito.add(-entrada.getValue()[1]);
+            }
+            // O extrato mostra cada item do lote, cada lado lançado pela partição da conta.
+            for (int i : itens){
+                Conta principal = contasPrincipais[i];
+                switch (operacoes.get(i).getTipo()){
+                    case DEPOSITO:
+                        principal.getExtrato().registrar(TipoMovimento.DEPOSITO, centavos[i], null);
+                        break;
+                    case SAQUE:
+                        principal.getExtrato().registrar(TipoMovimento.SAQUE, centavos[i], null);
+                        break;
+                    case TRANSFERENCIA:
+                        Conta destino = contasDestino[i];
+                        if (indice(principal.getNumero(), totalParticoes) == particao){
+                            principal.getExtrato().registrar(TipoMovimento.TRANSFERENCIA_ENVIADA, centavos[i], destino.getNumero());
+                        }
+                        if (indice(destino.getNumero(), totalParticoes) == particao){
+                            destino.getExtrato().registrar(TipoMovimento.TRANSFERENCIA_RECEBIDA, centavos[i], principal.getNumero());
+                        }
+                        break;
+                }
+            }
+        }
+    }
+
+    /**
+     * Para as threads das partições, uma de cada vez. Operações chamadas
+     * depois disso falham com {@link IllegalStateException}; as que ainda
+     * estiverem em andamento também podem falhar assim, e uma transferência
+     * interrompida entre as fases fica em {@link #getCentavosEmTransito()}.
+     */
+    @Override
+    public synchronized void close() {
+        try{
+            for (Particao particao : particoes){
+                particao.encerrar();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private ResultadoOperacao executar(String numero, Comando comando) {
+        enviar(indice(numero, particoes.length), comando).aguardar();
+        if (comando.falha != null){
+            throw comando.falha;
+        }
+        return comando.resultado;
+    }
+
+    private Comando enviar(int particao, Comando comando) {
+        particoes[particao].enviar(comando);
+        return comando;
+    }
+
+    private static void aguardarTodos(List<Comando> comandos) {
+        for (Comando comando : comandos){
+            comando.aguardar();
+            if (comando.falha != null){
+                throw comando.falha;
+            }
+        }
+    }
+
+    /**
+     * O desfecho de um item recusado, com a conta e o saldo que a partição
+     * guardou no comando (veja {@link BancoService#desfechoDaRecusa}).
+     */
+    private long recusaDoComando(Operacao operacao, ResultadoOperacao resultado, Comando comando) {
+        boolean naOutra = resultado == ResultadoOperacao.CONTA_NAO_ENCONTRADA
+                && operacao.getTipo() == Operacao.Tipo.TRANSFERENCIA && visao.buscar(operacao.getNumeroConta()) != null;
+        return BancoService.desfechoDaRecusa(resultado, naOutra, comando.conta, comando.saldoObservado);
+    }
+
+    private static void lancarRecusa(String numeroConta, ResultadoOperacao resultado, Comando comando, long centavos)
+            throws ContaInativaException, SaldoInsuficienteException {
+        switch (resultado){
+            case CONTA_NAO_ENCONTRADA:
+                throw new ContaNaoEncontradaException(numeroConta);
+            case CONTA_INATIVA:
+                throw new ContaInativaException(numeroConta, comando.conta.getDataInativacao());
+            case SALDO_INSUFICIENTE:
+                throw new SaldoInsuficienteException(numeroConta, comando.saldoObservado, centavos);
+            default:
+                break;
+        }
+    }
+
+    /**
+     * Todas as partições vistas como um repositório só, para as consultas
+     * herdadas de {@link BancoService}.
+     */
+    private static final class Visao implements RepositorioContas {
+        private final Particao[] particoes;
+
+        private Visao(Particao[] particoes) {
+            this.particoes = particoes;
+        }
+
+        @Override
+        public Conta buscar(String numero) {
+            return particoes[indice(numero, particoes.length)].contas.buscar(numero);
+        }
+
+        @Override
+        public Conta guardar(Conta conta) {
+            return particoes[indice(conta.getNumero(), particoes.length)].contas.guardar(conta);
+        }
+
+        @Override
+        public int quantidade() {
+            int total = 0;
+            for (Particao particao : particoes){
+                total += particao.contas.quantidade();
+            }
+            return total;
+        }
+
+        @Override
+        public void reservar(long quantidade) {
+            for (Particao particao : particoes){
+                particao.contas.reservar(quantidade / particoes.length + 1);
+            }
+        }
+
+        @Override
+        public Iterator<Conta> iterator() {
+            return new Iterator<Conta>() {
+                private int proxima;
+                private Iterator<Conta> atual = Collections.emptyIterator();
+
+                @Override
+                public boolean hasNext() {
+                    while (!atual.hasNext() && proxima < particoes.length){
+                        atual = particoes[proxima++].contas.iterator();
+                    }
+                    return atual.hasNext();
+                }
+
+                @Override
+                public Conta next() {
+                    if (!hasNext()){
+                        throw new NoSuchElementException();
+                    }
+                    return atual.next();
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package service;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Barreira entre as alterações de contas e quem precisa de um instante sem
+ * nenhuma alteração em andamento (trocar a época de um snapshot ou de um
+ * relatório).
+ * <p>
+ * Cada alteração soma 1 ao contador da sua faixa ao entrar e subtrai ao sair.
+ * As faixas são escolhidas pela thread e ficam em linhas de cache separadas,
+ * então threads diferentes não disputam a mesma palavra, ao contrário do lado
+ * compartilhado de um {@code ReentrantReadWriteLock}. O lado exclusivo marca
+ * a barreira como fechada e espera todas as faixas zerarem; quem chega com
+ * ela fechada desfaz a entrada e espera na trava até a reabertura.
+ */
+final class BarreiraEscrita {
+
+    /** Faixas a 128 bytes de distância, para não dividirem linha de cache. */
+    private static final int ESPACAMENTO = 16;
+    private static final int FAIXAS_MAXIMAS = 64;
+
+    private static final VarHandle CONTADOR = MethodHandles.arrayElementVarHandle(long[].class);
+
+    private final long[] contadores;
+    private final int mascara;
+    private final ReentrantLock exclusiva = new ReentrantLock();
+    private volatile boolean fechada;
+
+    BarreiraEscrita() {
+        int faixas = Math.min(FAIXAS_MAXIMAS, Integer.highestOneBit(Runtime.getRuntime().availableProcessors() * 2 - 1) << 1);
+        contadores = new long[faixas * ESPACAMENTO];
+        mascara = faixas - 1;
+    }
+
+    /**
+     * Entra na barreira, esperando se ela estiver fechada.
+     *
+     * @return a faixa usada, a ser passada para {@link #sair(int)}
+     */
+    int entrar() {
+        int faixa = ((int) Thread.currentThread().getId() & mascara) * ESPACAMENTO;
+        while (true){
+            CONTADOR.getAndAdd(contadores, faixa, 1L);
+            if (!fechada){
+                return faixa;
+            }
+            CONTADOR.getAndAdd(contadores, faixa, -1L);
+            // Fechada: o lado exclusivo segura a trava até reabrir.
+            exclusiva.lock();
+            exclusiva.unlock();
+        }
+    }
+
+    void sair(int faixa) {
+        CONTADOR.getAndAdd(contadores, faixa, -1L);
+    }
+
+    /**
+     * Fecha a barreira e espera as alterações em andamento terminarem. Deve
+     * ser seguido de {@link #abrir()} pela mesma thread.
+     */
+    void fechar() {
+        exclusiva.lock();
+        fechada = true;
+        for (int faixa = 0; faixa < contadores.length; faixa += ESPACAMENTO){
+            while ((long) CONTADOR.getVolatile(contadores, faixa) != 0){
+                Thread.yield();
+            }
+        }
+    }
+
+    void abrir() {
+        fechada = false;
+        exclusiva.unlock();
+    }
+}
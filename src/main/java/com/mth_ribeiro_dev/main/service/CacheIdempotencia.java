@@ -0,0 +1,418 @@
+package service;
+
+import model.ResultadoOperacao;
+
+import java.time.Duration;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Resultados de operações identificadas por chave de idempotência, para que
+ * uma requisição repetida (o cliente não recebeu a resposta e tentou de novo)
+ * receba o resultado original sem que a operação rode outra vez.
+ * <p>
+ * A memória é fixa e alocada na criação, cerca de 48 bytes por entrada, e
+ * nada mais vai para o heap depois disso: a chave não é guardada, só dois
+ * hashes de 64 bits dela, e o desfecho da operação é codificado num
+ * {@code long} ({@link #desfecho}): o {@link ResultadoOperacao}, se foi
+ * lançado como exceção, em qual das contas, e um dado de até 48 bits. As
+ * entradas são divididas em segmentos, cada um com sua trava, um anel na
+ * ordem de inclusão e um índice de endereçamento aberto. Como todas têm a
+ * mesma validade, a ordem de inclusão é a ordem de vencimento: a mais antiga
+ * do anel é sempre a primeira a vencer.
+ * <p>
+ * A capacidade precisa cobrir todas as chaves novas de um período de
+ * validade ({@link #paraTaxa}). Com menos, falta espaço antes do vencimento
+ * e a chave mais antiga é despejada ainda válida: uma repetição dela executa
+ * a operação de novo. {@link #getDespejos()} conta esses casos; acima de
+ * zero, o cache está pequeno para a carga. Não há capacidade padrão: com
+ * milhões de chaves por hora e validade de um dia, o cache ocupa gigabytes,
+ * e quem o cria escolhe a taxa e a validade.
+ * <p>
+ * Uma chave repetida enquanto a operação original ainda roda espera por ela
+ * em vez de executar de novo. Por isso uma entrada em andamento nunca é
+ * despejada; se o segmento inteiro estiver ocupado por entradas válidas e a
+ * mais antiga ainda estiver em andamento, a nova chave é recusada com
+ * {@link RejectedExecutionException}, para quem chama tentar mais tarde
+ * ({@link #getRecusas()}).
+ */
+public final class CacheIdempotencia {
+
+    /** Menor e maior dado que cabe num desfecho. */
+    static final long CARGA_MINIMA = -(1L << 47);
+    static final long CARGA_MAXIMA = (1L << 47) - 1;
+
+    private static final int SEGMENTOS = 64;
+    private static final int BITS_CARGA = 48;
+    private static final long LANCADO = 1L << 52;
+    private static final long NA_OUTRA_CONTA = 1L << 53;
+    /** Sempre presente num desfecho, que assim nunca é {@link #VAZIO} nem {@link #EM_ANDAMENTO}. */
+    private static final long PRESENTE = 1L << 54;
+    private static final long VAZIO = 0;
+    private static final long EM_ANDAMENTO = -1;
+    private static final ResultadoOperacao[] RESULTADOS = ResultadoOperacao.values();
+
+    private final Segmento[] segmentos;
+    private final long validadeNanos;
+    private final int capacidade;
+
+    private final LongAdder acertos = new LongAdder();
+    private final LongAdder faltas = new LongAdder();
+    private final LongAdder despejos = new LongAdder();
+    private final LongAdder expiradas = new LongAdder();
+    private final LongAdder recusas = new LongAdder();
+
+    /**
+     * @param capacidade Número máximo de chaves guardadas
+     * @param validade Por quanto tempo uma chave devolve o resultado original
+     */
+    public CacheIdempotencia(int capacidade, Duration validade) {
+        if (capacidade <= 0){
+            throw new IllegalArgumentException("Capacidade deve ser positiva: " + capacidade);
+        }
+        int quantidadeSegmentos = Math.min(SEGMENTOS, Integer.highestOneBit(capacidade));
+        int porSegmento = (capacidade + quantidadeSegmentos - 1) / quantidadeSegmentos;
+        this.segmentos = new Segmento[quantidadeSegmentos];
+        for (int i = 0; i < quantidadeSegmentos; i++){
+            segmentos[i] = new Segmento(porSegmento);
+        }
+        this.capacidade = porSegmento * quantidadeSegmentos;
+        this.validadeNanos = validade.toNanos();
+    }
+
+    /**
+     * Cria um cache que guarda todas as chaves até vencerem, sem despejos,
+     * enquanto chegarem no máximo {@code chavesPorSegundo} chaves novas.
+     *
+     * @param chavesPorSegundo Pico de chaves novas por segundo
+     * @param validade Por quanto tempo uma chave devolve o resultado original
+     * @throws IllegalArgumentException se a capacidade necessária não couber num int
+     */
+    public static CacheIdempotencia paraTaxa(double chavesPorSegundo, Duration validade) {
+        double capacidade = Math.ceil(chavesPorSegundo * validade.toMillis() / 1000.0);
+        if (!(capacidade >= 1 && capacidade <= Integer.MAX_VALUE)){
+            throw new IllegalArgumentException("Capacidade fora do limite para " + chavesPorSegundo
+                    + " chaves/s por " + validade + ": " + capacidade);
+        }
+        return new CacheIdempotencia((int) capacidade, validade);
+    }
+
+    /**
+     * Executa a operação, a menos que a chave já tenha um desfecho válido.
+     * Se a operação lançar uma exceção, nada é guardado: a exceção passa e
+     * uma repetição executa de novo.
+     *
+     * @param chave Chave de idempotência escolhida pelo cliente
+     * @param assinatura Identifica a operação e seus parâmetros
+     * @param operacao Operação, que devolve seu desfecho codificado por {@link #desfecho}
+     * @return o desfecho da execução original se a chave se repetir, senão o desta
+     * @throws IllegalArgumentException se a chave já foi usada com outra assinatura
+     * @throws RejectedExecutionException se não houver espaço para a chave
+     */
+    long executar(String chave, long assinatura, Execucao operacao) {
+        long a = hashA(chave);
+        long b = hashB(chave);
+        Segmento segmento = segmentos[(int) (b >>> 40) & (segmentos.length - 1)];
+        segmento.trava.lock();
+        try{
+            long anterior = segmento.reservar(a, b, assinatura, System.nanoTime());
+            if (anterior != VAZIO){
+                return anterior;
+            }
+        } finally {
+            segmento.trava.unlock();
+        }
+        long desfecho;
+        try{
+            desfecho = operacao.executar();
+        } catch (RuntimeException | Error e) {
+            segmento.concluir(a, b, VAZIO);
+            throw e;
+        }
+        segmento.concluir(a, b, desfecho);
+        return desfecho;
+    }
+
+    /**
+     * Codifica o desfecho de uma operação.
+     *
+     * @param resultado Resultado devolvido, ou motivo da exceção lançada
+     * @param lancado Se a operação lançou uma exceção em vez de devolver
+     * @param naOutraConta Se o motivo se refere à segunda conta da operação
+     * @param carga Dado que a exceção não recebe de quem chama (saldo, data)
+     * @throws IllegalArgumentException se a carga não couber em 48 bits
+     */
+    static long desfecho(ResultadoOperacao resultado, boolean lancado, boolean naOutraConta, long carga) {
+        if (carga < CARGA_MINIMA || carga > CARGA_MAXIMA){
+            throw new IllegalArgumentException("Carga fora do limite do desfecho: " + carga);
+        }
+        return PRESENTE | (long) resultado.ordinal() << BITS_CARGA
+                | (lancado ? LANCADO : 0) | (naOutraConta ? NA_OUTRA_CONTA : 0)
+                | carga & ((1L << BITS_CARGA) - 1);
+    }
+
+    static ResultadoOperacao resultado(long desfecho) {
+        return RESULTADOS[(int) (desfecho >>> BITS_CARGA) & 0xF];
+    }
+
+    static boolean lancado(long desfecho) {
+        return (desfecho & LANCADO) != 0;
+    }
+
+    static boolean naOutraConta(long desfecho) {
+        return (desfecho & NA_OUTRA_CONTA) != 0;
+    }
+
+    static long carga(long desfecho) {
+        return desfecho << (64 - BITS_CARGA) >> (64 - BITS_CARGA);
+    }
+
+    public int getCapacidade() {
+        return capacidade;
+    }
+
+    public int getQuantidade() {
+        int total = 0;
+        for (Segmento segmento : segmentos){
+            segmento.trava.lock();
+            try{
+                total += segmento.vivas;
+            } finally {
+                segmento.trava.unlock();
+            }
+        }
+        return total;
+    }
+
+    /**
+     * @return chaves repetidas que devolveram o resultado original
+     */
+    public long getAcertos() {
+        return acertos.sum();
+    }
+
+    /**
+     * @return chaves novas (ou vencidas), que executaram a operação
+     */
+    public long getFaltas() {
+        return faltas.sum();
+    }
+
+    /**
+     * @return entradas ainda válidas descartadas por falta de espaço
+     */
+    public long getDespejos() {
+        return despejos.sum();
+    }
+
+    /**
+     * @return entradas removidas por vencimento
+     */
+    public long getExpiradas() {
+        return expiradas.sum();
+    }
+
+    /**
+     * @return chaves novas recusadas porque o segmento estava todo em andamento
+     */
+    public long getRecusas() {
+        return recusas.sum();
+    }
+
+    /**
+     * Combina operação e parâmetros em um número, para detectar a mesma chave
+     * usada em outra operação.
+     */
+    static long assinatura(String operacao, String conta, String outra, double valor) {
+        long h = hashA(operacao);
+        h = h * 31 + hashA(conta);
+        h = h * 31 + (outra == null ? 0 : hashA(outra));
+        return misturar(h * 31 + Double.doubleToLongBits(valor));
+    }
+
+    /** FNV-1a de 64 bits. */
+    private static long hashA(String texto) {
+        long h = 0xCBF29CE484222325L;
+        for (int i = 0; i < texto.length(); i++){
+            h = (h ^ texto.charAt(i)) * 0x100000001B3L;
+        }
+        return misturar(h);
+    }
+
+    /** Multiplicativo com outra constante, independente de {@link #hashA}. */
+    private static long hashB(String texto) {
+        long h = texto.length();
+        for (int i = 0; i < texto.length(); i++){
+            h = (h + texto.charAt(i)) * 0x9E3779B97F4A7C15L;
+            h ^= h >>> 29;
+        }
+        return misturar(h);
+    }
+
+    private static long misturar(long z) {
+        z = (z ^ (z >>> 33)) * 0xFF51AFD7ED558CCDL;
+        z = (z ^ (z >>> 33)) * 0xC4CEB9FE1A85EC53L;
+        return z ^ (z >>> 33);
+    }
+
+    /** Uma operação que devolve o seu desfecho codificado. */
+    @FunctionalInterface
+    interface Execucao {
+        long executar();
+    }
+
+    private final class Segmento {
+        private final ReentrantLock trava = new ReentrantLock();
+        private final Condition concluida = trava.newCondition();
+
+        /** Posição no anel + 1; 0 é vazio. Ocupação máxima de 50%. */
+        private final int[] indice;
+        private final int mascara;
+
+        private final long[] chavesA;
+        private final long[] chavesB;
+        private final long[] assinaturas;
+        private final long[] vencimentos;
+        /** O desfecho, {@link #EM_ANDAMENTO}, ou {@link #VAZIO} para posição descartada. */
+        private final long[] desfechos;
+
+        private int primeira;
+        private int ocupadas;
+        private int vivas;
+
+        private Segmento(int capacidade) {
+            indice = new int[Integer.highestOneBit(Math.max(1, capacidade * 2 - 1)) << 1];
+            mascara = indice.length - 1;
+            chavesA = new long[capacidade];
+            chavesB = new long[capacidade];
+            assinaturas = new long[capacidade];
+            vencimentos = new long[capacidade];
+            desfechos = new long[capacidade];
+        }
+
+        /**
+         * Com a trava. Devolve o desfecho de uma execução anterior ainda
+         * válida (esperando-a terminar, se preciso) ou reserva a chave para
+         * quem chamou executar e devolve {@link #VAZIO}.
+         */
+        private long reservar(long a, long b, long assinatura, long agora) {
+            int i;
+            while ((i = buscar(a, b)) >= 0){
+                int posicao = indice[i] - 1;
+                if (assinaturas[posicao] != assinatura){
+                    throw new IllegalArgumentException("Chave de idempotência já usada em outra operação");
+                }
+                long desfecho = desfechos[posicao];
+                if (desfecho == EM_ANDAMENTO){
+                    concluida.awaitUninterruptibly();
+                    continue;
+                }
+                if (vencimentos[posicao] - agora > 0){
+                    acertos.increment();
+                    return desfecho;
+                }
+                descartar(i);
+                expiradas.increment();
+                break;
+            }
+            abrirEspaco(agora);
+            faltas.increment();
+            int posicao = (primeira + ocupadas) % desfechos.length;
+            chavesA[posicao] = a;
+            chavesB[posicao] = b;
+            assinaturas[posicao] = assinatura;
+            vencimentos[posicao] = agora + validadeNanos;
+            desfechos[posicao] = EM_ANDAMENTO;
+            ocupadas++;
+            vivas++;
+            int livre = (int) a & mascara;
+            while (indice[livre] != 0){
+                livre = (livre + 1) & mascara;
+            }
+            indice[livre] = posicao + 1;
+            return VAZIO;
+        }
+
+        private void concluir(long a, long b, long desfecho) {
+            trava.lock();
+            try{
+                int i = buscar(a, b);
+                if (i >= 0){
+                    if (desfecho == VAZIO){
+                        descartar(i);
+                    } else {
+                        desfechos[indice[i] - 1] = desfecho;
+                    }
+                }
+                concluida.signalAll();
+            } finally {
+                trava.unlock();
+            }
+        }
+
+        /**
+         * Tira do começo do anel as entradas vencidas e, com o anel cheio, a
+         * mais antiga.
+         */
+        private void abrirEspaco(long agora) {
+            while (ocupadas > 0){
+                long desfecho = desfechos[primeira];
+                if (desfecho != VAZIO){
+                    boolean vencida = vencimentos[primeira] - agora <= 0;
+                    if (desfecho == EM_ANDAMENTO || (!vencida && ocupadas < desfechos.length)){
+                        break;
+                    }
+                    descartar(buscar(chavesA[primeira], chavesB[primeira]));
+                    (vencida ? expiradas : despejos).increment();
+                }
+                primeira = (primeira + 1) % desfechos.length;
+                ocupadas--;
+            }
+            if (ocupadas == desfechos.length){
+                recusas.increment();
+                throw new RejectedExecutionException("Cache de idempotência sem espaço: a chave mais antiga ainda está em andamento");
+            }
+        }
+
+        /**
+         * @return a posição da chave no índice, ou -1
+         */
+        private int buscar(long a, long b) {
+            int i = (int) a & mascara;
+            int posicao;
+            while ((posicao = indice[i]) != 0){
+                if (chavesA[posicao - 1] == a && chavesB[posicao - 1] == b){
+                    return i;
+                }
+                i = (i + 1) & mascara;
+            }
+            return -1;
+        }
+
+        /**
+         * Tira a entrada do índice (a posição no anel fica livre até sair do
+         * começo), puxando para trás as chaves seguintes que colidiram.
+         */
+        private void descartar(int i) {
+            desfechos[indice[i] - 1] = VAZIO;
+            vivas--;
+            int livre = i;
+            int j = i;
+            while (true){
+                j = (j + 1) & mascara;
+                int posicao = indice[j];
+                if (posicao == 0){
+                    break;
+                }
+                int ideal = (int) chavesA[posicao - 1] & mascara;
+                if (((j - ideal) & mascara) >= ((j - livre) & mascara)){
+                    indice[livre] = posicao;
+                    livre = j;
+                }
+            }
+            indice[livre] = 0;
+        }
+    }
+}
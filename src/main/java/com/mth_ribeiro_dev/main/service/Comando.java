@@ -0,0 +1,99 @@
+package service;
+
+import model.Conta;
+import model.ResultadoOperacao;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Mensagem trocada com as partições de {@link BancoServiceParticionado}.
+ * <p>
+ * Quem chama espera a resposta no próprio comando, então cada thread reusa
+ * sempre o mesmo objeto para as operações individuais e o caminho quente não
+ * aloca. Uma transferência entre partições é o mesmo comando passando de
+ * etapa: DEBITO na partição da origem, CREDITO na do destino e, se o crédito
+ * falhar, ESTORNO de volta na origem.
+ */
+final class Comando {
+
+    enum Etapa {
+        CRIAR,
+        DEPOSITO,
+        SAQUE,
+        INATIVAR,
+        DEBITO,
+        CREDITO,
+        ESTORNO,
+        TAREFA
+    }
+
+    private static final int VOLTAS_ANTES_DE_DORMIR = 100;
+
+    Etapa etapa;
+    String numero;
+    String destino;
+    String titular;
+    long centavos;
+    Runnable tarefa;
+    Thread solicitante;
+
+    /** Respostas, escritas pela partição antes de {@link #concluido}. */
+    ResultadoOperacao resultado;
+    RuntimeException falha;
+    Conta conta;
+    long saldoObservado;
+
+    private volatile boolean concluido;
+
+    Comando preparar(Etapa etapa, String numero, String destino, String titular, long centavos) {
+        this.etapa = etapa;
+        this.numero = numero;
+        this.destino = destino;
+        this.titular = titular;
+        this.centavos = centavos;
+        this.tarefa = null;
+        this.solicitante = Thread.currentThread();
+        this.resultado = null;
+        this.falha = null;
+        this.conta = null;
+        this.concluido = false;
+        return this;
+    }
+
+    Comando preparar(Runnable tarefa) {
+        preparar(Etapa.TAREFA, null, null, null, 0);
+        this.tarefa = tarefa;
+        return this;
+    }
+
+    /**
+     * Publica a resposta e acorda quem espera. Depois disto a partição não
+     * pode mais tocar no comando, que pode já estar sendo reusado.
+     */
+    void concluir(ResultadoOperacao resultado) {
+        Thread esperando = solicitante;
+        this.resultado = resultado;
+        concluido = true;
+        LockSupport.unpark(esperando);
+    }
+
+    void falhar(RuntimeException falha) {
+        this.falha = falha;
+        concluir(null);
+    }
+
+    /**
+     * Espera a resposta: um pouco em espera ativa, porque a maioria das
+     * operações termina em microssegundos, depois estacionado.
+     */
+    void aguardar() {
+        int voltas = 0;
+        while (!concluido){
+            if (++voltas < VOLTAS_ANTES_DE_DORMIR){
+                Thread.onSpinWait();
+            } else {
+                LockSupport.park(this);
+            }
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package service;
+
+import persistencia.ArquivoContas;
+import persistencia.FormatoContas;
+import persistencia.LeitorContas;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Uma importação de {@link BancoService#importarContas}: a thread que chama
+ * lê o arquivo e junta as contas em lotes, e cada lote é criado no pool
+ * ({@link BancoService#criarContasImportadas}). No máximo o dobro do
+ * paralelismo do pool fica em andamento; com mais, a leitura espera.
+ */
+final class ImportacaoContas implements LeitorContas {
+
+    static final int TAMANHO_LOTE = 4096;
+
+    /**
+     * Contas lidas e ainda não criadas, em vetores paralelos.
+     */
+    static final class Lote {
+        final String[] numeros = new String[TAMANHO_LOTE];
+        final String[] titulares = new String[TAMANHO_LOTE];
+        final long[] centavos = new long[TAMANHO_LOTE];
+        final LocalDate[] datas = new LocalDate[TAMANHO_LOTE];
+        final long[] linhas = new long[TAMANHO_LOTE];
+        int tamanho;
+    }
+
+    private final BancoService banco;
+    private final ForkJoinPool pool;
+    private final int maximoEmAndamento;
+    private final Semaphore vagas;
+    private final ResultadoImportacao.Acumulador acumulador = new ResultadoImportacao.Acumulador();
+    private final AtomicReference<RuntimeException> falha = new AtomicReference<>();
+    private Lote atual = new Lote();
+
+    ImportacaoContas(BancoService banco, ForkJoinPool pool) {
+        this.banco = banco;
+        this.pool = pool;
+        this.maximoEmAndamento = 2 * pool.getParallelism();
+        this.vagas = new Semaphore(maximoEmAndamento);
+    }
+
+    ResultadoImportacao importar(Path arquivo, FormatoContas formato) throws IOException {
+        long inicio = System.nanoTime();
+        long lidas;
+        try{
+            lidas = ArquivoContas.ler(arquivo, formato, this);
+            enviar();
+        } finally {
+            vagas.acquireUninterruptibly(maximoEmAndamento);
+        }
+        RuntimeException erro = falha.get();
+        if (erro != null){
+            throw erro;
+        }
+        return acumulador.concluir(lidas, System.nanoTime() - inicio);
+    }
+
+    @Override
+    public void conta(long linha, String numero, String titular, long saldoCentavos, LocalDate dataInativacao) {
+        Lote lote = atual;
+        int i = lote.tamanho++;
+        lote.numeros[i] = numero;
+        lote.titulares[i] = titular;
+        lote.centavos[i] = saldoCentavos;
+        lote.datas[i] = dataInativacao;
+        lote.linhas[i] = linha;
+        if (lote.tamanho == TAMANHO_LOTE){
+            enviar();
+        }
+    }
+
+    @Override
+    public void rejeitada(long linha, RuntimeException motivo) {
+        acumulador.rejeitar(linha, motivo);
+    }
+
+    /**
+     * Manda o lote atual para o pool. Se um lote anterior falhou (o journal,
+     * não uma linha), interrompe a leitura com a mesma falha.
+     */
+    private void enviar() {
+        RuntimeException erro = falha.get();
+        if (erro != null){
+            throw erro;
+        }
+        Lote lote = atual;
+        if (lote.tamanho == 0){
+            return;
+        }
+        atual = new Lote();
+        vagas.acquireUninterruptibly();
+        try{
+            pool.execute(() -> {
+                try{
+                    acumulador.importadas(banco.criarContasImportadas(lote, acumulador));
+                } catch (RuntimeException e) {
+                    falha.compareAndSet(null, e);
+                } finally {
+                    vagas.release();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            vagas.release();
+            throw e;
+        }
+    }
+}
@@ -0,0 +1,517 @@
+package service;
+
+import model.Moeda;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.time.Duration;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongSupplier;
+
+/**
+ * Limites de velocidade para saques e transferências (controle de fraude):
+ * quantas operações e quanto dinheiro saem de cada conta, e opcionalmente
+ * do banco todo, por janela de tempo.
+ * <p>
+ * Cada limite é um balde de fichas (capacidade para uma janela inteira,
+ * reposto continuamente) guardado como GCRA: em vez das fichas, o instante
+ * em que o balde volta a estar cheio, em nanossegundos. Tomar fichas é um
+ * compare-and-set nesse instante, sem trava.
+ * <p>
+ * Os baldes das contas ficam em tabelas de endereçamento aberto de
+ * {@code long}, divididas em segmentos: cada conta ocupa três {@code long}
+ * seguidos (uma chave de 64 bits do número e os dois instantes), então
+ * tomar as fichas custa uma busca numa linha de cache e dois CAS, sem
+ * alocar. Um balde cheio equivale a nenhum balde; quando um segmento enche,
+ * ele é reconstruído sem os baldes cheios há uma janela inteira, e só
+ * cresce se as contas com movimento recente ainda o ocuparem.
+ * <p>
+ * O limite global não é um contador único, que todas as threads
+ * disputariam: é dividido em faixas (uma linha de cache cada), cada uma com
+ * uma parte da capacidade e escolhida pela thread. Quando a faixa da thread
+ * não basta, as fichas que faltam são tomadas das outras faixas, então o
+ * total respeita exatamente o limite global.
+ * <p>
+ * Uma operação que não acontece depois de tomar as fichas (saldo
+ * insuficiente, conta inativa) as devolve; a devolução ao limite global vai
+ * para a faixa da thread e se perde se essa faixa já estiver cheia, ou
+ * seja, o erro é sempre a favor do limite.
+ */
+public final class LimitesMovimentacao {
+
+    /**
+     * Operações e valor permitidos por janela.
+     */
+    public static final class Limite {
+        private final int operacoes;
+        private final long valorCentavos;
+        private final Duration janela;
+
+        /**
+         * @param operacoes Saques e transferências por janela
+         * @param valor Valor somado por janela
+         * @param janela Tempo em que a capacidade inteira é reposta
+         */
+        public Limite(int operacoes, double valor, Duration janela) {
+            this.operacoes = operacoes;
+            this.valorCentavos = Moeda.paraCentavos(valor);
+            this.janela = janela;
+            if (operacoes <= 0 || valorCentavos <= 0 || janela.isNegative() || janela.isZero()){
+                throw new IllegalArgumentException("Operações, valor e janela devem ser positivos");
+            }
+        }
+
+        public int getOperacoes() {
+            return operacoes;
+        }
+
+        public long getValorCentavos() {
+            return valorCentavos;
+        }
+
+        public Duration getJanela() {
+            return janela;
+        }
+
+        @Override
+        public String toString() {
+            return operacoes + " operações e R$" + Moeda.formatar(valorCentavos) + " a cada " + janela;
+        }
+    }
+
+    private static final VarHandle CHEIO_EM = MethodHandles.arrayElementVarHandle(long[].class);
+    /** Longs por conta na tabela: chave, quantidade e valor. */
+    private static final int PASSO = 3;
+    private static final int QUANTIDADE = 1;
+    private static final int VALOR = 2;
+    /** Marca um balde já copiado para a tabela reconstruída do segmento. */
+    private static final long MOVIDO = Long.MIN_VALUE;
+    /** Longs entre faixas do limite global, para não dividirem linha de cache. */
+    private static final int PASSO_FAIXA = 8;
+    private static final int CAPACIDADE_INICIAL = 256;
+
+    private static final int TOMADO = 0;
+    private static final int RECUSADO = 1;
+    private static final int BALDE_MOVIDO = 2;
+
+    /**
+     * Parte das contas, numa tabela de endereçamento aberto com sondagem
+     * linear. Buscas e fichas não usam trava; inclusões e reconstruções
+     * (que descartam os baldes ociosos) usam a trava do segmento.
+     */
+    private static final class Segmento {
+        private final ReentrantLock trava = new ReentrantLock();
+        private volatile long[] tabela = new long[CAPACIDADE_INICIAL * PASSO];
+        /** Alterado só com {@link #trava}. */
+        private volatile int ocupadas;
+    }
+
+    private final Limite porConta;
+    private final Limite global;
+    private final LongSupplier relogio;
+    private final long inicio;
+
+    private final long janelaConta;
+    private final long custoOperacaoConta;
+    private final double nanosPorCentavoConta;
+    private final Segmento[] segmentos;
+    private final int mascaraSegmentos;
+
+    private final long janelaGlobal;
+    private final long[] faixas;
+    private final int mascaraFaixas;
+    private final double nanosPorOperacaoFaixa;
+    private final double nanosPorCentavoFaixa;
+
+    private final LongAdder recusadas = new LongAdder();
+
+    /**
+     * Só o limite por conta.
+     */
+    public LimitesMovimentacao(Limite porConta) {
+        this(porConta, null, System::nanoTime);
+    }
+
+    /**
+     * @param porConta Limite de cada conta de origem
+     * @param global Limite de todas as contas somadas, ou null
+     * @param relogio Instante atual em nanossegundos (como {@link System#nanoTime()})
+     */
+    public LimitesMovimentacao(Limite porConta, Limite global, LongSupplier relogio) {
+        this.porConta = porConta;
+        this.global = global;
+        this.relogio = relogio;
+        this.inicio = relogio.getAsLong();
+        this.janelaConta = porConta.janela.toNanos();
+        this.custoOperacaoConta = Math.max(1, janelaConta / porConta.operacoes);
+        this.nanosPorCentavoConta = (double) janelaConta / porConta.valorCentavos;
+        int processadores = Integer.highestOneBit(4 * Runtime.getRuntime().availableProcessors() - 1) << 1;
+        this.segmentos = new Segmento[4 * processadores];
+        for (int i = 0; i < segmentos.length; i++){
+            segmentos[i] = new Segmento();
+        }
+        this.mascaraSegmentos = segmentos.length - 1;
+        if (global == null){
+            this.janelaGlobal = 0;
+            this.faixas = null;
+            this.mascaraFaixas = 0;
+            this.nanosPorOperacaoFaixa = 0;
+            this.nanosPorCentavoFaixa = 0;
+            return;
+        }
+        // Cada faixa precisa caber ao menos uma operação.
+        int quantidadeFaixas = Math.min(processadores, Integer.highestOneBit(global.operacoes));
+        this.janelaGlobal = global.janela.toNanos();
+        this.faixas = new long[quantidadeFaixas * PASSO_FAIXA];
+        this.mascaraFaixas = quantidadeFaixas - 1;
+        this.nanosPorOperacaoFaixa = (double) janelaGlobal * quantidadeFaixas / global.operacoes;
+        this.nanosPorCentavoFaixa = (double) janelaGlobal * quantidadeFaixas / global.valorCentavos;
+    }
+
+    public Limite getPorConta() {
+        return porConta;
+    }
+
+    /**
+     * @return o limite global, ou null
+     */
+    public Limite getGlobal() {
+        return global;
+    }
+
+    /**
+     * @return operações recusadas por algum limite
+     */
+    public long getRecusadas() {
+        return recusadas.sum();
+    }
+
+    /**
+     * @return contas com balde (as que movimentaram desde a última
+     *         reconstrução do seu segmento, ou na janela anterior a ela)
+     */
+    public int getContasAcompanhadas() {
+        int total = 0;
+        for (Segmento segmento : segmentos){
+            total += segmento.ocupadas;
+        }
+        return total;
+    }
+
+    /**
+     * Toma uma operação e o valor dos limites da conta e, se houver, do
+     * global. Se algum recusar, nada é tomado.
+     *
+     * @return false se a operação excede algum limite
+     */
+    public boolean tomar(String conta, long centavos) {
+        if (centavos > porConta.valorCentavos || (global != null && centavos > global.valorCentavos)){
+            recusadas.increment();
+            return false;
+        }
+        long agora = relogio.getAsLong() - inicio;
+        long chave = chave(conta);
+        Segmento segmento = segmentos[(int) (chave >>> 40) & mascaraSegmentos];
+        long custoValor = (long) Math.ceil(centavos * nanosPorCentavoConta);
+        while (true){
+            long[] tabela = segmento.tabela;
+            int i = localizar(tabela, chave);
+            if (i < 0){
+                incluir(segmento, chave, agora);
+                continue;
+            }
+            int resultado = tomarTudo(tabela, i + QUANTIDADE, agora, custoOperacaoConta, janelaConta);
+            if (resultado == BALDE_MOVIDO){
+                aguardarReconstrucao(segmento);
+                continue;
+            }
+            if (resultado == RECUSADO){
+                recusadas.increment();
+                return false;
+            }
+            resultado = tomarTudo(tabela, i + VALOR, agora, custoValor, janelaConta);
+            if (resultado == TOMADO){
+                break;
+            }
+            // A quantidade tomada pode já estar na tabela nova.
+            devolverConta(segmento, chave, QUANTIDADE, custoOperacaoConta);
+            if (resultado == RECUSADO){
+                recusadas.increment();
+                return false;
+            }
+        }
+        if (global != null && !tomarGlobal(centavos, agora)){
+            devolverConta(segmento, chave, QUANTIDADE, custoOperacaoConta);
+            devolverConta(segmento, chave, VALOR, custoValor);
+            recusadas.increment();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Devolve o que {@link #tomar} tomou, para uma operação que não aconteceu.
+     */
+    public void devolver(String conta, long centavos) {
+        long chave = chave(conta);
+        Segmento segmento = segmentos[(int) (chave >>> 40) & mascaraSegmentos];
+        devolverConta(segmento, chave, QUANTIDADE, custoOperacaoConta);
+        devolverConta(segmento, chave, VALOR, (long) Math.ceil(centavos * nanosPorCentavoConta));
+        if (global != null){
+            int faixa = faixaDaThread();
+            devolverEm(faixas, faixa * PASSO_FAIXA + QUANTIDADE, (long) nanosPorOperacaoFaixa);
+            devolverEm(faixas, faixa * PASSO_FAIXA + VALOR, (long) (centavos * nanosPorCentavoFaixa));
+        }
+    }
+
+    /**
+     * Reconstrói todos os segmentos, descartando os baldes cheios há uma
+     * janela inteira. Acontece sozinho, segmento a segmento, quando um
+     * segmento enche.
+     *
+     * @return quantos baldes foram descartados
+     */
+    public int removerOciosos() {
+        long agora = relogio.getAsLong() - inicio;
+        int removidos = 0;
+        for (Segmento segmento : segmentos){
+            segmento.trava.lock();
+            try{
+                int antes = segmento.ocupadas;
+                reconstruir(segmento, agora, false);
+                removidos += antes - segmento.ocupadas;
+            } finally {
+                segmento.trava.unlock();
+            }
+        }
+        return removidos;
+    }
+
+    /**
+     * Chave de 64 bits do número da conta, nunca 0. Dois números com a mesma
+     * chave dividiriam o balde (a favor do limite); com 64 bits a chance é
+     * desprezível.
+     */
+    private static long chave(String numero) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < numero.length(); i++){
+            h = (h ^ numero.charAt(i)) * 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        return h == 0 ? 1 : h;
+    }
+
+    /**
+     * @return a posição da chave na tabela, ou -1
+     */
+    private static int localizar(long[] tabela, long chave) {
+        int mascara = tabela.length / PASSO - 1;
+        for (int i = (int) chave & mascara; ; i = (i + 1) & mascara){
+            long atual = (long) CHEIO_EM.getAcquire(tabela, i * PASSO);
+            if (atual == chave){
+                return i * PASSO;
+            }
+            if (atual == 0){
+                return -1;
+            }
+        }
+    }
+
+    private void incluir(Segmento segmento, long chave, long agora) {
+        segmento.trava.lock();
+        try{
+            if (localizar(segmento.tabela, chave) >= 0){
+                return;
+            }
+            long[] tabela = segmento.tabela;
+            if (segmento.ocupadas + 1 > tabela.length / PASSO / 4 * 3){
+                reconstruir(segmento, agora, true);
+                tabela = segmento.tabela;
+            }
+            inserir(tabela, chave, 0, 0);
+            segmento.ocupadas++;
+        } finally {
+            segmento.trava.unlock();
+        }
+    }
+
+    /**
+     * Copia os baldes para uma tabela nova, sem os cheios há uma janela,
+     * com o dobro da capacidade se ainda estiver mais que metade cheia (ou
+     * se {@code crescer} e não houver espaço para mais uma). Cada balde
+     * copiado é marcado como movido na tabela antiga, então uma ficha tomada
+     * nela ou já foi copiada ou falha e é tomada de novo na tabela nova.
+     */
+    private void reconstruir(Segmento segmento, long agora, boolean crescer) {
+        long[] antiga = segmento.tabela;
+        long ociosoAte = agora - janelaConta;
+        int estimadas = 0;
+        for (int i = 0; i < antiga.length; i += PASSO){
+            if (antiga[i] != 0 && ((long) CHEIO_EM.getVolatile(antiga, i + QUANTIDADE) > ociosoAte
+                    || (long) CHEIO_EM.getVolatile(antiga, i + VALOR) > ociosoAte)){
+                estimadas++;
+            }
+        }
+        int capacidade = antiga.length / PASSO;
+        while (estimadas * 2 > capacidade || (crescer && estimadas + 1 > capacidade / 4 * 3)){
+            capacidade *= 2;
+        }
+        long[] nova = new long[capacidade * PASSO];
+        int vivas = 0;
+        for (int i = 0; i < antiga.length; i += PASSO){
+            if (antiga[i] == 0){
+                continue;
+            }
+            long quantidade = marcarMovido(antiga, i + QUANTIDADE);
+            long valor = marcarMovido(antiga, i + VALOR);
+            if (quantidade > ociosoAte || valor > ociosoAte){
+                inserir(nova, antiga[i], quantidade, valor);
+                vivas++;
+            }
+        }
+        segmento.tabela = nova;
+        segmento.ocupadas = vivas;
+    }
+
+    private static void inserir(long[] tabela, long chave, long quantidade, long valor) {
+        int mascara = tabela.length / PASSO - 1;
+        int i = (int) chave & mascara;
+        while (tabela[i * PASSO] != 0){
+            i = (i + 1) & mascara;
+        }
+        tabela[i * PASSO + QUANTIDADE] = quantidade;
+        tabela[i * PASSO + VALOR] = valor;
+        CHEIO_EM.setRelease(tabela, i * PASSO, chave);
+    }
+
+    private static long marcarMovido(long[] tabela, int indice) {
+        while (true){
+            long cheioEm = (long) CHEIO_EM.getVolatile(tabela, indice);
+            if (CHEIO_EM.compareAndSet(tabela, indice, cheioEm, MOVIDO)){
+                return cheioEm;
+            }
+        }
+    }
+
+    /**
+     * Espera a reconstrução em andamento no segmento terminar.
+     */
+    private static void aguardarReconstrucao(Segmento segmento) {
+        segmento.trava.lock();
+        segmento.trava.unlock();
+    }
+
+    /**
+     * Devolve fichas ao balde da conta, na tabela atual do segmento.
+     */
+    private static void devolverConta(Segmento segmento, long chave, int campo, long custo) {
+        while (true){
+            long[] tabela = segmento.tabela;
+            int i = localizar(tabela, chave);
+            if (i < 0 || devolverEm(tabela, i + campo, custo)){
+                return;
+            }
+            aguardarReconstrucao(segmento);
+        }
+    }
+
+    /**
+     * Toma uma operação e o valor das faixas do limite global, começando
+     * pela faixa da thread. Só aloca quando precisa de mais de uma faixa.
+     */
+    private boolean tomarGlobal(long centavos, long agora) {
+        int primeira = faixaDaThread();
+        int quantidade = -1;
+        for (int f = 0; f <= mascaraFaixas && quantidade < 0; f++){
+            int faixa = (primeira + f) & mascaraFaixas;
+            if (tomarAte(faixa * PASSO_FAIXA + QUANTIDADE, 1, nanosPorOperacaoFaixa, agora) == 1){
+                quantidade = faixa;
+            }
+        }
+        if (quantidade < 0){
+            return false;
+        }
+        long tomados = tomarAte(primeira * PASSO_FAIXA + VALOR, centavos, nanosPorCentavoFaixa, agora);
+        if (tomados == centavos){
+            return true;
+        }
+        long[] porFaixa = new long[mascaraFaixas + 1];
+        porFaixa[primeira] = tomados;
+        for (int f = 1; f <= mascaraFaixas && tomados < centavos; f++){
+            int faixa = (primeira + f) & mascaraFaixas;
+            porFaixa[faixa] = tomarAte(faixa * PASSO_FAIXA + VALOR, centavos - tomados, nanosPorCentavoFaixa, agora);
+            tomados += porFaixa[faixa];
+        }
+        if (tomados == centavos){
+            return true;
+        }
+        devolverEm(faixas, quantidade * PASSO_FAIXA + QUANTIDADE, (long) nanosPorOperacaoFaixa);
+        for (int faixa = 0; faixa <= mascaraFaixas; faixa++){
+            if (porFaixa[faixa] > 0){
+                devolverEm(faixas, faixa * PASSO_FAIXA + VALOR, (long) (porFaixa[faixa] * nanosPorCentavoFaixa));
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Toma até {@code unidades} fichas de uma faixa, quantas houver.
+     *
+     * @return quantas foram tomadas
+     */
+    private long tomarAte(int indice, long unidades, double nanosPorUnidade, long agora) {
+        while (true){
+            long cheioEm = (long) CHEIO_EM.getVolatile(faixas, indice);
+            long base = Math.max(cheioEm, agora);
+            long livres = (long) ((agora + janelaGlobal - base) / nanosPorUnidade);
+            if (livres <= 0){
+                return 0;
+            }
+            long tomadas = Math.min(livres, unidades);
+            long novo = Math.min(base + (long) Math.ceil(tomadas * nanosPorUnidade), agora + janelaGlobal);
+            if (CHEIO_EM.compareAndSet(faixas, indice, cheioEm, novo)){
+                return tomadas;
+            }
+        }
+    }
+
+    private static int tomarTudo(long[] balde, int indice, long agora, long custo, long janela) {
+        while (true){
+            long cheioEm = (long) CHEIO_EM.getVolatile(balde, indice);
+            if (cheioEm == MOVIDO){
+                return BALDE_MOVIDO;
+            }
+            long novo = Math.max(cheioEm, agora) + custo;
+            if (novo - agora > janela){
+                return RECUSADO;
+            }
+            if (CHEIO_EM.compareAndSet(balde, indice, cheioEm, novo)){
+                return TOMADO;
+            }
+        }
+    }
+
+    /**
+     * Recua o instante de balde cheio, no máximo até o início (balde cheio).
+     *
+     * @return false se o balde foi movido para outra tabela
+     */
+    private static boolean devolverEm(long[] estado, int indice, long custo) {
+        while (true){
+            long cheioEm = (long) CHEIO_EM.getVolatile(estado, indice);
+            if (cheioEm == MOVIDO){
+                return false;
+            }
+            if (CHEIO_EM.compareAndSet(estado, indice, cheioEm, Math.max(0, cheioEm - custo))){
+                return true;
+            }
+        }
+    }
+
+    private int faixaDaThread() {
+        return (int) ((Thread.currentThread().getId() * 0x9E3779B97F4A7C15L) >>> 40) & mascaraFaixas;
+    }
+}
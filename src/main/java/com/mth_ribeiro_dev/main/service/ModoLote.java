@@ -0,0 +1,21 @@
+package service;
+
+/**
+ * Como {@link BancoService#executarLote} trata itens que falham.
+ */
+public enum ModoLote {
+
+    /**
+     * Ou todos os itens são aplicados, ou nenhum. O lote é aceito se cada
+     * item pudesse ser aplicado na ordem da lista: o saldo de cada conta tem
+     * de cobrir o maior déficit acumulado pelos itens sobre ela, não só o
+     * efeito líquido.
+     */
+    TUDO_OU_NADA,
+
+    /**
+     * Cada item é aplicado na ordem da lista, se possível; itens recusados
+     * não impedem os demais.
+     */
+    MELHOR_ESFORCO
+}
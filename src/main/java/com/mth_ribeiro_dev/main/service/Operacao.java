@@ -0,0 +1,59 @@
+package service;
+
+/**
+ * Item de um lote executado por {@link BancoService#executarLote}.
+ */
+public final class Operacao {
+
+    public enum Tipo {
+        DEPOSITO,
+        SAQUE,
+        TRANSFERENCIA
+    }
+
+    private final Tipo tipo;
+    private final String numeroConta;
+    private final String numeroDestino;
+    private final double valor;
+
+    private Operacao(Tipo tipo, String numeroConta, String numeroDestino, double valor) {
+        this.tipo = tipo;
+        this.numeroConta = numeroConta;
+        this.numeroDestino = numeroDestino;
+        this.valor = valor;
+    }
+
+    public static Operacao deposito(String numeroConta, double valor) {
+        return new Operacao(Tipo.DEPOSITO, numeroConta, null, valor);
+    }
+
+    public static Operacao saque(String numeroConta, double valor) {
+        return new Operacao(Tipo.SAQUE, numeroConta, null, valor);
+    }
+
+    public static Operacao transferencia(String numeroOrigem, String numeroDestino, double valor) {
+        return new Operacao(Tipo.TRANSFERENCIA, numeroOrigem, numeroDestino, valor);
+    }
+
+    public Tipo getTipo() {
+        return tipo;
+    }
+
+    /**
+     * @return A conta do depósito ou saque, ou a origem da transferência
+     */
+    public String getNumeroConta() {
+        return numeroConta;
+    }
+
+    /**
+     * @return A conta destino da transferência, ou null
+     */
+    public String getNumeroDestino() {
+        return numeroDestino;
+    }
+
+    public double getValor() {
+        return valor;
+    }
+}
@@ -0,0 +1,325 @@
+package service;
+
+import model.Conta;
+import model.ResultadoOperacao;
+import model.TipoMovimento;
+import repositorio.RepositorioContas;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Uma fatia das contas de {@link BancoServiceParticionado} com uma única
+ * thread, a única que altera essas contas.
+ * <p>
+ * Outras threads podem ler as contas (o repositório aceita buscas
+ * concorrentes e o saldo é volátil), mas toda alteração chega como
+ * {@link Comando} pelo anel e é aplicada em ordem, sem disputa com ninguém.
+ * <p>
+ * Quem chama de fora espera se o anel estiver cheio. A partição nunca espera
+ * por outra: uma mensagem que não cabe no anel da outra partição vai para uma
+ * fila local e é reenviada nas voltas seguintes. Assim duas partições que
+ * trocam transferências não travam uma esperando a outra.
+ * <p>
+ * Depois de {@link #encerrar()} nenhum comando fica sem resposta: os que
+ * chegam são recusados e os que estavam no anel ou na fila local falham com
+ * {@link IllegalStateException}. Quem publica confere o encerramento de novo
+ * depois de publicar e, se a partição parou nesse meio tempo, descarta o
+ * anel ele mesmo.
+ */
+final class Particao implements Runnable {
+
+    private static final int VOLTAS_ANTES_DE_DORMIR = 200;
+    private static final int VOLTAS_ANTES_DE_CEDER = 64;
+
+    final RepositorioContas contas;
+    private final AnelComandos anel;
+    final LongAdder emTransito;
+    private final ArrayDeque<Comando> adiados = new ArrayDeque<>();
+    private final Thread thread;
+    private Particao[] todas;
+
+    private volatile boolean dormindo;
+    private volatile boolean encerrada;
+
+    Particao(int indice, RepositorioContas contas, int capacidadeAnel, LongAdder emTransito) {
+        this.contas = contas;
+        this.anel = new AnelComandos(capacidadeAnel);
+        this.emTransito = emTransito;
+        this.thread = new Thread(this, "particao-" + indice);
+        this.thread.setDaemon(true);
+    }
+
+    void iniciar(Particao[] todas) {
+        this.todas = todas;
+        thread.start();
+    }
+
+    void encerrar() throws InterruptedException {
+        encerrada = true;
+        LockSupport.unpark(thread);
+        thread.join();
+    }
+
+    /**
+     * Chamado por quem acabou de publicar no anel. Se a partição já parou, a
+     * thread dela pode ter descartado o anel antes da publicação; espera a
+     * thread terminar, para não haver dois consumidores, e descarta o que
+     * restou.
+     */
+    private void garantirResposta() {
+        if (!encerrada){
+            return;
+        }
+        boolean interrompida = false;
+        while (thread.isAlive()){
+            try{
+                thread.join();
+            } catch (InterruptedException e) {
+                interrompida = true;
+            }
+        }
+        if (interrompida){
+            Thread.currentThread().interrupt();
+        }
+        descartarAnel();
+    }
+
+    private synchronized void descartarAnel() {
+        Comando comando;
+        while ((comando = anel.retirar()) != null){
+            comando.falhar(new IllegalStateException("Partição encerrada"));
+        }
+    }
+
+    /**
+     * Entrega um comando vindo de fora das partições, esperando se o anel
+     * estiver cheio.
+     */
+    void enviar(Comando comando) {
+        if (encerrada){
+            throw new IllegalStateException("Partição encerrada");
+        }
+        int tentativas = 0;
+        while (!anel.oferecer(comando)){
+            if (encerrada){
+                throw new IllegalStateException("Partição encerrada");
+            }
+            if (++tentativas % VOLTAS_ANTES_DE_CEDER == 0){
+                Thread.yield();
+            } else {
+                Thread.onSpinWait();
+            }
+        }
+        acordar();
+        garantirResposta();
+    }
+
+    private void acordar() {
+        if (dormindo){
+            LockSupport.unpark(thread);
+        }
+    }
+
+    @Override
+    public void run() {
+        int ociosas = 0;
+        while (!encerrada){
+            if (!adiados.isEmpty()){
+                reenviarAdiados();
+            }
+            Comando comando = anel.retirar();
+            if (comando != null){
+                executar(comando);
+                ociosas = 0;
+            } else if (++ociosas < VOLTAS_ANTES_DE_DORMIR){
+                Thread.onSpinWait();
+            } else if (!adiados.isEmpty()){
+                // Quem vai liberar espaço é a outra partição.
+                Thread.yield();
+            } else {
+                dormindo = true;
+                if (anel.vazio() && !encerrada){
+                    LockSupport.park(this);
+                }
+                dormindo = false;
+                ociosas = 0;
+            }
+        }
+        descartarAnel();
+        Comando adiado;
+        while ((adiado = adiados.pollFirst()) != null){
+            adiado.falhar(new IllegalStateException("Partição encerrada"));
+        }
+    }
+
+    private void executar(Comando comando) {
+        try{
+            switch (comando.etapa){
+                case CRIAR:
+                    comando.conta = contas.guardar(new Conta(comando.numero, comando.titular, comando.centavos));
+                    comando.concluir(ResultadoOperacao.SUCESSO);
+                    break;
+                case DEPOSITO:
+                    depositar(comando);
+                    break;
+                case SAQUE:
+                    sacar(comando);
+                    break;
+                case INATIVAR:
+                    inativar(comando);
+                    break;
+                case DEBITO:
+                    debitar(comando);
+                    break;
+                case CREDITO:
+                    creditar(comando);
+                    break;
+                case ESTORNO:
+                    estornar(comando);
+                    break;
+                case TAREFA:
+                    comando.tarefa.run();
+                    comando.concluir(ResultadoOperacao.SUCESSO);
+                    break;
+            }
+        } catch (RuntimeException e) {
+            comando.falhar(e);
+        }
+    }
+
+    private void depositar(Comando comando) {
+        Conta conta = contas.buscar(comando.numero);
+        if (conta == null){
+            comando.concluir(ResultadoOperacao.CONTA_NAO_ENCONTRADA);
+            return;
+        }
+        conta.creditar(comando.centavos);
+        conta.getExtrato().registrar(TipoMovimento.DEPOSITO, comando.centavos, null);
+        comando.concluir(ResultadoOperacao.SUCESSO);
+    }
+
+    private void sacar(Comando comando) {
+        Conta conta = contas.buscar(comando.numero);
+        if (conta == null){
+            comando.concluir(ResultadoOperacao.CONTA_NAO_ENCONTRADA);
+            return;
+        }
+        ResultadoOperacao resultado = conta.tentarDebitar(comando.centavos);
+        if (resultado.isSucesso()){
+            conta.getExtrato().registrar(TipoMovimento.SAQUE, comando.centavos, null);
+        } else {
+            comando.conta = conta;
+            comando.saldoObservado = conta.getSaldoCentavos();
+        }
+        comando.concluir(resultado);
+    }
+
+    private void inativar(Comando comando) {
+        Conta conta = contas.buscar(comando.numero);
+        if (conta == null){
+            comando.concluir(ResultadoOperacao.CONTA_NAO_ENCONTRADA);
+            return;
+        }
+        conta.inativar();
+        comando.concluir(ResultadoOperacao.SUCESSO);
+    }
+
+    /**
+     * Primeira fase da transferência, na partição da origem. Com o destino
+     * na mesma partição a transferência termina aqui; senão o valor fica em
+     * trânsito até a partição do destino creditar.
+     */
+    private void debitar(Comando comando) {
+        Conta origem = contas.buscar(comando.numero);
+        Particao particaoDestino = todas[BancoServiceParticionado.indice(comando.destino, todas.length)];
+        Conta destino = particaoDestino.contas.buscar(comando.destino);
+        if (origem == null || destino == null){
+            comando.concluir(ResultadoOperacao.CONTA_NAO_ENCONTRADA);
+            return;
+        }
+        ResultadoOperacao resultado = origem.tentarDebitar(comando.centavos);
+        if (!resultado.isSucesso()){
+            comando.conta = origem;
+            comando.saldoObservado = origem.getSaldoCentavos();
+            comando.concluir(resultado);
+            return;
+        }
+        comando.conta = origem;
+        if (particaoDestino == this){
+            try{
+                destino.creditar(comando.centavos);
+            } catch (RuntimeException e) {
+                origem.creditar(comando.centavos);
+                throw e;
+            }
+            lancarTransferencia(origem, destino, comando.centavos);
+            comando.concluir(ResultadoOperacao.SUCESSO);
+            return;
+        }
+        emTransito.add(comando.centavos);
+        comando.etapa = Comando.Etapa.CREDITO;
+        encaminhar(comando, particaoDestino);
+    }
+
+    private void creditar(Comando comando) {
+        Conta destino = contas.buscar(comando.destino);
+        try{
+            destino.creditar(comando.centavos);
+        } catch (RuntimeException e) {
+            comando.falha = e;
+            comando.etapa = Comando.Etapa.ESTORNO;
+            encaminhar(comando, todas[BancoServiceParticionado.indice(comando.numero, todas.length)]);
+            return;
+        }
+        emTransito.add(-comando.centavos);
+        lancarTransferencia(comando.conta, destino, comando.centavos);
+        comando.concluir(ResultadoOperacao.SUCESSO);
+    }
+
+    /**
+     * Devolve à origem o valor de uma transferência cujo crédito falhou.
+     * Crédito é aceito mesmo em conta inativada nesse meio tempo.
+     */
+    private void estornar(Comando comando) {
+        comando.conta.creditar(comando.centavos);
+        emTransito.add(-comando.centavos);
+        comando.falhar(comando.falha);
+    }
+
+    /**
+     * O extrato aceita registros de várias threads; a partição do destino
+     * lança os dois lados só depois de o crédito estar feito.
+     */
+    private static void lancarTransferencia(Conta origem, Conta destino, long centavos) {
+        origem.getExtrato().registrar(TipoMovimento.TRANSFERENCIA_ENVIADA, centavos, destino.getNumero());
+        destino.getExtrato().registrar(TipoMovimento.TRANSFERENCIA_RECEBIDA, centavos, origem.getNumero());
+    }
+
+    /**
+     * Passa um comando para outra partição sem nunca esperar por ela.
+     */
+    private void encaminhar(Comando comando, Particao particao) {
+        if (adiados.isEmpty() && particao.anel.oferecer(comando)){
+            particao.acordar();
+            particao.garantirResposta();
+        } else {
+            adiados.addLast(comando);
+        }
+    }
+
+    private void reenviarAdiados() {
+        Comando comando;
+        while ((comando = adiados.peekFirst()) != null){
+            String numero = comando.etapa == Comando.Etapa.CREDITO ? comando.destino : comando.numero;
+            Particao particao = todas[BancoServiceParticionado.indice(numero, todas.length)];
+            if (!particao.anel.oferecer(comando)){
+                return;
+            }
+            adiados.pollFirst();
+            particao.acordar();
+            particao.garantirResposta();
+        }
+    }
+}
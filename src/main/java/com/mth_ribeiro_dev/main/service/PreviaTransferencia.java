@@ -0,0 +1,66 @@
+package service;
+
+import model.Moeda;
+import model.ResultadoOperacao;
+import model.SituacaoConta;
+
+/**
+ * O que uma transferência faria se fosse feita agora, gerada por
+ * {@link BancoService#previsualizarTransferencia(String, String, double)}
+ * sobre a origem e o destino lidos num mesmo instante. Não reserva nada: a
+ * transferência de fato pode ter outro resultado se as contas mudarem antes.
+ */
+public final class PreviaTransferencia {
+
+    private final SituacaoConta origem;
+    private final SituacaoConta destino;
+    private final long valorCentavos;
+    private final ResultadoOperacao resultado;
+
+    PreviaTransferencia(SituacaoConta origem, SituacaoConta destino, long valorCentavos, ResultadoOperacao resultado) {
+        this.origem = origem;
+        this.destino = destino;
+        this.valorCentavos = valorCentavos;
+        this.resultado = resultado;
+    }
+
+    public SituacaoConta getOrigem() {
+        return origem;
+    }
+
+    public SituacaoConta getDestino() {
+        return destino;
+    }
+
+    /**
+     * @return o resultado que {@link BancoService#tentarTransferir} daria
+     */
+    public ResultadoOperacao getResultado() {
+        return resultado;
+    }
+
+    /**
+     * @return o saldo da origem depois da transferência (o atual se ela seria recusada)
+     */
+    public long getSaldoOrigemDepoisCentavos() {
+        if (!resultado.isSucesso() || origem.getNumero().equals(destino.getNumero())){
+            return origem.getSaldoCentavos();
+        }
+        return origem.getSaldoCentavos() - valorCentavos;
+    }
+
+    /**
+     * @return o saldo do destino depois da transferência (o atual se ela seria recusada)
+     */
+    public long getSaldoDestinoDepoisCentavos() {
+        if (!resultado.isSucesso() || origem.getNumero().equals(destino.getNumero())){
+            return destino.getSaldoCentavos();
+        }
+        return destino.getSaldoCentavos() + valorCentavos;
+    }
+
+    @Override
+    public String toString() {
+        return "R$" + Moeda.formatar(valorCentavos) + " de " + origem + " para " + destino + ": " + resultado;
+    }
+}
@@ -0,0 +1,138 @@
+package service;
+
+import model.Conta;
+import persistencia.LeitorJournal;
+import repositorio.RepositorioContas;
+
+import java.time.LocalDate;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Reconstrói as contas a partir dos registros do journal e, se houver, de um
+ * snapshot.
+ * <p>
+ * O serviço anexa cada registro junto com a alteração que ele descreve, sob
+ * as travas das contas tocadas, então os registros de cada conta estão na
+ * ordem em que foram aplicados e o journal lido (um prefixo, se houve queda)
+ * é o estado de uma execução serial das mesmas operações: nenhum saldo fica
+ * negativo. Os registros não são reaplicados com as validações de
+ * {@link Conta}, que dependem da data de hoje e de extratos: os valores são
+ * somados em acumuladores. O journal é lido antes do snapshot: para uma
+ * conta que o journal não criou, o acumulador guarda a variação sobre o
+ * saldo do snapshot, somada quando a conta é lida dele
+ * ({@link #restaurar}). Assim cada conta é guardada uma vez só no
+ * repositório, que recusa números repetidos. Um saldo final negativo indica
+ * um journal corrompido.
+ */
+final class RecuperacaoContas implements LeitorJournal {
+
+    private static final class Estado {
+        /** null enquanto a conta não foi criada pelo journal. */
+        private final String titular;
+        /** Saldo, ou a variação sobre o snapshot se o journal não criou a conta. */
+        private long saldoCentavos;
+        private LocalDate dataInativacao;
+
+        private Estado(String titular, long saldoCentavos, LocalDate dataInativacao) {
+            this.titular = titular;
+            this.saldoCentavos = saldoCentavos;
+            this.dataInativacao = dataInativacao;
+        }
+    }
+
+    private final long sequenciaInicial;
+    private final Map<String, Estado> estados = new HashMap<>();
+
+    /**
+     * @param sequenciaInicial Última sequência já contida no snapshot (0 sem
+     *                         snapshot)
+     */
+    RecuperacaoContas(long sequenciaInicial) {
+        this.sequenciaInicial = sequenciaInicial;
+    }
+
+    @Override
+    public void contaCriada(long sequencia, String numero, String titular, long saldoCentavos) {
+        if (sequencia > sequenciaInicial){
+            estados.put(numero, new Estado(titular, saldoCentavos, null));
+        }
+    }
+
+    @Override
+    public void deposito(long sequencia, String numero, long centavos) {
+        if (sequencia > sequenciaInicial){
+            estado(numero).saldoCentavos += centavos;
+        }
+    }
+
+    @Override
+    public void saque(long sequencia, String numero, long centavos) {
+        if (sequencia > sequenciaInicial){
+            estado(numero).saldoCentavos -= centavos;
+        }
+    }
+
+    @Override
+    public void transferencia(long sequencia, String numeroOrigem, String numeroDestino, long centavos) {
+        if (sequencia > sequenciaInicial){
+            estado(numeroOrigem).saldoCentavos -= centavos;
+            estado(numeroDestino).saldoCentavos += centavos;
+        }
+    }
+
+    @Override
+    public void inativacao(long sequencia, String numero, LocalDate data) {
+        if (sequencia > sequenciaInicial){
+            estado(numero).dataInativacao = data;
+        }
+    }
+
+    /**
+     * Combina uma conta do snapshot com o que o journal registrou depois
+     * dele. Chamado depois de reproduzir o journal.
+     *
+     * @return A conta com o estado final
+     */
+    Conta restaurar(String numero, String titular, long saldoCentavos, LocalDate dataInativacao) {
+        Estado estado = estados.remove(numero);
+        if (estado == null){
+            return Conta.restaurar(numero, titular, saldoCentavos, dataInativacao);
+        }
+        if (estado.titular == null){
+            estado = new Estado(titular, saldoCentavos + estado.saldoCentavos,
+                    dataInativacao != null ? dataInativacao : estado.dataInativacao);
+        }
+        return restaurar(numero, estado);
+    }
+
+    /**
+     * Guarda as contas do journal que não estavam no snapshot.
+     */
+    void carregarEm(RepositorioContas contas) {
+        for (Map.Entry<String, Estado> entrada : estados.entrySet()){
+            if (entrada.getValue().titular == null){
+                throw new IllegalStateException("Journal inconsistente: conta "+entrada.getKey()
+                        +" usada sem ter sido criada");
+            }
+            contas.guardar(restaurar(entrada.getKey(), entrada.getValue()));
+        }
+    }
+
+    private static Conta restaurar(String numero, Estado estado) {
+        if (estado.saldoCentavos < 0){
+            throw new IllegalStateException("Journal inconsistente: saldo negativo na conta "+numero);
+        }
+        return Conta.restaurar(numero, estado.titular, estado.saldoCentavos, estado.dataInativacao);
+    }
+
+    /**
+     * Uma conta ainda desconhecida começa sem titular, acumulando a variação
+     * sobre o snapshot, até o registro de criação (que a substitui) ou até
+     * ser lida do snapshot; se nenhum dos dois vier, o journal está
+     * inconsistente.
+     */
+    private Estado estado(String numero) {
+        return estados.computeIfAbsent(numero, n -> new Estado(null, 0, null));
+    }
+}
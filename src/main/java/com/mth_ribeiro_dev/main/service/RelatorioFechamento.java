@@ -0,0 +1,203 @@
+package service;
+
+import model.Moeda;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Totais de todas as contas em um instante, gerados por
+ * {@link BancoService#gerarRelatorio(int)} para o fechamento do dia.
+ * <p>
+ * Faixas de saldo: a faixa 0 tem as contas zeradas e a faixa {@code i} as
+ * contas cujo saldo em centavos tem {@code i} dígitos (faixa 3: R$1,00 a
+ * R$9,99). A última faixa junta todos os saldos maiores.
+ */
+public final class RelatorioFechamento {
+
+    public static final int FAIXAS = 14;
+
+    /**
+     * Uma conta entre as de maior saldo.
+     */
+    public static final class Posicao {
+        private final String numero;
+        private final String titular;
+        private final long saldoCentavos;
+        private final boolean ativa;
+
+        Posicao(String numero, String titular, long saldoCentavos, boolean ativa) {
+            this.numero = numero;
+            this.titular = titular;
+            this.saldoCentavos = saldoCentavos;
+            this.ativa = ativa;
+        }
+
+        public String getNumero() {
+            return numero;
+        }
+
+        public String getTitular() {
+            return titular;
+        }
+
+        public long getSaldoCentavos() {
+            return saldoCentavos;
+        }
+
+        public boolean isAtiva() {
+            return ativa;
+        }
+
+        @Override
+        public String toString() {
+            return numero + " (" + titular + "): R$" + Moeda.formatar(saldoCentavos);
+        }
+    }
+
+    private static final Comparator<Posicao> POR_SALDO = Comparator.comparingLong(Posicao::getSaldoCentavos);
+
+    private final Instant instante;
+    private final long duracaoNanos;
+    private final long contasAtivas;
+    private final long contasInativas;
+    private final long saldoTotalCentavos;
+    private final long[] faixas;
+    private final List<Posicao> maiores;
+
+    private RelatorioFechamento(Instant instante, long duracaoNanos, Acumulador acumulador) {
+        this.instante = instante;
+        this.duracaoNanos = duracaoNanos;
+        this.contasAtivas = acumulador.ativas;
+        this.contasInativas = acumulador.inativas;
+        this.saldoTotalCentavos = acumulador.saldoTotal;
+        this.faixas = acumulador.faixas;
+        List<Posicao> ordenadas = new ArrayList<>(acumulador.maiores);
+        ordenadas.sort(POR_SALDO.reversed());
+        this.maiores = Collections.unmodifiableList(ordenadas);
+    }
+
+    /**
+     * @return o instante a que os números se referem
+     */
+    public Instant getInstante() {
+        return instante;
+    }
+
+    /**
+     * @return quanto tempo levou a varredura das contas
+     */
+    public long getDuracaoNanos() {
+        return duracaoNanos;
+    }
+
+    public long getContasAtivas() {
+        return contasAtivas;
+    }
+
+    public long getContasInativas() {
+        return contasInativas;
+    }
+
+    /**
+     * @return a soma dos saldos de todas as contas, ativas e inativas
+     */
+    public long getSaldoTotalCentavos() {
+        return saldoTotalCentavos;
+    }
+
+    /**
+     * @return quantas contas há em cada faixa de saldo
+     */
+    public long[] getFaixasSaldo() {
+        return faixas.clone();
+    }
+
+    /**
+     * @return o menor saldo da faixa, em centavos
+     */
+    public static long limiteInferior(int faixa) {
+        long limite = faixa == 0 ? 0 : 1;
+        for (int i = 1; i < faixa; i++){
+            limite *= 10;
+        }
+        return limite;
+    }
+
+    /**
+     * @return as contas de maior saldo, da maior para a menor
+     */
+    public List<Posicao> getMaiores() {
+        return maiores;
+    }
+
+    static int faixa(long saldoCentavos) {
+        int faixa = 0;
+        for (long resto = saldoCentavos; resto > 0 && faixa < FAIXAS - 1; resto /= 10){
+            faixa++;
+        }
+        return faixa;
+    }
+
+    /**
+     * Totais parciais de uma parte das contas; as partes percorridas em
+     * paralelo são juntadas no fim. Só aloca para contas que entram, ao menos
+     * por enquanto, entre as maiores.
+     */
+    static final class Acumulador {
+        private final int quantidadeMaiores;
+        private final PriorityQueue<Posicao> maiores;
+        private final long[] faixas = new long[FAIXAS];
+        private long ativas;
+        private long inativas;
+        private long saldoTotal;
+
+        Acumulador(int quantidadeMaiores) {
+            this.quantidadeMaiores = quantidadeMaiores;
+            this.maiores = new PriorityQueue<>(quantidadeMaiores + 1, POR_SALDO);
+        }
+
+        void adicionar(String numero, String titular, long saldoCentavos, boolean ativa) {
+            if (ativa){
+                ativas++;
+            } else {
+                inativas++;
+            }
+            saldoTotal += saldoCentavos;
+            faixas[faixa(saldoCentavos)]++;
+            if (quantidadeMaiores > 0 && (maiores.size() < quantidadeMaiores
+                    || saldoCentavos > maiores.peek().getSaldoCentavos())){
+                adicionarMaior(new Posicao(numero, titular, saldoCentavos, ativa));
+            }
+        }
+
+        private void adicionarMaior(Posicao posicao) {
+            maiores.add(posicao);
+            if (maiores.size() > quantidadeMaiores){
+                maiores.poll();
+            }
+        }
+
+        void juntar(Acumulador outro) {
+            ativas += outro.ativas;
+            inativas += outro.inativas;
+            saldoTotal += outro.saldoTotal;
+            for (int i = 0; i < FAIXAS; i++){
+                faixas[i] += outro.faixas[i];
+            }
+            for (Posicao posicao : outro.maiores){
+                if (maiores.size() < quantidadeMaiores || posicao.getSaldoCentavos() > maiores.peek().getSaldoCentavos()){
+                    adicionarMaior(posicao);
+                }
+            }
+        }
+
+        RelatorioFechamento concluir(Instant instante, long duracaoNanos) {
+            return new RelatorioFechamento(instante, duracaoNanos, this);
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package service;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Resultado de {@link BancoService#importarContas}: quantas contas foram
+ * criadas, quantas linhas foram rejeitadas e por quê.
+ */
+public final class ResultadoImportacao {
+
+    /** Rejeições guardadas com o motivo; as seguintes só são contadas. */
+    public static final int REJEICOES_GUARDADAS = 1000;
+
+    /**
+     * Uma linha (CSV) ou registro (binário) que não virou conta.
+     */
+    public static final class Rejeicao {
+        private final long linha;
+        private final RuntimeException motivo;
+
+        Rejeicao(long linha, RuntimeException motivo) {
+            this.linha = linha;
+            this.motivo = motivo;
+        }
+
+        /**
+         * @return a linha ou o registro no arquivo, a partir de 1
+         */
+        public long getLinha() {
+            return linha;
+        }
+
+        /**
+         * @return a exceção que {@code criarConta} lançaria (por exemplo
+         *         {@link exception.ValorInvalidoException} para saldo
+         *         negativo), ou uma {@link IllegalArgumentException} para
+         *         uma linha mal formada
+         */
+        public RuntimeException getMotivo() {
+            return motivo;
+        }
+
+        @Override
+        public String toString() {
+            return "linha " + linha + ": " + motivo.getMessage();
+        }
+    }
+
+    private final long lidas;
+    private final long importadas;
+    private final long rejeitadas;
+    private final List<Rejeicao> rejeicoes;
+    private final long duracaoNanos;
+
+    private ResultadoImportacao(long lidas, Acumulador acumulador, long duracaoNanos) {
+        this.lidas = lidas;
+        this.importadas = acumulador.importadas.sum();
+        this.rejeitadas = acumulador.rejeitadas.sum();
+        List<Rejeicao> ordenadas;
+        synchronized (acumulador.rejeicoes){
+            ordenadas = new ArrayList<>(acumulador.rejeicoes);
+        }
+        ordenadas.sort(Comparator.comparingLong(Rejeicao::getLinha));
+        this.rejeicoes = Collections.unmodifiableList(ordenadas);
+        this.duracaoNanos = duracaoNanos;
+    }
+
+    /**
+     * @return linhas ou registros lidos, sem contar cabeçalho e linhas vazias
+     */
+    public long getLidas() {
+        return lidas;
+    }
+
+    public long getImportadas() {
+        return importadas;
+    }
+
+    public long getRejeitadas() {
+        return rejeitadas;
+    }
+
+    /**
+     * @return as primeiras {@value #REJEICOES_GUARDADAS} rejeições, por linha
+     */
+    public List<Rejeicao> getRejeicoes() {
+        return rejeicoes;
+    }
+
+    public long getDuracaoNanos() {
+        return duracaoNanos;
+    }
+
+    @Override
+    public String toString() {
+        return importadas + " contas importadas, " + rejeitadas + " linhas rejeitadas em "
+                + duracaoNanos / 1_000_000 + " ms";
+    }
+
+    /**
+     * Contagens da importação em andamento, somadas pelos lotes em paralelo.
+     */
+    static final class Acumulador {
+        private final LongAdder importadas = new LongAdder();
+        private final LongAdder rejeitadas = new LongAdder();
+        private final List<Rejeicao> rejeicoes = new ArrayList<>();
+
+        void importadas(int quantidade) {
+            importadas.add(quantidade);
+        }
+
+        void rejeitar(long linha, RuntimeException motivo) {
+            rejeitadas.increment();
+            synchronized (rejeicoes){
+                if (rejeicoes.size() < REJEICOES_GUARDADAS){
+                    rejeicoes.add(new Rejeicao(linha, motivo));
+                }
+            }
+        }
+
+        ResultadoImportacao concluir(long lidas, long duracaoNanos) {
+            return new ResultadoImportacao(lidas, this, duracaoNanos);
+        }
+    }
+}
@@ -0,0 +1,151 @@
+package service;
+
+import java.util.function.Consumer;
+
+/**
+ * Roda de tempo hierárquica: itens agendados para um tique, vencidos em
+ * ordem conforme os tiques avançam.
+ * <p>
+ * Cada nível tem 64 baldes. O nível 0 guarda os itens que vencem nos
+ * próximos 64 tiques, um balde por tique; o nível {@code n} guarda os que
+ * vencem até 64<sup>n+1</sup> tiques à frente, um balde para cada 64<sup>n</sup>
+ * tiques. Quando o tique atual entra no intervalo de um balde de nível
+ * acima, os itens dele descem para os níveis de baixo. Agendar é O(1) e
+ * avançar um tique custa O(1) mais os itens que vencem ou descem, nunca o
+ * total de itens guardados. Um vencimento além do alcance dos níveis fica no
+ * último balde alcançável, guardado inteiro, e é reposicionado quando esse
+ * balde desce.
+ * <p>
+ * Cada balde é um par de vetores (item e vencimento) que cresce por
+ * dobra, sem um objeto por item. Não é thread-safe.
+ */
+final class RodaTempo<T> {
+
+    private static final int BITS = 6;
+    private static final int BALDES = 1 << BITS;
+    private static final int MASCARA = BALDES - 1;
+    private static final int NIVEIS = 4;
+    private static final long ALCANCE = 1L << (BITS * NIVEIS);
+    private static final int CAPACIDADE_INICIAL = 8;
+
+    private final Object[][][] itens = new Object[NIVEIS][BALDES][];
+    private final long[][][] vencimentos = new long[NIVEIS][BALDES][];
+    private final int[][] tamanhos = new int[NIVEIS][BALDES];
+    /** O próximo tique a vencer. */
+    private long tique;
+    private long quantidade;
+
+    RodaTempo(long tiqueInicial) {
+        this.tique = tiqueInicial;
+    }
+
+    long getTique() {
+        return tique;
+    }
+
+    long quantidade() {
+        return quantidade;
+    }
+
+    /**
+     * Agenda o item para o tique informado; um tique já passado vence no
+     * próximo avanço.
+     */
+    void agendar(T item, long vencimento) {
+        long posicao = vencimento;
+        long distancia = vencimento - tique;
+        if (distancia < 0){
+            posicao = tique;
+            distancia = 0;
+        } else if (distancia >= ALCANCE){
+            posicao = tique + ALCANCE - 1;
+            distancia = ALCANCE - 1;
+        }
+        int nivel = 0;
+        while (distancia >= 1L << (BITS * (nivel + 1))){
+            nivel++;
+        }
+        incluir(nivel, (int) (posicao >>> (BITS * nivel)) & MASCARA, item, vencimento);
+        quantidade++;
+    }
+
+    /**
+     * Vence o tique atual, entregando seus itens, e passa para o seguinte.
+     * Quem recebe pode agendar de novo durante a entrega.
+     */
+    @SuppressWarnings("unchecked")
+    void avancar(Consumer<? super T> vencidos) {
+        int indice = (int) tique & MASCARA;
+        if (indice == 0){
+            for (int nivel = 1; nivel < NIVEIS; nivel++){
+                int balde = (int) (tique >>> (BITS * nivel)) & MASCARA;
+                descer(nivel, balde);
+                if (balde != 0){
+                    break;
+                }
+            }
+        }
+        Object[] vencidosAgora = itens[0][indice];
+        int tamanho = tamanhos[0][indice];
+        esvaziar(0, indice);
+        quantidade -= tamanho;
+        tique++;
+        for (int i = 0; i < tamanho; i++){
+            vencidos.accept((T) vencidosAgora[i]);
+        }
+    }
+
+    /**
+     * Sem itens guardados, pula direto para o tique informado em vez de
+     * avançar um a um.
+     */
+    void saltarSeVazia(long novoTique) {
+        if (quantidade == 0 && novoTique > tique){
+            tique = novoTique;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void descer(int nivel, int balde) {
+        Object[] descendo = itens[nivel][balde];
+        long[] vencimentosDescendo = vencimentos[nivel][balde];
+        int tamanho = tamanhos[nivel][balde];
+        if (tamanho == 0){
+            return;
+        }
+        esvaziar(nivel, balde);
+        quantidade -= tamanho;
+        for (int i = 0; i < tamanho; i++){
+            agendar((T) descendo[i], vencimentosDescendo[i]);
+        }
+    }
+
+    private void incluir(int nivel, int balde, Object item, long vencimento) {
+        Object[] destino = itens[nivel][balde];
+        int tamanho = tamanhos[nivel][balde];
+        if (destino == null || tamanho == destino.length){
+            int capacidade = destino == null ? CAPACIDADE_INICIAL : destino.length * 2;
+            Object[] novos = new Object[capacidade];
+            long[] novosVencimentos = new long[capacidade];
+            if (destino != null){
+                System.arraycopy(destino, 0, novos, 0, tamanho);
+                System.arraycopy(vencimentos[nivel][balde], 0, novosVencimentos, 0, tamanho);
+            }
+            itens[nivel][balde] = destino = novos;
+            vencimentos[nivel][balde] = novosVencimentos;
+        }
+        destino[tamanho] = item;
+        vencimentos[nivel][balde][tamanho] = vencimento;
+        tamanhos[nivel][balde] = tamanho + 1;
+    }
+
+    /**
+     * Solta os vetores do balde, para que um balde que teve muitos itens não
+     * continue ocupando memória.
+     */
+    private void esvaziar(int nivel, int balde) {
+        itens[nivel][balde] = null;
+        vencimentos[nivel][balde] = null;
+        tamanhos[nivel][balde] = 0;
+    }
+}
@@ -0,0 +1,251 @@
+package service;
+
+import exception.ContaNaoEncontradaException;
+import model.Conta;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongSupplier;
+
+/**
+ * Inativa as contas sem movimento há mais que um prazo (dormência).
+ * <p>
+ * Cada conta acompanhada fica numa {@link RodaTempo} no tique em que vence:
+ * o último movimento (do extrato, veja {@link Conta#getUltimoMovimento()})
+ * mais o prazo, ou o momento em que passou a ser acompanhada mais o prazo se
+ * não tiver movimento. Um movimento não mexe na roda; quando a conta vence,
+ * a varredura olha o último movimento e, se ele for recente, reagenda a
+ * conta para o novo vencimento. Assim as operações não pagam nada e cada
+ * varredura custa as contas que vencem (no máximo uma vez por prazo cada),
+ * não o total de contas.
+ * <p>
+ * As contas vencidas são inativadas por {@link BancoService#inativarConta}
+ * (com journal, métricas e snapshots como uma inativação manual), em lotes
+ * de no máximo {@code loteMaximo} por rodada; entre rodadas a thread da
+ * varredura cede a vez, e nenhuma trava das operações fica presa com ela.
+ * Contas criadas depois da ativação chegam por uma fila sem trava e entram
+ * na roda na rodada seguinte.
+ * <p>
+ * A roda guarda uma referência e um vencimento por conta; no repositório
+ * compacto a referência é uma visão da conta, que fica retida.
+ */
+public final class VarreduraDormencia implements AutoCloseable {
+
+    public static final int LOTE_PADRAO = 1000;
+    /** Espera entre rodadas enquanto há contas vencidas pendentes. */
+    private static final long PAUSA_ENTRE_LOTES_MICROS = 1000;
+    private static final int RESOLUCOES_POR_PRAZO = 1024;
+
+    private final BancoService banco;
+    private final long prazoMillis;
+    private final long resolucaoMillis;
+    private final int loteMaximo;
+    private final LongSupplier relogio;
+
+    private final ConcurrentLinkedQueue<Conta> novas = new ConcurrentLinkedQueue<>();
+    private final ReentrantLock trava = new ReentrantLock();
+    /** Protegidos por {@link #trava}. */
+    private final RodaTempo<Conta> roda;
+    private final ArrayDeque<Conta> vencidas = new ArrayDeque<>();
+    private boolean pendente;
+
+    private final LongAdder inativadas = new LongAdder();
+    private final LongAdder reagendadas = new LongAdder();
+    private volatile ScheduledExecutorService agendador;
+
+    /**
+     * Com resolução de 1/1024 do prazo e lotes de {@value #LOTE_PADRAO}.
+     */
+    public VarreduraDormencia(BancoService banco, Duration prazo) {
+        this(banco, prazo, prazo.dividedBy(RESOLUCOES_POR_PRAZO), LOTE_PADRAO, System::currentTimeMillis);
+    }
+
+    /**
+     * Passa a acompanhar todas as contas ativas do serviço (uma única
+     * passada por elas) e as que forem criadas depois. A varredura só roda
+     * sozinha depois de {@link #iniciar()}.
+     *
+     * @param banco Serviço cujas contas são acompanhadas
+     * @param prazo Tempo sem movimento até a inativação
+     * @param resolucao Precisão dos vencimentos (no mínimo 1 ms)
+     * @param loteMaximo Contas vencidas tratadas por rodada
+     * @param relogio Instante atual, em ms desde 1970; os movimentos usam
+     *                {@link System#currentTimeMillis()}, então um relógio
+     *                adiantado simula a passagem do tempo
+     * @throws IllegalStateException se o serviço já tiver outra varredura
+     */
+    public VarreduraDormencia(BancoService banco, Duration prazo, Duration resolucao, int loteMaximo,
+                              LongSupplier relogio) {
+        if (prazo.isNegative() || prazo.isZero() || loteMaximo <= 0){
+            throw new IllegalArgumentException("Prazo e lote devem ser positivos");
+        }
+        this.banco = banco;
+        this.prazoMillis = prazo.toMillis();
+        this.resolucaoMillis = Math.max(1, resolucao.toMillis());
+        this.loteMaximo = loteMaximo;
+        this.relogio = relogio;
+        long agora = relogio.getAsLong();
+        this.roda = new RodaTempo<>(agora / resolucaoMillis);
+        banco.registrarDormencia(this);
+        trava.lock();
+        try{
+            for (Conta conta : banco.repositorio()){
+                if (conta.isAtiva()){
+                    roda.agendar(conta, tique(Math.max(conta.getUltimoMovimento(), agora) + prazoMillis));
+                }
+            }
+        } finally {
+            trava.unlock();
+        }
+    }
+
+    /**
+     * Começa a varrer numa thread própria, a cada tique da resolução.
+     *
+     * @return esta varredura
+     */
+    public VarreduraDormencia iniciar() {
+        if (agendador == null){
+            agendador = Executors.newSingleThreadScheduledExecutor(tarefa -> {
+                Thread thread = new Thread(tarefa, "banco-dormencia");
+                thread.setDaemon(true);
+                return thread;
+            });
+            agendador.execute(this::rodada);
+        }
+        return this;
+    }
+
+    /**
+     * Uma rodada: inclui as contas criadas desde a anterior, vence os tiques
+     * até agora e trata até {@code loteMaximo} contas vencidas.
+     *
+     * @return quantas contas foram inativadas nesta rodada
+     */
+    public int varrer() {
+        trava.lock();
+        try{
+            long agora = relogio.getAsLong();
+            long tiqueAgora = agora / resolucaoMillis;
+            Conta nova;
+            while ((nova = novas.poll()) != null){
+                roda.agendar(nova, tique(agora + prazoMillis));
+            }
+            roda.saltarSeVazia(tiqueAgora + 1);
+            while (vencidas.size() < loteMaximo && roda.getTique() <= tiqueAgora){
+                roda.avancar(vencidas::addLast);
+            }
+            int inativadasAgora = 0;
+            for (int i = 0; i < loteMaximo && !vencidas.isEmpty(); i++){
+                Conta conta = vencidas.pollFirst();
+                if (!conta.isAtiva()){
+                    // Inativada por outro caminho: deixa de ser acompanhada.
+                    continue;
+                }
+                long vencimento = conta.getUltimoMovimento() + prazoMillis;
+                if (vencimento > agora){
+                    roda.agendar(conta, tique(vencimento));
+                    reagendadas.increment();
+                    continue;
+                }
+                try{
+                    banco.inativarConta(conta.getNumero());
+                    inativadasAgora++;
+                } catch (ContaNaoEncontradaException e) {
+                    // Não está mais no repositório.
+                } catch (RuntimeException e) {
+                    vencidas.addFirst(conta);
+                    throw e;
+                }
+            }
+            inativadas.add(inativadasAgora);
+            pendente = !vencidas.isEmpty() || roda.getTique() <= tiqueAgora;
+            return inativadasAgora;
+        } finally {
+            trava.unlock();
+        }
+    }
+
+    /**
+     * @return contas inativadas por dormência desde a criação
+     */
+    public long getInativadas() {
+        return inativadas.sum();
+    }
+
+    /**
+     * @return contas que venceram na roda mas tinham movimento recente
+     */
+    public long getReagendadas() {
+        return reagendadas.sum();
+    }
+
+    /**
+     * @return contas acompanhadas (as que ainda não entraram na roda não contam)
+     */
+    public long getAcompanhadas() {
+        trava.lock();
+        try{
+            return roda.quantidade() + vencidas.size();
+        } finally {
+            trava.unlock();
+        }
+    }
+
+    /**
+     * Deixa de acompanhar as contas novas e para a thread da varredura.
+     */
+    @Override
+    public void close() {
+        banco.removerDormencia(this);
+        ScheduledExecutorService atual = agendador;
+        if (atual != null){
+            atual.shutdown();
+            try{
+                atual.awaitTermination(1, TimeUnit.MINUTES);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Chamado pelo serviço para cada conta criada.
+     */
+    void acompanhar(Conta conta) {
+        novas.add(conta);
+    }
+
+    private long tique(long instanteMillis) {
+        return (instanteMillis + resolucaoMillis - 1) / resolucaoMillis;
+    }
+
+    private void rodada() {
+        boolean maisAgora;
+        try{
+            varrer();
+            trava.lock();
+            try{
+                maisAgora = pendente;
+            } finally {
+                trava.unlock();
+            }
+        } catch (RuntimeException e) {
+            // A conta volta para a fila e é tentada na próxima rodada.
+            maisAgora = false;
+        }
+        try{
+            agendador.schedule(this::rodada, maisAgora ? PAUSA_ENTRE_LOTES_MICROS : resolucaoMillis * 1000,
+                    TimeUnit.MICROSECONDS);
+        } catch (RejectedExecutionException e) {
+            // Fechada.
+        }
+    }
+}
@@ -0,0 +1,435 @@
+package servidor;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import exception.ContaNaoEncontradaException;
+import exception.ValorInvalidoException;
+import metricas.MetricasBanco;
+import model.Conta;
+import model.Moeda;
+import model.ResultadoOperacao;
+import persistencia.Journal;
+import persistencia.PoliticaSincronizacao;
+import service.BancoService;
+import service.CacheIdempotencia;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.InvocationTargetException;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Expõe o {@link BancoService} por HTTP, com o servidor embutido do JDK.
+ * <p>
+ * A thread do servidor só lê a requisição, passa pela admissão e entrega a
+ * operação a uma thread de trabalho; a resposta é enviada por quem terminar
+ * primeiro, a operação ou o tempo limite. Assim uma operação esperando o
+ * journal ocupa só a sua thread de trabalho.
+ * <ul>
+ *   <li>Threads de trabalho: uma thread virtual por operação quando a JVM
+ *       oferece (Java 21+); senão, threads comuns com pilha pequena, criadas
+ *       sob demanda. Em ambos os casos o número de threads é limitado pela
+ *       admissão.</li>
+ *   <li>Admissão: um {@link Semaphore} com o número máximo de operações em
+ *       andamento. Sem vaga, a resposta é 503 imediatamente.</li>
+ *   <li>Tempo limite: se a operação não terminar no prazo, a resposta é 504.
+ *       A operação não é interrompida e pode ainda ser aplicada; a vaga só é
+ *       devolvida quando ela termina.</li>
+ * </ul>
+ * Rotas (parâmetros na query string, resposta em texto):
+ * <pre>
+ * POST /contas?numero=001&amp;titular=Ana&amp;saldo=100.00
+ * POST /depositos?conta=001&amp;valor=10.00
+ * POST /saques?conta=001&amp;valor=10.00
+ * POST /transferencias?origem=001&amp;destino=002&amp;valor=10.00
+ * GET  /saldo?conta=001
+ * GET  /status
+ * GET  /metricas
+ * </pre>
+ * As rotas POST aceitam o cabeçalho {@code Idempotency-Key}: repetir a
+ * requisição com a mesma chave (por exemplo depois de um 504) devolve o
+ * resultado da primeira execução em vez de aplicar a operação de novo; se o
+ * cache de chaves estiver sem espaço, a resposta é 503.
+ * {@code /metricas} devolve as métricas do serviço no formato texto do
+ * Prometheus (404 se o serviço não as ativou).
+ */
+public class ServidorBanco implements AutoCloseable {
+
+    private static final int PILHA_THREAD_COMUM = 256 * 1024;
+    /** Maior valor em reais que um saldo comporta; acima disso os centavos não são representáveis. */
+    private static final double VALOR_MAXIMO = Moeda.paraReais(Conta.SALDO_MAXIMO_CENTAVOS);
+
+    static {
+        // O servidor do JDK grava cabeçalhos e corpo em escritas separadas; com
+        // o algoritmo de Nagle ligado, a segunda espera o ACK atrasado do
+        // cliente e cada resposta leva ~40 ms. Precisa valer antes do primeiro
+        // HttpServer da JVM.
+        if (System.getProperty("sun.net.httpserver.nodelay") == null){
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+        }
+    }
+
+    private final BancoService banco;
+    private final HttpServer servidor;
+    private final ExecutorService trabalho;
+    private final boolean threadsVirtuais;
+    private final ScheduledThreadPoolExecutor relogio;
+    private final Semaphore admissao;
+    private final long tempoLimiteMillis;
+
+    private final AtomicInteger emAndamento = new AtomicInteger();
+    private final AtomicInteger picoEmAndamento = new AtomicInteger();
+    private final LongAdder concluidas = new LongAdder();
+    private final LongAdder recusadasNaAdmissao = new LongAdder();
+    private final LongAdder expiradas = new LongAdder();
+
+    /**
+     * @param banco Serviço a expor
+     * @param porta Porta TCP (0 para escolher uma livre)
+     * @param limiteEmAndamento Máximo de operações em andamento ao mesmo tempo
+     * @param tempoLimiteMillis Prazo de cada operação
+     * @throws IOException se a porta não puder ser aberta
+     */
+    public ServidorBanco(BancoService banco, int porta, int limiteEmAndamento, long tempoLimiteMillis)
+            throws IOException {
+        this.banco = banco;
+        this.admissao = new Semaphore(limiteEmAndamento);
+        this.tempoLimiteMillis = tempoLimiteMillis;
+        ExecutorService virtual = executorVirtual();
+        this.threadsVirtuais = virtual != null;
+        this.trabalho = virtual != null ? virtual : Executors.newCachedThreadPool(new FabricaThreads());
+        this.relogio = new ScheduledThreadPoolExecutor(1, tarefa -> {
+            Thread thread = new Thread(tarefa, "banco-http-relogio");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.relogio.setRemoveOnCancelPolicy(true);
+        this.servidor = HttpServer.create(new InetSocketAddress(porta), limiteEmAndamento);
+        this.servidor.createContext("/", this::receber);
+    }
+
+    public void iniciar() {
+        servidor.start();
+    }
+
+    public int getPorta() {
+        return servidor.getAddress().getPort();
+    }
+
+    public boolean isThreadsVirtuais() {
+        return threadsVirtuais;
+    }
+
+    public int getEmAndamento() {
+        return emAndamento.get();
+    }
+
+    public int getPicoEmAndamento() {
+        return picoEmAndamento.get();
+    }
+
+    /**
+     * Para de aceitar requisições e espera as operações em andamento.
+     */
+    @Override
+    public void close() {
+        servidor.stop(0);
+        trabalho.shutdown();
+        try{
+            trabalho.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        relogio.shutdownNow();
+    }
+
+    /**
+     * Roda na thread do servidor: não pode bloquear.
+     */
+    private void receber(HttpExchange troca) {
+        String caminho = troca.getRequestURI().getPath();
+        Map<String, String> parametros = parametros(troca.getRequestURI().getRawQuery());
+        if (caminho.equals("/status")){
+            responder(troca, 200, status());
+            return;
+        }
+        if (caminho.equals("/metricas")){
+            MetricasBanco metricas = banco.getMetricas();
+            if (metricas == null){
+                responder(troca, 404, "métricas desativadas");
+            } else {
+                responder(troca, 200, metricas.texto());
+            }
+            return;
+        }
+        String chave = troca.getRequestHeaders().getFirst("Idempotency-Key");
+        Callable<Resposta> operacao = operacao(troca.getRequestMethod(), caminho, parametros, chave);
+        if (operacao == null){
+            responder(troca, 404, "rota desconhecida: " + troca.getRequestMethod() + " " + caminho);
+            return;
+        }
+        if (!admissao.tryAcquire()){
+            recusadasNaAdmissao.increment();
+            troca.getResponseHeaders().set("Retry-After", "1");
+            responder(troca, 503, "limite de operações em andamento atingido");
+            return;
+        }
+        registrarEntrada();
+        AtomicBoolean respondida = new AtomicBoolean();
+        ScheduledFuture<?> prazo = relogio.schedule(() -> {
+            if (respondida.compareAndSet(false, true)){
+                expiradas.increment();
+                responder(troca, 504, "tempo limite de " + tempoLimiteMillis + " ms esgotado; a operação pode ter sido aplicada");
+            }
+        }, tempoLimiteMillis, TimeUnit.MILLISECONDS);
+        try{
+            trabalho.execute(() -> executar(troca, operacao, respondida, prazo));
+        } catch (RejectedExecutionException e) {
+            prazo.cancel(false);
+            registrarSaida();
+            if (respondida.compareAndSet(false, true)){
+                responder(troca, 503, "servidor encerrando");
+            }
+        }
+    }
+
+    private void executar(HttpExchange troca, Callable<Resposta> operacao, AtomicBoolean respondida,
+                          ScheduledFuture<?> prazo) {
+        Resposta resposta;
+        try{
+            resposta = operacao.call();
+        } catch (ContaNaoEncontradaException e) {
+            resposta = new Resposta(404, ResultadoOperacao.CONTA_NAO_ENCONTRADA.name());
+        } catch (ValorInvalidoException e) {
+            resposta = new Resposta(400, ResultadoOperacao.VALOR_INVALIDO.name());
+        } catch (RejectedExecutionException e) {
+            // Cache de idempotência sem espaço: passa assim que a chave mais antiga terminar.
+            resposta = new Resposta(503, String.valueOf(e.getMessage()));
+        } catch (IllegalArgumentException e) {
+            resposta = new Resposta(400, String.valueOf(e.getMessage()));
+        } catch (Exception e) {
+            resposta = new Resposta(500, e.getClass().getSimpleName() + ": " + e.getMessage());
+        } finally {
+            registrarSaida();
+        }
+        prazo.cancel(false);
+        if (respondida.compareAndSet(false, true)){
+            concluidas.increment();
+            if (resposta.status == 503){
+                troca.getResponseHeaders().set("Retry-After", "1");
+            }
+            responder(troca, resposta.status, resposta.corpo);
+        }
+    }
+
+    private Callable<Resposta> operacao(String metodo, String caminho, Map<String, String> p, String chave) {
+        if (metodo.equals("GET") && caminho.equals("/saldo")){
+            return () -> new Resposta(200, Moeda.formatar(banco.buscarConta(obrigatorio(p, "conta")).getSaldoCentavos()));
+        }
+        if (!metodo.equals("POST")){
+            return null;
+        }
+        switch (caminho){
+            case "/contas":
+                return () -> {
+                    banco.criarConta(chave, obrigatorio(p, "numero"), obrigatorio(p, "titular"), valor(p, "saldo"));
+                    return new Resposta(201, ResultadoOperacao.SUCESSO.name());
+                };
+            case "/depositos":
+                return () -> resposta(banco.tentarDepositar(chave, obrigatorio(p, "conta"), valor(p, "valor")));
+            case "/saques":
+                return () -> resposta(banco.tentarSacar(chave, obrigatorio(p, "conta"), valor(p, "valor")));
+            case "/transferencias":
+                return () -> resposta(banco.tentarTransferir(chave, obrigatorio(p, "origem"), obrigatorio(p, "destino"),
+                        valor(p, "valor")));
+            default:
+                return null;
+        }
+    }
+
+    private static Resposta resposta(ResultadoOperacao resultado) {
+        switch (resultado){
+            case SUCESSO:
+                return new Resposta(200, resultado.name());
+            case VALOR_INVALIDO:
+                return new Resposta(400, resultado.name());
+            case CONTA_NAO_ENCONTRADA:
+                return new Resposta(404, resultado.name());
+            case LIMITE_EXCEDIDO:
+                return new Resposta(429, resultado.name());
+            default:
+                return new Resposta(409, resultado.name());
+        }
+    }
+
+    private String status() {
+        String status = "threadsVirtuais=" + threadsVirtuais
+                + "\nemAndamento=" + emAndamento.get()
+                + "\npicoEmAndamento=" + picoEmAndamento.get()
+                + "\nconcluidas=" + concluidas.sum()
+                + "\nrecusadasNaAdmissao=" + recusadasNaAdmissao.sum()
+                + "\nexpiradas=" + expiradas.sum() + "\n";
+        CacheIdempotencia idempotencia = banco.getIdempotencia();
+        if (idempotencia != null){
+            status += "idempotencia.chaves=" + idempotencia.getQuantidade()
+                    + "\nidempotencia.acertos=" + idempotencia.getAcertos()
+                    + "\nidempotencia.faltas=" + idempotencia.getFaltas()
+                    + "\nidempotencia.despejos=" + idempotencia.getDespejos()
+                    + "\nidempotencia.recusas=" + idempotencia.getRecusas()
+                    + "\nidempotencia.expiradas=" + idempotencia.getExpiradas() + "\n";
+        }
+        return status;
+    }
+
+    private void registrarEntrada() {
+        int atual = emAndamento.incrementAndGet();
+        int pico;
+        while (atual > (pico = picoEmAndamento.get()) && !picoEmAndamento.compareAndSet(pico, atual)){
+            // outra thread atualizou o pico; tenta de novo
+        }
+    }
+
+    private void registrarSaida() {
+        emAndamento.decrementAndGet();
+        admissao.release();
+    }
+
+    private static void responder(HttpExchange troca, int status, String corpo) {
+        byte[] bytes = (corpo + "\n").getBytes(StandardCharsets.UTF_8);
+        troca.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        try (OutputStream saida = troca.getResponseBody()) {
+            troca.sendResponseHeaders(status, bytes.length);
+            saida.write(bytes);
+        } catch (IOException e) {
+            // o cliente desistiu; não há a quem responder
+        } finally {
+            troca.close();
+        }
+    }
+
+    private static Map<String, String> parametros(String query) {
+        Map<String, String> parametros = new HashMap<>();
+        if (query == null || query.isEmpty()){
+            return parametros;
+        }
+        for (String par : query.split("&")){
+            int igual = par.indexOf('=');
+            if (igual > 0){
+                parametros.put(URLDecoder.decode(par.substring(0, igual), StandardCharsets.UTF_8),
+                        URLDecoder.decode(par.substring(igual + 1), StandardCharsets.UTF_8));
+            }
+        }
+        return parametros;
+    }
+
+    private static String obrigatorio(Map<String, String> parametros, String nome) {
+        String valor = parametros.get(nome);
+        if (valor == null || valor.isEmpty()){
+            throw new IllegalArgumentException("parâmetro obrigatório: " + nome);
+        }
+        return valor;
+    }
+
+    /**
+     * @throws IllegalArgumentException (400) se o parâmetro não for um número
+     *         finito dentro do que um saldo comporta, como NaN, Infinity ou 1e300
+     */
+    private static double valor(Map<String, String> parametros, String nome) {
+        double valor;
+        try{
+            valor = Double.parseDouble(obrigatorio(parametros, nome));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("valor inválido em " + nome + ": " + parametros.get(nome));
+        }
+        if (!Double.isFinite(valor) || Math.abs(valor) > VALOR_MAXIMO){
+            throw new IllegalArgumentException("valor fora do intervalo em " + nome + ": " + parametros.get(nome));
+        }
+        return valor;
+    }
+
+    /**
+     * {@code Executors.newVirtualThreadPerTaskExecutor()} por reflexão, para
+     * que o projeto continue compilando e rodando no Java 17.
+     *
+     * @return o executor, ou null se a JVM não tiver threads virtuais
+     */
+    private static ExecutorService executorVirtual() {
+        try{
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (NoSuchMethodException | IllegalAccessException e) {
+            return null;
+        } catch (InvocationTargetException e) {
+            // Java 19 e 20 sem --enable-preview
+            return null;
+        }
+    }
+
+    private static final class FabricaThreads implements ThreadFactory {
+        private final AtomicInteger contador = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable tarefa) {
+            Thread thread = new Thread(null, tarefa, "banco-http-" + contador.incrementAndGet(), PILHA_THREAD_COMUM);
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+
+    private static final class Resposta {
+        private final int status;
+        private final String corpo;
+
+        private Resposta(int status, String corpo) {
+            this.status = status;
+            this.corpo = corpo;
+        }
+    }
+
+    /**
+     * Uso: {@code java servidor.ServidorBanco [porta] [limiteEmAndamento] [tempoLimiteMillis] [arquivoJournal]}
+     * <p>
+     * Sem arquivo de journal o serviço fica só em memória. Com journal, cada
+     * operação espera o fsync do seu lote ({@code A_CADA_OPERACAO}). As
+     * métricas ficam ligadas, em {@code /metricas} e no JMX.
+     */
+    public static void main(String[] args) throws IOException {
+        int porta = args.length > 0 ? Integer.parseInt(args[0]) : 8080;
+        int limite = args.length > 1 ? Integer.parseInt(args[1]) : 20_000;
+        long tempoLimite = args.length > 2 ? Long.parseLong(args[2]) : 5_000;
+        Journal journal = args.length > 3
+                ? Journal.abrir(Path.of(args[3]), PoliticaSincronizacao.A_CADA_OPERACAO, 0) : null;
+        BancoService banco = journal == null ? new BancoService() : new BancoService(journal);
+        banco.ativarMetricas().registrarJmx("banco");
+        ServidorBanco servidor = new ServidorBanco(banco, porta, limite, tempoLimite);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            servidor.close();
+            if (journal != null){
+                try{
+                    journal.close();
+                } catch (IOException e) {
+                    System.err.println("Falha ao fechar o journal: " + e.getMessage());
+                }
+            }
+        }));
+        servidor.iniciar();
+        System.out.println("ServidorBanco na porta " + servidor.getPorta() + " (threads virtuais: "
+                + servidor.isThreadsVirtuais() + ", limite " + limite + ", prazo " + tempoLimite + " ms)");
+    }
+}